@@ -0,0 +1,79 @@
+package tech.greenfield.aws.route53.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.route53.model.*;
+import tech.greenfield.aws.route53.BatchChangesByName;
+import tech.greenfield.aws.route53.NoIpException;
+import tech.greenfield.aws.route53.Route53Message;
+
+/**
+ * Computation of Route53 change batches for auto scaling groups of different sizes, with the existing record
+ * sets supplied by a stub lookup so only the computation itself is measured:
+ * <ul>
+ * <li>adding a launched instance to record sets holding the rest of the group</li>
+ * <li>rebuilding the record sets from all the group's instances (the "no IP" fallback)</li>
+ * <li>removing a terminated instance from record sets holding the whole group</li>
+ * <li>merging per-instance upserts to one change per record set, with {@link BatchChangesByName}</li>
+ * </ul>
+ *
+ * Run with {@code -prof gc} to see the allocation rate per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChangeBenchmark {
+
+	@Param({ "1", "10", "100", "1000" })
+	public int asgSize;
+
+	private Route53Message message;
+	private List<Instance> group;
+	private List<Instance> launched;
+	private Route53Message.RecordSetLookup othersRegistered;
+	private Route53Message.RecordSetLookup allRegistered;
+	private Route53Message.RecordSetLookup noneRegistered;
+	private List<Change> perInstanceUpserts;
+
+	@Setup
+	public void setup() {
+		message = Payloads.lifecycleMessage();
+		group = Payloads.instances(asgSize);
+		launched = List.of(group.get(group.size() - 1));
+		othersRegistered = Payloads.lookup(Payloads.registered(group.subList(0, group.size() - 1)));
+		allRegistered = Payloads.lookup(Payloads.registered(group));
+		noneRegistered = Payloads.lookup(Payloads.registered(List.of()));
+		perInstanceUpserts = new ArrayList<>();
+		for (Instance i : group)
+			Payloads.registered(List.of(i)).values().forEach(rr -> perInstanceUpserts.add(
+					Change.builder().action(ChangeAction.UPSERT).resourceRecordSet(rr).build()));
+	}
+
+	@Benchmark
+	public ChangeBatch upsertLaunchedInstance() throws NoIpException {
+		return message.getUpsertChanges(othersRegistered, launched);
+	}
+
+	@Benchmark
+	public ChangeBatch upsertAllInstances() throws NoIpException {
+		return message.getUpsertChanges(noneRegistered, group);
+	}
+
+	@Benchmark
+	public ChangeBatch removeTerminatedInstance() throws NoIpException {
+		return message.getRemoveChanges(allRegistered, group.get(0));
+	}
+
+	@Benchmark
+	public List<Change> batchChangesByName() {
+		return perInstanceUpserts.stream().collect(new BatchChangesByName());
+	}
+}
@@ -0,0 +1,62 @@
+package tech.greenfield.aws.route53.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.amazonaws.services.lambda.runtime.events.SNSEvent;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import software.amazon.awssdk.services.sqs.model.Message;
+import tech.greenfield.aws.route53.Metadata;
+import tech.greenfield.aws.route53.ParsingException;
+import tech.greenfield.aws.route53.Route53Message;
+import tech.greenfield.aws.route53.SRVTemplate;
+
+/**
+ * Parsing of incoming notifications: building a {@link Route53Message} from SNS and SQS payloads, and its
+ * parts - deserializing the notification {@link Metadata} and parsing SRV templates.
+ *
+ * Run with {@code -prof gc} to see the allocation rate per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageBenchmark {
+
+	private final SNSEvent.SNSRecord sns = Payloads.snsRecord();
+	private final Message sqs = Payloads.sqsMessage();
+	/** configured like the mapper {@link Route53Message} reads the metadata with */
+	private final ObjectMapper mapper = new ObjectMapper()
+			.configure(MapperFeature.ACCEPT_CASE_INSENSITIVE_PROPERTIES, true)
+			.configure(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY, true);
+	private final List<String> srvRecords = List.of("1:1:5060:_sip._udp.app.example.com",
+			"1:1:5060:_sip._tcp.app.example.com", "2:1:5061:_sips._tcp.app.example.com.");
+
+	@Benchmark
+	public Route53Message parseSnsRecord() throws ParsingException {
+		return new Route53Message(sns);
+	}
+
+	@Benchmark
+	public Route53Message parseSqsMessage() throws ParsingException {
+		return new Route53Message(sqs);
+	}
+
+	@Benchmark
+	public Metadata deserializeMetadata() throws IOException {
+		return mapper.readValue(Payloads.METADATA, Metadata.class);
+	}
+
+	@Benchmark
+	public List<SRVTemplate> parseSrvTemplates() {
+		return SRVTemplate.parse(srvRecords);
+	}
+}
@@ -0,0 +1,105 @@
+package tech.greenfield.aws.route53.benchmarks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import com.amazonaws.services.lambda.runtime.events.SNSEvent;
+
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.route53.model.*;
+import software.amazon.awssdk.services.sqs.model.Message;
+import tech.greenfield.aws.route53.Route53Message;
+import tech.greenfield.aws.route53.Tools;
+
+/**
+ * Benchmark fixtures: notification payloads, auto scaling group instances and the record sets Route53 would
+ * hold for them.
+ */
+final class Payloads {
+
+	/** Lifecycle hook notification, as delivered through SNS (or SNS to SQS), with a DNSRR and an SRV record */
+	static final String LIFECYCLE_NOTIFICATION = read("priming/lifecycle-launching.json");
+	/** Notification metadata with several records of each kind */
+	static final String METADATA = "{\"DNSRR_RECORD\":[\"app.example.com\",\"all.example.com\"],"
+			+ "\"DNSRR4_RECORD\":\"app4.example.com\",\"DNSRR6_RECORD\":\"app6.example.com\","
+			+ "\"SRV_RECORD\":[\"1:1:5060:_sip._udp.app.example.com\",\"1:1:5060:_sip._tcp.app.example.com\","
+			+ "\"2:1:5061:_sips._tcp.app.example.com\"],\"PRIVATE\":true}";
+
+	private Payloads() {}
+
+	static SNSEvent.SNSRecord snsRecord() {
+		return new SNSEvent.SNSRecord().withSns(new SNSEvent.SNS().withMessage(LIFECYCLE_NOTIFICATION));
+	}
+
+	static Message sqsMessage() {
+		return Message.builder().messageId(UUID.randomUUID().toString()).receiptHandle("receipt")
+				.body(LIFECYCLE_NOTIFICATION).build();
+	}
+
+	static Route53Message lifecycleMessage() {
+		try {
+			return new Route53Message(snsRecord());
+		} catch (Exception e) {
+			throw new IllegalStateException("Failed to parse the lifecycle notification", e);
+		}
+	}
+
+	/**
+	 * @param count number of instances
+	 * @return instances with distinct addresses, numbered from 1
+	 */
+	static List<Instance> instances(int count) {
+		return IntStream.rangeClosed(1, count).mapToObj(Payloads::instance).collect(Collectors.toList());
+	}
+
+	static Instance instance(int n) {
+		String ip = "198.51." + (n >> 8 & 0xff) + "." + (n & 0xff);
+		return Instance.builder().instanceId(String.format("i-%017x", n))
+				.publicIpAddress(ip).privateIpAddress("10.0." + (n >> 8 & 0xff) + "." + (n & 0xff))
+				.publicDnsName("ec2-" + ip.replace('.', '-') + ".compute-1.amazonaws.com")
+				.build();
+	}
+
+	/**
+	 * Record sets of the lifecycle notification's records (one per record type), as they would be after
+	 * registering the specified instances
+	 * @param instances registered instances
+	 * @return record sets by type
+	 */
+	static Map<RRType, ResourceRecordSet> registered(List<Instance> instances) {
+		Map<RRType, ResourceRecordSet> sets = new EnumMap<>(RRType.class);
+		sets.put(RRType.A, ResourceRecordSet.builder().name("priming.example.com.").type(RRType.A).ttl(300L)
+				.resourceRecords(instances.stream().map(i -> ResourceRecord.builder().value(i.publicIpAddress()).build())
+						.collect(Collectors.toList()))
+				.build());
+		sets.put(RRType.SRV, ResourceRecordSet.builder().name("_sip._udp.priming.example.com.").type(RRType.SRV).ttl(300L)
+				.resourceRecords(instances.stream().map(i -> ResourceRecord.builder().value("1 1 5060 " + i.publicDnsName()).build())
+						.collect(Collectors.toList()))
+				.build());
+		return sets;
+	}
+
+	/**
+	 * @param sets existing record sets by type
+	 * @return a lookup answering from the record sets, without calling Route53
+	 */
+	static Route53Message.RecordSetLookup lookup(Map<RRType, ResourceRecordSet> sets) {
+		return keys -> {
+			List<ResourceRecordSet> res = new ArrayList<>(keys.size());
+			for (ResourceRecordSet key : keys)
+				res.add(sets.get(key.type()));
+			return res;
+		};
+	}
+
+	private static String read(String resource) {
+		try {
+			return Tools.readResource(resource);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
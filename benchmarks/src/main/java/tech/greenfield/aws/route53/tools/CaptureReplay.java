@@ -0,0 +1,211 @@
+package tech.greenfield.aws.route53.tools;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.services.lambda.runtime.events.SNSEvent;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import tech.greenfield.aws.Clients;
+import tech.greenfield.aws.ExecutionMode;
+import tech.greenfield.aws.capture.EventCapture;
+import tech.greenfield.aws.fake.FakeAwsServer;
+import tech.greenfield.aws.logging.Logging;
+import tech.greenfield.aws.metrics.Metrics;
+import tech.greenfield.aws.route53.NotifyRecordsSns;
+import tech.greenfield.aws.route53.NotifyRecordsSqs;
+import tech.greenfield.aws.tracing.Span;
+import tech.greenfield.aws.tracing.Tracer;
+
+/**
+ * Replay notifications captured by {@link EventCapture} through the handlers that received them, against a
+ * {@link FakeAwsServer} that propagates Route53 changes with a delay and throttles Route53 requests like Route53 does -
+ * to reproduce a production storm offline, and compare the performance of changes before deploying them.
+ *
+ * The notifications are delivered at their captured arrival times, sped up by the {@code speed} factor: {@code 1}
+ * keeps the original timing, {@code 10} delivers them ten times faster and {@code 0} delivers them all at once. Each
+ * SNS notification is handled by its own invocation of the SNS handler, with up to {@code concurrency} invocations at
+ * the same time, like concurrent Lambda instances. SQS notifications are sent to a fake queue, which
+ * {@code concurrency} SQS handler instances keep being invoked on until it is empty. A notification that was captured
+ * more than once - delivered again by SNS or SQS - is replayed once. The fake EC2 describes the instances with
+ * generated addresses.
+ *
+ * The latency of an event is measured from its delivery until it was successfully handled, matched to the delivery
+ * by the instance ID in its trace. API calls and throttles are counted by the fake server. Settings are read from the
+ * environment as usual, e.g. {@code EXECUTION_MODE} or {@code AGGREGATION_WINDOW}. Requires the HOSTED_ZONE_ID
+ * environment variable to be set (to any value).
+ *
+ * Usage: {@code CaptureReplay <capture-file-or-dir> [speed] [concurrency] [propagation-ms] [route53-requests-per-second]}
+ */
+public class CaptureReplay {
+
+	private static final Logger log = LoggerFactory.getLogger(CaptureReplay.class.getName());
+	private static final ObjectMapper mapper = new ObjectMapper();
+	private static final long REPLAY_TIMEOUT = TimeUnit.MINUTES.toMillis(60);
+
+	/**
+	 * A notification delivered to the handlers
+	 */
+	private static class Delivery {
+		final EventCapture.Entry entry;
+		final String instanceId;
+		long deliveredAt;
+
+		Delivery(EventCapture.Entry entry) {
+			this.entry = entry;
+			this.instanceId = instanceId(entry.body);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: CaptureReplay <capture-file-or-dir> [speed] [concurrency] [propagation-ms] "
+					+ "[route53-requests-per-second]");
+			System.exit(1);
+		}
+		double speed = args.length > 1 ? Double.parseDouble(args[1]) : 1;
+		int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+		long propagation = args.length > 3 ? Long.parseLong(args[3]) : 2000;
+		double rateLimit = args.length > 4 ? Double.parseDouble(args[4]) : 5;
+		List<Delivery> deliveries = new ArrayList<>();
+		Set<String> seen = new HashSet<>();
+		for (EventCapture.Entry entry : EventCapture.read(List.of(Paths.get(args[0]))))
+			if (Objects.isNull(entry.id) || seen.add(entry.source + "/" + entry.id))
+				deliveries.add(new Delivery(entry));
+		if (deliveries.isEmpty()) {
+			System.err.println("No notifications captured in " + args[0]);
+			System.exit(1);
+		}
+		AppCdsTraining.useFakeCredentials();
+		Metrics.setOutput(line -> {});
+		EventCapture.set(null); // don't capture the replayed notifications again
+		Map<String, List<Span>> handled = new ConcurrentHashMap<>();
+		Tracer.setExporter(spans -> {
+			for (Span span : spans)
+				if (Objects.isNull(span.parentSpanId()) && span.name().equals("Route53Update") &&
+						span.status() == Span.Status.OK && span.attributes().containsKey("ec2.instance_id"))
+					handled.computeIfAbsent(span.attributes().get("ec2.instance_id").toString(),
+							i -> Collections.synchronizedList(new ArrayList<>())).add(span);
+		});
+		System.out.printf("%d notifications over %.1fs, speed %s, %d concurrent invocations, %s mode, %dms propagation, "
+				+ "%.1f Route53 requests/s%n", deliveries.size(),
+				(deliveries.get(deliveries.size() - 1).entry.time - deliveries.get(0).entry.time) / 1000.0,
+				speed > 0 ? speed + "x" : "unlimited", concurrency, ExecutionMode.current(), propagation, rateLimit);
+		try (FakeAwsServer aws = new FakeAwsServer()) {
+			aws.route53().setPropagationDelay(Duration.ofMillis(propagation));
+			aws.route53().setRateLimit(rateLimit);
+			Clients.setEndpointOverride(aws.endpoint());
+			String queue = aws.sqs().createQueue("replay");
+			NotifyRecordsSqs.setQueueUrl(queue);
+			long started = System.currentTimeMillis();
+			replay(aws, queue, deliveries, speed, concurrency);
+			report(aws, deliveries, handled, started);
+		} finally {
+			Clients.setEndpointOverride(null);
+			NotifyRecordsSqs.setQueueUrl(null);
+			Tracer.setExporter(null);
+		}
+		Logging.flush();
+		System.exit(0);
+	}
+
+	private static void replay(FakeAwsServer aws, String queue, List<Delivery> deliveries, double speed,
+			int concurrency) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + REPLAY_TIMEOUT;
+		ThreadLocal<NotifyRecordsSns> snsHandlers = ThreadLocal.withInitial(NotifyRecordsSns::new);
+		ExecutorService sns = Executors.newFixedThreadPool(concurrency);
+		ExecutorService sqs = Executors.newFixedThreadPool(concurrency);
+		AtomicBoolean delivering = new AtomicBoolean(true);
+		if (deliveries.stream().anyMatch(d -> d.entry.source == EventCapture.Source.SQS))
+			for (int i = 0; i < concurrency; i++)
+				sqs.execute(() -> {
+					NotifyRecordsSqs handler = new NotifyRecordsSqs();
+					while ((delivering.get() || aws.sqs().size(queue) > 0) && System.currentTimeMillis() < deadline)
+						handler.handleRequest(new SNSEvent(), new ScaleStormBenchmark.StormContext());
+				});
+		long first = deliveries.get(0).entry.time, start = System.currentTimeMillis();
+		for (Delivery d : deliveries) {
+			long wait = speed > 0 ? start + (long) ((d.entry.time - first) / speed) - System.currentTimeMillis() : 0;
+			if (wait > 0)
+				Thread.sleep(wait);
+			d.deliveredAt = System.currentTimeMillis();
+			if (d.entry.source == EventCapture.Source.SNS)
+				sns.execute(() -> snsHandlers.get().handleRequest(new SNSEvent().withRecords(List.of(
+						new SNSEvent.SNSRecord().withSns(new SNSEvent.SNS().withMessageId(d.entry.id)
+								.withMessage(d.entry.body)))), new ScaleStormBenchmark.StormContext()));
+			else
+				aws.sqs().send(queue, d.entry.body);
+		}
+		sns.shutdown();
+		if (!sns.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS))
+			log.error("Timed out waiting for the SNS notifications to be handled");
+		delivering.set(false);
+		sqs.shutdown();
+		if (!sqs.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS))
+			log.error("Timed out waiting for the SQS notifications to be handled");
+	}
+
+	/**
+	 * Match each delivery to the first successful handling of its instance's events that ended after it was
+	 * delivered and wasn't matched to an earlier delivery, and print the latencies and API calls
+	 */
+	private static void report(FakeAwsServer aws, List<Delivery> deliveries, Map<String, List<Span>> handled,
+			long started) {
+		Map<String, Deque<Span>> byInstance = new HashMap<>();
+		handled.forEach((instance, spans) -> {
+			List<Span> sorted = new ArrayList<>(spans);
+			sorted.sort(Comparator.comparingLong(Span::endEpochNanos));
+			byInstance.put(instance, new ArrayDeque<>(sorted));
+		});
+		Histogram latency = new Histogram(3);
+		int unmatched = 0;
+		for (Delivery d : deliveries) {
+			Deque<Span> spans = byInstance.getOrDefault(d.instanceId, new ArrayDeque<>());
+			while (!spans.isEmpty() && spans.peekFirst().endEpochNanos() / 1000000 < d.deliveredAt)
+				spans.pollFirst(); // handled again, e.g. a notification that wasn't captured
+			Span span = spans.pollFirst();
+			if (Objects.isNull(span)) {
+				unmatched++;
+				continue;
+			}
+			latency.recordValue(Math.max(0, span.endEpochNanos() / 1000000 - d.deliveredAt));
+		}
+		System.out.printf("%n%d notifications replayed in %.1fs - %d handled, %d not handled successfully%n",
+				deliveries.size(), (System.currentTimeMillis() - started) / 1000.0, latency.getTotalCount(), unmatched);
+		System.out.printf("  event latency: p50 %dms, p90 %dms, p99 %dms, max %dms%n", latency.getValueAtPercentile(50),
+				latency.getValueAtPercentile(90), latency.getValueAtPercentile(99), latency.getMaxValue());
+		Map<String, Long> throttles = aws.throttleCounts();
+		System.out.printf("  %-40s %10s %10s%n", "operation", "requests", "throttled");
+		aws.requestCounts().forEach((op, count) -> System.out.printf("  %-40s %10d %10d%n", op, count,
+				throttles.getOrDefault(op, 0L)));
+		System.out.printf("  %-40s %10d %10d%n", "total", aws.requestCounts().values().stream().mapToLong(l -> l).sum(),
+				throttles.values().stream().mapToLong(l -> l).sum());
+	}
+
+	/**
+	 * @param body SNS message, or SQS message body with an SNS message
+	 * @return the ID of the instance that the notification is about, or null if it can't be parsed
+	 */
+	private static String instanceId(String body) {
+		try {
+			JsonNode node = mapper.readTree(body);
+			if (node.has("Message"))
+				node = mapper.readTree(node.get("Message").asText());
+			return node.has("EC2InstanceId") ? node.get("EC2InstanceId").asText() : null;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+}
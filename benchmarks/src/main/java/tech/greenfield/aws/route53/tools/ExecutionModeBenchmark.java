@@ -0,0 +1,90 @@
+package tech.greenfield.aws.route53.tools;
+
+import java.util.*;
+
+import com.amazonaws.services.lambda.runtime.events.SNSEvent;
+
+import tech.greenfield.aws.Clients;
+import tech.greenfield.aws.ExecutionMode;
+import tech.greenfield.aws.TaskScope;
+import tech.greenfield.aws.VirtualThreads;
+import tech.greenfield.aws.fake.FakeAwsServer;
+import tech.greenfield.aws.logging.Logging;
+import tech.greenfield.aws.route53.FanOut;
+import tech.greenfield.aws.route53.Route53Message;
+import tech.greenfield.aws.route53.Tools;
+
+/**
+ * Compare the throughput of the two {@link ExecutionMode execution modes} against a {@link FakeAwsServer}.
+ *
+ * Each round handles a batch of lifecycle launch notifications followed by the matching terminate notifications,
+ * with up to {@code concurrency} events handled at the same time: in the async mode as futures from the async
+ * event handler, and in the virtual thread mode as blocking synchronous event handlers each running in its own
+ * virtual thread. Requires the HOSTED_ZONE_ID environment variable to be set (to any value).
+ *
+ * Usage: {@code ExecutionModeBenchmark [events] [concurrency] [rounds]}
+ */
+public class ExecutionModeBenchmark {
+
+	private static final String TEMPLATE = "priming/lifecycle-launching.json";
+	private static final String TEMPLATE_INSTANCE = "i-00000000000000000";
+
+	public static void main(String[] args) throws Exception {
+		int events = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		AppCdsTraining.useFakeCredentials();
+		String template = Tools.readResource(TEMPLATE);
+		Map<ExecutionMode, List<Long>> results = new EnumMap<>(ExecutionMode.class);
+		try (FakeAwsServer aws = new FakeAwsServer()) {
+			Clients.setEndpointOverride(aws.endpoint());
+			for (int round = 0; round <= rounds; round++) // round 0 is warm up
+				for (ExecutionMode mode : ExecutionMode.values()) {
+					long rate = run(mode, template, events, concurrency);
+					if (round > 0)
+						results.computeIfAbsent(mode, m -> new ArrayList<>()).add(rate);
+				}
+		} finally {
+			Clients.setEndpointOverride(null);
+			Logging.flush();
+		}
+		System.out.printf("%d events, %d concurrent, virtual threads %s, median of %d rounds%n", events * 2, concurrency,
+				VirtualThreads.isSupported() ? "supported" : "not supported (using platform threads)", rounds);
+		System.out.printf("%-10s %12s%n", "mode", "events/s");
+		results.forEach((mode, samples) -> System.out.printf("%-10s %12d%n", mode,
+				samples.stream().sorted().skip(samples.size() / 2).findFirst().orElse(0L)));
+		System.exit(0);
+	}
+
+	/**
+	 * @return throughput in events per second
+	 */
+	private static long run(ExecutionMode mode, String template, int events, int concurrency) throws Exception {
+		List<Route53Message> launches = new ArrayList<>(), terminations = new ArrayList<>();
+		for (int i = 0; i < events; i++) {
+			String message = template.replace(TEMPLATE_INSTANCE, String.format("i-%017d", i + 1));
+			launches.add(parse(message));
+			terminations.add(parse(message.replace("EC2_INSTANCE_LAUNCHING", "EC2_INSTANCE_TERMINATING")));
+		}
+		long start = System.nanoTime();
+		for (List<Route53Message> batch : Arrays.asList(launches, terminations))
+			switch (mode) {
+			case ASYNC:
+				batch.stream()
+						.collect(FanOut.mapping(m -> m.createEventHandler(null).handle(), concurrency))
+						.get();
+				break;
+			case VIRTUAL:
+				TaskScope.map(batch, m -> {
+					m.createSyncEventHandler(null).handle();
+					return null;
+				}, concurrency);
+				break;
+			}
+		return events * 2 * 1000000000L / Math.max(1, System.nanoTime() - start);
+	}
+
+	private static Route53Message parse(String message) throws Exception {
+		return new Route53Message(new SNSEvent.SNSRecord().withSns(new SNSEvent.SNS().withMessage(message)));
+	}
+}
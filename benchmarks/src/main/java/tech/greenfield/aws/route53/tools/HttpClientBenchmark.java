@@ -0,0 +1,117 @@
+package tech.greenfield.aws.route53.tools;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.awscore.client.builder.AwsAsyncClientBuilder;
+import software.amazon.awssdk.awscore.client.builder.AwsClientBuilder;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.autoscaling.AutoScalingAsyncClient;
+import software.amazon.awssdk.services.ec2.Ec2AsyncClient;
+import software.amazon.awssdk.services.route53.Route53AsyncClient;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.utils.SdkAutoCloseable;
+import tech.greenfield.aws.HttpTransport;
+import tech.greenfield.aws.fake.FakeAwsServer;
+import tech.greenfield.aws.fake.FakeEc2;
+
+/**
+ * Compare the async HTTP transport options against a {@link FakeAwsServer}: each client using its own
+ * default Netty client (as before the shared transport), one shared tuned Netty client, and one shared
+ * AWS CRT client (if available on the class path).
+ *
+ * For each option this reports the time to build the four AWS clients, the latency of the first call
+ * (connection setup), the throughput of a batch of concurrent calls and the number of threads created.
+ *
+ * Usage: {@code HttpClientBenchmark [calls] [concurrency] [rounds]}
+ */
+public class HttpClientBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int calls = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		int vcpus = HttpTransport.vcpus();
+		Map<String, Supplier<SdkAsyncHttpClient>> options = new LinkedHashMap<>();
+		options.put("default-per-client", () -> null); // each client creates its own
+		options.put("netty-shared", () -> HttpTransport.create(HttpTransport.Type.NETTY, vcpus, vcpus * 16));
+		if (HttpTransport.Type.CRT == crtAvailable())
+			options.put("crt-shared", () -> HttpTransport.create(HttpTransport.Type.CRT, vcpus, vcpus * 16));
+		try (FakeAwsServer aws = new FakeAwsServer()) {
+			aws.ec2().add(new FakeEc2.Instance("i-00000000000000001", "198.51.100.1", "10.0.0.1", null));
+			Map<String, List<long[]>> results = new LinkedHashMap<>();
+			for (int round = 0; round <= rounds; round++) // round 0 is warm up
+				for (Map.Entry<String, Supplier<SdkAsyncHttpClient>> option : options.entrySet()) {
+					long[] result = run(aws, option.getValue(), calls, concurrency);
+					if (round > 0)
+						results.computeIfAbsent(option.getKey(), k -> new ArrayList<>()).add(result);
+				}
+			System.out.printf("%d calls, %d concurrent, %d vCPUs, median of %d rounds%n", calls, concurrency, vcpus, rounds);
+			System.out.printf("%-20s %10s %14s %12s %8s%n", "option", "build ms", "first call ms", "calls/s", "threads");
+			results.forEach((name, samples) -> System.out.printf("%-20s %10d %14d %12d %8d%n", name,
+					median(samples, 0), median(samples, 1), median(samples, 2), median(samples, 3)));
+		}
+		System.exit(0);
+	}
+
+	private static HttpTransport.Type crtAvailable() {
+		try {
+			Class.forName("software.amazon.awssdk.http.crt.AwsCrtAsyncHttpClient");
+			return HttpTransport.Type.CRT;
+		} catch (ClassNotFoundException e) {
+			return HttpTransport.Type.NETTY;
+		}
+	}
+
+	/**
+	 * @return build time (ms), first call latency (ms), throughput (calls/s), threads created
+	 */
+	private static long[] run(FakeAwsServer aws, Supplier<SdkAsyncHttpClient> transport, int calls, int concurrency) {
+		int threadsBefore = Thread.activeCount();
+		long start = System.nanoTime();
+		SdkAsyncHttpClient http = transport.get();
+		StaticCredentialsProvider creds = StaticCredentialsProvider.create(AwsBasicCredentials.create("AKIDFAKE", "fake"));
+		List<SdkAutoCloseable> clients = new ArrayList<>();
+		Ec2AsyncClient ec2 = configure(Ec2AsyncClient.builder(), aws, http, creds).build();
+		clients.add(ec2);
+		clients.add(configure(Route53AsyncClient.builder(), aws, http, creds).region(Region.AWS_GLOBAL).build());
+		clients.add(configure(AutoScalingAsyncClient.builder(), aws, http, creds).build());
+		clients.add(configure(SqsAsyncClient.builder(), aws, http, creds).build());
+		long built = System.nanoTime();
+		ec2.describeInstances(b -> b.instanceIds("i-00000000000000001")).join();
+		long first = System.nanoTime();
+		List<CompletableFuture<?>> inflight = new ArrayList<>();
+		for (int i = 0; i < calls; i++) {
+			if (inflight.size() >= concurrency) {
+				CompletableFuture.anyOf(inflight.toArray(new CompletableFuture[0])).join();
+				inflight.removeIf(CompletableFuture::isDone);
+			}
+			inflight.add(ec2.describeInstances(b -> b.instanceIds("i-00000000000000001")));
+		}
+		CompletableFuture.allOf(inflight.toArray(new CompletableFuture[0])).join();
+		long end = System.nanoTime();
+		int threads = Thread.activeCount() - threadsBefore;
+		clients.forEach(SdkAutoCloseable::close);
+		if (Objects.nonNull(http))
+			http.close();
+		return new long[] { (built - start) / 1000000, (first - built) / 1000000,
+				calls * 1000000000L / Math.max(1, end - first), threads };
+	}
+
+	private static <B extends AwsAsyncClientBuilder<B, ?> & AwsClientBuilder<B, ?>> B configure(B builder,
+			FakeAwsServer aws, SdkAsyncHttpClient http, StaticCredentialsProvider creds) {
+		builder.endpointOverride(aws.endpoint()).credentialsProvider(creds).region(Region.US_EAST_1);
+		if (Objects.nonNull(http))
+			builder.httpClient(http);
+		return builder;
+	}
+
+	private static long median(List<long[]> samples, int index) {
+		long[] values = samples.stream().mapToLong(s -> s[index]).sorted().toArray();
+		return values[values.length / 2];
+	}
+}
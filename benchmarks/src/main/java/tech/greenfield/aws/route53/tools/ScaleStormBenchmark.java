@@ -0,0 +1,226 @@
+package tech.greenfield.aws.route53.tools;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.services.lambda.runtime.*;
+import com.amazonaws.services.lambda.runtime.events.SNSEvent;
+
+import tech.greenfield.aws.Clients;
+import tech.greenfield.aws.ExecutionMode;
+import tech.greenfield.aws.fake.FakeAutoScaling;
+import tech.greenfield.aws.fake.FakeAwsServer;
+import tech.greenfield.aws.logging.Logging;
+import tech.greenfield.aws.metrics.Metrics;
+import tech.greenfield.aws.route53.NotifyRecordsSns;
+import tech.greenfield.aws.route53.NotifyRecordsSqs;
+import tech.greenfield.aws.route53.Tools;
+
+/**
+ * Replay a scale-out storm followed by a scale-in storm of lifecycle notifications through the SNS handler and
+ * through the SQS handler, against a {@link FakeAwsServer} that propagates Route53 changes with a delay and
+ * throttles Route53 requests like Route53 does.
+ *
+ * All the notifications of a storm are published at once. For SNS, up to {@code concurrency} handler invocations
+ * run at the same time, each handling one notification, like concurrent Lambda instances. For SQS, the
+ * notifications are queued and {@code concurrency} handler instances keep being invoked until the queue is empty.
+ * End-to-end latency is measured from publishing the notification until its lifecycle action was completed.
+ * API calls and throttles are counted by the fake server. The execution mode is set as usual with the
+ * {@code EXECUTION_MODE} environment variable. Requires the HOSTED_ZONE_ID environment variable to be set
+ * (to any value).
+ *
+ * Usage: {@code ScaleStormBenchmark [instances] [concurrency] [propagation-ms] [route53-requests-per-second]}
+ */
+public class ScaleStormBenchmark {
+
+	private static final Logger log = LoggerFactory.getLogger(ScaleStormBenchmark.class.getName());
+	private static final String TEMPLATE = "priming/lifecycle-launching.json";
+	private static final String TEMPLATE_INSTANCE = "i-00000000000000000";
+	private static final String TEMPLATE_TOKEN = "00000000-0000-0000-0000-000000000000";
+	private static final long STORM_TIMEOUT = TimeUnit.MINUTES.toMillis(30);
+
+	private enum Handler {
+		SNS, SQS;
+	}
+
+	private static class Notification {
+		final String token = UUID.randomUUID().toString();
+		final String body;
+
+		Notification(String template, String instanceId, String transition) {
+			body = template.replace(TEMPLATE_INSTANCE, instanceId).replace(TEMPLATE_TOKEN, token)
+					.replace("EC2_INSTANCE_LAUNCHING", transition);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int instances = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		long propagation = args.length > 2 ? Long.parseLong(args[2]) : 2000;
+		double rateLimit = args.length > 3 ? Double.parseDouble(args[3]) : 5;
+		AppCdsTraining.useFakeCredentials();
+		Metrics.setOutput(line -> {});
+		String template = Tools.readResource(TEMPLATE);
+		System.out.printf("%d instances, %d concurrent invocations, %s mode, %dms propagation, %.1f Route53 requests/s%n",
+				instances, concurrency, ExecutionMode.current(), propagation, rateLimit);
+		for (Handler handler : Handler.values())
+			try (FakeAwsServer aws = new FakeAwsServer()) {
+				aws.route53().setPropagationDelay(Duration.ofMillis(propagation));
+				aws.route53().setRateLimit(rateLimit);
+				Clients.setEndpointOverride(aws.endpoint());
+				NotifyRecordsSqs.setQueueUrl(aws.sqs().createQueue("scale-storm"));
+				for (String transition : Arrays.asList("EC2_INSTANCE_LAUNCHING", "EC2_INSTANCE_TERMINATING")) {
+					List<Notification> storm = new ArrayList<>();
+					for (int i = 0; i < instances; i++)
+						storm.add(new Notification(template, String.format("i-%017d", i + 1), transition));
+					aws.resetCounts();
+					Instant published = Instant.now();
+					if (handler == Handler.SNS)
+						runSns(storm, concurrency);
+					else
+						runSqs(aws, storm, concurrency);
+					report(handler + " " + transition, aws, storm, published);
+				}
+			} finally {
+				Clients.setEndpointOverride(null);
+				NotifyRecordsSqs.setQueueUrl(null);
+			}
+		Logging.flush();
+		System.exit(0);
+	}
+
+	private static void runSns(List<Notification> storm, int concurrency) throws InterruptedException {
+		ThreadLocal<NotifyRecordsSns> handlers = ThreadLocal.withInitial(NotifyRecordsSns::new);
+		ExecutorService invocations = Executors.newFixedThreadPool(concurrency);
+		for (Notification n : storm)
+			invocations.execute(() -> handlers.get().handleRequest(new SNSEvent().withRecords(List.of(
+					new SNSEvent.SNSRecord().withSns(new SNSEvent.SNS().withMessage(n.body)))), new StormContext()));
+		invocations.shutdown();
+		if (!invocations.awaitTermination(STORM_TIMEOUT, TimeUnit.MILLISECONDS))
+			log.error("Timed out waiting for the SNS storm to be handled");
+	}
+
+	private static void runSqs(FakeAwsServer aws, List<Notification> storm, int concurrency) throws InterruptedException {
+		String queue = aws.sqs().createQueue("scale-storm");
+		for (Notification n : storm)
+			aws.sqs().send(queue, n.body);
+		long deadline = System.currentTimeMillis() + STORM_TIMEOUT;
+		ExecutorService invocations = Executors.newFixedThreadPool(concurrency);
+		for (int i = 0; i < concurrency; i++)
+			invocations.execute(() -> {
+				NotifyRecordsSqs handler = new NotifyRecordsSqs();
+				while (aws.sqs().size(queue) > 0 && System.currentTimeMillis() < deadline)
+					handler.handleRequest(new SNSEvent(), new StormContext());
+			});
+		invocations.shutdown();
+		if (!invocations.awaitTermination(STORM_TIMEOUT, TimeUnit.MILLISECONDS))
+			log.error("Timed out waiting for the SQS storm to be handled");
+	}
+
+	private static void report(String title, FakeAwsServer aws, List<Notification> storm, Instant published) {
+		Histogram latency = new Histogram(3);
+		int continued = 0, abandoned = 0, lost = 0;
+		for (Notification n : storm) {
+			FakeAutoScaling.Completion completion = aws.autoscaling().completion(n.token);
+			if (Objects.isNull(completion)) {
+				lost++;
+				continue;
+			}
+			if (completion.result.equals("CONTINUE"))
+				continued++;
+			else
+				abandoned++;
+			latency.recordValue(Math.max(0, Duration.between(published, completion.time).toMillis()));
+		}
+		System.out.printf("%n%s: %d events in %.1fs - %d continued, %d abandoned, %d not completed%n", title,
+				storm.size(), Duration.between(published, Instant.now()).toMillis() / 1000.0, continued, abandoned, lost);
+		System.out.printf("  end-to-end latency: p50 %dms, p99 %dms, max %dms%n", latency.getValueAtPercentile(50),
+				latency.getValueAtPercentile(99), latency.getMaxValue());
+		Map<String, Long> throttles = aws.throttleCounts();
+		System.out.printf("  %-40s %10s %10s%n", "operation", "requests", "throttled");
+		aws.requestCounts().forEach((op, count) -> System.out.printf("  %-40s %10d %10d%n", op, count,
+				throttles.getOrDefault(op, 0L)));
+	}
+
+	/**
+	 * Invocation context with the maximum Lambda timeout
+	 */
+	static class StormContext implements Context {
+		private final String requestId = UUID.randomUUID().toString();
+		private final long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(15);
+
+		@Override
+		public String getAwsRequestId() {
+			return requestId;
+		}
+
+		@Override
+		public String getLogGroupName() {
+			return "scale-storm";
+		}
+
+		@Override
+		public String getLogStreamName() {
+			return "scale-storm";
+		}
+
+		@Override
+		public String getFunctionName() {
+			return "scale-storm";
+		}
+
+		@Override
+		public String getFunctionVersion() {
+			return "$LATEST";
+		}
+
+		@Override
+		public String getInvokedFunctionArn() {
+			return "arn:aws:lambda:us-east-1:000000000000:function:scale-storm";
+		}
+
+		@Override
+		public CognitoIdentity getIdentity() {
+			return null;
+		}
+
+		@Override
+		public ClientContext getClientContext() {
+			return null;
+		}
+
+		@Override
+		public int getRemainingTimeInMillis() {
+			return (int) Math.max(0, deadline - System.currentTimeMillis());
+		}
+
+		@Override
+		public int getMemoryLimitInMB() {
+			return 512;
+		}
+
+		@Override
+		public LambdaLogger getLogger() {
+			return new LambdaLogger() {
+				@Override
+				public void log(String message) {
+					log.info(message);
+				}
+
+				@Override
+				public void log(byte[] message) {
+					log.info(new String(message, StandardCharsets.UTF_8));
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package tech.greenfield.aws.route53.tools;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Compare the time to the first handled event with and without an AppCDS archive.
+ *
+ * Each run starts a fresh JVM executing {@link AppCdsTraining} with a single instance, through the
+ * {@link TrainingLauncher} of the Lambda jar as when creating the archive, and reads the time from JVM start to
+ * the end of the first handled event from its output.
+ *
+ * Usage: {@code StartupBenchmark <jar> <archive> [runs]}
+ */
+public class StartupBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: StartupBenchmark <jar> <archive> [runs]");
+			System.exit(2);
+		}
+		String jar = args[0], archive = args[1];
+		int runs = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		if (!Files.isReadable(Paths.get(archive)))
+			throw new FileNotFoundException(archive);
+		String harness = Paths.get(AppCdsTraining.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+		List<Long> without = new ArrayList<>(), with = new ArrayList<>();
+		for (int i = 0; i < runs; i++) { // interleave runs so that system noise affects both equally
+			without.add(run(jar, harness, "-Xshare:auto"));
+			with.add(run(jar, harness, "-XX:SharedArchiveFile=" + archive, "-Xshare:auto"));
+		}
+		report("without archive", without);
+		report("with archive", with);
+	}
+
+	private static long run(String jar, String harness, String... jvmOptions) throws IOException, InterruptedException {
+		List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		command.addAll(Arrays.asList(jvmOptions));
+		command.addAll(Arrays.asList("-cp", jar, TrainingLauncher.class.getName(), harness, AppCdsTraining.class.getName(), "1"));
+		ProcessBuilder pb = new ProcessBuilder(command).redirectErrorStream(true);
+		pb.environment().putIfAbsent("HOSTED_ZONE_ID", "BENCHMARK");
+		Process process = pb.start();
+		long result = -1;
+		try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+			for (String line = out.readLine(); Objects.nonNull(line); line = out.readLine())
+				if (line.startsWith(AppCdsTraining.FIRST_EVENT_MARKER))
+					result = Long.parseLong(line.substring(AppCdsTraining.FIRST_EVENT_MARKER.length()).trim());
+		}
+		if (process.waitFor() != 0 || result < 0)
+			throw new IOException("Training run failed: " + command);
+		return result;
+	}
+
+	private static void report(String name, List<Long> samples) {
+		long[] sorted = samples.stream().mapToLong(Long::longValue).sorted().toArray();
+		System.out.printf("%-16s min %5d ms, median %5d ms, max %5d ms (%d runs)%n", name,
+				sorted[0], sorted[sorted.length / 2], sorted[sorted.length - 1], sorted.length);
+	}
+}
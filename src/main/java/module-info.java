@@ -1,22 +1,34 @@
 module tech.greenfield.route53 {
 	requires transitive aws.lambda.java.core;
 	requires transitive aws.lambda.java.events;
+	requires com.fasterxml.jackson.core;
 	requires com.fasterxml.jackson.databind;
 	requires org.slf4j;
+	requires org.crac;
+	requires java.net.http;
 	requires software.amazon.awssdk.awscore;
 	requires software.amazon.awssdk.core;
 	requires software.amazon.awssdk.services.route53;
 	requires software.amazon.awssdk.services.ec2;
 	requires software.amazon.awssdk.services.autoscaling;
 	requires transitive software.amazon.awssdk.services.sqs;
+	requires software.amazon.awssdk.services.dynamodb;
 	requires software.amazon.awssdk.auth;
 	requires software.amazon.awssdk.http;
+	requires software.amazon.awssdk.http.nio.netty;
+	requires software.amazon.awssdk.http.apache;
+	requires static software.amazon.awssdk.http.crt;
 	requires software.amazon.awssdk.identity.spi;
 	requires software.amazon.awssdk.regions;
 	requires software.amazon.awssdk.thirdparty.jackson.core;
 	requires software.amazon.awssdk.utils;
+	requires HdrHistogram;
 	
 	exports tech.greenfield.aws.route53;
+	exports tech.greenfield.aws.logging;
+	
+	provides org.slf4j.spi.SLF4JServiceProvider with tech.greenfield.aws.logging.AsyncLoggerProvider;
 	
 	opens tech.greenfield.aws.route53 to com.fasterxml.jackson.databind;
+	opens tech.greenfield.aws.registry to com.fasterxml.jackson.databind;
 }
\ No newline at end of file
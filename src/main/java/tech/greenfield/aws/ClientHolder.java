@@ -0,0 +1,53 @@
+package tech.greenfield.aws;
+
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Lazily created, resettable holder for an SDK resource (a client, HTTP client or credentials provider).
+ *
+ * After the first call to {@link #get()} the value is read from a volatile field without locking; the lock
+ * is only taken to create the value, and to discard it with {@link #reset()}.
+ *
+ * @param <T> type of the held resource
+ */
+public class ClientHolder<T> {
+
+	private final Supplier<T> factory;
+	private volatile T value;
+
+	public ClientHolder(Supplier<T> factory) {
+		this.factory = factory;
+	}
+
+	public T get() {
+		T current = value;
+		if (Objects.nonNull(current))
+			return current;
+		synchronized (this) {
+			if (Objects.isNull(value))
+				value = factory.get();
+			return value;
+		}
+	}
+
+	/**
+	 * Discard the held value, closing it if it is closeable, so that it is re-created on next use
+	 */
+	synchronized public void reset() {
+		T current = value;
+		value = null;
+		if (current instanceof AutoCloseable)
+			try {
+				((AutoCloseable) current).close();
+			} catch (Exception e) { // nothing useful to do with a failure to close a discarded resource
+			}
+	}
+
+	/**
+	 * @return whether the value has been created (and not reset since)
+	 */
+	public boolean isInitialized() {
+		return Objects.nonNull(value);
+	}
+}
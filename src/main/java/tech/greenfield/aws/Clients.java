@@ -1,17 +1,29 @@
 package tech.greenfield.aws;
 
-import static tech.greenfield.aws.Tools.getCreds;
 import static software.amazon.awssdk.regions.Region.AWS_GLOBAL;
 
+import java.net.URI;
+import java.util.Arrays;
 import java.util.Objects;
 
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 
+import software.amazon.awssdk.awscore.client.builder.AwsAsyncClientBuilder;
+import software.amazon.awssdk.awscore.client.builder.AwsClientBuilder;
+import software.amazon.awssdk.awscore.client.builder.AwsSyncClientBuilder;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
 import software.amazon.awssdk.services.autoscaling.AutoScalingAsyncClient;
+import software.amazon.awssdk.services.autoscaling.AutoScalingClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
 import software.amazon.awssdk.services.ec2.Ec2AsyncClient;
+import software.amazon.awssdk.services.ec2.Ec2Client;
 import software.amazon.awssdk.services.route53.Route53AsyncClient;
+import software.amazon.awssdk.services.route53.Route53Client;
 import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import tech.greenfield.aws.metrics.ApiMetrics;
 
 
 /**
@@ -39,44 +51,125 @@ import software.amazon.awssdk.services.sqs.SqsAsyncClient;
  */
 public class Clients {
 
-	private static Route53AsyncClient r53;
-	private static Ec2AsyncClient ec2;
-	private static AutoScalingAsyncClient autoscaling;
-	private static SqsAsyncClient sqs;
+	private static final ClientHolder<SdkAsyncHttpClient> http = new ClientHolder<>(HttpTransport::create);
+	private static final ClientHolder<Route53AsyncClient> r53 = new ClientHolder<>(
+			() -> configure("Route53", Route53AsyncClient.builder()).region(AWS_GLOBAL).build());
+	private static final ClientHolder<Ec2AsyncClient> ec2 = new ClientHolder<>(
+			() -> configure("EC2", Ec2AsyncClient.builder()).build());
+	private static final ClientHolder<AutoScalingAsyncClient> autoscaling = new ClientHolder<>(
+			() -> configure("AutoScaling", AutoScalingAsyncClient.builder()).build());
+	private static final ClientHolder<SqsAsyncClient> sqs = new ClientHolder<>(
+			() -> configure("SQS", SqsAsyncClient.builder()).build());
+	private static final ClientHolder<DynamoDbAsyncClient> dynamodb = new ClientHolder<>(
+			() -> configureDynamoDb(configure("DynamoDB", DynamoDbAsyncClient.builder())).build());
+	private static final ClientHolder<SdkHttpClient> syncHttp = new ClientHolder<>(HttpTransport::createSync);
+	private static final ClientHolder<Route53Client> r53Sync = new ClientHolder<>(
+			() -> configureSync("Route53", Route53Client.builder()).region(AWS_GLOBAL).build());
+	private static final ClientHolder<Ec2Client> ec2Sync = new ClientHolder<>(
+			() -> configureSync("EC2", Ec2Client.builder()).build());
+	private static final ClientHolder<AutoScalingClient> autoscalingSync = new ClientHolder<>(
+			() -> configureSync("AutoScaling", AutoScalingClient.builder()).build());
+	private static final ClientHolder<SqsClient> sqsSync = new ClientHolder<>(
+			() -> configureSync("SQS", SqsClient.builder()).build());
+	private static volatile URI endpointOverride;
 	
 	private static Logger log = LoggerFactory.getLogger(Clients.class.getName());
 	
-	synchronized public static Route53AsyncClient route53() {
-		if (Objects.isNull(r53)) {
-			log.info("Initializing Route53 client using " + Tools.getCredsProvider());
-			r53 = Route53AsyncClient.builder().credentialsProvider(Tools.getCredsProvider())
-					.region(AWS_GLOBAL).build();
-		}
-		return r53;
+	public static Route53AsyncClient route53() {
+		return r53.get();
 	}
 
-	synchronized public static Ec2AsyncClient ec2() {
-		if (Objects.isNull(ec2)) {
-			log.info("Initializing EC2 client using " + getCreds());
-			ec2 = Ec2AsyncClient.builder().credentialsProvider(Tools.getCredsProvider()).build();
-		}
-		return ec2;
+	public static Ec2AsyncClient ec2() {
+		return ec2.get();
 	}
 	
-	synchronized public static AutoScalingAsyncClient autoscaling() {
-		if (Objects.isNull(autoscaling)) {
-			log.info("Initializing AutoScaling client using " + getCreds());
-			autoscaling = AutoScalingAsyncClient.builder().credentialsProvider(Tools.getCredsProvider()).build();
-		}
-		return autoscaling;
+	public static AutoScalingAsyncClient autoscaling() {
+		return autoscaling.get();
 	}
 	
-	synchronized public static SqsAsyncClient sqs() {
-		if (Objects.isNull(sqs)) {
-			log.info("Initializing SQS client using " + getCreds());
-			sqs = SqsAsyncClient.builder().credentialsProvider(Tools.getCredsProvider()).build();
-		}
-		return sqs;
+	public static SqsAsyncClient sqs() {
+		return sqs.get();
+	}
+	
+	/**
+	 * @return DynamoDB client, for the lease store. Its endpoint can be set separately from the other clients using
+	 * the {@code DYNAMODB_ENDPOINT} environment variable, e.g. to use DynamoDB Local
+	 */
+	public static DynamoDbAsyncClient dynamodb() {
+		return dynamodb.get();
+	}
+	
+	/*
+	 * Synchronous clients, for the synchronous execution mode (see ExecutionMode)
+	 */
+	
+	public static Route53Client route53Sync() {
+		return r53Sync.get();
+	}
+	
+	public static Ec2Client ec2Sync() {
+		return ec2Sync.get();
+	}
+	
+	public static AutoScalingClient autoscalingSync() {
+		return autoscalingSync.get();
+	}
+	
+	public static SqsClient sqsSync() {
+		return sqsSync.get();
+	}
+	
+	/**
+	 * @return the async HTTP client shared by all the AWS clients
+	 */
+	public static SdkAsyncHttpClient httpClient() {
+		return http.get();
+	}
+	
+	private static <B extends AwsClientBuilder<B, ?> & AwsAsyncClientBuilder<B, ?>> B configure(String service, B builder) {
+		log.info("Initializing {} client using {}", service, Tools.getCredsProvider());
+		if (Objects.nonNull(endpointOverride))
+			builder.endpointOverride(endpointOverride);
+		return builder.credentialsProvider(Tools.getCredsProvider()).httpClient(httpClient())
+				.overrideConfiguration(c -> c.addExecutionInterceptor(ApiMetrics.get()));
+	}
+	
+	private static <B extends AwsClientBuilder<B, ?>> B configureDynamoDb(B builder) {
+		String endpoint = System.getenv("DYNAMODB_ENDPOINT");
+		if (Objects.nonNull(endpoint) && !endpoint.isBlank())
+			builder.endpointOverride(URI.create(endpoint));
+		return builder;
+	}
+	
+	private static <B extends AwsClientBuilder<B, ?> & AwsSyncClientBuilder<B, ?>> B configureSync(String service, B builder) {
+		log.info("Initializing synchronous {} client using {}", service, Tools.getCredsProvider());
+		if (Objects.nonNull(endpointOverride))
+			builder.endpointOverride(endpointOverride);
+		return builder.credentialsProvider(Tools.getCredsProvider()).httpClient(syncHttp.get())
+				.overrideConfiguration(c -> c.addExecutionInterceptor(ApiMetrics.get()));
+	}
+	
+	/**
+	 * Direct all clients to a different endpoint, such as a local fake AWS server. Already created
+	 * clients are discarded.
+	 * @param endpoint endpoint URI to use, or null to use the standard AWS endpoints
+	 */
+	synchronized public static void setEndpointOverride(URI endpoint) {
+		reset();
+		endpointOverride = endpoint;
+	}
+	
+	/**
+	 * Close all cached clients, the shared HTTP client and the credentials provider, so that they will be
+	 * re-created with fresh credentials and connections on next use. This is needed after restoring from
+	 * a checkpoint.
+	 */
+	synchronized public static void reset() {
+		for (ClientHolder<?> client : Arrays.asList(r53, ec2, autoscaling, sqs, dynamodb, r53Sync, ec2Sync, autoscalingSync, sqsSync))
+			client.reset();
+		http.reset(); // SDK clients don't close an HTTP client that was passed to them
+		syncHttp.reset();
+		Tools.resetCredsProvider();
 	}
 	
 }
@@ -0,0 +1,33 @@
+package tech.greenfield.aws;
+
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The engine used to handle events, selected at deploy time using the {@code EXECUTION_MODE} environment variable.
+ */
+public enum ExecutionMode {
+	/** Chain asynchronous SDK calls on the shared event loop (the default) */
+	ASYNC,
+	/** Run each event in its own virtual thread, making blocking calls with the synchronous SDK clients */
+	VIRTUAL;
+
+	private static final Logger log = LoggerFactory.getLogger(ExecutionMode.class.getName());
+
+	/**
+	 * @return the execution mode configured in the environment
+	 */
+	public static ExecutionMode current() {
+		String name = System.getenv("EXECUTION_MODE");
+		if (Objects.isNull(name) || name.isBlank())
+			return ASYNC;
+		try {
+			return valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			log.warn("Unknown execution mode '{}', using {}", name, ASYNC);
+			return ASYNC;
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package tech.greenfield.aws;
+
+import java.time.Duration;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.crt.AwsCrtAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.SdkEventLoopGroup;
+
+/**
+ * Factory for the HTTP client shared by all the AWS clients.
+ *
+ * Without this, each SDK client creates its own Netty event loop group (with 2 threads per available
+ * processor) and connection pool. On Lambda, where a function gets one vCPU per 1769 MB of memory, a
+ * single small event loop is all that is needed to drive the few concurrent calls we make.
+ *
+ * The transport is configured with these environment variables:
+ * <ul>
+ * <li>{@code HTTP_CLIENT} - {@code netty} (the default) or {@code crt}. The AWS CRT client is not
+ * bundled by default, build with the {@code crt} Maven profile to include it.</li>
+ * <li>{@code HTTP_EVENT_LOOP_THREADS} - number of Netty event loop threads. Defaults to the number of
+ * vCPUs allocated to the Lambda.</li>
+ * <li>{@code HTTP_MAX_CONNECTIONS} - maximum number of concurrent connections. Defaults to 16 per vCPU.</li>
+ * </ul>
+ */
+public class HttpTransport {
+
+	public enum Type { NETTY, CRT }
+
+	/** Lambda allocates one vCPU per this amount of configured memory */
+	private static final int LAMBDA_MB_PER_VCPU = 1769;
+	private static final int CONNECTIONS_PER_VCPU = 16;
+	private static final Duration CONNECTION_TIMEOUT = Duration.ofSeconds(2);
+	private static final Duration CONNECTION_MAX_IDLE = Duration.ofSeconds(50);
+
+	private static final Logger log = LoggerFactory.getLogger(HttpTransport.class.getName());
+
+	/**
+	 * Create an HTTP client configured from the environment
+	 * @return a new async HTTP client, that the caller is responsible to close
+	 */
+	public static SdkAsyncHttpClient create() {
+		return create(type(), intSetting("HTTP_EVENT_LOOP_THREADS", vcpus()),
+				intSetting("HTTP_MAX_CONNECTIONS", vcpus() * CONNECTIONS_PER_VCPU));
+	}
+
+	/**
+	 * Create an HTTP client
+	 * @param type implementation to use. If {@link Type#CRT} is requested but the CRT client is not
+	 *   available, Netty is used instead
+	 * @param threads number of event loop threads (ignored by the CRT client, which uses a shared event loop)
+	 * @param maxConnections connection pool size
+	 * @return a new async HTTP client, that the caller is responsible to close
+	 */
+	public static SdkAsyncHttpClient create(Type type, int threads, int maxConnections) {
+		if (type == Type.CRT) {
+			try {
+				log.debug("Creating CRT HTTP client with {} connections", maxConnections);
+				return Crt.create(maxConnections);
+			} catch (LinkageError | RuntimeException e) {
+				log.warn("AWS CRT HTTP client is not available, using Netty: {}", e.toString());
+			}
+		}
+		log.debug("Creating Netty HTTP client with {} threads and {} connections", threads, maxConnections);
+		return NettyNioAsyncHttpClient.builder()
+				.eventLoopGroupBuilder(SdkEventLoopGroup.builder().numberOfThreads(threads))
+				.maxConcurrency(maxConnections)
+				.connectionTimeout(CONNECTION_TIMEOUT)
+				.connectionMaxIdleTime(CONNECTION_MAX_IDLE)
+				.tcpKeepAlive(true)
+				.build();
+	}
+
+	/**
+	 * Create a synchronous HTTP client configured from the environment, for the synchronous execution mode
+	 * (see {@link ExecutionMode}). Uses the same {@code HTTP_MAX_CONNECTIONS} setting as the async client.
+	 * @return a new HTTP client, that the caller is responsible to close
+	 */
+	public static SdkHttpClient createSync() {
+		return createSync(intSetting("HTTP_MAX_CONNECTIONS", vcpus() * CONNECTIONS_PER_VCPU));
+	}
+
+	public static SdkHttpClient createSync(int maxConnections) {
+		log.debug("Creating Apache HTTP client with {} connections", maxConnections);
+		return ApacheHttpClient.builder()
+				.maxConnections(maxConnections)
+				.connectionTimeout(CONNECTION_TIMEOUT)
+				.connectionMaxIdleTime(CONNECTION_MAX_IDLE)
+				.tcpKeepAlive(true)
+				.build();
+	}
+
+	public static Type type() {
+		String name = System.getenv("HTTP_CLIENT");
+		if (Objects.isNull(name) || name.isBlank())
+			return Type.NETTY;
+		try {
+			return Type.valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			log.warn("Unknown HTTP_CLIENT {}, using Netty", name);
+			return Type.NETTY;
+		}
+	}
+
+	/**
+	 * @return number of vCPUs available to this process - if running in Lambda, as allocated for the
+	 *   function's memory size
+	 */
+	public static int vcpus() {
+		int available = Runtime.getRuntime().availableProcessors();
+		int memory = intSetting("AWS_LAMBDA_FUNCTION_MEMORY_SIZE", 0);
+		if (memory <= 0)
+			return available;
+		return Math.max(1, Math.min(available, (memory + LAMBDA_MB_PER_VCPU - 1) / LAMBDA_MB_PER_VCPU));
+	}
+
+	private static int intSetting(String name, int defaultValue) {
+		String value = System.getenv(name);
+		if (Objects.isNull(value) || value.isBlank())
+			return defaultValue;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			log.warn("Invalid {} value {}, using {}", name, value, defaultValue);
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Separate class so that the CRT classes are only loaded if requested
+	 */
+	private static class Crt {
+		static SdkAsyncHttpClient create(int maxConnections) {
+			return AwsCrtAsyncHttpClient.builder()
+					.maxConcurrency(maxConnections)
+					.connectionTimeout(CONNECTION_TIMEOUT)
+					.connectionMaxIdleTime(CONNECTION_MAX_IDLE)
+					.build();
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package tech.greenfield.aws;
+
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Timer for all delays, retries and polling.
+ *
+ * Delays are implemented by a single daemon thread that completes futures when they are due, instead of
+ * parking a thread (usually a common pool thread - of which a small Lambda has one or two) for the
+ * duration of the delay. Stages that depend on a delay run on the timer thread, so they must not block -
+ * which is the case for chaining another async AWS call.
+ */
+public class Scheduler {
+
+	private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+		Thread t = new Thread(r, "scheduler");
+		t.setDaemon(true);
+		return t;
+	});
+	static {
+		timer.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * Create a future that completes after the specified delay
+	 * @param millis delay in milliseconds
+	 * @return a future that will be completed after the delay
+	 */
+	public static CompletableFuture<Void> delay(long millis) {
+		CompletableFuture<Void> res = new CompletableFuture<>();
+		if (millis <= 0) {
+			res.complete(null);
+			return res;
+		}
+		ScheduledFuture<?> task = timer.schedule(() -> res.complete(null), millis, TimeUnit.MILLISECONDS);
+		res.whenComplete((v,t) -> task.cancel(false)); // release the timer slot if the caller cancels
+		return res;
+	}
+
+	/**
+	 * Start an asynchronous operation after the specified delay
+	 * @param millis delay in milliseconds
+	 * @param operation operation to start
+	 * @return a future that will be completed with the operation's result
+	 */
+	public static <T> CompletableFuture<T> after(long millis, Supplier<CompletableFuture<T>> operation) {
+		return delay(millis).thenCompose(v -> operation.get());
+	}
+
+	/**
+	 * @return number of delays currently scheduled
+	 */
+	public static int pending() {
+		return timer.getQueue().size();
+	}
+}
@@ -0,0 +1,173 @@
+package tech.greenfield.aws;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Structured fan-out of blocking tasks, each running in its own virtual thread: all tasks forked in a scope
+ * complete before the scope is closed, and the first failure cancels (interrupts) the other tasks.
+ *
+ * This is a small stand-in for {@code StructuredTaskScope.ShutdownOnFailure}, which is still a preview API.
+ * A scope is owned by the thread that created it - only that thread may fork, join and close it.
+ */
+public class TaskScope implements AutoCloseable {
+
+	/**
+	 * Blocking operation to run for each input of {@link TaskScope#map(List, Operation, int)}
+	 */
+	@FunctionalInterface
+	public interface Operation<T, R> {
+		R apply(T input) throws Exception;
+	}
+
+	private final Set<Task> running = ConcurrentHashMap.newKeySet();
+	private final AtomicReference<Throwable> failure = new AtomicReference<>();
+	private final Semaphore permits;
+	private int pending = 0;
+	private volatile boolean shutdown;
+
+	/**
+	 * A forked task, which can be interrupted only while it is running
+	 */
+	private static class Task {
+		private final Thread thread = Thread.currentThread();
+		private boolean done;
+
+		synchronized void interrupt() {
+			if (!done)
+				thread.interrupt();
+		}
+
+		void finish() {
+			synchronized (this) {
+				done = true;
+			}
+			Thread.interrupted(); // don't leak an interrupt to the next task on a pooled thread
+		}
+	}
+
+	public TaskScope() {
+		this(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param maxConcurrency maximum number of forked tasks to run at any time. When reached, {@link #fork(Callable)}
+	 *   blocks until a task completes
+	 */
+	public TaskScope(int maxConcurrency) {
+		if (maxConcurrency < 1)
+			throw new IllegalArgumentException("maxConcurrency must be positive");
+		permits = new Semaphore(maxConcurrency);
+	}
+
+	/**
+	 * Run the specified operation for each input, with at most {@code maxConcurrency} operations running at any time
+	 * @param inputs inputs to run the operation for
+	 * @param operation blocking operation
+	 * @param maxConcurrency maximum number of concurrent operations
+	 * @return operation results, in the order of the inputs
+	 * @throws ExecutionException with the first failure of an operation as the cause
+	 * @throws InterruptedException if interrupted while waiting for the operations
+	 */
+	public static <T, R> List<R> map(List<T> inputs, Operation<? super T, R> operation, int maxConcurrency)
+			throws ExecutionException, InterruptedException {
+		if (inputs.isEmpty())
+			return new ArrayList<>();
+		try (TaskScope scope = new TaskScope(maxConcurrency)) {
+			List<Future<R>> results = new ArrayList<>(inputs.size());
+			for (T input : inputs)
+				results.add(scope.fork(() -> operation.apply(input)));
+			scope.join();
+			List<R> list = new ArrayList<>(results.size());
+			for (Future<R> r : results)
+				list.add(r.get());
+			return list;
+		}
+	}
+
+	/**
+	 * Start a task in a new virtual thread
+	 * @param task task to run
+	 * @return future for the task's result, which is available after {@link #join()} returns
+	 * @throws InterruptedException if interrupted while waiting for a concurrency permit
+	 */
+	public <T> Future<T> fork(Callable<T> task) throws InterruptedException {
+		if (shutdown)
+			throw new IllegalStateException("Scope is shut down");
+		permits.acquire();
+		synchronized (this) {
+			pending++;
+		}
+		try {
+			return VirtualThreads.executor().submit(() -> run(task));
+		} catch (RejectedExecutionException e) {
+			taskDone();
+			throw e;
+		}
+	}
+
+	private <T> T run(Callable<T> callable) throws Exception {
+		Task task = new Task();
+		running.add(task);
+		try {
+			if (shutdown)
+				throw new CancellationException("Scope is shut down");
+			return callable.call();
+		} catch (Throwable t) {
+			if (failure.compareAndSet(null, t))
+				shutdown();
+			throw t;
+		} finally {
+			running.remove(task);
+			task.finish();
+			taskDone();
+		}
+	}
+
+	private synchronized void taskDone() {
+		permits.release();
+		if (--pending == 0)
+			notifyAll();
+	}
+
+	/**
+	 * Wait for all forked tasks to complete
+	 * @throws ExecutionException with the first task failure as the cause
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void join() throws ExecutionException, InterruptedException {
+		synchronized (this) {
+			while (pending > 0)
+				wait();
+		}
+		Throwable t = failure.get();
+		if (Objects.nonNull(t))
+			throw new ExecutionException(t);
+	}
+
+	private void shutdown() {
+		shutdown = true;
+		for (Task task : running)
+			task.interrupt();
+	}
+
+	/**
+	 * Cancel any tasks that are still running, and wait for them to finish
+	 */
+	@Override
+	public void close() {
+		shutdown();
+		boolean interrupted = false;
+		synchronized (this) {
+			while (pending > 0)
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+}
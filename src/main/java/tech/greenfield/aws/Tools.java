@@ -33,6 +33,8 @@ import software.amazon.awssdk.auth.credentials.ProfileCredentialsProvider;
  *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
  */
 public class Tools {
+	
+	private static final ClientHolder<AwsCredentialsProvider> credsProvider = new ClientHolder<>(Tools::createCredsProvider);
 
 	/**
 	 * Retrieve the credentials to access AWS using the standard AWS credentials
@@ -45,11 +47,27 @@ public class Tools {
 		return getCredsProvider().resolveCredentials();
 	}
 	
+	/**
+	 * Retrieve the credentials provider shared by all AWS clients. The provider is created once and caches
+	 * the resolved credentials until they are about to expire.
+	 * @return AWS credentials provider to use for accessing the AWS API
+	 */
 	public static AwsCredentialsProvider getCredsProvider() {
+		return credsProvider.get();
+	}
+	
+	/**
+	 * Discard the cached credentials provider, so that credentials are resolved again on next use
+	 */
+	public static void resetCredsProvider() {
+		credsProvider.reset();
+	}
+	
+	private static AwsCredentialsProvider createCredsProvider() {
 		String forceProfile = System.getenv("AWS_PROFILE");
 		if (Objects.nonNull(forceProfile) && !forceProfile.isEmpty())
 			return ProfileCredentialsProvider.create(forceProfile);
-		return DefaultCredentialsProvider.create();
+		return DefaultCredentialsProvider.builder().build(); // not the SDK's shared instance, as we close it on reset
 	}
 	
 }
@@ -0,0 +1,75 @@
+package tech.greenfield.aws;
+
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Access to Java 21 virtual threads, while still building for and running on older Java versions.
+ *
+ * On Java 21 and later, threads are created with {@code Thread.ofVirtual()} (looked up reflectively, as
+ * the project targets Java 11). On older Java versions this falls back to a cached pool of daemon platform
+ * threads, which behaves the same, only with a higher cost per blocked thread.
+ */
+public class VirtualThreads {
+
+	private static final Logger log = LoggerFactory.getLogger(VirtualThreads.class.getName());
+	private static final ExecutorService virtualExecutor = lookupVirtualThreadExecutor();
+	private static final ExecutorService executor = Objects.isNull(virtualExecutor) ?
+			Executors.newCachedThreadPool(platformFactory()) : virtualExecutor;
+
+	/**
+	 * @return whether threads created by this class are virtual threads
+	 */
+	public static boolean isSupported() {
+		return Objects.nonNull(virtualExecutor);
+	}
+
+	/**
+	 * @return executor running each task in a new virtual thread (or a pooled platform thread, if virtual
+	 *   threads are not supported). It must not be shut down.
+	 */
+	public static ExecutorService executor() {
+		return executor;
+	}
+
+	/**
+	 * Run a task in its own virtual thread, and wait for it to complete
+	 * @param task task to run
+	 * @return task result
+	 * @throws ExecutionException if the task failed, with the task's exception as the cause
+	 * @throws InterruptedException if interrupted while waiting for the task
+	 */
+	public static <T> T call(Callable<T> task) throws ExecutionException, InterruptedException {
+		return executor.submit(task).get();
+	}
+
+	private static ExecutorService lookupVirtualThreadExecutor() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+			builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "virtual-", 0L);
+			ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+			return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+					.invoke(null, factory);
+		} catch (NoSuchMethodException | ClassNotFoundException e) {
+			log.debug("Virtual threads are not supported by this Java version");
+			return null;
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			log.warn("Failed to create virtual thread executor: {}", e.toString());
+			return null;
+		}
+	}
+
+	private static ThreadFactory platformFactory() {
+		AtomicLong count = new AtomicLong();
+		return r -> {
+			Thread t = new Thread(r, "task-" + count.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		};
+	}
+}
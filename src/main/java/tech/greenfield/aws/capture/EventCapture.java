@@ -0,0 +1,192 @@
+package tech.greenfield.aws.capture;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Capture of the notifications received by the handlers, with their arrival times, so that they can be replayed
+ * offline by {@code tech.greenfield.aws.route53.tools.CaptureReplay} in the {@code benchmarks} module.
+ *
+ * Capturing is enabled by setting the {@code CAPTURE_DIR} environment variable to a directory - for example on an EFS
+ * file system mounted by the Lambda. Each Lambda instance appends to its own {@code events-<id>.jsonl} file in the
+ * directory, one line per notification:
+ * <pre>{"t":1481913563580,"src":"sns","id":"...","body":"..."}</pre>
+ * with the arrival time in epoch milliseconds, the handler that received it, its SNS or SQS message ID and the raw
+ * SNS message or SQS message body. Notifications are collected in memory and written by {@link #flush()} when the
+ * invocation ends, so capturing doesn't add file writes to the handling of the events.
+ */
+public class EventCapture {
+
+	private static final Logger log = LoggerFactory.getLogger(EventCapture.class.getName());
+	private static final JsonFactory factory = new JsonFactory();
+	private static final ObjectMapper mapper = new ObjectMapper();
+	private static volatile Optional<EventCapture> configured;
+
+	/**
+	 * The handler that received a notification
+	 */
+	public enum Source {
+		SNS, SQS;
+	}
+
+	/**
+	 * A captured notification
+	 */
+	public static class Entry {
+		/** arrival time, in epoch milliseconds */
+		public final long time;
+		public final Source source;
+		/** SNS or SQS message ID, or null if unknown */
+		public final String id;
+		/** SNS message or SQS message body */
+		public final String body;
+
+		public Entry(long time, Source source, String id, String body) {
+			this.time = time;
+			this.source = source;
+			this.id = id;
+			this.body = body;
+		}
+	}
+
+	private final Path file;
+	private List<String> pending = new ArrayList<>();
+
+	/**
+	 * @param file file to append the captured notifications to
+	 */
+	public EventCapture(Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * @return the capture configured in the environment, shared by all the handlers, or null if capturing is disabled
+	 */
+	public static EventCapture get() {
+		Optional<EventCapture> capture = configured;
+		if (Objects.isNull(capture))
+			synchronized (EventCapture.class) {
+				if (Objects.isNull(configured))
+					configured = Optional.ofNullable(fromEnvironment());
+				capture = configured;
+			}
+		return capture.orElse(null);
+	}
+
+	/**
+	 * Capture to the specified capture instead of the one configured in the environment
+	 * @param capture capture to use, or null to disable capturing
+	 */
+	public static void set(EventCapture capture) {
+		configured = Optional.ofNullable(capture);
+	}
+
+	private static EventCapture fromEnvironment() {
+		String dir = System.getenv("CAPTURE_DIR");
+		if (Objects.isNull(dir) || dir.isBlank())
+			return null;
+		Path file = Paths.get(dir.trim(), "events-" + UUID.randomUUID() + ".jsonl");
+		log.info("Capturing notifications to {}", file);
+		return new EventCapture(file);
+	}
+
+	/**
+	 * Record a notification that just arrived
+	 * @param source the handler that received the notification
+	 * @param id SNS or SQS message ID
+	 * @param body SNS message or SQS message body
+	 */
+	public void record(Source source, String id, String body) {
+		String line = render(new Entry(System.currentTimeMillis(), source, id, body));
+		synchronized (this) {
+			pending.add(line);
+		}
+	}
+
+	/**
+	 * Append the notifications recorded so far to the capture file
+	 */
+	public void flush() {
+		List<String> lines;
+		synchronized (this) {
+			if (pending.isEmpty())
+				return;
+			lines = pending;
+			pending = new ArrayList<>();
+		}
+		String text = lines.stream().map(l -> l + "\n").collect(Collectors.joining());
+		synchronized (file) {
+			try {
+				Files.write(file, text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+			} catch (IOException e) {
+				log.warn("Failed to capture {} notifications to {}: {}", lines.size(), file, e.toString());
+			}
+		}
+	}
+
+	/**
+	 * @param entry captured notification
+	 * @return the notification's line in the capture file, without the line break
+	 */
+	static String render(Entry entry) {
+		StringWriter sw = new StringWriter(entry.body.length() + 100);
+		try (JsonGenerator gen = factory.createGenerator(sw)) {
+			gen.writeStartObject();
+			gen.writeNumberField("t", entry.time);
+			gen.writeStringField("src", entry.source.name().toLowerCase());
+			if (Objects.nonNull(entry.id))
+				gen.writeStringField("id", entry.id);
+			gen.writeStringField("body", entry.body);
+			gen.writeEndObject();
+		} catch (IOException e) { // can't really happen when writing to a string
+			return "{}";
+		}
+		return sw.toString();
+	}
+
+	/**
+	 * Read captured notifications
+	 * @param paths capture files, or directories whose {@code .jsonl} files are read
+	 * @return the notifications of all the files, in the order they arrived
+	 * @throws IOException if a file can't be read or has an invalid line
+	 */
+	public static List<Entry> read(List<Path> paths) throws IOException {
+		List<Entry> entries = new ArrayList<>();
+		for (Path path : paths) {
+			List<Path> files;
+			if (Files.isDirectory(path))
+				try (Stream<Path> list = Files.list(path)) {
+					files = list.filter(p -> p.toString().endsWith(".jsonl")).sorted().collect(Collectors.toList());
+				}
+			else
+				files = List.of(path);
+			for (Path file : files)
+				for (String line : Files.readAllLines(file, StandardCharsets.UTF_8))
+					if (!line.isBlank())
+						entries.add(parse(line));
+		}
+		entries.sort(Comparator.comparingLong(e -> e.time));
+		return entries;
+	}
+
+	private static Entry parse(String line) throws IOException {
+		JsonNode node = mapper.readTree(line);
+		if (!node.has("t") || !node.has("src") || !node.has("body"))
+			throw new IOException("Invalid capture line: " + line);
+		return new Entry(node.get("t").asLong(), Source.valueOf(node.get("src").asText().toUpperCase()),
+				node.has("id") ? node.get("id").asText() : null, node.get("body").asText());
+	}
+}
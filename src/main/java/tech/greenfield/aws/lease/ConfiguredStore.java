@@ -0,0 +1,12 @@
+package tech.greenfield.aws.lease;
+
+/**
+ * The lease store set by {@link LeaseStore#set(LeaseStore)}, used instead of the one configured in the environment
+ */
+final class ConfiguredStore {
+
+	static volatile LeaseStore override;
+
+	private ConfiguredStore() {
+	}
+}
@@ -0,0 +1,79 @@
+package tech.greenfield.aws.lease;
+
+import static tech.greenfield.aws.Clients.dynamodb;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+
+/**
+ * Leases kept as items in a DynamoDB table, acquired and released with conditional writes, serializing updates
+ * across all Lambda instances.
+ *
+ * The table's partition key is the string attribute {@value #KEY}. Each item holds the owner and the expiry time
+ * (in epoch milliseconds) of the key's last lease.
+ */
+public class DynamoDbLeaseStore implements LeaseStore {
+
+	static final String KEY = "LeaseKey";
+	private static final String RELEASED = "-";
+	private static final Map<String, String> NAMES = Map.of("#owner", "Owner", "#expires", "Expires");
+
+	private final String table;
+
+	/**
+	 * @param table name of the DynamoDB table to keep leases in
+	 */
+	public DynamoDbLeaseStore(String table) {
+		this.table = table;
+	}
+
+	@Override
+	public CompletableFuture<Lease> tryAcquire(String key, Duration ttl) {
+		String owner = UUID.randomUUID().toString();
+		Instant now = Instant.now(), expires = now.plus(ttl);
+		return dynamodb().updateItem(b -> b.tableName(table)
+				.key(Map.of(KEY, s(key)))
+				.updateExpression("SET #owner = :owner, #expires = :expires")
+				.conditionExpression("attribute_not_exists(#expires) OR #expires <= :now")
+				.expressionAttributeNames(NAMES)
+				.expressionAttributeValues(Map.of(":owner", s(owner), ":expires", n(expires.toEpochMilli()),
+						":now", n(now.toEpochMilli()))))
+				.thenApply(res -> new Lease(key, owner, expires))
+				.exceptionally(t -> {
+					if (t instanceof CompletionException && t.getCause() instanceof ConditionalCheckFailedException)
+						return null; // held by someone else
+					throw t instanceof CompletionException ? (CompletionException) t : new CompletionException(t);
+				});
+	}
+
+	@Override
+	public CompletableFuture<Void> release(Lease lease) {
+		return dynamodb().updateItem(b -> b.tableName(table)
+				.key(Map.of(KEY, s(lease.getKey())))
+				.updateExpression("SET #owner = :released, #expires = :zero")
+				.conditionExpression("#owner = :owner")
+				.expressionAttributeNames(NAMES)
+				.expressionAttributeValues(Map.of(":released", s(RELEASED), ":zero", n(0), ":owner", s(lease.getOwner()))))
+				.<Void>thenApply(res -> null)
+				.exceptionally(t -> {
+					if (t instanceof CompletionException && t.getCause() instanceof ConditionalCheckFailedException)
+						return null; // already expired and taken by someone else
+					throw t instanceof CompletionException ? (CompletionException) t : new CompletionException(t);
+				});
+	}
+
+	private static AttributeValue s(String value) {
+		return AttributeValue.builder().s(value).build();
+	}
+
+	private static AttributeValue n(long value) {
+		return AttributeValue.builder().n(Long.toString(value)).build();
+	}
+}
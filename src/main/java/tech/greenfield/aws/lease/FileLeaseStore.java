@@ -0,0 +1,99 @@
+package tech.greenfield.aws.lease;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Leases kept in files, one per key, serializing updates between processes on the same machine - for local
+ * testing. Each file holds the owner and the expiry time of the key's last lease, and is read and written while
+ * holding a file lock.
+ */
+public class FileLeaseStore implements LeaseStore {
+
+	private static final String RELEASED = "-";
+
+	private final Path directory;
+	/** file locks are held by the JVM, so threads of the same JVM also need to be serialized */
+	private final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+	public FileLeaseStore(Path directory) {
+		this.directory = directory;
+	}
+
+	@Override
+	public CompletableFuture<Lease> tryAcquire(String key, Duration ttl) {
+		try {
+			return CompletableFuture.completedFuture(update(key, current -> {
+				Instant now = Instant.now();
+				if (!current.getOwner().equals(RELEASED) && current.getExpires().isAfter(now))
+					return null;
+				return new Lease(key, UUID.randomUUID().toString(), now.plus(ttl));
+			}));
+		} catch (UncheckedIOException e) {
+			return CompletableFuture.failedFuture(e.getCause());
+		}
+	}
+
+	@Override
+	public CompletableFuture<Void> release(Lease lease) {
+		try {
+			update(lease.getKey(), current -> current.getOwner().equals(lease.getOwner()) ?
+					new Lease(lease.getKey(), RELEASED, Instant.EPOCH) : null);
+			return CompletableFuture.completedFuture(null);
+		} catch (UncheckedIOException e) {
+			return CompletableFuture.failedFuture(e.getCause());
+		}
+	}
+
+	/**
+	 * Read a key's lease file and write an updated lease to it, while holding the file lock
+	 * @param update computes the lease to write from the current lease, or returns null to leave the file as is
+	 * @return the lease written, or null if the file wasn't changed
+	 */
+	private Lease update(String key, Function<Lease, Lease> update) {
+		synchronized (locks.computeIfAbsent(key, k -> new Object())) {
+			try {
+				Files.createDirectories(directory);
+				Path file = directory.resolve(URLEncoder.encode(key, StandardCharsets.UTF_8));
+				try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+						StandardOpenOption.WRITE); FileLock lock = channel.lock()) {
+					ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+					while (buffer.hasRemaining() && channel.read(buffer) >= 0);
+					Lease next = update.apply(parse(key, new String(buffer.array(), StandardCharsets.UTF_8)));
+					if (Objects.nonNull(next)) {
+						channel.truncate(0);
+						channel.write(ByteBuffer.wrap((next.getOwner() + " " + next.getExpires().toEpochMilli())
+								.getBytes(StandardCharsets.UTF_8)), 0);
+						channel.force(false);
+					}
+					return next;
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	private static Lease parse(String key, String content) {
+		String[] fields = content.trim().split(" ");
+		if (fields.length < 2)
+			return new Lease(key, RELEASED, Instant.EPOCH);
+		return new Lease(key, fields[0], Instant.ofEpochMilli(Long.parseLong(fields[1])));
+	}
+}
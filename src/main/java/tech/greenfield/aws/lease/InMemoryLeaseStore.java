@@ -0,0 +1,44 @@
+package tech.greenfield.aws.lease;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Leases kept in memory, serializing updates within a single JVM
+ */
+public class InMemoryLeaseStore implements LeaseStore {
+
+	private static final InMemoryLeaseStore instance = new InMemoryLeaseStore();
+
+	private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+
+	/**
+	 * @return the lease store shared by all the handlers in this JVM
+	 */
+	public static InMemoryLeaseStore get() {
+		return instance;
+	}
+
+	@Override
+	public CompletableFuture<Lease> tryAcquire(String key, Duration ttl) {
+		Instant now = Instant.now();
+		Lease[] acquired = new Lease[1];
+		leases.compute(key, (k, held) -> {
+			if (Objects.nonNull(held) && held.getExpires().isAfter(now))
+				return held;
+			return acquired[0] = new Lease(key, UUID.randomUUID().toString(), now.plus(ttl));
+		});
+		return CompletableFuture.completedFuture(acquired[0]);
+	}
+
+	@Override
+	public CompletableFuture<Void> release(Lease lease) {
+		leases.computeIfPresent(lease.getKey(), (k, held) -> held.getOwner().equals(lease.getOwner()) ? null : held);
+		return CompletableFuture.completedFuture(null);
+	}
+}
@@ -0,0 +1,54 @@
+package tech.greenfield.aws.lease;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * A lease held on a key until it is released or it expires.
+ *
+ * A holder whose lease has expired can't release it, and should not write anything that the lease protects -
+ * check {@link #isValid()} right before writing. The writes themselves don't check the lease, so this only
+ * narrows the time in which a holder whose lease expired could overwrite the changes of the next holder.
+ */
+public class Lease {
+
+	/** Time before the expiry after which a lease is no longer considered valid, to allow for clock skew */
+	static final Duration SAFETY_MARGIN = Duration.ofSeconds(2);
+
+	private final String key;
+	private final String owner;
+	private final Instant expires;
+
+	public Lease(String key, String owner, Instant expires) {
+		this.key = key;
+		this.owner = owner;
+		this.expires = expires;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * @return unique identifier of this lease's holder, different for each time the key is leased
+	 */
+	public String getOwner() {
+		return owner;
+	}
+
+	public Instant getExpires() {
+		return expires;
+	}
+
+	/**
+	 * @return whether the lease is still held, with a safety margin before it expires
+	 */
+	public boolean isValid() {
+		return Instant.now().plus(SAFETY_MARGIN).isBefore(expires);
+	}
+
+	@Override
+	public String toString() {
+		return key + " until " + expires;
+	}
+}
@@ -0,0 +1,150 @@
+package tech.greenfield.aws.lease;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import tech.greenfield.aws.Scheduler;
+
+/**
+ * Storage of leases on keys, with expiry, used to serialize updates to the same record sets
+ * across concurrent invocations. The store is selected using the {@code LEASE_STORE} environment variable:
+ * <ul>
+ * <li>{@code memory} - leases in memory, only serializing updates within the same Lambda instance</li>
+ * <li>{@code file} - lease files in the {@code LEASE_DIR} directory (default {@code /tmp/route53-leases}), for
+ * local testing with several processes</li>
+ * <li>{@code dynamodb} - items in the {@code LEASE_TABLE} DynamoDB table, written with conditional writes</li>
+ * </ul>
+ * If not set, no leases are taken.
+ */
+public interface LeaseStore {
+
+	static final Logger log = LoggerFactory.getLogger(LeaseStore.class.getName());
+	/** Initial delay between attempts to acquire a lease that is held by someone else */
+	static final long POLL_DELAY = 100;
+	static final long MAX_POLL_DELAY = 2000;
+
+	/**
+	 * Try to acquire a lease on a key
+	 * @param key key to lease
+	 * @param ttl how long the lease is held, unless released
+	 * @return a future that will be completed with the acquired lease, or with null if the key is leased by
+	 * someone else
+	 */
+	CompletableFuture<Lease> tryAcquire(String key, Duration ttl);
+
+	/**
+	 * Release a lease, if it is still held
+	 * @param lease lease to release
+	 * @return a future that will be completed when the lease was released
+	 */
+	CompletableFuture<Void> release(Lease lease);
+
+	/**
+	 * Acquire a lease on a key, waiting for it to become available
+	 * @param key key to lease
+	 * @param ttl how long the lease is held, unless released
+	 * @param timeout how long to wait for the lease to become available
+	 * @return a future that will be completed with the acquired lease, or fail with a
+	 * {@link LeaseUnavailableException} if it wasn't available in time
+	 */
+	default CompletableFuture<Lease> acquire(String key, Duration ttl, Duration timeout) {
+		return acquire(key, ttl, System.currentTimeMillis() + timeout.toMillis(), POLL_DELAY);
+	}
+
+	private CompletableFuture<Lease> acquire(String key, Duration ttl, long deadline, long delay) {
+		return tryAcquire(key, ttl).thenCompose(lease -> {
+			if (Objects.nonNull(lease))
+				return CompletableFuture.completedFuture(lease);
+			if (System.currentTimeMillis() + delay > deadline)
+				return CompletableFuture.failedFuture(new LeaseUnavailableException("Timed out waiting for lease on " + key));
+			log.debug("Lease on {} is held, retrying in {}ms", key, delay);
+			return Scheduler.after(delay + ThreadLocalRandom.current().nextLong(delay / 2 + 1),
+					() -> acquire(key, ttl, deadline, Math.min(delay * 2, MAX_POLL_DELAY)));
+		});
+	}
+
+	/**
+	 * Acquire leases on several keys, one after the other in a consistent order so that concurrent callers
+	 * don't deadlock. If a lease can't be acquired, the leases already acquired are released.
+	 * @param keys keys to lease
+	 * @param ttl how long the leases are held, unless released
+	 * @param timeout how long to wait for each lease to become available
+	 * @return a future that will be completed with the acquired leases
+	 */
+	default CompletableFuture<List<Lease>> acquireAll(Collection<String> keys, Duration ttl, Duration timeout) {
+		List<String> ordered = keys.stream().distinct().sorted().collect(Collectors.toList());
+		List<Lease> acquired = new ArrayList<>(ordered.size());
+		CompletableFuture<Void> result = CompletableFuture.completedFuture(null);
+		for (String key : ordered)
+			result = result.thenCompose(v -> acquire(key, ttl, timeout)).thenAccept(acquired::add);
+		return result.handle((v, t) -> {
+			if (Objects.isNull(t))
+				return CompletableFuture.completedFuture(acquired);
+			return releaseAll(acquired).<List<Lease>>thenCompose(r -> CompletableFuture.failedFuture(t));
+		}).thenCompose(f -> f);
+	}
+
+	/**
+	 * Release leases, ignoring failures - a lease that failed to be released will expire
+	 * @param leases leases to release
+	 * @return a future that will be completed when all the leases were released
+	 */
+	default CompletableFuture<Void> releaseAll(List<Lease> leases) {
+		return CompletableFuture.allOf(leases.stream().map(l -> release(l).exceptionally(t -> {
+			log.warn("Failed to release {}: {}", l, t.toString());
+			return null;
+		})).toArray(CompletableFuture[]::new));
+	}
+
+	/**
+	 * Use the specified lease store instead of the one configured in the environment
+	 * @param store lease store to use, or null to use the one configured in the environment
+	 */
+	static void set(LeaseStore store) {
+		ConfiguredStore.override = store;
+	}
+
+	/**
+	 * @return the lease store configured in the environment, or null if leases are not used
+	 */
+	static LeaseStore fromEnvironment() {
+		LeaseStore override = ConfiguredStore.override;
+		if (Objects.nonNull(override))
+			return override;
+		String type = System.getenv().getOrDefault("LEASE_STORE", "").trim().toLowerCase();
+		switch (type) {
+		case "":
+		case "none":
+			return null;
+		case "memory":
+			return InMemoryLeaseStore.get();
+		case "file":
+			return new FileLeaseStore(Paths.get(System.getenv().getOrDefault("LEASE_DIR", "/tmp/route53-leases")));
+		case "dynamodb":
+			return new DynamoDbLeaseStore(Objects.requireNonNull(System.getenv("LEASE_TABLE"),
+					"Please specify the lease table using the LEASE_TABLE environment variable"));
+		default:
+			log.warn("Unknown lease store '{}', not using leases", type);
+			return null;
+		}
+	}
+
+	/**
+	 * @return how long leases are held unless released, as set in the {@code LEASE_TTL} environment variable in
+	 * seconds
+	 */
+	static Duration ttl() {
+		try {
+			return Duration.ofSeconds(Long.parseLong(System.getenv().getOrDefault("LEASE_TTL", "120")));
+		} catch (NumberFormatException e) {
+			return Duration.ofSeconds(120);
+		}
+	}
+}
@@ -0,0 +1,13 @@
+package tech.greenfield.aws.lease;
+
+/**
+ * A lease could not be acquired in time
+ */
+public class LeaseUnavailableException extends RuntimeException {
+
+	private static final long serialVersionUID = -2203480935187062416L;
+
+	public LeaseUnavailableException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,149 @@
+package tech.greenfield.aws.logging;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.event.Level;
+
+/**
+ * Asynchronous log output, backed by a bounded ring buffer that is drained by a single daemon thread.
+ *
+ * Callers only pay for enqueuing a captured event - message formatting and JSON rendering are done
+ * on the writer thread. If the buffer is full, the caller waits for the writer to make room, so a
+ * logging burst slows down the caller but output stays in order. An event that still doesn't fit
+ * after a second - the output is stuck - is dropped, and the number of dropped events is logged
+ * with the next events written.
+ *
+ * Because the Lambda execution environment is frozen as soon as the handler returns, handlers must
+ * call {@link #flush()} before returning, to make sure all the output reaches CloudWatch.
+ */
+public class AsyncAppender {
+
+	private static final int DEFAULT_CAPACITY = 4096;
+	private static final long FLUSH_TIMEOUT = 2000;
+	private static final long BLOCK_TIMEOUT = 1000;
+
+	private final ArrayBlockingQueue<Object> ring;
+	private final Writer out;
+	private final LogFormat format;
+	private final Thread writer;
+	private final AtomicLong published = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private volatile long written = 0;
+	private final Object writtenLock = new Object();
+
+	AsyncAppender(OutputStream out, LogFormat format, int capacity) {
+		this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 16384);
+		this.format = format;
+		ring = new ArrayBlockingQueue<>(capacity);
+		writer = new Thread(this::drain, "log-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	AsyncAppender(LogFormat format) {
+		this(new FileOutputStream(FileDescriptor.out), format, DEFAULT_CAPACITY);
+	}
+
+	void append(LogEvent event) {
+		enqueue(event);
+	}
+
+	/**
+	 * Append a pre-rendered line to the output, in order with the log events. This is useful
+	 * for structured output that must appear verbatim on stdout, such as CloudWatch embedded metrics
+	 * @param line text to write, without a line terminator
+	 */
+	public void appendRaw(String line) {
+		enqueue(line);
+	}
+
+	private void enqueue(Object item) {
+		published.incrementAndGet();
+		if (ring.offer(item))
+			return;
+		// the buffer is full: wait for room rather than write ahead of the buffered events - unless this is the
+		// writer thread itself, logging while rendering an event, which would wait for itself
+		try {
+			if (Thread.currentThread() != writer && ring.offer(item, BLOCK_TIMEOUT, TimeUnit.MILLISECONDS))
+				return;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		dropped.incrementAndGet();
+		markWritten(1);
+	}
+
+	/**
+	 * Wait until everything logged up to now was written out
+	 */
+	public void flush() {
+		long target = published.get();
+		long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT;
+		synchronized (writtenLock) {
+			while (written < target) {
+				long left = deadline - System.currentTimeMillis();
+				if (left <= 0)
+					return;
+				try {
+					writtenLock.wait(left);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	private void drain() {
+		ArrayList<Object> batch = new ArrayList<>(256);
+		while (true) {
+			try {
+				Object first = ring.poll(1, TimeUnit.MINUTES);
+				if (first == null)
+					continue;
+				batch.add(first);
+				ring.drainTo(batch, 255);
+				synchronized (out) {
+					long lost = dropped.getAndSet(0);
+					if (lost > 0)
+						write(new LogEvent(Level.WARN, AsyncAppender.class.getName(),
+								"Log buffer full, dropped {} log events", new Object[] { lost }, null, Collections.emptyMap()));
+					batch.forEach(this::write);
+					out.flush();
+				}
+				markWritten(batch.size());
+				batch.clear();
+			} catch (InterruptedException e) {
+				return;
+			} catch (IOException e) { // nothing sensible we can do about failing to write stdout
+				markWritten(batch.size());
+				batch.clear();
+			}
+		}
+	}
+
+	private void write(Object item) {
+		try {
+			out.write(item instanceof LogEvent ? format.render((LogEvent)item) : item.toString());
+			out.write('\n');
+		} catch (IOException e) {
+		} catch (RuntimeException e) { // a broken toString() should not kill the writer
+			try {
+				out.write("Error rendering log event: " + e + "\n");
+			} catch (IOException e1) { }
+		}
+	}
+
+	private void markWritten(int count) {
+		synchronized (writtenLock) {
+			written += count;
+			writtenLock.notifyAll();
+		}
+	}
+}
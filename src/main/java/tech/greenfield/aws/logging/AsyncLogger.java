@@ -0,0 +1,77 @@
+package tech.greenfield.aws.logging;
+
+import java.util.*;
+
+import org.slf4j.MDC;
+import org.slf4j.Marker;
+import org.slf4j.event.Level;
+import org.slf4j.helpers.LegacyAbstractLogger;
+
+/**
+ * SLF4J logger that checks the level on the calling thread and hands everything else
+ * to the {@link AsyncAppender}. A logger may carry correlation fields that are added to
+ * every event it logs, see {@link Logging#withFields(org.slf4j.Logger, String...)}
+ */
+class AsyncLogger extends LegacyAbstractLogger {
+
+	private static final long serialVersionUID = 1L;
+
+	private final transient AsyncAppender appender;
+	private final int level;
+	private final Map<String, String> fields;
+
+	AsyncLogger(String name, Level level, AsyncAppender appender, Map<String, String> fields) {
+		this.name = name;
+		this.level = level.toInt();
+		this.appender = appender;
+		this.fields = fields;
+	}
+
+	AsyncLogger withFields(Map<String, String> moreFields) {
+		LinkedHashMap<String, String> all = new LinkedHashMap<>(fields);
+		all.putAll(moreFields);
+		return new AsyncLogger(name, Level.intToLevel(level), appender, Collections.unmodifiableMap(all));
+	}
+
+	@Override
+	public boolean isTraceEnabled() {
+		return level <= Level.TRACE.toInt();
+	}
+
+	@Override
+	public boolean isDebugEnabled() {
+		return level <= Level.DEBUG.toInt();
+	}
+
+	@Override
+	public boolean isInfoEnabled() {
+		return level <= Level.INFO.toInt();
+	}
+
+	@Override
+	public boolean isWarnEnabled() {
+		return level <= Level.WARN.toInt();
+	}
+
+	@Override
+	public boolean isErrorEnabled() {
+		return level <= Level.ERROR.toInt();
+	}
+
+	@Override
+	protected String getFullyQualifiedCallerName() {
+		return null;
+	}
+
+	@Override
+	protected void handleNormalizedLoggingCall(Level level, Marker marker, String messagePattern, Object[] arguments,
+			Throwable throwable) {
+		Map<String, String> mdc = MDC.getCopyOfContextMap();
+		Map<String, String> eventFields = fields;
+		if (mdc != null && !mdc.isEmpty()) {
+			eventFields = new LinkedHashMap<>(mdc);
+			eventFields.putAll(fields);
+		}
+		appender.append(new LogEvent(level, name, messagePattern, arguments, throwable, eventFields));
+	}
+}
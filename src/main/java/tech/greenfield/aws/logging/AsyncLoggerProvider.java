@@ -0,0 +1,103 @@
+package tech.greenfield.aws.logging;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.ILoggerFactory;
+import org.slf4j.IMarkerFactory;
+import org.slf4j.Logger;
+import org.slf4j.event.Level;
+import org.slf4j.helpers.BasicMDCAdapter;
+import org.slf4j.helpers.BasicMarkerFactory;
+import org.slf4j.spi.MDCAdapter;
+import org.slf4j.spi.SLF4JServiceProvider;
+
+/**
+ * SLF4J binding for the asynchronous logger.
+ *
+ * Log levels are read from the {@code route53-logging.properties} resource, where {@code defaultLogLevel}
+ * sets the root level and {@code log.<prefix>} sets the level for loggers whose names start with the prefix.
+ * The following environment variables override the resource:
+ * <ul>
+ * <li>{@code LOG_LEVEL} - default log level</li>
+ * <li>{@code DEBUG} - if not empty, sets the default log level to debug</li>
+ * <li>{@code LOG_FORMAT} - either {@code text} (the default) or {@code json}</li>
+ * </ul>
+ */
+public class AsyncLoggerProvider implements SLF4JServiceProvider, ILoggerFactory {
+
+	private static final String CONFIG_RESOURCE = "route53-logging.properties";
+
+	private final ConcurrentHashMap<String, Logger> loggers = new ConcurrentHashMap<>();
+	private final TreeMap<String, Level> levels = new TreeMap<>();
+	private Level defaultLevel = Level.INFO;
+	private AsyncAppender appender;
+	private MDCAdapter mdcAdapter;
+	private IMarkerFactory markerFactory;
+
+	@Override
+	public void initialize() {
+		Properties config = new Properties();
+		try (InputStream in = AsyncLoggerProvider.class.getClassLoader().getResourceAsStream(CONFIG_RESOURCE)) {
+			if (Objects.nonNull(in))
+				config.load(in);
+		} catch (IOException e) { // use defaults
+		}
+		defaultLevel = parseLevel(config.getProperty("defaultLogLevel"), Level.INFO);
+		config.stringPropertyNames().stream().filter(k -> k.startsWith("log."))
+				.forEach(k -> levels.put(k.substring(4), parseLevel(config.getProperty(k), defaultLevel)));
+		if (!System.getenv().getOrDefault("DEBUG", "").isEmpty())
+			defaultLevel = Level.DEBUG;
+		defaultLevel = parseLevel(System.getenv("LOG_LEVEL"), defaultLevel);
+		appender = new AsyncAppender(LogFormat.fromName(
+				System.getenv().getOrDefault("LOG_FORMAT", config.getProperty("format", "text"))));
+		mdcAdapter = new BasicMDCAdapter();
+		markerFactory = new BasicMarkerFactory();
+		Logging.appender = appender;
+	}
+
+	@Override
+	public Logger getLogger(String name) {
+		return loggers.computeIfAbsent(name, n -> new AsyncLogger(n, levelFor(n), appender, Collections.emptyMap()));
+	}
+
+	private Level levelFor(String name) {
+		for (Map.Entry<String, Level> e = levels.floorEntry(name); Objects.nonNull(e); e = levels.lowerEntry(e.getKey()))
+			if (name.startsWith(e.getKey()))
+				return e.getValue();
+		return defaultLevel;
+	}
+
+	private static Level parseLevel(String level, Level defaultLevel) {
+		if (Objects.isNull(level) || level.isBlank())
+			return defaultLevel;
+		try {
+			return Level.valueOf(level.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			return defaultLevel;
+		}
+	}
+
+	@Override
+	public ILoggerFactory getLoggerFactory() {
+		return this;
+	}
+
+	@Override
+	public IMarkerFactory getMarkerFactory() {
+		return markerFactory;
+	}
+
+	@Override
+	public MDCAdapter getMDCAdapter() {
+		return mdcAdapter;
+	}
+
+	@Override
+	public String getRequestedApiVersion() {
+		return "2.0.99";
+	}
+
+}
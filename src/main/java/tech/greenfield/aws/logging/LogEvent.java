@@ -0,0 +1,31 @@
+package tech.greenfield.aws.logging;
+
+import java.util.Map;
+
+import org.slf4j.event.Level;
+
+/**
+ * A captured, not yet rendered, logging call.
+ * Message formatting is deferred to the writer thread, so arguments should be immutable
+ * (or lazy, see {@link Logging#lazy(java.util.function.Supplier)})
+ */
+class LogEvent {
+	final long timestamp = System.currentTimeMillis();
+	final String thread = Thread.currentThread().getName();
+	final Level level;
+	final String logger;
+	final String pattern;
+	final Object[] arguments;
+	final Throwable throwable;
+	final Map<String, String> fields;
+
+	LogEvent(Level level, String logger, String pattern, Object[] arguments, Throwable throwable,
+			Map<String, String> fields) {
+		this.level = level;
+		this.logger = logger;
+		this.pattern = pattern;
+		this.arguments = arguments;
+		this.throwable = throwable;
+		this.fields = fields;
+	}
+}
@@ -0,0 +1,76 @@
+package tech.greenfield.aws.logging;
+
+import java.io.*;
+import java.time.Instant;
+import java.util.Map;
+
+import org.slf4j.helpers.MessageFormatter;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Rendering of log events to output lines
+ */
+enum LogFormat {
+	/**
+	 * Plain text, similar to the slf4j-simple format
+	 */
+	TEXT {
+		@Override
+		String render(LogEvent event) {
+			StringBuilder sb = new StringBuilder(128).append('[').append(event.thread).append("] ")
+					.append(event.level).append(' ').append(event.logger).append(" - ");
+			event.fields.forEach((k,v) -> sb.append(k).append('=').append(v).append(' '));
+			sb.append(message(event));
+			if (event.throwable != null) {
+				StringWriter sw = new StringWriter();
+				event.throwable.printStackTrace(new PrintWriter(sw));
+				sb.append('\n').append(sw.toString().stripTrailing());
+			}
+			return sb.toString();
+		}
+	},
+	/**
+	 * One JSON object per line, which CloudWatch Logs Insights can query by field
+	 */
+	JSON {
+		@Override
+		String render(LogEvent event) {
+			StringWriter sw = new StringWriter(256);
+			try (JsonGenerator gen = factory.createGenerator(sw)) {
+				gen.writeStartObject();
+				gen.writeStringField("timestamp", Instant.ofEpochMilli(event.timestamp).toString());
+				gen.writeStringField("level", event.level.toString());
+				gen.writeStringField("logger", event.logger);
+				gen.writeStringField("thread", event.thread);
+				for (Map.Entry<String, String> field : event.fields.entrySet())
+					gen.writeStringField(field.getKey(), field.getValue());
+				gen.writeStringField("message", message(event));
+				if (event.throwable != null) {
+					StringWriter trace = new StringWriter();
+					event.throwable.printStackTrace(new PrintWriter(trace));
+					gen.writeStringField("exception", trace.toString());
+				}
+				gen.writeEndObject();
+			} catch (IOException e) { // can't really happen when writing to a string
+				return "Error rendering log event: " + e;
+			}
+			return sw.toString();
+		}
+	};
+
+	private static final JsonFactory factory = new JsonFactory();
+
+	abstract String render(LogEvent event);
+
+	static String message(LogEvent event) {
+		if (event.arguments == null || event.arguments.length == 0)
+			return event.pattern;
+		return MessageFormatter.basicArrayFormat(event.pattern, event.arguments);
+	}
+
+	static LogFormat fromName(String name) {
+		return "json".equalsIgnoreCase(name) ? JSON : TEXT;
+	}
+}
@@ -0,0 +1,70 @@
+package tech.greenfield.aws.logging;
+
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+
+/**
+ * Logging helpers that keep diagnostic logging cheap on the hot path.
+ *
+ * Use parameterized logging with {@link #lazy(Supplier)} arguments for anything expensive to render,
+ * so that the rendering only happens - on the log writer thread - if the level is enabled.
+ */
+public class Logging {
+
+	static volatile AsyncAppender appender;
+
+	/**
+	 * Create a log argument whose string value is only computed if it is actually logged
+	 * @param renderer supplier of the value to log
+	 * @return object whose {@code toString()} calls the supplier
+	 */
+	public static Object lazy(Supplier<?> renderer) {
+		return new Object() {
+			@Override
+			public String toString() {
+				return String.valueOf(renderer.get());
+			}
+		};
+	}
+
+	/**
+	 * Create a logger that adds the specified correlation fields to every event it logs.
+	 * Unlike the MDC, the fields are not thread bound, so they survive hops between the
+	 * threads that complete asynchronous calls.
+	 * @param logger logger to add fields to
+	 * @param keyValues alternating field names and values. Fields with null values are skipped
+	 * @return a logger with the fields, or the original logger if it is not managed by {@link AsyncLoggerProvider}
+	 */
+	public static Logger withFields(Logger logger, String... keyValues) {
+		if (!(logger instanceof AsyncLogger))
+			return logger;
+		LinkedHashMap<String, String> fields = new LinkedHashMap<>();
+		for (int i = 0; i + 1 < keyValues.length; i += 2)
+			if (Objects.nonNull(keyValues[i + 1]))
+				fields.put(keyValues[i], keyValues[i + 1]);
+		return ((AsyncLogger)logger).withFields(fields);
+	}
+
+	/**
+	 * Write a line verbatim to the log output, in order with other log events
+	 * @param line text to write
+	 */
+	public static void raw(String line) {
+		if (Objects.nonNull(appender))
+			appender.appendRaw(line);
+		else
+			System.out.println(line);
+	}
+
+	/**
+	 * Wait for all pending log output to be written. Must be called before returning from the
+	 * Lambda handler, as the execution environment may be frozen right after.
+	 */
+	public static void flush() {
+		if (Objects.nonNull(appender))
+			appender.flush();
+	}
+}
@@ -0,0 +1,180 @@
+package tech.greenfield.aws.metrics;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.interceptor.*;
+
+/**
+ * SDK interceptor that counts the calls to each AWS API operation, and records their latency distribution.
+ *
+ * It is registered on all the clients created by {@link tech.greenfield.aws.Clients}. For each operation it
+ * counts calls, attempts (including SDK retries), throttled attempts and failed calls, and keeps an HdrHistogram
+ * of the call latencies (including retries). Statistics are kept until {@link #reset()}.
+ */
+public class ApiMetrics implements ExecutionInterceptor {
+
+	private static final ApiMetrics instance = new ApiMetrics();
+	private static final ExecutionAttribute<Long> START = new ExecutionAttribute<>("ApiMetricsStart");
+	private static final ExecutionAttribute<Integer> LAST_STATUS = new ExecutionAttribute<>("ApiMetricsLastStatus");
+	/**
+	 * HTTP status codes of attempts that, when retried, were throttled: the SDK only retries 400 responses for
+	 * throttling errors (such as Route53's "Rate exceeded"), and EC2 and SQS throttle with 503
+	 */
+	private static final Set<Integer> THROTTLE_STATUS = Set.of(400, 429, 503);
+
+	private final ConcurrentHashMap<String, Operation> operations = new ConcurrentHashMap<>();
+
+	private static class Operation {
+		final String service, operation;
+		final LongAdder calls = new LongAdder(), attempts = new LongAdder(), throttles = new LongAdder(), failures = new LongAdder();
+		final Histogram latency = new ConcurrentHistogram(3); // microseconds, auto resizing
+
+		Operation(String service, String operation) {
+			this.service = service;
+			this.operation = operation;
+		}
+	}
+
+	/**
+	 * Statistics for a single API operation
+	 */
+	public static class OperationStats {
+		public final String service;
+		public final String operation;
+		public final long calls;
+		public final long attempts;
+		public final long throttles;
+		public final long failures;
+		public final double p50Millis;
+		public final double p99Millis;
+		public final double maxMillis;
+
+		private OperationStats(Operation op) {
+			service = op.service;
+			operation = op.operation;
+			calls = op.calls.sum();
+			attempts = op.attempts.sum();
+			throttles = op.throttles.sum();
+			failures = op.failures.sum();
+			Histogram latency = op.latency.copy();
+			p50Millis = latency.getValueAtPercentile(50) / 1000.0;
+			p99Millis = latency.getValueAtPercentile(99) / 1000.0;
+			maxMillis = latency.getMaxValue() / 1000.0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s.%s calls=%d attempts=%d throttles=%d failures=%d p50=%.1fms p99=%.1fms max=%.1fms",
+					service, operation, calls, attempts, throttles, failures, p50Millis, p99Millis, maxMillis);
+		}
+	}
+
+	/**
+	 * @return the interceptor shared by all the AWS clients
+	 */
+	public static ApiMetrics get() {
+		return instance;
+	}
+
+	/**
+	 * @return statistics for each operation called since the last reset, keyed by "Service.Operation"
+	 */
+	public Map<String, OperationStats> snapshot() {
+		TreeMap<String, OperationStats> stats = new TreeMap<>();
+		operations.forEach((key, op) -> stats.put(key, new OperationStats(op)));
+		return stats;
+	}
+
+	/**
+	 * @param service service name, as the SDK reports it (e.g. "Route53")
+	 * @param operation operation name (e.g. "ListResourceRecordSets")
+	 * @return number of calls to the operation since the last reset
+	 */
+	public long calls(String service, String operation) {
+		Operation op = operations.get(service + "." + operation);
+		return Objects.isNull(op) ? 0 : op.calls.sum();
+	}
+
+	/**
+	 * @return number of calls to all operations since the last reset
+	 */
+	public long totalCalls() {
+		return operations.values().stream().mapToLong(op -> op.calls.sum()).sum();
+	}
+
+	/**
+	 * @return number of throttled attempts of all operations since the last reset
+	 */
+	public long totalThrottles() {
+		return operations.values().stream().mapToLong(op -> op.throttles.sum()).sum();
+	}
+
+	public void reset() {
+		operations.clear();
+	}
+
+	/**
+	 * @return a human readable report, one line per operation
+	 */
+	public String dump() {
+		StringBuilder sb = new StringBuilder();
+		snapshot().values().forEach(s -> sb.append(sb.length() > 0 ? "\n" : "").append(s));
+		return sb.toString();
+	}
+
+	@Override
+	public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes attributes) {
+		attributes.putAttribute(START, System.nanoTime());
+		operation(attributes).calls.increment();
+	}
+
+	@Override
+	public void beforeTransmission(Context.BeforeTransmission context, ExecutionAttributes attributes) {
+		Operation op = operation(attributes);
+		op.attempts.increment();
+		// the response body isn't available to interceptors, so a throttled attempt is only known once it's retried
+		Integer previous = attributes.getAttribute(LAST_STATUS);
+		if (Objects.nonNull(previous) && THROTTLE_STATUS.contains(previous))
+			op.throttles.increment();
+	}
+
+	@Override
+	public void afterTransmission(Context.AfterTransmission context, ExecutionAttributes attributes) {
+		attributes.putAttribute(LAST_STATUS, context.httpResponse().statusCode());
+	}
+
+	@Override
+	public void afterExecution(Context.AfterExecution context, ExecutionAttributes attributes) {
+		recordLatency(attributes);
+	}
+
+	@Override
+	public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes attributes) {
+		Operation op = operation(attributes);
+		op.failures.increment();
+		// the last attempt isn't retried, so count it here if it was throttled
+		Throwable t = context.exception();
+		if (t instanceof AwsServiceException && ((AwsServiceException) t).isThrottlingException())
+			op.throttles.increment();
+		recordLatency(attributes);
+	}
+
+	private void recordLatency(ExecutionAttributes attributes) {
+		Long start = attributes.getAttribute(START);
+		if (Objects.nonNull(start))
+			operation(attributes).latency.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start)));
+	}
+
+	private Operation operation(ExecutionAttributes attributes) {
+		String service = Objects.requireNonNullElse(attributes.getAttribute(SdkExecutionAttribute.SERVICE_NAME), "unknown");
+		String operation = Objects.requireNonNullElse(attributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME), "unknown");
+		return operations.computeIfAbsent(service + "." + operation, k -> new Operation(service, operation));
+	}
+}
@@ -0,0 +1,199 @@
+package tech.greenfield.aws.metrics;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import tech.greenfield.aws.logging.Logging;
+
+/**
+ * Metrics for a single unit of work (an event or an invocation), written to stdout in the CloudWatch
+ * Embedded Metric Format (EMF), from which CloudWatch Logs extracts the metrics without any API calls.
+ *
+ * Latencies are recorded as separate samples (so CloudWatch can compute percentiles), while counts are
+ * summed. All the metrics are emitted as a single EMF object with the dimensions set on this instance.
+ * The namespace is set with the {@code METRICS_NAMESPACE} environment variable.
+ */
+public class Metrics {
+
+	public enum Unit {
+		Milliseconds, Count;
+	}
+
+	/**
+	 * An operation to time
+	 */
+	@FunctionalInterface
+	public interface Timed<T, E extends Exception> {
+		T call() throws E;
+	}
+
+	/** EMF limits the number of values per metric */
+	private static final int MAX_VALUES = 100;
+	private static final String NAMESPACE = Objects.requireNonNullElse(System.getenv("METRICS_NAMESPACE"), "Route53Updates");
+	private static final JsonFactory factory = new JsonFactory();
+	private static volatile Consumer<String> output = Logging::raw;
+
+	private final long start = System.nanoTime();
+	private final LinkedHashMap<String, String> dimensions = new LinkedHashMap<>();
+	private final LinkedHashMap<String, Values> metrics = new LinkedHashMap<>();
+
+	private static class Values {
+		final Unit unit;
+		final List<Double> values = new ArrayList<>();
+
+		Values(Unit unit) {
+			this.unit = unit;
+		}
+	}
+
+	/**
+	 * Redirect emitted metrics, for example to capture them in tests
+	 * @param consumer consumer of EMF lines, or null to restore writing to the log output
+	 */
+	public static void setOutput(Consumer<String> consumer) {
+		output = Objects.isNull(consumer) ? Logging::raw : consumer;
+	}
+
+	/**
+	 * Set a dimension for all the metrics
+	 * @param name dimension name
+	 * @param value dimension value. Dimensions without a value are reported as "none"
+	 * @return this instance
+	 */
+	public synchronized Metrics dimension(String name, String value) {
+		dimensions.put(name, Objects.requireNonNullElse(value, "none"));
+		return this;
+	}
+
+	/**
+	 * Record a sample
+	 * @param name metric name
+	 * @param value sample value
+	 * @param unit metric unit
+	 */
+	public synchronized void put(String name, double value, Unit unit) {
+		List<Double> values = metrics.computeIfAbsent(name, n -> new Values(unit)).values;
+		if (values.size() < MAX_VALUES)
+			values.add(value);
+	}
+
+	/**
+	 * Add to a count
+	 * @param name metric name
+	 * @param amount amount to add. Adding 0 makes sure the count is reported even if nothing is counted
+	 */
+	public synchronized void count(String name, long amount) {
+		List<Double> values = metrics.computeIfAbsent(name, n -> new Values(Unit.Count)).values;
+		if (values.isEmpty())
+			values.add((double) amount);
+		else
+			values.set(0, values.get(0) + amount);
+	}
+
+	public void count(String name) {
+		count(name, 1);
+	}
+
+	/**
+	 * Start an asynchronous operation and record its latency when it completes (successfully or not)
+	 * @param name metric name
+	 * @param operation operation to start
+	 * @return a future that will be completed with the operation's result, after the latency was recorded
+	 */
+	public <T> CompletableFuture<T> timeAsync(String name, Supplier<CompletableFuture<T>> operation) {
+		long opStart = System.nanoTime();
+		return operation.get().whenComplete((v,t) -> put(name, millisSince(opStart), Unit.Milliseconds));
+	}
+
+	/**
+	 * Run a blocking operation and record its latency
+	 * @param name metric name
+	 * @param operation operation to run
+	 * @return the operation's result
+	 */
+	public <T, E extends Exception> T time(String name, Timed<T, E> operation) throws E {
+		long opStart = System.nanoTime();
+		try {
+			return operation.call();
+		} finally {
+			put(name, millisSince(opStart), Unit.Milliseconds);
+		}
+	}
+
+	/**
+	 * @return milliseconds since this instance was created
+	 */
+	public double elapsed() {
+		return millisSince(start);
+	}
+
+	/**
+	 * Write the metrics recorded so far to the output
+	 */
+	public void emit() {
+		output.accept(render(System.currentTimeMillis()));
+	}
+
+	/**
+	 * @param timestamp metrics timestamp, in milliseconds since the epoch
+	 * @return the metrics as an EMF JSON object
+	 */
+	public synchronized String render(long timestamp) {
+		StringWriter sw = new StringWriter(512);
+		try (JsonGenerator gen = factory.createGenerator(sw)) {
+			gen.writeStartObject();
+			gen.writeObjectFieldStart("_aws");
+			gen.writeNumberField("Timestamp", timestamp);
+			gen.writeArrayFieldStart("CloudWatchMetrics");
+			gen.writeStartObject();
+			gen.writeStringField("Namespace", NAMESPACE);
+			gen.writeArrayFieldStart("Dimensions");
+			gen.writeStartArray();
+			for (String dimension : dimensions.keySet())
+				gen.writeString(dimension);
+			gen.writeEndArray();
+			gen.writeEndArray();
+			gen.writeArrayFieldStart("Metrics");
+			for (Map.Entry<String, Values> metric : metrics.entrySet()) {
+				gen.writeStartObject();
+				gen.writeStringField("Name", metric.getKey());
+				gen.writeStringField("Unit", metric.getValue().unit.name());
+				gen.writeEndObject();
+			}
+			gen.writeEndArray();
+			gen.writeEndObject();
+			gen.writeEndArray();
+			gen.writeEndObject();
+			for (Map.Entry<String, String> dimension : dimensions.entrySet())
+				gen.writeStringField(dimension.getKey(), dimension.getValue());
+			for (Map.Entry<String, Values> metric : metrics.entrySet()) {
+				List<Double> values = metric.getValue().values;
+				gen.writeFieldName(metric.getKey());
+				if (values.size() == 1)
+					gen.writeNumber(values.get(0));
+				else {
+					gen.writeStartArray();
+					for (Double v : values)
+						gen.writeNumber(v);
+					gen.writeEndArray();
+				}
+			}
+			gen.writeEndObject();
+		} catch (IOException e) { // can't really happen when writing to a string
+			return "Error rendering metrics: " + e;
+		}
+		return sw.toString();
+	}
+
+	private static double millisSince(long nanoStart) {
+		return (System.nanoTime() - nanoStart) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+}
@@ -0,0 +1,24 @@
+package tech.greenfield.aws.registry;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Persistent storage behind the {@link InstanceRegistry}
+ */
+public interface AddressStore {
+
+	/**
+	 * @param instanceId instance to look up
+	 * @return a future that will be completed with the instance's stored addresses, or with null if none are stored
+	 */
+	CompletableFuture<InstanceAddresses> get(String instanceId);
+
+	/**
+	 * Store and delete instances' addresses
+	 * @param changes the addresses to store by instance ID, with null values for instances whose addresses should be
+	 * deleted
+	 * @return a future that will be completed when the changes were stored
+	 */
+	CompletableFuture<Void> write(Map<String, InstanceAddresses> changes);
+}
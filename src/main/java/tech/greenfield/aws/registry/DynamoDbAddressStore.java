@@ -0,0 +1,82 @@
+package tech.greenfield.aws.registry;
+
+import static tech.greenfield.aws.Clients.dynamodb;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+/**
+ * Addresses stored as items in a DynamoDB table, whose partition key is the string attribute {@value #KEY}.
+ * Changes are written with {@code BatchWriteItem}, up to {@value #BATCH_SIZE} items per request.
+ */
+public class DynamoDbAddressStore implements AddressStore {
+
+	static final String KEY = "InstanceId";
+	private static final int BATCH_SIZE = 25;
+
+	private final String table;
+
+	public DynamoDbAddressStore(String table) {
+		this.table = table;
+	}
+
+	@Override
+	public CompletableFuture<InstanceAddresses> get(String instanceId) {
+		return dynamodb().getItem(b -> b.tableName(table).key(Map.of(KEY, s(instanceId))).consistentRead(true))
+				.thenApply(res -> res.hasItem() && !res.item().isEmpty() ? fromItem(res.item()) : null);
+	}
+
+	@Override
+	public CompletableFuture<Void> write(Map<String, InstanceAddresses> changes) {
+		List<WriteRequest> requests = new ArrayList<>(changes.size());
+		changes.forEach((id, addresses) -> requests.add(Objects.isNull(addresses) ?
+				WriteRequest.builder().deleteRequest(d -> d.key(Map.of(KEY, s(id)))).build() :
+				WriteRequest.builder().putRequest(p -> p.item(toItem(addresses))).build()));
+		CompletableFuture<Void> result = CompletableFuture.completedFuture(null);
+		for (int i = 0; i < requests.size(); i += BATCH_SIZE) {
+			List<WriteRequest> batch = requests.subList(i, Math.min(requests.size(), i + BATCH_SIZE));
+			result = result.thenCompose(v -> writeBatch(batch));
+		}
+		return result;
+	}
+
+	private CompletableFuture<Void> writeBatch(List<WriteRequest> batch) {
+		return dynamodb().batchWriteItem(b -> b.requestItems(Map.of(table, batch)))
+				.thenCompose(res -> {
+					List<WriteRequest> unprocessed = res.unprocessedItems().getOrDefault(table, Collections.emptyList());
+					return unprocessed.isEmpty() ? CompletableFuture.completedFuture(null) : writeBatch(unprocessed);
+				});
+	}
+
+	private static Map<String, AttributeValue> toItem(InstanceAddresses a) {
+		Map<String, AttributeValue> item = new HashMap<>();
+		item.put(KEY, s(a.instanceId));
+		putIfSet(item, "PublicIpAddress", a.publicIpAddress);
+		putIfSet(item, "PrivateIpAddress", a.privateIpAddress);
+		putIfSet(item, "PublicDnsName", a.publicDnsName);
+		putIfSet(item, "PrivateDnsName", a.privateDnsName);
+		putIfSet(item, "Ipv6Address", a.ipv6Address);
+		return item;
+	}
+
+	private static InstanceAddresses fromItem(Map<String, AttributeValue> item) {
+		return new InstanceAddresses(item.get(KEY).s(), get(item, "PublicIpAddress"), get(item, "PrivateIpAddress"),
+				get(item, "PublicDnsName"), get(item, "PrivateDnsName"), get(item, "Ipv6Address"));
+	}
+
+	private static void putIfSet(Map<String, AttributeValue> item, String name, String value) {
+		if (Objects.nonNull(value) && !value.isEmpty()) // DynamoDB doesn't allow empty key attributes
+			item.put(name, s(value));
+	}
+
+	private static String get(Map<String, AttributeValue> item, String name) {
+		AttributeValue value = item.get(name);
+		return Objects.nonNull(value) ? value.s() : null;
+	}
+
+	private static AttributeValue s(String value) {
+		return AttributeValue.builder().s(value).build();
+	}
+}
@@ -0,0 +1,61 @@
+package tech.greenfield.aws.registry;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Addresses stored as JSON files, one per instance, for local testing
+ */
+public class FileAddressStore implements AddressStore {
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	private final Path directory;
+
+	public FileAddressStore(Path directory) {
+		this.directory = directory;
+	}
+
+	@Override
+	public CompletableFuture<InstanceAddresses> get(String instanceId) {
+		try {
+			return CompletableFuture.completedFuture(mapper.readValue(file(instanceId).toFile(), InstanceAddresses.class));
+		} catch (NoSuchFileException | FileNotFoundException e) {
+			return CompletableFuture.completedFuture(null);
+		} catch (IOException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	@Override
+	public CompletableFuture<Void> write(Map<String, InstanceAddresses> changes) {
+		try {
+			Files.createDirectories(directory);
+			for (Map.Entry<String, InstanceAddresses> change : changes.entrySet()) {
+				Path file = file(change.getKey());
+				if (Objects.isNull(change.getValue())) {
+					Files.deleteIfExists(file);
+					continue;
+				}
+				Path temp = Files.createTempFile(directory, ".", ".tmp"); // so readers never see a partial file
+				mapper.writeValue(temp.toFile(), change.getValue());
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			return CompletableFuture.completedFuture(null);
+		} catch (IOException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	private Path file(String instanceId) {
+		return directory.resolve(URLEncoder.encode(instanceId, StandardCharsets.UTF_8) + ".json");
+	}
+}
@@ -0,0 +1,79 @@
+package tech.greenfield.aws.registry;
+
+import java.util.*;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.InstanceIpv6Address;
+import software.amazon.awssdk.services.ec2.model.InstanceNetworkInterface;
+
+/**
+ * The addresses and host names of an instance that are used in DNS records, as they were when it was registered
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class InstanceAddresses {
+
+	public final String instanceId;
+	public final String publicIpAddress;
+	public final String privateIpAddress;
+	public final String publicDnsName;
+	public final String privateDnsName;
+	public final String ipv6Address;
+
+	@JsonCreator
+	public InstanceAddresses(@JsonProperty("instanceId") String instanceId,
+			@JsonProperty("publicIpAddress") String publicIpAddress,
+			@JsonProperty("privateIpAddress") String privateIpAddress,
+			@JsonProperty("publicDnsName") String publicDnsName,
+			@JsonProperty("privateDnsName") String privateDnsName,
+			@JsonProperty("ipv6Address") String ipv6Address) {
+		this.instanceId = Objects.requireNonNull(instanceId);
+		this.publicIpAddress = publicIpAddress;
+		this.privateIpAddress = privateIpAddress;
+		this.publicDnsName = publicDnsName;
+		this.privateDnsName = privateDnsName;
+		this.ipv6Address = ipv6Address;
+	}
+
+	public static InstanceAddresses from(Instance i) {
+		String ipv6 = i.networkInterfaces().stream().flatMap(in -> in.ipv6Addresses().stream()).findFirst()
+				.map(InstanceIpv6Address::ipv6Address).orElse(null);
+		return new InstanceAddresses(i.instanceId(), i.publicIpAddress(), i.privateIpAddress(), i.publicDnsName(),
+				i.privateDnsName(), ipv6);
+	}
+
+	/**
+	 * @return an EC2 instance description with just the registered addresses
+	 */
+	public Instance toInstance() {
+		Instance.Builder i = Instance.builder().instanceId(instanceId).publicIpAddress(publicIpAddress)
+				.privateIpAddress(privateIpAddress).publicDnsName(publicDnsName).privateDnsName(privateDnsName);
+		if (Objects.nonNull(ipv6Address))
+			i.networkInterfaces(InstanceNetworkInterface.builder()
+					.ipv6Addresses(InstanceIpv6Address.builder().ipv6Address(ipv6Address).build()).build());
+		return i.build();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof InstanceAddresses))
+			return false;
+		InstanceAddresses o = (InstanceAddresses) obj;
+		return instanceId.equals(o.instanceId) && Objects.equals(publicIpAddress, o.publicIpAddress)
+				&& Objects.equals(privateIpAddress, o.privateIpAddress) && Objects.equals(publicDnsName, o.publicDnsName)
+				&& Objects.equals(privateDnsName, o.privateDnsName) && Objects.equals(ipv6Address, o.ipv6Address);
+	}
+
+	@Override
+	public int hashCode() {
+		return instanceId.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return instanceId + "[" + publicIpAddress + "/" + privateIpAddress + "/" + ipv6Address + "]";
+	}
+}
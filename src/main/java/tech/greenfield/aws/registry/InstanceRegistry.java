@@ -0,0 +1,175 @@
+package tech.greenfield.aws.registry;
+
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import software.amazon.awssdk.services.ec2.model.Instance;
+import tech.greenfield.aws.Scheduler;
+
+/**
+ * Registry of the addresses of registered instances, so that an instance can be deregistered without describing
+ * it - by then it may already be gone, or have lost its addresses.
+ *
+ * Addresses are kept in a bounded in-memory LRU map, in front of an optional persistent {@link AddressStore}.
+ * Changes are written to the store behind the handler's back: they are collected and written in one batch
+ * {@value #WRITE_BEHIND_DELAY}ms after the first pending change, or when {@link #flush()} is called at the end of
+ * the invocation - before Lambda may freeze the instance. The registry is configured using the
+ * {@code INSTANCE_REGISTRY} environment variable:
+ * <ul>
+ * <li>{@code memory} - addresses are only kept in memory, and are only known to the Lambda instance that
+ * registered them</li>
+ * <li>{@code file} - addresses are also stored in files in the {@code INSTANCE_REGISTRY_DIR} directory (default
+ * {@code /tmp/route53-instances}), for local testing</li>
+ * <li>{@code dynamodb} - addresses are also stored in the {@code INSTANCE_REGISTRY_TABLE} DynamoDB table</li>
+ * </ul>
+ * If not set, no registry is used.
+ */
+public class InstanceRegistry {
+
+	private static final Logger log = LoggerFactory.getLogger(InstanceRegistry.class.getName());
+	static final long WRITE_BEHIND_DELAY = 1000;
+	private static final int DEFAULT_SIZE = 10000;
+	private static volatile Optional<InstanceRegistry> configured;
+
+	private final AddressStore store;
+	private final Map<String, InstanceAddresses> cache;
+	/** changes not yet written to the store, with null values for deregistered instances */
+	private Map<String, InstanceAddresses> pending = new LinkedHashMap<>();
+	private CompletableFuture<Void> flushing = CompletableFuture.completedFuture(null);
+
+	/**
+	 * @param store persistent store, or null to only keep addresses in memory
+	 * @param size maximum number of instances to keep in memory
+	 */
+	public InstanceRegistry(AddressStore store, int size) {
+		this.store = store;
+		this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, InstanceAddresses> eldest) {
+				return size() > size;
+			}
+		};
+	}
+
+	/**
+	 * @return the registry configured in the environment, shared by all the handlers, or null if none is configured
+	 */
+	public static InstanceRegistry get() {
+		Optional<InstanceRegistry> registry = configured;
+		if (Objects.isNull(registry))
+			synchronized (InstanceRegistry.class) {
+				if (Objects.isNull(configured))
+					configured = Optional.ofNullable(fromEnvironment());
+				registry = configured;
+			}
+		return registry.orElse(null);
+	}
+
+	private static InstanceRegistry fromEnvironment() {
+		String type = System.getenv().getOrDefault("INSTANCE_REGISTRY", "").trim().toLowerCase();
+		int size = DEFAULT_SIZE;
+		try {
+			size = Integer.parseInt(System.getenv().getOrDefault("INSTANCE_REGISTRY_SIZE", String.valueOf(DEFAULT_SIZE)));
+		} catch (NumberFormatException e) {
+			log.warn("Invalid INSTANCE_REGISTRY_SIZE, using {}", DEFAULT_SIZE);
+		}
+		switch (type) {
+		case "":
+		case "none":
+			return null;
+		case "memory":
+			return new InstanceRegistry(null, size);
+		case "file":
+			return new InstanceRegistry(new FileAddressStore(Paths.get(System.getenv()
+					.getOrDefault("INSTANCE_REGISTRY_DIR", "/tmp/route53-instances"))), size);
+		case "dynamodb":
+			return new InstanceRegistry(new DynamoDbAddressStore(Objects.requireNonNull(System.getenv("INSTANCE_REGISTRY_TABLE"),
+					"Please specify the instance registry table using the INSTANCE_REGISTRY_TABLE environment variable")), size);
+		default:
+			log.warn("Unknown instance registry '{}', not using a registry", type);
+			return null;
+		}
+	}
+
+	/**
+	 * Record the addresses of a registered instance
+	 * @param i registered instance
+	 */
+	public void register(Instance i) {
+		InstanceAddresses addresses = InstanceAddresses.from(i);
+		synchronized (this) {
+			if (addresses.equals(cache.put(i.instanceId(), addresses)))
+				return;
+			enqueue(i.instanceId(), addresses);
+		}
+	}
+
+	/**
+	 * Forget a deregistered instance
+	 * @param instanceId deregistered instance
+	 */
+	public synchronized void deregister(String instanceId) {
+		cache.remove(instanceId);
+		enqueue(instanceId, null);
+	}
+
+	/**
+	 * @param instanceId instance to look up
+	 * @return a future that will be completed with the instance, with just its registered addresses, or with null
+	 * if it isn't registered
+	 */
+	public CompletableFuture<Instance> lookup(String instanceId) {
+		synchronized (this) {
+			InstanceAddresses addresses = cache.get(instanceId);
+			if (Objects.nonNull(addresses))
+				return CompletableFuture.completedFuture(addresses.toInstance());
+			if (Objects.isNull(store) || pending.containsKey(instanceId)) // a pending change is newer than the store
+				return CompletableFuture.completedFuture(null);
+		}
+		return store.get(instanceId).thenApply(addresses -> {
+			if (Objects.isNull(addresses))
+				return null;
+			synchronized (this) {
+				if (!pending.containsKey(instanceId))
+					cache.put(instanceId, addresses);
+			}
+			return addresses.toInstance();
+		});
+	}
+
+	/**
+	 * Write the pending changes to the store
+	 * @return a future that will be completed when all the changes made so far were written
+	 */
+	public synchronized CompletableFuture<Void> flush() {
+		if (Objects.isNull(store) || pending.isEmpty())
+			return flushing;
+		Map<String, InstanceAddresses> changes = pending;
+		pending = new LinkedHashMap<>();
+		log.debug("Writing {} instance registry changes", changes.size());
+		return flushing = flushing.exceptionally(t -> null).thenCompose(v -> store.write(changes))
+				.whenComplete((v, t) -> {
+					if (Objects.isNull(t))
+						return;
+					log.error("Failed to write instance registry changes {}: {}", changes.keySet(), t.toString());
+					synchronized (this) { // retry with the next flush, unless changed again since
+						changes.forEach(pending::putIfAbsent);
+					}
+				});
+	}
+
+	private void enqueue(String instanceId, InstanceAddresses addresses) {
+		if (Objects.isNull(store))
+			return;
+		boolean first = pending.isEmpty();
+		pending.put(instanceId, addresses);
+		if (first)
+			Scheduler.delay(WRITE_BEHIND_DELAY).thenRun(this::flush);
+	}
+}
@@ -1,13 +1,196 @@
 package tech.greenfield.aws.route53;
 
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.amazonaws.services.lambda.runtime.Context;
+
+import tech.greenfield.aws.capture.EventCapture;
+import tech.greenfield.aws.metrics.ApiMetrics;
+import tech.greenfield.aws.metrics.Metrics;
+import tech.greenfield.aws.registry.InstanceRegistry;
+import tech.greenfield.aws.tracing.Span;
+
 public class BaseNotifyRecords {
 	
 	protected final Logger log = LoggerFactory.getLogger(getClass().getName());
+	private Metrics invocationMetrics = new Metrics();
+	
+	static {
+		Priming.register();
+	}
 	
 	{
 		log.info("Route 53 update lambda version {}", Tools.getVersion());
 	}
+	
+	/**
+	 * Start collecting metrics for an invocation. Lambda doesn't run concurrent invocations on the same instance.
+	 */
+	protected void beginInvocation() {
+		invocationMetrics = new Metrics().dimension("Handler", getClass().getSimpleName());
+		invocationMetrics.count("Events", 0);
+		ApiMetrics.get().reset();
+	}
+	
+	/**
+	 * Write the captured notifications and the instance registry's pending changes, as Lambda may freeze the
+	 * instance when the invocation ends, emit the metrics of the current invocation, and log the AWS API calls it made
+	 * @param response the invocation's response
+	 */
+	protected void endInvocation(Route53UpdateResponse response) {
+		EventCapture capture = EventCapture.get();
+		if (Objects.nonNull(capture))
+			capture.flush();
+		InstanceRegistry registry = InstanceRegistry.get();
+		if (Objects.nonNull(registry))
+			try {
+				registry.flush().join();
+			} catch (CompletionException e) {
+				log.error("Failed to write the instance registry: {}", e.getCause().toString());
+			}
+		ApiMetrics api = ApiMetrics.get();
+		invocationMetrics.count("Errors", Objects.nonNull(response) && response.getStatus() ? 0 : 1);
+		invocationMetrics.count("ApiCalls", api.totalCalls());
+		invocationMetrics.count("ApiThrottles", api.totalThrottles());
+		invocationMetrics.put("InvocationTime", invocationMetrics.elapsed(), Metrics.Unit.Milliseconds);
+		invocationMetrics.emit();
+		String report = api.dump();
+		if (!report.isEmpty())
+			log.info("AWS API calls:\n{}", report);
+	}
+	
+	/**
+	 * Handle a message with the async event handler, and emit the event's metrics and trace when done
+	 * @param message message to handle
+	 * @param context Lambda invocation context
+	 * @return a future that will be completed when the event was handled
+	 */
+	protected CompletableFuture<Void> handleAsync(Route53Message message, Context context) {
+		invocationMetrics.count("Events");
+		ApiCount start = new ApiCount();
+		CompletableFuture<Void> res;
+		try {
+			res = message.createEventHandler(context).handle();
+		} catch (RuntimeException e) {
+			res = CompletableFuture.failedFuture(e);
+		}
+		return res.whenComplete((v,t) -> eventDone(message, start, t));
+	}
+	
+	/**
+	 * Handle a message with the async event handler, unless the invocation's deadline passed, and log the outcome
+	 * @param message message to handle
+	 * @param context Lambda invocation context
+	 * @param deadline invocation deadline
+	 * @return a future that will be completed with null if the event was handled - or failed - or with the reason
+	 * it should be handled again later: it wasn't finished before the deadline, or was throttled
+	 */
+	protected CompletableFuture<RetryLaterException> handleBefore(Route53Message message, Context context,
+			Deadline deadline) {
+		if (deadline.passed()) {
+			DeadlineExceededException e = new DeadlineExceededException("Deadline reached before handling the event", null);
+			message.span().end(e);
+			return CompletableFuture.completedFuture(e);
+		}
+		return handleAsync(message, context).handle((v, t) -> {
+			Throwable cause = Objects.nonNull(t) ? Tools.unwrap(t) : null;
+			if (cause instanceof RetryLaterException) {
+				log.warn("Stopped handling the event: {}", cause.getMessage());
+				return (RetryLaterException) cause;
+			}
+			if (Objects.nonNull(cause))
+				Tools.logException(log, "Unexpected error while updating Route53", cause);
+			else
+				log.info("Done updating Route53");
+			return null;
+		});
+	}
+
+	/**
+	 * Handle a message with the synchronous event handler, and emit the event's metrics and trace when done
+	 * @param message message to handle
+	 * @param context Lambda invocation context
+	 * @throws InterruptedException if interrupted while handling the event
+	 */
+	protected void handleSync(Route53Message message, Context context) throws InterruptedException {
+		invocationMetrics.count("Events");
+		ApiCount start = new ApiCount();
+		Throwable failure = null;
+		try {
+			message.createSyncEventHandler(context).handle();
+		} catch (RuntimeException | InterruptedException e) {
+			failure = e;
+			throw e;
+		} finally {
+			eventDone(message, start, failure);
+		}
+	}
+	
+	/**
+	 * Apply a burst of messages as combined changes with an {@link EventAggregator}, handle the messages it
+	 * didn't apply one by one, and emit the metrics and traces when done
+	 * @param messages messages to handle, in the order they were received
+	 * @param context Lambda invocation context
+	 * @return a future that will be completed when all the events were handled, with the events that should be
+	 * handled again later - not finished before the invocation's deadline, or throttled - and the reason
+	 */
+	protected CompletableFuture<Map<Route53Message, RetryLaterException>> handleAggregated(
+			List<Route53Message> messages, Context context) {
+		Deadline deadline = Deadline.of(context);
+		EventAggregator aggregator = new EventAggregator(messages, deadline);
+		Map<Route53Message, RetryLaterException> unfinished = Collections.synchronizedMap(new LinkedHashMap<>());
+		ApiCount start = new ApiCount();
+		return aggregator.apply()
+				.handle((fallback, t) -> {
+					Throwable cause = Objects.nonNull(t) ? Tools.unwrap(t) : null;
+					if (cause instanceof RetryLaterException) { // the changes may be pending, so don't redo them now
+						log.warn("Stopped applying the combined changes: {}", cause.getMessage());
+						messages.forEach(m -> unfinished.put(m, (RetryLaterException) cause));
+						fallback = Collections.emptyList();
+					}
+					List<Route53Message> separate = Objects.nonNull(fallback) ? fallback : messages;
+					invocationMetrics.count("Events", messages.size() - separate.size());
+					eventDone(aggregator.metrics(), aggregator.span(), start, t);
+					for (Route53Message message : messages)
+						if (!separate.contains(message))
+							message.span().end(unfinished.get(message));
+					CompletableFuture<Void> res = CompletableFuture.completedFuture(null);
+					for (Route53Message message : separate)
+						res = res.thenCompose(v -> handleBefore(message, context, deadline))
+								.thenAccept(e -> {
+									if (Objects.nonNull(e))
+										unfinished.put(message, e);
+								});
+					return res.thenApply(v -> unfinished);
+				})
+				.thenCompose(f -> f);
+	}
+
+	/**
+	 * Emit the event's metrics and end its trace. The event's API calls are counted as the difference from
+	 * the totals when it started, which is accurate as the handlers process an invocation's events one at a time.
+	 */
+	private void eventDone(Route53Message message, ApiCount start, Throwable failure) {
+		eventDone(message.metrics(), message.span(), start, failure);
+	}
+
+	private void eventDone(Metrics metrics, Span span, ApiCount start, Throwable failure) {
+		ApiMetrics api = ApiMetrics.get();
+		metrics.count("Errors", Objects.isNull(failure) ? 0 : 1);
+		metrics.count("ApiCalls", Math.max(0, api.totalCalls() - start.calls));
+		metrics.count("ApiThrottles", Math.max(0, api.totalThrottles() - start.throttles));
+		metrics.put("EventTime", metrics.elapsed(), Metrics.Unit.Milliseconds);
+		metrics.emit();
+		span.end(failure);
+	}
+	
+	private static class ApiCount {
+		final long calls = ApiMetrics.get().totalCalls();
+		final long throttles = ApiMetrics.get().totalThrottles();
+	}
 }
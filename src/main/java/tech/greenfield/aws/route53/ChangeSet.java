@@ -0,0 +1,306 @@
+package tech.greenfield.aws.route53;
+
+import java.util.*;
+
+import software.amazon.awssdk.services.route53.model.*;
+
+/**
+ * Pending changes to Route53 record sets, indexed by record set name, type and set identifier.
+ *
+ * For each record set this keeps the values to add and the values to remove, as hash sets, and - once it was
+ * looked up - the existing record set. Changes from different instances and events are merged into the same
+ * entries, and SDK {@link Change} objects are only created when the changes are submitted, by
+ * {@link #toChangeBatch()}, reusing the existing records that are kept.
+ */
+public class ChangeSet {
+
+	/**
+	 * Identity of a record set
+	 */
+	public static final class Key {
+		public final String name;
+		public final RRType type;
+		public final String setIdentifier;
+
+		public Key(String name, RRType type, String setIdentifier) {
+			this.name = Objects.requireNonNull(name);
+			this.type = Objects.requireNonNull(type);
+			this.setIdentifier = setIdentifier;
+		}
+
+		/**
+		 * @return a record set with just the identifying fields, for looking up the record set
+		 */
+		public ResourceRecordSet toRecordSet() {
+			return ResourceRecordSet.builder().name(name).type(type).setIdentifier(setIdentifier).build();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key o = (Key) obj;
+			return name.equals(o.name) && type == o.type && Objects.equals(setIdentifier, o.setIdentifier);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(name, type, setIdentifier);
+		}
+
+		@Override
+		public String toString() {
+			return name + ":" + type + (Objects.nonNull(setIdentifier) ? ":" + setIdentifier : "");
+		}
+	}
+
+	private static class Entry {
+		/** record set attributes (TTL, weight, etc.) to use when writing the record set, if values are added */
+		ResourceRecordSet template;
+		Long ttl;
+		final Set<String> added = new LinkedHashSet<>();
+		final Set<String> removed = new LinkedHashSet<>();
+		boolean lookedUp;
+		ResourceRecordSet existing;
+		/** record set to delete - as is, unless it was looked up */
+		ResourceRecordSet deleted;
+	}
+
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>();
+
+	/**
+	 * Add a value to a record set
+	 * @param name record set name
+	 * @param type record type
+	 * @param ttl TTL to set on the record set
+	 * @param value value to add
+	 * @return this change set
+	 */
+	public ChangeSet add(String name, RRType type, long ttl, String value) {
+		Entry e = entry(new Key(name, type, null));
+		e.ttl = ttl;
+		e.removed.remove(value);
+		e.added.add(value);
+		return this;
+	}
+
+	/**
+	 * Add the values of a record set, using its attributes (TTL, weight, etc.) when writing it. If values were
+	 * already added to the same record set, the attributes of the first record set added are kept.
+	 * @param rrset record set to add
+	 * @return this change set
+	 */
+	public ChangeSet add(ResourceRecordSet rrset) {
+		Entry e = entry(new Key(rrset.name(), rrset.type(), rrset.setIdentifier()));
+		e.deleted = null;
+		if (Objects.isNull(e.template))
+			e.template = rrset.toBuilder().resourceRecords((Collection<ResourceRecord>) null).build();
+		for (ResourceRecord rr : rrset.resourceRecords())
+			if (Objects.nonNull(rr.value())) {
+				e.removed.remove(rr.value());
+				e.added.add(rr.value());
+			}
+		return this;
+	}
+
+	/**
+	 * Remove a value from a record set
+	 * @param name record set name
+	 * @param type record type
+	 * @param value value to remove
+	 * @return this change set
+	 */
+	public ChangeSet remove(String name, RRType type, String value) {
+		Entry e = entry(new Key(name, type, null));
+		e.added.remove(value);
+		e.removed.add(value);
+		return this;
+	}
+
+	/**
+	 * Include a record set without changing it, so that it is looked up with the changed record sets
+	 * @param key record set to include
+	 * @return this change set
+	 */
+	public ChangeSet track(Key key) {
+		entry(key);
+		return this;
+	}
+
+	/**
+	 * Delete a whole record set, discarding other changes to it. Unless the record set is looked up, it is deleted
+	 * as specified, so it must match the existing record set exactly - including its TTL and all of its values.
+	 * Deleting the same record set again adds the values to the deleted record set, as with
+	 * {@link #add(ResourceRecordSet)}, so that a record set with several values can be deleted value by value.
+	 * @param rrset record set to delete
+	 * @return this change set
+	 */
+	public ChangeSet delete(ResourceRecordSet rrset) {
+		Entry e = entry(new Key(rrset.name(), rrset.type(), rrset.setIdentifier()));
+		e.added.clear();
+		e.removed.clear();
+		e.deleted = union(e.deleted, rrset);
+		return this;
+	}
+
+	/**
+	 * @return the first record set, with the values of the second record set that it doesn't have added to it, or
+	 * the second record set if there is no first record set
+	 */
+	private static ResourceRecordSet union(ResourceRecordSet first, ResourceRecordSet second) {
+		if (Objects.isNull(first))
+			return second;
+		Set<String> values = new HashSet<>();
+		List<ResourceRecord> records = new ArrayList<>(first.resourceRecords());
+		for (ResourceRecord rr : records)
+			values.add(rr.value());
+		for (ResourceRecord rr : second.resourceRecords())
+			if (values.add(rr.value()))
+				records.add(rr);
+		return first.toBuilder().resourceRecords(records).build();
+	}
+
+	/**
+	 * Merge another change set into this one. Where both change the same value, the other change set's change wins.
+	 * @param other change set to merge
+	 * @return this change set
+	 */
+	public ChangeSet merge(ChangeSet other) {
+		other.entries.forEach((key, o) -> {
+			Entry e = entry(key);
+			if (Objects.isNull(e.template))
+				e.template = o.template;
+			if (Objects.nonNull(o.ttl))
+				e.ttl = o.ttl;
+			if (Objects.nonNull(o.deleted)) {
+				e.added.clear();
+				e.removed.clear();
+				e.deleted = union(e.deleted, o.deleted);
+			} else if (!o.added.isEmpty())
+				e.deleted = null;
+			e.added.removeAll(o.removed);
+			e.removed.addAll(o.removed);
+			e.removed.removeAll(o.added);
+			e.added.addAll(o.added);
+			if (o.lookedUp && !e.lookedUp)
+				existing(key, o.existing);
+		});
+		return this;
+	}
+
+	/**
+	 * @return the record sets changed, in the order they were first changed
+	 */
+	public List<Key> keys() {
+		return new ArrayList<>(entries.keySet());
+	}
+
+	/**
+	 * Set the current content of a changed record set, which the changes are applied to
+	 * @param key changed record set
+	 * @param rrset the record set as it currently is in Route53, or null if it doesn't exist
+	 * @return this change set
+	 */
+	public ChangeSet existing(Key key, ResourceRecordSet rrset) {
+		Entry e = entries.get(key);
+		if (Objects.isNull(e))
+			throw new IllegalArgumentException("No changes to " + key);
+		e.lookedUp = true;
+		e.existing = rrset;
+		return this;
+	}
+
+	/**
+	 * @param key changed record set
+	 * @return the record set as it currently is in Route53, as set by {@link #existing(Key, ResourceRecordSet)},
+	 * or null if it doesn't exist or wasn't looked up
+	 */
+	public ResourceRecordSet existing(Key key) {
+		Entry e = entries.get(key);
+		return Objects.nonNull(e) ? e.existing : null;
+	}
+
+	/**
+	 * @param key changed record set
+	 * @return whether the whole record set is deleted
+	 */
+	public boolean isDeleted(Key key) {
+		Entry e = entries.get(key);
+		return Objects.nonNull(e) && Objects.nonNull(e.deleted);
+	}
+
+	/**
+	 * @param key changed record set
+	 * @return the values added to the record set
+	 */
+	public Set<String> added(Key key) {
+		Entry e = entries.get(key);
+		return Objects.nonNull(e) ? Collections.unmodifiableSet(e.added) : Collections.emptySet();
+	}
+
+	public boolean isEmpty() {
+		return entries.isEmpty();
+	}
+
+	/**
+	 * Compute the changes to apply to the existing record sets: record sets with added values are upserted
+	 * with their existing values, record sets that only had values removed are upserted without them, or
+	 * deleted if no values are left. Removing values that don't exist is not a change. Record sets deleted with
+	 * {@link #delete(ResourceRecordSet)} are deleted as they exist if they were looked up - not at all if they
+	 * don't exist - or otherwise as specified.
+	 * @return the changes
+	 */
+	public List<Change> toChanges() {
+		List<Change> changes = new ArrayList<>(entries.size());
+		entries.forEach((key, e) -> {
+			if (Objects.nonNull(e.deleted)) {
+				ResourceRecordSet deleted = e.lookedUp ? e.existing : e.deleted;
+				if (Objects.nonNull(deleted))
+					changes.add(Change.builder().action(ChangeAction.DELETE).resourceRecordSet(deleted).build());
+				return;
+			}
+			List<ResourceRecord> current = Objects.nonNull(e.existing) ? e.existing.resourceRecords() : Collections.emptyList();
+			List<ResourceRecord> records = new ArrayList<>(current.size() + e.added.size());
+			for (ResourceRecord rr : current)
+				if (!e.removed.contains(rr.value()))
+					records.add(rr);
+			if (e.added.isEmpty() && records.size() == current.size()) // nothing to remove
+				return;
+			if (!e.added.isEmpty()) {
+				Set<String> existing = new HashSet<>(current.size() * 2);
+				for (ResourceRecord rr : current)
+					existing.add(rr.value());
+				for (String value : e.added)
+					if (!existing.contains(value))
+						records.add(ResourceRecord.builder().value(value).build());
+			}
+			if (records.isEmpty()) {
+				if (Objects.nonNull(e.existing))
+					changes.add(Change.builder().action(ChangeAction.DELETE).resourceRecordSet(e.existing).build());
+				return;
+			}
+			ResourceRecordSet.Builder rrset = Objects.nonNull(e.template) ? e.template.toBuilder() :
+					Objects.nonNull(e.existing) ? e.existing.toBuilder() : key.toRecordSet().toBuilder();
+			if (!e.added.isEmpty() && Objects.nonNull(e.ttl))
+				rrset.ttl(e.ttl);
+			changes.add(Change.builder().action(ChangeAction.UPSERT).resourceRecordSet(rrset.resourceRecords(records).build())
+					.build());
+		});
+		return changes;
+	}
+
+	public ChangeBatch toChangeBatch() {
+		return ChangeBatch.builder().changes(toChanges()).build();
+	}
+
+	private Entry entry(Key key) {
+		return entries.computeIfAbsent(key, k -> new Entry());
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("ChangeSet[");
+		entries.forEach((key, e) -> sb.append(key).append(" +").append(e.added).append(" -").append(e.removed).append(' '));
+		return sb.append(']').toString();
+	}
+}
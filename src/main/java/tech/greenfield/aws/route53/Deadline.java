@@ -0,0 +1,85 @@
+package tech.greenfield.aws.route53;
+
+import java.time.Duration;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.services.lambda.runtime.Context;
+
+/**
+ * The time by which an invocation should stop waiting and taking new work, so that it can checkpoint the events
+ * it didn't finish and return before Lambda times it out. It is set some time before the invocation's timeout,
+ * in seconds by the {@code DEADLINE_RESERVE} environment variable (default {@value #DEFAULT_RESERVE}).
+ */
+public class Deadline {
+
+	private static final Logger log = LoggerFactory.getLogger(Deadline.class.getName());
+	static final long DEFAULT_RESERVE = 10;
+	/** No deadline, when not running in Lambda */
+	public static final Deadline NONE = new Deadline(Long.MAX_VALUE);
+
+	private final long at;
+
+	private Deadline(long at) {
+		this.at = at;
+	}
+
+	/**
+	 * @param context Lambda invocation context, or null
+	 * @return the invocation's deadline, or {@link #NONE} without a context
+	 */
+	public static Deadline of(Context context) {
+		if (Objects.isNull(context))
+			return NONE;
+		return new Deadline(System.currentTimeMillis() + context.getRemainingTimeInMillis() - getReserve() * 1000);
+	}
+
+	/**
+	 * @return milliseconds left until the deadline, negative once it passed
+	 */
+	public long remaining() {
+		return at == Long.MAX_VALUE ? Long.MAX_VALUE : at - System.currentTimeMillis();
+	}
+
+	/**
+	 * @return whether the deadline passed, and no new work should be started
+	 */
+	public boolean passed() {
+		return remaining() <= 0;
+	}
+
+	/**
+	 * @param millis duration of a wait
+	 * @return whether a wait of the specified duration ends before the deadline
+	 */
+	public boolean allows(long millis) {
+		return remaining() > millis;
+	}
+
+	/**
+	 * @param wait a maximum wait
+	 * @return the maximum wait, shortened to end by the deadline
+	 */
+	public Duration cap(Duration wait) {
+		return Duration.ofMillis(Math.max(0, Math.min(wait.toMillis(), remaining())));
+	}
+
+	private static long getReserve() {
+		String reserve = System.getenv("DEADLINE_RESERVE");
+		if (Objects.isNull(reserve) || reserve.isBlank())
+			return DEFAULT_RESERVE;
+		try {
+			return Math.max(0, Long.parseLong(reserve.trim()));
+		} catch (NumberFormatException e) {
+			log.warn("Invalid DEADLINE_RESERVE '{}', using {}", reserve, DEFAULT_RESERVE);
+			return DEFAULT_RESERVE;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return at == Long.MAX_VALUE ? "none" : remaining() + "ms";
+	}
+}
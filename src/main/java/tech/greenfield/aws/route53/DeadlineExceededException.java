@@ -0,0 +1,18 @@
+package tech.greenfield.aws.route53;
+
+/**
+ * The invocation's {@link Deadline} passed before the event was completely handled
+ */
+public class DeadlineExceededException extends RetryLaterException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * @param message description of what was interrupted
+	 * @param pendingChangeId ID of a submitted Route53 change that wasn't yet applied, or null
+	 */
+	public DeadlineExceededException(String message, String pendingChangeId) {
+		super(message, pendingChangeId);
+	}
+
+}
@@ -0,0 +1,315 @@
+package tech.greenfield.aws.route53;
+
+import static tech.greenfield.aws.Clients.autoscaling;
+import static tech.greenfield.aws.Clients.route53;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import software.amazon.awssdk.services.autoscaling.model.AutoScalingException;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.route53.model.Change;
+import software.amazon.awssdk.services.route53.model.ChangeBatch;
+import software.amazon.awssdk.services.route53.model.ChangeInfo;
+import tech.greenfield.aws.lease.Lease;
+import tech.greenfield.aws.lease.LeaseStore;
+import tech.greenfield.aws.metrics.Metrics;
+import tech.greenfield.aws.registry.InstanceRegistry;
+import tech.greenfield.aws.tracing.Span;
+import tech.greenfield.aws.tracing.Tracer;
+
+/**
+ * Applies a burst of scaling events as one combined change per record name, instead of reading, writing and
+ * waiting for each record set once per event.
+ *
+ * The instances of all the events are described together, the record changes of all the events are merged in
+ * order - so a later event for the same value wins - and each changed record set is looked up once. The changes
+ * are then submitted in one change batch per record name (with its ownership registry, if used). Lifecycle actions
+ * are completed concurrently after all the changes were applied - or, with the {@link LifecycleCompletion#ACCEPTED
+ * ACCEPTED} policy, as soon as they were all accepted. Events whose instance can't be resolved to an address, and all
+ * the events if applying the combined changes fails, are returned to be handled one by one as usual - unless the
+ * invocation's deadline passed or Route53 throttled the update, which fails the whole update with a
+ * {@link RetryLaterException}, as handling the events separately would only make more requests.
+ */
+public class EventAggregator {
+
+	private static final Logger log = LoggerFactory.getLogger(EventAggregator.class.getName());
+
+	private final List<Route53Message> messages;
+	private final Deadline deadline;
+	private final Metrics metrics = new Metrics().dimension("EventType", "Aggregated");
+	private final Span span = Tracer.startTrace("AggregatedUpdate");
+	private final LeaseStore leases = LeaseStore.fromEnvironment();
+	private final InstanceRegistry registry = InstanceRegistry.get();
+	/** leases held while the combined changes are applied, checked before submitting each batch */
+	private volatile List<Lease> held = Collections.emptyList();
+
+	/**
+	 * @param messages the events to apply, in the order they were received
+	 * @param deadline when to stop waiting for the changes to be applied
+	 */
+	public EventAggregator(List<Route53Message> messages, Deadline deadline) {
+		this.messages = messages;
+		this.deadline = deadline;
+		span.setAttribute("events", messages.size());
+	}
+
+	/**
+	 * @return metrics of applying the combined changes, to emit when done
+	 */
+	public Metrics metrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return root span of the trace of applying the combined changes, to end when done
+	 */
+	public Span span() {
+		return span;
+	}
+
+	/**
+	 * Apply the events' combined changes
+	 * @return a future that will be completed with the events that were not applied and should be handled one
+	 * by one
+	 */
+	public CompletableFuture<List<Route53Message>> apply() {
+		List<Route53Message> fallback = new ArrayList<>();
+		return waitForPending()
+				.thenCompose(v -> resolveInstances())
+				.thenCompose(instances -> {
+					ChangeSet changes = new ChangeSet();
+					List<Route53Message> applied = new ArrayList<>();
+					for (Route53Message message : messages)
+						try {
+							Instance i = instances.get(message.getEC2InstanceId());
+							if (Objects.isNull(i) && isInstanceEvent(message)) {
+								fallback.add(message);
+								continue;
+							}
+							changes.merge(Objects.nonNull(i) ? message.getEventChanges(i) : new ChangeSet());
+							applied.add(message);
+						} catch (RuntimeException e) { // no address, or an unsupported event
+							log.info("Handling the event for {} separately: {}", message.getEC2InstanceId(), e.toString());
+							fallback.add(message);
+						}
+					metrics.count("AggregatedEvents", applied.size());
+					if (applied.isEmpty())
+						return CompletableFuture.completedFuture(fallback);
+					List<LifecycleHeartbeat> heartbeats = applied.stream()
+							.map(m -> LifecycleHeartbeat.start(m.getLifecycleNotification(), span))
+							.filter(Objects::nonNull).collect(Collectors.toList());
+					Map<Boolean, List<Route53Message>> early = applied.stream()
+							.collect(Collectors.partitioningBy(EventAggregator::completesEarly));
+					return withLeases(applied, () -> submit(applied.get(0), changes, () -> completeLifecycles(early.get(true))))
+							.whenComplete((v, t) -> heartbeats.forEach(LifecycleHeartbeat::stop))
+							.thenRun(() -> done(applied, instances))
+							.thenCompose(v -> completeLifecycles(early.get(false)))
+							.thenApply(v -> fallback)
+							.exceptionally(t -> {
+								Throwable cause = Tools.unwrap(t);
+								if (cause instanceof RetryLaterException)
+									throw new CompletionException(cause);
+								if (Tools.isThrottled(cause))
+									throw new CompletionException(new ThrottledException(cause.getMessage(), null));
+								Tools.logException(log, "Failed to apply the combined changes, handling the events separately", t);
+								fallback.addAll(applied);
+								return fallback;
+							});
+				});
+	}
+
+	/**
+	 * @return whether the event's lifecycle action is completed as soon as the changes were accepted
+	 */
+	private static boolean completesEarly(Route53Message message) {
+		return message.getLifecycleCompletion() == LifecycleCompletion.ACCEPTED &&
+				message.getEventType() == EventType.EC2_INSTANCE_LAUNCH;
+	}
+
+	private static boolean isInstanceEvent(Route53Message message) {
+		switch (message.getEventType()) {
+		case EC2_INSTANCE_LAUNCH:
+		case EC2_INSTANCE_TERMINATE:
+		case EC2_INSTANCE_TERMINATE_ERROR:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Wait for the changes that earlier invocations submitted for the events but didn't wait for
+	 */
+	private CompletableFuture<Void> waitForPending() {
+		return messages.stream().map(Route53Message::getPendingChangeId).filter(Objects::nonNull).distinct()
+				.collect(FanOut.mapping(id -> span.traceAsync("Tools.waitForPending", () -> Tools.waitForPending(id, deadline)),
+						Route53Message.ROUTE53_CONCURRENCY))
+				.thenApply(l -> null);
+	}
+
+	/**
+	 * Resolve the events' instances: terminated instances from the instance registry if possible, and all the
+	 * rest with as few instance descriptions as possible
+	 * @return a future that will be completed with the instances that were found, by ID
+	 */
+	private CompletableFuture<Map<String, Instance>> resolveInstances() {
+		Map<String, Instance> instances = Collections.synchronizedMap(new HashMap<>());
+		Set<String> ids = new LinkedHashSet<>();
+		List<CompletableFuture<Void>> lookups = new ArrayList<>();
+		for (Route53Message message : messages) {
+			String id = message.getEC2InstanceId();
+			try {
+				if (Objects.isNull(id) || !isInstanceEvent(message))
+					continue;
+				if (Objects.nonNull(registry) && message.getEventType() != EventType.EC2_INSTANCE_LAUNCH)
+					lookups.add(registry.lookup(id).thenAccept(i -> {
+						if (Objects.nonNull(i))
+							instances.put(id, i);
+					}));
+			} catch (RuntimeException e) { // unsupported event, which will be handled separately
+				continue;
+			}
+			ids.add(id);
+		}
+		return CompletableFuture.allOf(lookups.toArray(new CompletableFuture[lookups.size()]))
+				.thenCompose(v -> {
+					List<String> describe = ids.stream().filter(id -> !instances.containsKey(id)).collect(Collectors.toList());
+					if (describe.isEmpty())
+						return CompletableFuture.completedFuture(Collections.<Instance>emptyList());
+					return span.traceAsync("Tools.describeInstances",
+							() -> metrics.timeAsync("EC2DescribeLatency", () -> Tools.describeInstances(describe)));
+				})
+				.thenApply(described -> {
+					described.forEach(i -> instances.putIfAbsent(i.instanceId(), i));
+					return instances;
+				});
+	}
+
+	/**
+	 * Look up the changed record sets and submit the changes, in one change batch per record name, concurrently,
+	 * then wait for all of them to be applied
+	 * @param message one of the events, whose configuration is used to look up the record sets
+	 * @param changes the combined changes of all the events
+	 * @param accepted operation to start once all the change batches were accepted, waited for before completing
+	 */
+	private CompletableFuture<Void> submit(Route53Message message, ChangeSet changes,
+			Supplier<CompletableFuture<Void>> accepted) {
+		return message.withExisting(changes)
+				.thenCompose(existing -> {
+					Map<String, List<Change>> byName = existing.toChanges().stream()
+							.collect(Collectors.groupingBy(c -> recordName(c.resourceRecordSet().name()),
+									LinkedHashMap::new, Collectors.toList()));
+					metrics.count("ChangeBatches", byName.size());
+					log.info("Applying {} events as {} change batches", messages.size(), byName.size());
+					return byName.values().stream()
+							.collect(FanOut.mapping(batch -> submit(ChangeBatch.builder().changes(batch).build()),
+									Route53Message.ROUTE53_CONCURRENCY));
+				})
+				.thenCompose(submitted -> {
+					CompletableFuture<Void> completing = accepted.get();
+					return submitted.stream()
+							.collect(FanOut.mapping(ci -> span.traceAsync("Tools.waitFor",
+									() -> metrics.timeAsync("InSyncWaitTime", () -> Tools.waitFor(ci, deadline))),
+									Route53Message.ROUTE53_CONCURRENCY))
+							.thenCompose(v -> completing);
+				});
+	}
+
+	/**
+	 * Submit a change batch, without waiting for it to be applied
+	 * @return a future that will be completed with the status of the accepted change
+	 */
+	private CompletableFuture<ChangeInfo> submit(ChangeBatch changes) {
+		if (!held.stream().allMatch(Lease::isValid)) // the records may have been changed since they were read
+			return CompletableFuture.failedFuture(new RetryLaterException("Lease expired before submitting changes: " + held, null));
+		log.debug("Sending DNS change request: {}", changes);
+		metrics.put("ChangeBatchSize", changes.changes().size(), Metrics.Unit.Count);
+		Span submit = span.child("changeResourceRecordSets").setAttribute("dns.changes", changes.changes().size());
+		return metrics.timeAsync("ChangeSubmitLatency", () -> route53().changeResourceRecordSets(b -> b
+						.hostedZoneId(Route53Message.getHostedZoneId()).changeBatch(changes)))
+				.whenComplete((res, t) -> submit.end(t))
+				.thenApply(res -> res.changeInfo());
+	}
+
+	/**
+	 * @return the record name that a record set belongs to, so that an ownership registry is changed in the same
+	 * batch as its records
+	 */
+	private static String recordName(String name) {
+		String fqdn = Tools.fqdn(name);
+		return fqdn.startsWith(OwnershipRegistry.PREFIX) ? fqdn.substring(OwnershipRegistry.PREFIX.length()) : fqdn;
+	}
+
+	/**
+	 * Run the update while holding leases on all the record names that the events update, if a lease store is
+	 * configured
+	 */
+	private CompletableFuture<Void> withLeases(List<Route53Message> applied, Supplier<CompletableFuture<Void>> update) {
+		List<String> keys = applied.stream().flatMap(m -> m.getLeaseKeys().stream()).distinct().collect(Collectors.toList());
+		if (Objects.isNull(leases) || keys.isEmpty())
+			return update.get();
+		return span.traceAsync("LeaseStore.acquireAll",
+						() -> metrics.timeAsync("LeaseWaitTime", () -> Tools.acquireLeases(leases, keys, deadline)))
+				.thenCompose(acquired -> {
+					held = acquired;
+					return CompletableFuture.<Void>completedFuture(null).thenCompose(v -> update.get())
+							.handle((v, t) -> {
+								held = Collections.emptyList();
+								return leases.releaseAll(acquired)
+										.thenCompose(r -> Objects.isNull(t) ? CompletableFuture.<Void>completedFuture(null) :
+											CompletableFuture.<Void>failedFuture(t));
+							})
+							.thenCompose(f -> f);
+				});
+	}
+
+	/**
+	 * Record the applied events' instances in the instance registry, if one is configured
+	 */
+	private void done(List<Route53Message> applied, Map<String, Instance> instances) {
+		if (Objects.isNull(registry))
+			return;
+		for (Route53Message message : applied) {
+			Instance i = instances.get(message.getEC2InstanceId());
+			if (Objects.isNull(i))
+				continue;
+			if (message.getEventType() == EventType.EC2_INSTANCE_LAUNCH)
+				registry.register(i);
+			else
+				registry.deregister(i.instanceId());
+		}
+	}
+
+	private CompletableFuture<Void> completeLifecycles(List<Route53Message> applied) {
+		return CompletableFuture.allOf(applied.stream()
+				.map(Route53Message::getLifecycleNotification)
+				.filter(Objects::nonNull)
+				.filter(event -> Objects.nonNull(event.getLifecycleActionToken()))
+				.map(this::completeLifecycle)
+				.toArray(CompletableFuture[]::new));
+	}
+
+	private CompletableFuture<Void> completeLifecycle(LifeCycleNotification event) {
+		log.info("Completing life-cycle action with token {}", event.getLifecycleActionToken());
+		return span.traceAsync("LifeCycle.completeLifecycle", () -> autoscaling().completeLifecycleAction(b -> b
+					.autoScalingGroupName(event.getAutoScalingGroupName())
+					.lifecycleHookName(event.getLifecycleHookName())
+					.lifecycleActionToken(event.getLifecycleActionToken())
+					.lifecycleActionResult("CONTINUE")))
+				.<Void>thenApply(res -> null)
+				.exceptionally(t -> {
+					Throwable cause = t instanceof CompletionException && Objects.nonNull(t.getCause()) ? t.getCause() : t;
+					if (cause instanceof AutoScalingException && cause.getMessage().contains("No active Lifecycle Action found"))
+						return null;
+					log.error("Failed to complete life-cycle action with token {}: {}", event.getLifecycleActionToken(), cause.toString());
+					return null;
+				});
+	}
+}
@@ -0,0 +1,140 @@
+package tech.greenfield.aws.route53;
+
+import java.util.*;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * POJO representing an AutoScaling event delivered by EventBridge. The {@code detail} of the event has the same
+ * fields as the notification that AutoScaling sends to SNS, except that instance launch and terminate events name the
+ * event in the {@code detail-type} instead of an {@code Event} field.
+ *
+ * A lifecycle action event looks like this:
+ *
+ * {
+ *     "version": "0",
+ *     "id": "12345678-1234-1234-1234-123456789012",
+ *     "detail-type": "EC2 Instance-launch Lifecycle Action",
+ *     "source": "aws.autoscaling",
+ *     "account": "123456789012",
+ *     "time": "2016-12-18T16:19:23Z",
+ *     "region": "us-east-1",
+ *     "resources": [ "arn:aws:autoscaling:us-east-1:123456789012:autoScalingGroup:...:autoScalingGroupName/my-asg" ],
+ *     "detail": {
+ *         "LifecycleActionToken": "87654321-4321-4321-4321-210987654321",
+ *         "AutoScalingGroupName": "my-asg",
+ *         "LifecycleHookName": "my-lifecycle-hook",
+ *         "EC2InstanceId": "i-1234567890abcdef0",
+ *         "LifecycleTransition": "autoscaling:EC2_INSTANCE_LAUNCHING",
+ *         "NotificationMetadata": "{\"DNSRR_RECORD\":\"www.example.com\"}",
+ *         "Origin": "EC2",
+ *         "Destination": "AutoScalingGroup"
+ *     }
+ * }
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class EventBridgeEvent {
+
+	/** The source of AutoScaling events */
+	public static final String SOURCE = "aws.autoscaling";
+	private static final Map<String, EventType> INSTANCE_EVENTS = Map.of(
+			"EC2 Instance Launch Successful", EventType.EC2_INSTANCE_LAUNCH,
+			"EC2 Instance Launch Unsuccessful", EventType.EC2_INSTANCE_LAUNCH_ERROR,
+			"EC2 Instance Terminate Successful", EventType.EC2_INSTANCE_TERMINATE,
+			"EC2 Instance Terminate Unsuccessful", EventType.EC2_INSTANCE_TERMINATE_ERROR);
+	private static final Set<String> LIFECYCLE_EVENTS = Set.of(
+			"EC2 Instance-launch Lifecycle Action",
+			"EC2 Instance-terminate Lifecycle Action");
+
+	private String id;
+	private String detailType;
+	private String source;
+	private String account;
+	private String time;
+	private String region;
+	private List<String> resources;
+	private Map<String, Object> detail;
+
+	public String getId() {
+		return id;
+	}
+	public void setId(String id) {
+		this.id = id;
+	}
+	@JsonProperty("detail-type")
+	public String getDetailType() {
+		return detailType;
+	}
+	@JsonProperty("detail-type")
+	public void setDetailType(String detailType) {
+		this.detailType = detailType;
+	}
+	public String getSource() {
+		return source;
+	}
+	public void setSource(String source) {
+		this.source = source;
+	}
+	public String getAccount() {
+		return account;
+	}
+	public void setAccount(String account) {
+		this.account = account;
+	}
+	public String getTime() {
+		return time;
+	}
+	public void setTime(String time) {
+		this.time = time;
+	}
+	public String getRegion() {
+		return region;
+	}
+	public void setRegion(String region) {
+		this.region = region;
+	}
+	public List<String> getResources() {
+		return resources;
+	}
+	public void setResources(List<String> resources) {
+		this.resources = resources;
+	}
+	public Map<String, Object> getDetail() {
+		return detail;
+	}
+	public void setDetail(Map<String, Object> detail) {
+		this.detail = detail;
+	}
+
+	/**
+	 * @return whether this is an AutoScaling instance launch or terminate event, or a lifecycle action event, that
+	 * can be handled
+	 */
+	@JsonIgnore
+	public boolean isSupported() {
+		return SOURCE.equals(source) && Objects.nonNull(detail) &&
+				(INSTANCE_EVENTS.containsKey(detailType) || LIFECYCLE_EVENTS.contains(detailType));
+	}
+
+	/**
+	 * @return the event's detail as the body of the notification that AutoScaling would have sent to SNS
+	 * @throws ParsingException if the event isn't {@link #isSupported() supported}
+	 */
+	@JsonIgnore
+	public Map<String, Object> getNotification() throws ParsingException {
+		if (!isSupported())
+			throw new ParsingException("Unsupported event " + source + ": " + detailType);
+		Map<String, Object> body = new HashMap<>(detail);
+		EventType type = INSTANCE_EVENTS.get(detailType);
+		if (Objects.nonNull(type))
+			body.put("Event", "autoscaling:" + type);
+		return body;
+	}
+
+	@Override
+	public String toString() {
+		return source + ": " + detailType + " " + id;
+	}
+}
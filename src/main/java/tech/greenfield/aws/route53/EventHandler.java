@@ -18,6 +18,13 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 
 import software.amazon.awssdk.services.ec2.model.Instance;
 import software.amazon.awssdk.services.route53.model.*;
+import tech.greenfield.aws.Scheduler;
+import tech.greenfield.aws.lease.Lease;
+import tech.greenfield.aws.lease.LeaseStore;
+import tech.greenfield.aws.logging.Logging;
+import tech.greenfield.aws.metrics.Metrics;
+import tech.greenfield.aws.registry.InstanceRegistry;
+import tech.greenfield.aws.tracing.Span;
 
 /**
  * Handler for a single SNS event that was submitted to the lambda implementation
@@ -41,6 +48,7 @@ import software.amazon.awssdk.services.route53.model.*;
  */
 public class EventHandler {
 
+	static final long THROTTLE_DELAY = 2000;
 	static private ObjectMapper s_mapper = new ObjectMapper();
 	
 	protected Logger log = LoggerFactory.getLogger(getClass().getName());
@@ -48,6 +56,14 @@ public class EventHandler {
 	private String ec2instanceId;
 	private String autoScalingGroupName;
 	private Route53Message message;
+	protected final Metrics metrics;
+	protected final Span span;
+	/** when to stop waiting, so the event can be checkpointed before the invocation times out */
+	protected final Deadline deadline;
+	private final LeaseStore leases = LeaseStore.fromEnvironment();
+	private final InstanceRegistry registry = InstanceRegistry.get();
+	/** leases held by the update currently running, checked before submitting its changes */
+	private volatile List<Lease> held = Collections.emptyList();
 	
 	static {
 		s_mapper.configure(MapperFeature.ACCEPT_CASE_INSENSITIVE_PROPERTIES, true);
@@ -58,6 +74,13 @@ public class EventHandler {
 		this.ec2instanceId = Objects.requireNonNullElse(ec2InstanceId, "");
 		this.autoScalingGroupName = autoScalingGroupName;
 		this.message = message;
+		this.deadline = Deadline.of(context);
+		metrics = message.metrics().dimension("EventType", eventType.name()).dimension("AutoScalingGroup", autoScalingGroupName);
+		metrics.count("Throttles", 0);
+		span = message.span().setAttribute("event.type", eventType.name()).setAttribute("ec2.instance_id", this.ec2instanceId)
+				.setAttribute("autoscaling.group", autoScalingGroupName);
+		log = Logging.withFields(log, "instanceId", this.ec2instanceId, "autoScalingGroup", autoScalingGroupName,
+				"requestId", Objects.nonNull(context) ? context.getAwsRequestId() : null);
 		if (ec2instanceId.isBlank())
 			throw new IllegalArgumentException("EC2 instance ID is missing but must be provided!");
 	}
@@ -66,13 +89,18 @@ public class EventHandler {
 	 * Event handler entry point
 	 */
 	public CompletableFuture<Void> handle() {
-		return handleEventType()
+		// a change submitted by an earlier invocation is waited for first, as the records may already reflect it
+		// and need no further change, but the event is only handled once they were applied
+		return retryIfThrottled(() -> span.traceAsync("Tools.waitForPending",
+						() -> Tools.waitForPending(message.getPendingChangeId(), deadline)))
+				.thenCompose(v -> handleEventType())
 				.thenApply(v -> CompletableFuture.<Void>completedFuture(null))
-				.exceptionally(t -> {
+				.exceptionally(e -> {
+					Throwable t = Tools.unwrap(e);
 					if (t instanceof NoIpException) {
-						log.warn("Error: " + t.getMessage());
-						log.warn("No IP was found, starting plan B - update all instances");
-						return rebuildAllRRs(this.autoScalingGroupName);
+						log.warn("Error: {}", t.getMessage());
+						log.warn("No IP was found, starting plan B - prune the records of instances that are no longer live");
+						return retryIfThrottled(() -> withLeases(() -> pruneRRs(this.autoScalingGroupName)));
 					} else if (t instanceof SilentFailure) {
 						Tools.logException(log, "Silently failing Route53 update", t);
 						return CompletableFuture.completedFuture(null);
@@ -88,31 +116,39 @@ public class EventHandler {
 	private CompletableFuture<Void> handleEventType() {
 		switch (eventType) {
 		case EC2_INSTANCE_LAUNCH:
-			return retryIfThrottled(() -> registerInstance(ec2instanceId));
+			return retryIfThrottled(() -> withLeases(() -> registerInstance(ec2instanceId)));
 		case EC2_INSTANCE_TERMINATE:
 		case EC2_INSTANCE_TERMINATE_ERROR:
-			return retryIfThrottled(() -> deregisterInstance(ec2instanceId));
+			return retryIfThrottled(() -> withLeases(() -> deregisterInstance(ec2instanceId)));
 		default: // do nothing in case of launch error or test notification
-			log.info("Unrecognized event type '" + eventType + "', ignoring");
+			log.info("Unrecognized event type '{}', ignoring", eventType);
 			return CompletableFuture.completedFuture(null);
 		}
 	}
 	
-	private CompletableFuture<Void> rebuildAllRRs(String asgName) {
+	/**
+	 * Plan B: remove the values of instances that are no longer live from the records, and add any live instances
+	 * that are missing, using a single auto scaling group description and as few instance descriptions as possible
+	 */
+	private CompletableFuture<Void> pruneRRs(String asgName) {
 		return Tools.getASGInstances(asgName)
-				.thenCompose(l -> l.stream()
-						.filter(i -> i.healthStatus().equalsIgnoreCase("healthy"))
-						.map(Tools::asInstanceToEC2)
-						.collect(new CompletableFutureListCollector<>()))
-				.thenApply(l -> l.stream()
-						.filter(Objects::nonNull)
-						.collect(Collectors.toList()))
-				.thenCompose(instances -> instances.isEmpty() ? 
-						CompletableFuture.completedFuture(message.getDeleteChanges()) : message.getUpsertChanges(instances))
-				.whenComplete((changes, t) -> log.debug("Sending DNS change request: " + changes))
-				.thenCompose(changes -> route53()
-						.changeResourceRecordSets(b -> b.hostedZoneId(Route53Message.getHostedZoneId()).changeBatch(changes)))
-				.thenCompose(res -> Tools.waitFor(res.changeInfo()))
+				.thenCompose(l -> {
+					List<String> ids = l.stream().filter(Tools::isLive)
+							.map(software.amazon.awssdk.services.autoscaling.model.Instance::instanceId)
+							.collect(Collectors.toList());
+					return span.traceAsync("Tools.describeInstances",
+							() -> metrics.timeAsync("EC2DescribeLatency", () -> Tools.describeInstances(ids)));
+				})
+				.thenCompose(instances -> message.getPruneChanges(instances)
+						.thenCompose(changes -> {
+							if (changes.changes().isEmpty()) {
+								log.info("Nothing to prune");
+								return CompletableFuture.<Void>completedFuture(null);
+							}
+							log.debug("Sending DNS change request: {}", changes);
+							return submitChanges(changes);
+						})
+						.thenRun(() -> instances.stream().filter(Tools::hasIPAddress).forEach(this::registered)))
 				.exceptionally(t -> {
 					Tools.logException(log, "Error in submitting Route53 update",t);
 					throw new CompletionException(t);
@@ -128,15 +164,14 @@ public class EventHandler {
 	private CompletableFuture<Void> registerInstance(String ec2InstanceId) {
 		return getInstance(ec2InstanceId)
 				.thenCompose(i -> {
-					log.info("Registering " + ec2InstanceId + " - " + Tools.getIPAddress(i));
-					return message.getUpsertChanges(i);
-				})
-				.thenCompose(cb -> {
-					log.debug("Adding instance with addresses: " + cb);
-					return route53().changeResourceRecordSets(b -> b.hostedZoneId(Route53Message.getHostedZoneId())
-							.changeBatch(cb).build());
-				})
-				.thenCompose(res -> Tools.waitFor(res.changeInfo()));
+					log.info("Registering {} - {}", ec2InstanceId, Tools.getIPAddress(i));
+					return message.getUpsertChanges(i)
+							.thenCompose(cb -> {
+								log.debug("Adding instance with addresses: {}", cb);
+								return submitChanges(cb);
+							})
+							.thenRun(() -> registered(i));
+				});
 	}
 	
 	/**
@@ -146,9 +181,9 @@ public class EventHandler {
 	 * @return 
 	 */
 	private CompletableFuture<Void> deregisterInstance(String ec2InstanceId) {
-		return getInstance(ec2InstanceId)
+		return getRegisteredInstance(ec2InstanceId)
 				.thenCompose(i -> {
-					log.info("Deregistering " + ec2InstanceId + " - " + Tools.getIPAddress(i));
+					log.info("Deregistering {} - {}", ec2InstanceId, Tools.getIPAddress(i));
 					return message.getRemoveChanges(i);
 				})
 				.thenCompose(changes -> {
@@ -156,13 +191,92 @@ public class EventHandler {
 						log.info("Nothing to remove");
 						return CompletableFuture.completedFuture(null);
 					}
-					log.debug("Sending rr change request: " + changes);
-					return route53().changeResourceRecordSets(b -> b
-							.hostedZoneId(Route53Message.getHostedZoneId()).changeBatch(changes))
-							.thenCompose(res -> Tools.waitFor(res.changeInfo()));
+					log.debug("Sending rr change request: {}", changes);
+					return submitChanges(changes);
+				})
+				.thenRun(() -> {
+					if (Objects.nonNull(registry))
+						registry.deregister(ec2InstanceId);
+				});
+	}
+
+	/**
+	 * Record the addresses of a registered instance in the instance registry, if one is configured
+	 */
+	private void registered(Instance i) {
+		if (Objects.nonNull(registry))
+			registry.register(i);
+	}
+
+	/**
+	 * Resolve an instance ID to the instance with the addresses it was registered with, from the instance registry
+	 * if it is configured and has the instance, otherwise by describing the instance
+	 */
+	private CompletableFuture<Instance> getRegisteredInstance(String ec2InstanceId) {
+		if (Objects.isNull(registry))
+			return getInstance(ec2InstanceId);
+		return span.traceAsync("InstanceRegistry.lookup", () -> registry.lookup(ec2InstanceId))
+				.thenCompose(i -> {
+					if (Objects.isNull(i))
+						return getInstance(ec2InstanceId);
+					log.debug("Using the registered addresses of {}", ec2InstanceId);
+					return CompletableFuture.completedFuture(i);
 				});
 	}
 	
+	/**
+	 * Run a record update while holding leases on the updated record names, if a lease store is configured, so
+	 * that concurrent invocations don't overwrite each other's changes
+	 * @param update update to run
+	 * @return a future that will be completed when the update is done and the leases were released
+	 */
+	private CompletableFuture<Void> withLeases(Supplier<CompletableFuture<Void>> update) {
+		List<String> keys = message.getLeaseKeys();
+		if (Objects.isNull(leases) || keys.isEmpty())
+			return update.get();
+		return span.traceAsync("LeaseStore.acquireAll",
+						() -> metrics.timeAsync("LeaseWaitTime", () -> Tools.acquireLeases(leases, keys, deadline)))
+				.thenCompose(acquired -> {
+					log.debug("Acquired leases {}", acquired);
+					held = acquired;
+					return CompletableFuture.<Void>completedFuture(null).thenCompose(v -> update.get())
+							.handle((v, t) -> {
+								held = Collections.emptyList();
+								return leases.releaseAll(acquired)
+										.thenCompose(r -> Objects.isNull(t) ? CompletableFuture.<Void>completedFuture(null) :
+											CompletableFuture.<Void>failedFuture(t));
+							})
+							.thenCompose(f -> f);
+				});
+	}
+
+	/**
+	 * Submit a change batch and wait until it is applied
+	 * @param changes changes to submit
+	 * @return a future that will be completed when the changes are in sync
+	 */
+	private CompletableFuture<Void> submitChanges(ChangeBatch changes) {
+		if (!held.stream().allMatch(Lease::isValid)) // the records may have been changed since they were read
+			return CompletableFuture.failedFuture(new RetryLaterException("Lease expired before submitting changes: " + held, null));
+		metrics.put("ChangeBatchSize", changes.changes().size(), Metrics.Unit.Count);
+		Span submit = span.child("changeResourceRecordSets").setAttribute("dns.changes", changes.changes().size());
+		return metrics.timeAsync("ChangeSubmitLatency", () -> route53().changeResourceRecordSets(b -> b
+						.hostedZoneId(Route53Message.getHostedZoneId()).changeBatch(changes)))
+				.whenComplete((res, t) -> submit.end(t))
+				.thenApply(res -> {
+					changesAccepted();
+					return res;
+				})
+				.thenCompose(res -> span.traceAsync("Tools.waitFor",
+						() -> metrics.timeAsync("InSyncWaitTime", () -> Tools.waitFor(res.changeInfo(), deadline))));
+	}
+	
+	/**
+	 * Called when Route53 accepted a change batch of the event, before waiting for it to be applied
+	 */
+	protected void changesAccepted() {
+	}
+
 	/**
 	 * Helper method to resolve an instance ID to an EC2 instance object
 	 * @param ec2InstanceId instance Id to resolve
@@ -171,25 +285,36 @@ public class EventHandler {
 	 */
 	private CompletableFuture<Instance> getInstance(String ec2InstanceId) {
 		log.debug("Checking for instanceId {}", ec2InstanceId);
-		return ec2().describeInstances(b -> b.instanceIds(ec2InstanceId))
+		return span.traceAsync("EventHandler.getInstance",
+				() -> metrics.timeAsync("EC2DescribeLatency", () -> ec2().describeInstances(b -> b.instanceIds(ec2InstanceId))))
 				.thenApply(res -> res.reservations().stream()
 						.flatMap(r -> r.instances().stream())
 						.findFirst()
 						.orElseThrow(() -> new CompletionException(new Exception("Failed to locate instance " + ec2InstanceId))));
 	}
 
+	/**
+	 * Run the action, and if Route53 throttles it, retry it after a delay - in the queue, if the event was received
+	 * from one, so the invocation can go on with other events, and otherwise in the invocation until the deadline
+	 */
 	private CompletableFuture<Void> retryIfThrottled(Supplier<CompletableFuture<Void>> action) {
 		return action.get()
 				.thenApply(v -> CompletableFuture.<Void>completedFuture(null))
-				.exceptionally(t -> {
-					if (t instanceof Route53Exception) {
-						// retry in case of 
-						if (t.getMessage().contains("Rate exceeded")) {
-							log.info("Throttled: " + t);
-							return CompletableFuture.runAsync(Tools.delay(2000))
-									.thenRun(() -> log.info("Retrying..."))
-									.thenCompose(v -> retryIfThrottled(action));
-						}
+				.exceptionally(e -> {
+					Throwable t = Tools.unwrap(e);
+					if (Tools.isThrottled(t)) {
+						log.info("Throttled: {}", t.toString());
+						metrics.count("Throttles");
+						if (message.isQueued())
+							throw new CompletionException(t instanceof ThrottledException ? t :
+								new ThrottledException(t.getMessage(), null));
+						if (!deadline.allows(THROTTLE_DELAY))
+							throw new CompletionException(new DeadlineExceededException("Deadline reached while throttled", null));
+						return span.traceAsync("EventHandler.throttleBackoff", () -> Scheduler.delay(THROTTLE_DELAY))
+								.thenCompose(d -> {
+									log.info("Retrying...");
+									return retryIfThrottled(action);
+								});
 					}
 					throw new CompletionException(t);
 				})
@@ -0,0 +1,108 @@
+package tech.greenfield.aws.route53;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+
+/**
+ * Collectors that combine many asynchronous operations into a single future for the list of their results.
+ *
+ * Results are always listed in the order of the inputs, regardless of the order in which the operations
+ * complete, and each result is stored in its own slot so concurrent completion is safe. If any operation
+ * fails, the combined future fails with the first failure.
+ */
+public class FanOut {
+
+	/**
+	 * Collect already started operations
+	 * @return collector of futures to a future for the list of their results
+	 */
+	public static <T> Collector<CompletableFuture<T>, ?, CompletableFuture<List<T>>> toList() {
+		return Collectors.collectingAndThen(Collectors.toList(), futures -> run(futures, Function.identity(), futures.size()));
+	}
+
+	/**
+	 * Collect inputs and start an asynchronous operation for each, with at most {@code maxInFlight} operations
+	 * running at any time. Operations are started in input order, each as soon as a previous one completes.
+	 * @param operation asynchronous operation to start for each input
+	 * @param maxInFlight maximum number of operations to run concurrently
+	 * @return collector of inputs to a future for the list of the operations' results
+	 */
+	public static <T, R> Collector<T, ?, CompletableFuture<List<R>>> mapping(
+			Function<? super T, CompletableFuture<R>> operation, int maxInFlight) {
+		if (maxInFlight < 1)
+			throw new IllegalArgumentException("maxInFlight must be positive");
+		return Collectors.collectingAndThen(Collectors.toList(), inputs -> run(inputs, operation, maxInFlight));
+	}
+
+	private static <T, R> CompletableFuture<List<R>> run(List<T> inputs, Function<? super T, CompletableFuture<R>> operation,
+			int maxInFlight) {
+		if (inputs.isEmpty())
+			return CompletableFuture.completedFuture(new ArrayList<>());
+		Run<T, R> run = new Run<>(inputs, operation);
+		for (int i = 0; i < Math.min(maxInFlight, inputs.size()); i++)
+			run.launch();
+		return run.result;
+	}
+
+	private static class Run<T, R> {
+		final List<T> inputs;
+		final Function<? super T, CompletableFuture<R>> operation;
+		final AtomicReferenceArray<R> results;
+		final AtomicInteger next = new AtomicInteger();
+		final AtomicInteger remaining;
+		final CompletableFuture<List<R>> result = new CompletableFuture<>();
+
+		Run(List<T> inputs, Function<? super T, CompletableFuture<R>> operation) {
+			this.inputs = inputs;
+			this.operation = operation;
+			results = new AtomicReferenceArray<>(inputs.size());
+			remaining = new AtomicInteger(inputs.size());
+		}
+
+		/**
+		 * Start the next operation. Operations that complete immediately are handled in a loop rather than
+		 * by recursion, so long lists of already completed futures don't grow the stack.
+		 */
+		void launch() {
+			while (!result.isDone()) {
+				int index = next.getAndIncrement();
+				if (index >= inputs.size())
+					return;
+				CompletableFuture<R> op;
+				try {
+					op = operation.apply(inputs.get(index));
+				} catch (RuntimeException e) {
+					op = CompletableFuture.failedFuture(e);
+				}
+				if (!op.isDone()) {
+					op.whenComplete((r, t) -> {
+						if (record(index, r, t))
+							launch();
+					});
+					return;
+				}
+				op.whenComplete((r, t) -> record(index, r, t));
+			}
+		}
+
+		private boolean record(int index, R value, Throwable t) {
+			if (Objects.nonNull(t)) {
+				result.completeExceptionally(t);
+				return false;
+			}
+			results.set(index, value);
+			if (remaining.decrementAndGet() == 0) {
+				List<R> list = new ArrayList<>(results.length());
+				for (int i = 0; i < results.length(); i++)
+					list.add(results.get(i));
+				result.complete(list);
+			}
+			return true;
+		}
+	}
+}
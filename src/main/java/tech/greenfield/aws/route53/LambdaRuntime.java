@@ -0,0 +1,272 @@
+package tech.greenfield.aws.route53;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+import com.amazonaws.services.lambda.runtime.events.SNSEvent;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+import tech.greenfield.aws.logging.Logging;
+
+/**
+ * Minimal AWS Lambda custom runtime, implementing the Lambda Runtime API loop, for running the Lambda
+ * as a native executable (see the {@code native} Maven profile) on the {@code provided} Lambda runtimes.
+ *
+ * The handler is selected by the {@code _HANDLER} environment variable (the Lambda "handler" setting):
+ * {@link NotifyRecordsSqs} or {@link NotifyRecordsEventBridge} if it names that class, otherwise
+ * {@link NotifyRecordsSns}.
+ */
+public class LambdaRuntime {
+
+	private static final String API_VERSION = "/2018-06-01/runtime/";
+	private static final long MIN_BACKOFF = 100;
+	private static final long MAX_BACKOFF = 5000;
+	private static final int MAX_API_FAILURES = 10;
+
+	@JsonIgnoreProperties(value = { "timestamp" }, ignoreUnknown = true) // Lambda's serializer handles Joda time, we don't
+	private abstract static class SnsMixin {}
+
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	private abstract static class IgnoreUnknownMixin {}
+
+	/**
+	 * Handles the body of an invocation and returns the response body
+	 */
+	@FunctionalInterface
+	private interface Invoker {
+		String invoke(String event, Context context) throws IOException;
+	}
+
+	private final Logger log = LoggerFactory.getLogger(getClass().getName());
+	private final ObjectMapper mapper = JsonMapper.builder()
+			.configure(MapperFeature.ACCEPT_CASE_INSENSITIVE_PROPERTIES, true)
+			.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+			.addMixIn(SNSEvent.SNS.class, SnsMixin.class)
+			.addMixIn(SNSEvent.SNSRecord.class, IgnoreUnknownMixin.class)
+			.build();
+	private final HttpClient http = HttpClient.newHttpClient();
+	private final URI api;
+	private final Invoker handler;
+	private int apiFailures; // consecutive failures to reach the runtime API
+
+	public LambdaRuntime(String runtimeApi, RequestHandler<SNSEvent, Route53UpdateResponse> handler) {
+		this.api = URI.create("http://" + runtimeApi + API_VERSION);
+		this.handler = (event, context) -> mapper.writeValueAsString(
+				handler.handleRequest(mapper.readValue(event, SNSEvent.class), context));
+	}
+
+	public LambdaRuntime(String runtimeApi, RequestStreamHandler handler) {
+		this.api = URI.create("http://" + runtimeApi + API_VERSION);
+		this.handler = (event, context) -> {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			handler.handleRequest(new ByteArrayInputStream(event.getBytes(StandardCharsets.UTF_8)), output, context);
+			return output.toString(StandardCharsets.UTF_8);
+		};
+	}
+
+	private LambdaRuntime(String runtimeApi) {
+		this.api = URI.create("http://" + runtimeApi + API_VERSION);
+		this.handler = null;
+	}
+
+	public static void main(String[] args) {
+		String runtimeApi = System.getenv("AWS_LAMBDA_RUNTIME_API");
+		if (Objects.isNull(runtimeApi)) {
+			System.err.println("AWS_LAMBDA_RUNTIME_API is not set - not running in a Lambda custom runtime");
+			System.exit(1);
+		}
+		LambdaRuntime runtime;
+		try {
+			runtime = create(runtimeApi, System.getenv("_HANDLER"));
+		} catch (RuntimeException | ExceptionInInitializerError e) {
+			new LambdaRuntime(runtimeApi).reportError("init/error", e);
+			System.exit(1);
+			return;
+		}
+		while (true)
+			if (!runtime.processNext() && runtime.apiFailures > 0)
+				runtime.backOff();
+	}
+
+	/**
+	 * Wait before calling the runtime API again after failing to reach it, longer after each consecutive failure, and
+	 * exit if it keeps failing - so that Lambda replaces this instance instead of it spinning on a broken connection
+	 */
+	private void backOff() {
+		if (apiFailures >= MAX_API_FAILURES) {
+			log.error("Failed to reach the runtime API {} times in a row, exiting", apiFailures);
+			Logging.flush();
+			System.exit(1);
+		}
+		try {
+			Thread.sleep(Math.min(MAX_BACKOFF, MIN_BACKOFF << (apiFailures - 1)));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	static LambdaRuntime create(String runtimeApi, String name) {
+		if (Objects.nonNull(name) && name.startsWith(NotifyRecordsEventBridge.class.getName()))
+			return new LambdaRuntime(runtimeApi, new NotifyRecordsEventBridge());
+		if (Objects.nonNull(name) && name.startsWith(NotifyRecordsSqs.class.getName()))
+			return new LambdaRuntime(runtimeApi, new NotifyRecordsSqs());
+		return new LambdaRuntime(runtimeApi, new NotifyRecordsSns());
+	}
+
+	/**
+	 * Wait for the next invocation, handle it and report the result
+	 * @return whether an invocation was handled successfully
+	 */
+	public boolean processNext() {
+		HttpResponse<String> next;
+		try {
+			next = http.send(HttpRequest.newBuilder(api.resolve("invocation/next")).GET().build(),
+					HttpResponse.BodyHandlers.ofString());
+		} catch (IOException e) {
+			Tools.logException(log, "Failed to get next invocation", e);
+			apiFailures++;
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		apiFailures = 0;
+		String requestId = next.headers().firstValue("Lambda-Runtime-Aws-Request-Id").orElse("");
+		InvocationContext context = new InvocationContext(requestId,
+				Long.parseLong(next.headers().firstValue("Lambda-Runtime-Deadline-Ms").orElse("0")),
+				next.headers().firstValue("Lambda-Runtime-Invoked-Function-Arn").orElse(null));
+		try {
+			return post("invocation/" + requestId + "/response", handler.invoke(next.body(), context));
+		} catch (IOException | RuntimeException e) {
+			Tools.logException(log, "Failed to handle invocation " + requestId, e);
+			reportError("invocation/" + requestId + "/error", e);
+			return false;
+		}
+	}
+
+	private void reportError(String path, Throwable t) {
+		try {
+			post(path, mapper.writeValueAsString(Map.of("errorMessage", String.valueOf(t.getMessage()),
+					"errorType", t.getClass().getName())));
+		} catch (IOException e) {
+			Tools.logException(log, "Failed to serialize error report", e);
+		}
+	}
+
+	private boolean post(String path, String body) {
+		try {
+			HttpResponse<Void> res = http.send(HttpRequest.newBuilder(api.resolve(path))
+					.POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8)).build(),
+					HttpResponse.BodyHandlers.discarding());
+			return res.statusCode() / 100 == 2;
+		} catch (IOException e) {
+			Tools.logException(log, "Failed to report to runtime API " + path, e);
+			apiFailures++;
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Invocation context built from the runtime API headers and the Lambda environment
+	 */
+	static class InvocationContext implements Context {
+		private final String requestId;
+		private final long deadline;
+		private final String functionArn;
+
+		InvocationContext(String requestId, long deadline, String functionArn) {
+			this.requestId = requestId;
+			this.deadline = deadline;
+			this.functionArn = functionArn;
+		}
+
+		@Override
+		public String getAwsRequestId() {
+			return requestId;
+		}
+
+		@Override
+		public String getLogGroupName() {
+			return System.getenv("AWS_LAMBDA_LOG_GROUP_NAME");
+		}
+
+		@Override
+		public String getLogStreamName() {
+			return System.getenv("AWS_LAMBDA_LOG_STREAM_NAME");
+		}
+
+		@Override
+		public String getFunctionName() {
+			return System.getenv("AWS_LAMBDA_FUNCTION_NAME");
+		}
+
+		@Override
+		public String getFunctionVersion() {
+			return System.getenv("AWS_LAMBDA_FUNCTION_VERSION");
+		}
+
+		@Override
+		public String getInvokedFunctionArn() {
+			return functionArn;
+		}
+
+		@Override
+		public CognitoIdentity getIdentity() {
+			return null;
+		}
+
+		@Override
+		public ClientContext getClientContext() {
+			return null;
+		}
+
+		@Override
+		public int getRemainingTimeInMillis() {
+			return (int) Math.max(0, deadline - System.currentTimeMillis());
+		}
+
+		@Override
+		public int getMemoryLimitInMB() {
+			return Integer.parseInt(System.getenv().getOrDefault("AWS_LAMBDA_FUNCTION_MEMORY_SIZE", "0"));
+		}
+
+		@Override
+		public LambdaLogger getLogger() {
+			return new LambdaLogger() {
+				@Override
+				public void log(String message) {
+					System.out.println(message);
+				}
+
+				@Override
+				public void log(byte[] message) {
+					System.out.println(new String(message, StandardCharsets.UTF_8));
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package tech.greenfield.aws.route53;
+
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * When a launching instance's lifecycle action is completed with {@code CONTINUE}, selected using the
+ * {@code LIFECYCLE_COMPLETION} environment variable or notification metadata field.
+ */
+public enum LifecycleCompletion {
+	/** After the record changes were applied on all the Route53 servers (the default) */
+	INSYNC,
+	/**
+	 * As soon as Route53 accepted the record changes, without waiting for them to propagate - so the instance
+	 * leaves {@code Pending:Wait} sooner, and may briefly be in service before its records resolve everywhere
+	 */
+	ACCEPTED;
+
+	private static final Logger log = LoggerFactory.getLogger(LifecycleCompletion.class.getName());
+
+	/**
+	 * @param name completion policy name, case insensitive
+	 * @return the named policy, or {@link #INSYNC} if no name was set
+	 */
+	public static LifecycleCompletion parse(String name) {
+		if (Objects.isNull(name) || name.isBlank())
+			return INSYNC;
+		try {
+			return valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			log.warn("Unknown lifecycle completion '{}', using {}", name, INSYNC);
+			return INSYNC;
+		}
+	}
+}
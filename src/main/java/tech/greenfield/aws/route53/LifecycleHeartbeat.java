@@ -0,0 +1,91 @@
+package tech.greenfield.aws.route53;
+
+import static tech.greenfield.aws.Clients.autoscaling;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import tech.greenfield.aws.Scheduler;
+import tech.greenfield.aws.tracing.Span;
+
+/**
+ * Records heartbeats for a lifecycle action while its event is handled, so that a long Route53 propagation wait
+ * doesn't run into the lifecycle hook's heartbeat timeout. The first heartbeat is recorded after one interval, set
+ * in seconds by the {@code LIFECYCLE_HEARTBEAT_INTERVAL} environment variable (default {@value #DEFAULT_INTERVAL},
+ * 0 to disable), so quick updates don't make any calls.
+ */
+public class LifecycleHeartbeat {
+
+	private static final Logger log = LoggerFactory.getLogger(LifecycleHeartbeat.class.getName());
+	static final long DEFAULT_INTERVAL = 60;
+
+	private final LifeCycleNotification event;
+	private final Span span;
+	private final long interval;
+	private volatile boolean stopped;
+	private volatile CompletableFuture<Void> next;
+
+	private LifecycleHeartbeat(LifeCycleNotification event, Span span, long interval) {
+		this.event = event;
+		this.span = span;
+		this.interval = interval;
+	}
+
+	/**
+	 * Start recording heartbeats for a lifecycle action
+	 * @param event the lifecycle hook event, or null
+	 * @param span span to trace the heartbeats under
+	 * @return the heartbeat, to stop when the lifecycle action is completed, or null if no heartbeats are needed
+	 */
+	public static LifecycleHeartbeat start(LifeCycleNotification event, Span span) {
+		long interval = getInterval();
+		if (Objects.isNull(event) || Objects.isNull(event.getLifecycleActionToken()) || interval <= 0)
+			return null;
+		LifecycleHeartbeat heartbeat = new LifecycleHeartbeat(event, span, interval * 1000);
+		heartbeat.schedule();
+		return heartbeat;
+	}
+
+	/**
+	 * @param heartbeat heartbeat to stop, or null
+	 */
+	public static void stop(LifecycleHeartbeat heartbeat) {
+		if (Objects.isNull(heartbeat))
+			return;
+		heartbeat.stopped = true;
+		heartbeat.next.cancel(false);
+	}
+
+	private static long getInterval() {
+		try {
+			return Long.parseLong(System.getenv().getOrDefault("LIFECYCLE_HEARTBEAT_INTERVAL", String.valueOf(DEFAULT_INTERVAL)).trim());
+		} catch (NumberFormatException e) {
+			return DEFAULT_INTERVAL;
+		}
+	}
+
+	private void schedule() {
+		next = Scheduler.delay(interval);
+		next.thenCompose(v -> stopped ? CompletableFuture.completedFuture(null) : beat())
+				.thenRun(() -> {
+					if (!stopped)
+						schedule();
+				});
+	}
+
+	private CompletableFuture<Void> beat() {
+		log.info("Recording life-cycle action heartbeat for token {}", event.getLifecycleActionToken());
+		return span.traceAsync("LifeCycle.recordHeartbeat", () -> autoscaling().recordLifecycleActionHeartbeat(b -> b
+					.autoScalingGroupName(event.getAutoScalingGroupName())
+					.lifecycleHookName(event.getLifecycleHookName())
+					.lifecycleActionToken(event.getLifecycleActionToken())))
+				.<Void>thenApply(res -> null)
+				.exceptionally(t -> {
+					log.warn("Failed to record life-cycle action heartbeat: {}", t.toString());
+					return null;
+				});
+	}
+}
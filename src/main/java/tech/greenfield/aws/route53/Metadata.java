@@ -17,6 +17,9 @@ public class Metadata {
 	private boolean PRIVATE = false;
 	private boolean DNSRR_PRIVATE = false;
 	private boolean SRV_PRIVATE = false;
+	private String RECORD_MODE;
+	private boolean OWNERSHIP_REGISTRY = false;
+	private String LIFECYCLE_COMPLETION;
 	
 	public static Metadata fromEnvironment() {
 		Metadata metadata = new Metadata();
@@ -29,6 +32,9 @@ public class Metadata {
 		metadata.setPRIVATE(!System.getenv().getOrDefault("PRIVATE", "").isEmpty());
 		metadata.setDNSRR_PRIVATE(!System.getenv().getOrDefault("DNSRR_PRIVATE", "").isEmpty());
 		metadata.setSRV_PRIVATE(!System.getenv().getOrDefault("SRV_PRIVATE", "").isEmpty());
+		metadata.setRECORD_MODE(System.getenv("RECORD_MODE"));
+		metadata.setOWNERSHIP_REGISTRY(!System.getenv().getOrDefault("OWNERSHIP_REGISTRY", "").isEmpty());
+		metadata.setLIFECYCLE_COMPLETION(System.getenv("LIFECYCLE_COMPLETION"));
 		return metadata;
 	}
 
@@ -147,5 +153,37 @@ public class Metadata {
 	public void setSRV_PRIVATE(boolean sRV_PRIVATE) {
 		SRV_PRIVATE = sRV_PRIVATE;
 	}
+
+	public String getRECORD_MODE() {
+		return RECORD_MODE;
+	}
+
+	public void setRECORD_MODE(String rECORD_MODE) {
+		RECORD_MODE = rECORD_MODE;
+	}
+
+	public RecordMode getRecordMode() {
+		return RecordMode.parse(RECORD_MODE);
+	}
+
+	public String getLIFECYCLE_COMPLETION() {
+		return LIFECYCLE_COMPLETION;
+	}
+
+	public void setLIFECYCLE_COMPLETION(String lIFECYCLE_COMPLETION) {
+		LIFECYCLE_COMPLETION = lIFECYCLE_COMPLETION;
+	}
+
+	public LifecycleCompletion getLifecycleCompletion() {
+		return LifecycleCompletion.parse(LIFECYCLE_COMPLETION);
+	}
+
+	public boolean isOWNERSHIP_REGISTRY() {
+		return OWNERSHIP_REGISTRY;
+	}
+
+	public void setOWNERSHIP_REGISTRY(boolean oWNERSHIP_REGISTRY) {
+		OWNERSHIP_REGISTRY = oWNERSHIP_REGISTRY;
+	}
 	
 }
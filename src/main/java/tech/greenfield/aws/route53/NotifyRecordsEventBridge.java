@@ -0,0 +1,164 @@
+package tech.greenfield.aws.route53;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+import tech.greenfield.aws.ExecutionMode;
+import tech.greenfield.aws.VirtualThreads;
+import tech.greenfield.aws.logging.Logging;
+
+/**
+ * Main entry point from the AWS Lambda engine for AutoScaling events delivered by EventBridge, without the SNS (and
+ * SQS) hops and the JSON encoded SNS message. The input can be:
+ * <ul>
+ * <li>a single event, as an EventBridge rule matching {@code {"source": ["aws.autoscaling"]}} invokes the Lambda.
+ * If the event should be handled again later - it wasn't finished before the invocation's deadline - the invocation
+ * fails, so that Lambda retries it</li>
+ * <li>an SQS event, whose messages' bodies are events, as delivered in batches when the rule sends the events to a
+ * queue that triggers the Lambda - or an array of events or of SQS messages, as delivered in batches by an
+ * EventBridge pipe. Queued events that should be handled again later - not finished before the deadline, or
+ * throttled - are returned as batch item failures, so that only they are delivered again (enable
+ * {@code ReportBatchItemFailures} on the event source mapping)</li>
+ * </ul>
+ * A batch of events is applied as combined changes by an {@link EventAggregator}. Events that aren't AutoScaling
+ * instance launch, terminate or lifecycle action events are ignored.
+ */
+public class NotifyRecordsEventBridge extends BaseNotifyRecords implements RequestStreamHandler {
+
+	private static final ObjectMapper mapper = JsonMapper.builder()
+			.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+			.build();
+
+	/**
+	 * Response of a batch invocation, listing the queued events to deliver again
+	 */
+	public static class BatchResponse extends Route53UpdateResponse {
+		private final List<Map<String, String>> batchItemFailures;
+
+		BatchResponse(Route53UpdateResponse response, List<String> failures) {
+			super(response.getStatus(), response.getMessage());
+			batchItemFailures = failures.stream().map(id -> Map.of("itemIdentifier", id)).collect(Collectors.toList());
+		}
+
+		public List<Map<String, String>> getBatchItemFailures() {
+			return batchItemFailures;
+		}
+	}
+
+	/**
+	 * Main entry point
+	 */
+	@Override
+	public void handleRequest(InputStream input, OutputStream output, Context context) throws IOException {
+		beginInvocation();
+		Route53UpdateResponse response = null;
+		try {
+			mapper.writeValue(output, response = handleEvent(input, context));
+		} finally {
+			endInvocation(response);
+			Logging.flush();
+		}
+	}
+
+	private Route53UpdateResponse handleEvent(InputStream input, Context context) {
+		JsonNode tree;
+		try {
+			tree = mapper.readTree(input);
+		} catch (IOException e) {
+			log.warn("Invalid EventBridge input: {}", e.getMessage());
+			return Response.error("invalid EventBridge input");
+		}
+		if (Objects.isNull(tree) || !(tree.isArray() || tree.isObject())) {
+			log.warn("Invalid EventBridge input: {}", tree);
+			return Response.error("no EventBridge event input");
+		}
+		boolean batch = tree.isArray() || tree.has("Records");
+		// item identifiers of the events, for reporting batch item failures
+		Map<Route53Message, String> messages = new LinkedHashMap<>();
+		for (JsonNode item : tree.isArray() ? tree : tree.has("Records") ? tree.get("Records") : List.of(tree))
+			parse(item, messages);
+		if (messages.isEmpty()) {
+			log.info("No AutoScaling events to handle");
+			return batch ? new BatchResponse(Response.ok(), Collections.emptyList()) : Response.ok();
+		}
+		Map<Route53Message, RetryLaterException> unfinished;
+		try {
+			unfinished = messages.size() == 1 ? handleOne(messages.keySet().iterator().next(), context) :
+				handleAggregated(new ArrayList<>(messages.keySet()), context).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.error("Unexpected exception in EventBridge request handler: {}", e.toString());
+			return Response.error(e.getMessage());
+		} catch (ExecutionException e) {
+			Tools.logException(log, "Unexpected exception in EventBridge request handler", e.getCause());
+			return Response.error(e.getCause().getMessage());
+		}
+		List<String> failures = new ArrayList<>();
+		for (Map.Entry<Route53Message, RetryLaterException> e : unfinished.entrySet()) {
+			if (!e.getKey().isQueued()) // a directly invoked event can only be retried by failing the invocation
+				throw e.getValue();
+			failures.add(messages.get(e.getKey()));
+		}
+		return batch ? new BatchResponse(Response.ok(), failures) : Response.ok();
+	}
+
+	/**
+	 * Parse an EventBridge event, or an SQS message carrying one, and add it to the messages to handle unless it
+	 * is invalid or not supported, which is logged
+	 */
+	private void parse(JsonNode item, Map<Route53Message, String> messages) {
+		boolean queued = !item.has("detail-type") && item.has("body");
+		String id = queued ? item.path("messageId").asText() : item.path("id").asText();
+		try {
+			EventBridgeEvent event = queued ? mapper.readValue(item.get("body").asText(), EventBridgeEvent.class) :
+				mapper.treeToValue(item, EventBridgeEvent.class);
+			if (!event.isSupported()) {
+				log.info("Ignoring event {}", event);
+				return;
+			}
+			messages.put(new Route53Message(event, queued), id);
+		} catch (IOException | ParsingException e) {
+			Tools.logException(log, "Error parsing incoming event", e);
+			log.error("Original event: {}", item);
+		}
+	}
+
+	/**
+	 * Handle a single event, in a virtual thread or asynchronously according to the execution mode
+	 * @return the event and the reason it should be handled again later, or an empty map if it was handled - or
+	 * failed
+	 */
+	private Map<Route53Message, RetryLaterException> handleOne(Route53Message message, Context context)
+			throws InterruptedException, ExecutionException {
+		if (ExecutionMode.current() != ExecutionMode.VIRTUAL) {
+			RetryLaterException unfinished = handleBefore(message, context, Deadline.of(context)).get();
+			return Objects.isNull(unfinished) ? Collections.emptyMap() : Map.of(message, unfinished);
+		}
+		try {
+			VirtualThreads.call(() -> {
+				handleSync(message, context);
+				return null;
+			});
+			log.info("Done updating Route53");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RetryLaterException) {
+				log.warn("Stopped handling the event: {}", e.getCause().getMessage());
+				return Map.of(message, (RetryLaterException) e.getCause());
+			}
+			Tools.logException(log, "Unexpected error while updating Route53", e.getCause());
+		}
+		return Collections.emptyMap();
+	}
+
+}
@@ -1,5 +1,6 @@
 package tech.greenfield.aws.route53;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
@@ -10,6 +11,11 @@ import com.amazonaws.services.lambda.runtime.events.SNSEvent;
 import com.amazonaws.services.lambda.runtime.events.SNSEvent.SNSRecord;
 import com.amazonaws.services.lambda.runtime.Context;
 
+import tech.greenfield.aws.ExecutionMode;
+import tech.greenfield.aws.VirtualThreads;
+import tech.greenfield.aws.capture.EventCapture;
+import tech.greenfield.aws.logging.Logging;
+
 /**
  * Main entry point from the AWS Lambda engine, that takes an SNS event
  * @author odeda
@@ -36,6 +42,17 @@ public class NotifyRecordsSns extends BaseNotifyRecords implements RequestHandle
 	 * Main entry point
 	 */
 	public Route53UpdateResponse handleRequest(SNSEvent input, Context context) {
+		beginInvocation();
+		Route53UpdateResponse response = null;
+		try {
+			return response = handleEvent(input, context);
+		} finally {
+			endInvocation(response);
+			Logging.flush();
+		}
+	}
+	
+	private Route53UpdateResponse handleEvent(SNSEvent input, Context context) {
 		if (Objects.isNull(input)) {
 			log.warn("Invalid SNS input object");
 			return Response.error("no SNS event input");
@@ -45,17 +62,30 @@ public class NotifyRecordsSns extends BaseNotifyRecords implements RequestHandle
 			log.warn("No SNS events in input");
 			return Response.error("no SNS events");
 		}
+		EventCapture capture = EventCapture.get();
+		if (Objects.nonNull(capture))
+			for (SNSRecord r : records)
+				if (Objects.nonNull(r.getSNS()))
+					capture.record(EventCapture.Source.SNS, r.getSNS().getMessageId(), r.getSNS().getMessage());
+		if (ExecutionMode.current() == ExecutionMode.VIRTUAL)
+			return handleRecordsInVirtualThreads(records, context);
+		Deadline deadline = Deadline.of(context);
+		List<RetryLaterException> unfinished = new ArrayList<>();
 		CompletableFuture<Void> res = CompletableFuture.completedFuture(null);
 		for (SNSRecord r : records) {
 			res = res.thenCompose(v -> {
 				try {
-					return new Route53Message(r).createEventHandler(context).handle();
+					return handleBefore(new Route53Message(r), context, deadline);
 				} catch (ParsingException e) {
 					Tools.logException(log, "Error parsing incoming message", e);
-					log.error("Original message: " + r.getSNS().getMessage());
+					log.error("Original message: {}", r.getSNS().getMessage());
 					return CompletableFuture.completedFuture(null);
 				}
 			})
+			.thenAccept(e -> {
+				if (Objects.nonNull(e))
+					unfinished.add(e);
+			})
 			.exceptionally(t -> {
 				if (Objects.nonNull(t))
 					Tools.logException(log, "Unexpected error during handling message", t);
@@ -64,12 +94,56 @@ public class NotifyRecordsSns extends BaseNotifyRecords implements RequestHandle
 		}
 		try {
 			res.get();
-			log.info("Done updating Route53");
-			return Response.ok();
 		} catch (InterruptedException | ExecutionException e) {
-			log.error("Unexpected exception in SNS request handler: " + e);
+			log.error("Unexpected exception in SNS request handler: {}", e.toString());
 			return Response.error(e.getMessage());
 		}
+		return doneOrRetry(unfinished);
+	}
+
+	/**
+	 * Handle each record in its own virtual thread, one after the other
+	 */
+	private Route53UpdateResponse handleRecordsInVirtualThreads(List<SNSRecord> records, Context context) {
+		List<RetryLaterException> unfinished = new ArrayList<>();
+		for (SNSRecord r : records) {
+			try {
+				VirtualThreads.call(() -> {
+					handleSync(new Route53Message(r), context);
+					return null;
+				});
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RetryLaterException) {
+					log.warn("Stopped handling the event: {}", e.getCause().getMessage());
+					unfinished.add((RetryLaterException) e.getCause());
+				} else if (e.getCause() instanceof ParsingException) {
+					Tools.logException(log, "Error parsing incoming message", e.getCause());
+					log.error("Original message: {}", r.getSNS().getMessage());
+				} else
+					Tools.logException(log, "Unexpected error during handling message", e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				log.error("Unexpected exception in SNS request handler: {}", e.toString());
+				return Response.error(e.getMessage());
+			}
+		}
+		return doneOrRetry(unfinished);
+	}
+
+	/**
+	 * SNS notifications can only be handled again by failing the invocation, so that Lambda retries it - the events
+	 * that were already handled are then handled again, which doesn't change their records
+	 * @param unfinished reasons that events should be handled again later
+	 * @return an OK response if all the events were handled
+	 * @throws RetryLaterException the first reason, if any event should be handled again later
+	 */
+	private Route53UpdateResponse doneOrRetry(List<RetryLaterException> unfinished) {
+		if (!unfinished.isEmpty()) {
+			log.warn("Failing the invocation to retry {} unfinished events", unfinished.size());
+			throw unfinished.get(0);
+		}
+		log.info("Done updating Route53");
+		return Response.ok();
 	}
 	
 }
@@ -4,12 +4,13 @@ import static tech.greenfield.aws.Clients.*;
 
 import java.io.*;
 import java.net.ConnectException;
-import java.net.MalformedURLException;
 import java.net.URL;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import com.amazonaws.services.lambda.runtime.Context;
@@ -18,39 +19,65 @@ import com.amazonaws.services.lambda.runtime.events.SNSEvent;
 
 import software.amazon.awssdk.services.ec2.model.Filter;
 import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+import tech.greenfield.aws.ExecutionMode;
+import tech.greenfield.aws.Scheduler;
+import tech.greenfield.aws.VirtualThreads;
+import tech.greenfield.aws.capture.EventCapture;
+import tech.greenfield.aws.logging.Logging;
 
 public class NotifyRecordsSqs extends BaseNotifyRecords implements RequestHandler<SNSEvent, Route53UpdateResponse>{
 
+	private static final long METADATA_RETRY_DELAY = 200;
+	private static final long RECEIVE_DELAY = 300;
+	/** Maximum number of messages to aggregate in one invocation */
+	static final int MAX_AGGREGATED = 1000;
+	/** Message attribute with the ID of the change that a checkpointed event submitted but didn't wait for */
+	static final String PENDING_CHANGE_ATTRIBUTE = "PendingChangeId";
+	/** Delay of a checkpointed event with a pending change, in seconds, to give the change time to be applied */
+	static final int CHECKPOINT_DELAY = 10;
+	/** Message attribute with the number of times the event was throttled */
+	static final String ATTEMPT_ATTRIBUTE = "Attempt";
+	/** Delay of an event's first retry after it was throttled, in seconds, doubled on each further attempt */
+	static final int THROTTLE_BASE_DELAY = 2;
+	/** Maximum delay of an SQS message, in seconds */
+	static final int MAX_DELAY = 900;
+	static final int DEFAULT_MAX_ATTEMPTS = 10;
+	private static final Random random = new Random();
 	private static String queueUrl = null;
+	private static Duration aggregationWindow = readAggregationWindow();
 	
 	@Override
 	public Route53UpdateResponse handleRequest(SNSEvent input, Context context) {
+		beginInvocation();
+		Route53UpdateResponse response = null;
+		try {
+			return response = handleEvent(input, context);
+		} finally {
+			endInvocation(response);
+			Logging.flush();
+		}
+	}
+	
+	private Route53UpdateResponse handleEvent(SNSEvent input, Context context) {
 		log.info("Handling sqs request for {}", input);
+		if (!aggregationWindow.isZero())
+			return handleAggregatedMessages(context);
+		if (ExecutionMode.current() == ExecutionMode.VIRTUAL)
+			return handleMessagesInVirtualThreads(context);
+		Deadline deadline = Deadline.of(context);
 		try {
-			return findMessages(10, 300)
+			return findMessages(10, RECEIVE_DELAY, visibilityTimeout(context))
 			.thenCompose(messages -> {
-				log.debug("Handling " + messages.size() + " messages from queue.");
-				CompletableFuture<Route53UpdateResponse> res = CompletableFuture.completedFuture(null);
-				for (Message message : messages) {
-					res = res.thenCompose(v -> {
-						try {
-							return handleMessage(new Route53Message(message), context);
-						} catch (ParsingException e) {
-							Tools.logException(log, "Failed to parse notification",e);
-							log.error("Original message: " + message.body());
-							return CompletableFuture.completedFuture(null);
-						}
-					})
-					.exceptionally(t -> {
-						if (Objects.nonNull(t))
-							Tools.logException(log, "Unexpected error during handling message", t);
-						return null;
-					});
-					// assuming we don't want to retry, and completion will take a while
-					// (to wait for the change to complete) so start deleting the message early to not block
-					// the end of the invocation
-					deleteMessage(message); 
-				}
+				log.debug("Handling {} messages from queue.", messages.size());
+				CompletableFuture<Void> res = CompletableFuture.completedFuture(null);
+				for (Message message : messages)
+					res = res.thenCompose(v -> handleQueued(message, context, deadline))
+							.exceptionally(t -> {
+								Tools.logException(log, "Unexpected error during handling message", t);
+								return null;
+							});
 				return res;
 			})
 			.thenApply(v -> Response.ok())
@@ -59,27 +86,291 @@ public class NotifyRecordsSqs extends BaseNotifyRecords implements RequestHandle
 				return Response.error(e.getMessage());
 			}).get();
 		} catch (InterruptedException | ExecutionException e) {
-			log.error("Unexpected exception in SQS request handler: " + e);
+			log.error("Unexpected exception in SQS request handler: {}", e.toString());
 			return Response.error(e.getMessage());
 		}
 	}
 	
-	private CompletableFuture<List<Message>> findMessages(int iterations, long delay) {
-		return getMessages()
+	/**
+	 * Handle a received message, unless the deadline passed, then delete it - or requeue it if it wasn't finished
+	 * before the deadline or was throttled. A message that fails for any other reason is deleted, and not retried.
+	 */
+	private CompletableFuture<Void> handleQueued(Message message, Context context, Deadline deadline) {
+		Route53Message parsed;
+		try {
+			parsed = new Route53Message(message);
+		} catch (ParsingException e) {
+			Tools.logException(log, "Failed to parse notification", e);
+			log.error("Original message: {}", message.body());
+			return deleteMessage(message);
+		}
+		return handleBefore(parsed, context, deadline)
+				.thenCompose(unfinished -> Objects.isNull(unfinished) ? deleteMessage(message) : requeue(message, unfinished));
+	}
+
+	/**
+	 * Receive messages until the aggregation window since the first message ends, and apply them as combined
+	 * changes. The messages stay invisible in the queue until they were handled, and are then deleted. This uses
+	 * the asynchronous clients in all the execution modes.
+	 */
+	private Route53UpdateResponse handleAggregatedMessages(Context context) {
+		long remaining = Objects.nonNull(context) ? context.getRemainingTimeInMillis() : Long.MAX_VALUE;
+		// leave at least half of the invocation's time for applying the changes
+		long window = Math.min(aggregationWindow.toMillis(), remaining / 2);
+		int visibility = visibilityTimeout(context);
+		try {
+			return findMessages(10, RECEIVE_DELAY, visibility)
+			.thenCompose(first -> {
+				Map<String, Message> received = new LinkedHashMap<>();
+				first.forEach(m -> received.put(m.messageId(), m));
+				return collectMessages(received, System.currentTimeMillis() + window, visibility);
+			})
+			.thenCompose(messages -> {
+				log.debug("Aggregating {} messages from queue.", messages.size());
+				Map<Message, Route53Message> parsed = new LinkedHashMap<>();
+				for (Message message : messages)
+					try {
+						parsed.put(message, new Route53Message(message));
+					} catch (ParsingException e) {
+						Tools.logException(log, "Failed to parse notification", e);
+						log.error("Original message: {}", message.body());
+					}
+				CompletableFuture<Map<Route53Message, RetryLaterException>> handled = parsed.isEmpty() ?
+						CompletableFuture.completedFuture(Collections.emptyMap()) :
+						handleAggregated(new ArrayList<>(parsed.values()), context);
+				return handled.handle((unfinished, t) -> messages.stream().map(message -> {
+							RetryLaterException reason = Objects.nonNull(unfinished) ? unfinished.get(parsed.get(message)) : null;
+							return Objects.isNull(reason) ? deleteMessage(message) : requeue(message, reason);
+						}).toArray(CompletableFuture[]::new))
+						.thenCompose(CompletableFuture::allOf);
+			})
+			.thenApply(v -> Response.ok())
+			.exceptionally(e -> {
+				Tools.logException(log, "Couldn't get/handle sqs messages", e);
+				return Response.error(e.getMessage());
+			}).get();
+		} catch (InterruptedException | ExecutionException e) {
+			log.error("Unexpected exception in SQS request handler: {}", e.toString());
+			return Response.error(e.getMessage());
+		}
+	}
+
+	/**
+	 * Keep receiving messages until the deadline
+	 * @param received messages received so far, by message ID, so that messages received again are not duplicated
+	 * @param deadline time to stop receiving, in epoch milliseconds
+	 * @param visibility visibility timeout for the received messages, in seconds
+	 */
+	private CompletableFuture<List<Message>> collectMessages(Map<String, Message> received, long deadline, int visibility) {
+		long left = deadline - System.currentTimeMillis();
+		if (received.isEmpty() || left <= 0 || received.size() >= MAX_AGGREGATED)
+			return CompletableFuture.completedFuture(new ArrayList<>(received.values()));
+		return getMessages(visibility)
+				.thenCompose(l -> {
+					l.forEach(m -> received.put(m.messageId(), m));
+					return Scheduler.after(l.isEmpty() ? Math.min(RECEIVE_DELAY, left) : 0,
+							() -> collectMessages(received, deadline, visibility));
+				});
+	}
+
+	/**
+	 * Receive messages with the synchronous SQS client, and handle each message in its own virtual thread,
+	 * one after the other, until the deadline
+	 */
+	private Route53UpdateResponse handleMessagesInVirtualThreads(Context context) {
+		Deadline deadline = Deadline.of(context);
+		int visibility = visibilityTimeout(context);
+		try {
+			String queue = getQueueUrl().get();
+			List<Message> messages = Collections.emptyList();
+			for (int i = 0; i < 10 && messages.isEmpty(); i++) {
+				if (i > 0)
+					Thread.sleep(RECEIVE_DELAY);
+				messages = sqsSync().receiveMessage(b -> b.queueUrl(queue).maxNumberOfMessages(10)
+						.visibilityTimeout(visibility).messageAttributeNames(PENDING_CHANGE_ATTRIBUTE, ATTEMPT_ATTRIBUTE))
+						.messages();
+				capture(messages);
+			}
+			log.debug("Handling {} messages from queue.", messages.size());
+			for (Message message : messages) {
+				if (deadline.passed()) {
+					requeueSync(queue, message, new DeadlineExceededException("Deadline reached before handling the event", null));
+					continue;
+				}
+				try {
+					VirtualThreads.call(() -> {
+						handleSync(new Route53Message(message), context);
+						return null;
+					});
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof RetryLaterException) {
+						log.warn("Stopped handling the event: {}", e.getCause().getMessage());
+						requeueSync(queue, message, (RetryLaterException) e.getCause());
+						continue;
+					}
+					if (e.getCause() instanceof ParsingException) {
+						Tools.logException(log, "Failed to parse notification", e.getCause());
+						log.error("Original message: {}", message.body());
+					} else
+						Tools.logException(log, "Unexpected error while updating Route53", e.getCause());
+				}
+				deleteMessageSync(queue, message);
+			}
+			return Response.ok();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.error("Unexpected exception in SQS request handler: {}", e.toString());
+			return Response.error(e.getMessage());
+		} catch (ExecutionException | RuntimeException e) {
+			Tools.logException(log, "Couldn't get/handle sqs messages", e);
+			return Response.error(e.getMessage());
+		}
+	}
+
+	private void deleteMessageSync(String queue, Message message) {
+		try {
+			sqsSync().deleteMessage(b -> b.queueUrl(queue).receiptHandle(message.receiptHandle()));
+			log.debug("Deleted message {}", message.messageId());
+		} catch (RuntimeException e) {
+			log.error("Failed to delete message: {}", e.toString());
+		}
+	}
+	
+	/**
+	 * Return an event to the queue, to be handled again later. A throttled event is sent again as a new message,
+	 * delayed exponentially by its number of attempts - so backing off doesn't keep the invocation busy - until it
+	 * was throttled too many times and is dropped. An event that wasn't finished before the deadline is sent again
+	 * with its pending change, if any, to be waited for first. The received message is then deleted, or, if there is
+	 * nothing to add to it, just made visible again.
+	 * @return a future that will be completed when done, whether it succeeded or not
+	 */
+	private CompletableFuture<Void> requeue(Message message, RetryLaterException reason) {
+		log.info("Requeuing message {}: {}", message.messageId(), reason.getMessage());
+		CompletableFuture<?> res;
+		if (exhausted(message, reason))
+			res = deleteMessage(message);
+		else if (!resend(message, reason))
+			res = getQueueUrl().thenCompose(queue -> sqs().changeMessageVisibility(b -> b.queueUrl(queue)
+					.receiptHandle(message.receiptHandle()).visibilityTimeout(0)));
+		else
+			res = getQueueUrl().thenCompose(queue -> sqs().sendMessage(requeueRequest(queue, message, reason)))
+					.thenCompose(r -> deleteMessage(message));
+		return res.handle((v, t) -> {
+			if (Objects.nonNull(t))
+				log.error("Failed to requeue message {}: {}", message.messageId(), t.toString());
+			return null;
+		});
+	}
+
+	private void requeueSync(String queue, Message message, RetryLaterException reason) {
+		log.info("Requeuing message {}: {}", message.messageId(), reason.getMessage());
+		try {
+			if (exhausted(message, reason))
+				deleteMessageSync(queue, message);
+			else if (!resend(message, reason))
+				sqsSync().changeMessageVisibility(b -> b.queueUrl(queue).receiptHandle(message.receiptHandle())
+						.visibilityTimeout(0));
+			else {
+				sqsSync().sendMessage(requeueRequest(queue, message, reason));
+				deleteMessageSync(queue, message);
+			}
+		} catch (RuntimeException e) {
+			log.error("Failed to requeue message {}: {}", message.messageId(), e.toString());
+		}
+	}
+
+	/**
+	 * @return whether a throttled event was throttled too many times, and should be dropped
+	 */
+	private boolean exhausted(Message message, RetryLaterException reason) {
+		if (!(reason instanceof ThrottledException) || getAttempt(message) < getMaxAttempts())
+			return false;
+		log.error("Dropping message {} after it was throttled {} times", message.messageId(), getAttempt(message) + 1);
+		log.error("Original message: {}", message.body());
+		return true;
+	}
+
+	/**
+	 * @return whether the event should be sent as a new message, with new attributes and a delay
+	 */
+	private static boolean resend(Message message, RetryLaterException reason) {
+		return reason instanceof ThrottledException || Objects.nonNull(reason.getPendingChangeId());
+	}
+
+	private static SendMessageRequest requeueRequest(String queue, Message message, RetryLaterException reason) {
+		Map<String, MessageAttributeValue> attributes = new HashMap<>();
+		int attempt = getAttempt(message), delay = CHECKPOINT_DELAY;
+		if (reason instanceof ThrottledException) {
+			attempt++;
+			delay = backoff(attempt);
+		}
+		if (attempt > 0)
+			attributes.put(ATTEMPT_ATTRIBUTE, MessageAttributeValue.builder().dataType("Number")
+					.stringValue(String.valueOf(attempt)).build());
+		if (Objects.nonNull(reason.getPendingChangeId()))
+			attributes.put(PENDING_CHANGE_ATTRIBUTE, MessageAttributeValue.builder().dataType("String")
+					.stringValue(reason.getPendingChangeId()).build());
+		return SendMessageRequest.builder().queueUrl(queue).messageBody(message.body()).delaySeconds(delay)
+				.messageAttributes(attributes).build();
+	}
+
+	/**
+	 * @param attempt number of times the event was throttled
+	 * @return exponentially growing delay in seconds, with "equal jitter" so events throttled together are spread
+	 * out when they are retried
+	 */
+	static int backoff(int attempt) {
+		long delay = Math.min(MAX_DELAY, (long) THROTTLE_BASE_DELAY << Math.min(attempt - 1, 20));
+		return (int) (delay / 2 + random.nextInt((int) (delay - delay / 2) + 1));
+	}
+
+	/**
+	 * @return the number of times the event was throttled before it was received
+	 */
+	private static int getAttempt(Message message) {
+		MessageAttributeValue attempt = message.messageAttributes().get(ATTEMPT_ATTRIBUTE);
+		try {
+			return Objects.nonNull(attempt) ? Integer.parseInt(attempt.stringValue()) : 0;
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * @return how many times an event can be throttled, set by the THROTTLE_MAX_ATTEMPTS environment variable
+	 */
+	private static int getMaxAttempts() {
+		try {
+			return Integer.parseInt(System.getenv().getOrDefault("THROTTLE_MAX_ATTEMPTS", String.valueOf(DEFAULT_MAX_ATTEMPTS)));
+		} catch (NumberFormatException e) {
+			return DEFAULT_MAX_ATTEMPTS;
+		}
+	}
+
+	/**
+	 * @return how long to hide received messages, in seconds: until after the invocation times out, as they are
+	 * only deleted after they were handled
+	 */
+	private static int visibilityTimeout(Context context) {
+		return (int) Math.min(TimeUnit.HOURS.toSeconds(12), Objects.nonNull(context) ?
+				TimeUnit.MILLISECONDS.toSeconds(context.getRemainingTimeInMillis()) + 60 : aggregationWindow.getSeconds() + 900);
+	}
+
+	private CompletableFuture<List<Message>> findMessages(int iterations, long delay, Integer visibility) {
+		return getMessages(visibility)
 				.thenCompose(l -> {
 					if (l.size() > 0)
 						return CompletableFuture.completedFuture(l);
 					if (iterations <= 1)
 						return CompletableFuture.completedFuture(Collections.emptyList());
-					return CompletableFuture.runAsync(Tools.delay(delay))
-							.thenCompose(v -> findMessages(iterations - 1, delay));
+					return Scheduler.after(delay, () -> findMessages(iterations - 1, delay, visibility));
 				});
 	}
 	
 	public CompletableFuture<Route53UpdateResponse> handleMessage(Route53Message input, Context context) {
-		return input.createEventHandler(context).handle()
+		return handleAsync(input, context)
 				.thenApply(v -> {
-					context.getLogger().log("Done updating Route53");
+					log.info("Done updating Route53");
 					return Response.ok();
 				})
 				.exceptionally(t -> {
@@ -89,25 +380,50 @@ public class NotifyRecordsSqs extends BaseNotifyRecords implements RequestHandle
 	}
 	
 	public CompletableFuture<List<Message>> getMessages() {
+		return getMessages(null);
+	}
+
+	/**
+	 * @param visibility how long to hide the received messages, in seconds, or null for the queue's default
+	 */
+	private CompletableFuture<List<Message>> getMessages(Integer visibility) {
 		return getQueueUrl()
-				.thenCompose(queue -> sqs().receiveMessage(b -> b.queueUrl(queue).maxNumberOfMessages(10)))
-				.thenApply(res -> res.messages());
+				.thenCompose(queue -> sqs().receiveMessage(b -> b.queueUrl(queue).maxNumberOfMessages(10)
+						.visibilityTimeout(visibility).messageAttributeNames(PENDING_CHANGE_ATTRIBUTE, ATTEMPT_ATTRIBUTE)))
+				.thenApply(res -> capture(res.messages()));
+	}
+
+	/**
+	 * Record received messages, if capturing. Messages that this handler sent back to the queue are not recorded, as
+	 * their events were already recorded when first received - and a replay sends them back again by itself.
+	 * @return the messages
+	 */
+	private static List<Message> capture(List<Message> messages) {
+		EventCapture capture = EventCapture.get();
+		if (Objects.nonNull(capture))
+			for (Message message : messages)
+				if (!message.messageAttributes().containsKey(ATTEMPT_ATTRIBUTE) &&
+						!message.messageAttributes().containsKey(PENDING_CHANGE_ATTRIBUTE))
+					capture.record(EventCapture.Source.SQS, message.messageId(), message.body());
+		return messages;
 	}
 
 	/**
 	 * Delete the SQS message, asynchronously
-	 * i.e. we don't wait nor do we care about the completion status of the deletion
+	 * i.e. we don't need to wait nor do we care about the completion status of the deletion
 	 * @param message SQS message to delete
+	 * @return a future that will be completed when the deletion is done, whether it succeeded or not
 	 */
-	public void deleteMessage(Message message) {
-		getQueueUrl()
+	public CompletableFuture<Void> deleteMessage(Message message) {
+		return getQueueUrl()
 		.thenCompose(queue -> sqs().deleteMessage(b -> b.queueUrl(queue).receiptHandle(message.receiptHandle())))
 		.whenComplete((d, t) -> {
 			if (Objects.nonNull(t) || !d.sdkHttpResponse().isSuccessful())
-				log.error("Failed to delete message: " + t);
+				log.error("Failed to delete message: {}", String.valueOf(t));
 			else
-				log.debug("Deleted message " + message.messageId());
-		});
+				log.debug("Deleted message {}", message.messageId());
+		})
+		.handle((d, t) -> null);
 	}
 
 	private CompletableFuture<String> getQueueUrl() {
@@ -116,37 +432,66 @@ public class NotifyRecordsSqs extends BaseNotifyRecords implements RequestHandle
 		log.trace(this.getClass().getName(), "getQueueUrl");
 		if(Objects.nonNull(System.getenv("QUEUE_URL")))
 			return CompletableFuture.completedFuture(queueUrl = System.getenv("QUEUE_URL"));
+		return getInstanceId()
+				.thenCompose(instanceId -> ec2().describeTags(b -> b.filters(
+						Filter.builder().name("resource-id").values(instanceId).build())))
+				.thenApply(res -> res.tags().stream()
+						.filter(tag -> tag.key().equals("QueueUrl")).findFirst()
+						.orElseThrow(() -> new CompletionException(new IOException("Queue URL tag missing")))
+						.value())
+				.whenComplete((url, t) -> queueUrl = url);
+	}
+
+	/**
+	 * Retrieve the ID of the instance we are running on from the instance metadata service, retrying
+	 * (with a delay) while the service can't be connected to
+	 * @return a future that will be completed with the instance ID
+	 */
+	private CompletableFuture<String> getInstanceId() {
+		log.trace(this.getClass().getName(), "getInstanceId");
 		try {
-			Filter f = Filter.builder().name("resource-id").values(getInstanceId()).build();
-			return ec2().describeTags(b -> b.filters(f))
-					.thenApply(res -> res.tags().stream()
-							.filter(tag -> tag.key().equals("QueueUrl")).findFirst()
-							.orElseThrow(() -> new CompletionException(new IOException("Queue URL tag missing")))
-							.value())
-					.whenComplete((url, t) -> queueUrl = url);
-		} catch (IOException e) { // only catches what getInstanceId() throws, the filter thing gets a failed future
-			CompletableFuture<String> fail = new CompletableFuture<>();
-			fail.completeExceptionally(e);
-			return fail;
+			return CompletableFuture.completedFuture(
+					getResult(new URL("http://169.254.169.254/latest/meta-data/instance-id").getContent()));
+		} catch (ConnectException e) {
+			log.warn("Retrying getInstanceId because of: {}", e.getMessage());
+			// the metadata request is blocking, so don't make it on the timer thread
+			return Scheduler.delay(METADATA_RETRY_DELAY).thenComposeAsync(v -> getInstanceId());
+		} catch (IOException e) {
+			return CompletableFuture.failedFuture(e);
 		}
 	}
-
-	private String getInstanceId() throws IOException {
+	
+	/**
+	 * @return the aggregation window set by the AGGREGATION_WINDOW environment variable, in seconds, or zero to
+	 * handle each message separately
+	 */
+	private static Duration readAggregationWindow() {
+		String window = System.getenv("AGGREGATION_WINDOW");
+		if (Objects.isNull(window) || window.isBlank())
+			return Duration.ZERO;
 		try {
-			log.trace(this.getClass().getName(), "getInstanceId");
-			while(true) {
-				try {
-					return getResult(new URL("http://169.254.169.254/latest/meta-data/instance-id").getContent());
-				} catch (MalformedURLException e) {
-					throw new IOException(e);
-				} catch (ConnectException e) {
-					log.warn("Retrying getInstanceId because of: " + e.getMessage());
-				}
-			}
-		} finally {
-			log.trace(this.getClass().getName(), "getInstanceId");
+			return Duration.ofSeconds(Math.max(0, Long.parseLong(window.trim())));
+		} catch (NumberFormatException e) {
+			return Duration.ZERO;
 		}
 	}
+
+	/**
+	 * Set how long to collect messages before applying them as combined changes, instead of the AGGREGATION_WINDOW
+	 * environment variable
+	 * @param window aggregation window, or zero to handle each message separately
+	 */
+	public static void setAggregationWindow(Duration window) {
+		aggregationWindow = Objects.requireNonNull(window);
+	}
+
+	/**
+	 * Use the specified queue instead of looking up the queue URL, for example to read from a fake SQS queue
+	 * @param url queue URL, or null to look it up again on the next invocation
+	 */
+	public static void setQueueUrl(String url) {
+		queueUrl = url;
+	}
 	
 	private String getResult(Object obj) {
 		if(obj instanceof InputStream) {
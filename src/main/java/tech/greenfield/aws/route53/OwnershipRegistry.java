@@ -0,0 +1,97 @@
+package tech.greenfield.aws.route53;
+
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import software.amazon.awssdk.services.route53.model.RRType;
+import software.amazon.awssdk.services.route53.model.ResourceRecord;
+import software.amazon.awssdk.services.route53.model.ResourceRecordSet;
+
+/**
+ * Records which auto scaling group owns which values of the managed record sets, so that a group's values can be
+ * replaced without touching the values of other groups that share the same record names.
+ *
+ * Ownership is stored in a companion TXT record set for each managed name, named by prefixing the managed name
+ * with {@value #PREFIX}, holding one value per owned value: {@code "asg=<group> type=<type> value=<value>"}, with
+ * the group name URL encoded. Claims and releases are made in the same change set - and so the same change batch -
+ * as the changes to the managed record sets.
+ */
+public class OwnershipRegistry {
+
+	static final String PREFIX = "_owner.";
+	private static final Pattern ENTRY = Pattern.compile("\"asg=(\\S+) type=(\\S+) value=(.*)\"");
+
+	private final String asg;
+
+	/**
+	 * @param asg name of the auto scaling group whose values are claimed and released
+	 */
+	public OwnershipRegistry(String asg) {
+		this.asg = Objects.requireNonNull(asg, "Ownership registry requires an auto scaling group name");
+	}
+
+	/**
+	 * @param name managed record set name
+	 * @return name of the TXT record set recording the ownership of the managed record set's values
+	 */
+	public static String registryName(String name) {
+		return PREFIX + name;
+	}
+
+	/**
+	 * @param name managed record set name
+	 * @return the key of the TXT record set recording the ownership of the managed record set's values
+	 */
+	public static ChangeSet.Key registryKey(String name) {
+		return new ChangeSet.Key(registryName(name), RRType.TXT, null);
+	}
+
+	/**
+	 * Record that this group owns a value of a managed record set
+	 * @param changes change set to add the claim to
+	 * @param name managed record set name
+	 * @param type managed record set type
+	 * @param ttl TTL of the registry record set
+	 * @param value owned value
+	 */
+	public void claim(ChangeSet changes, String name, RRType type, long ttl, String value) {
+		changes.add(registryName(name), RRType.TXT, ttl, entry(type, value));
+	}
+
+	/**
+	 * Record that this group no longer owns a value of a managed record set
+	 * @param changes change set to add the release to
+	 * @param name managed record set name
+	 * @param type managed record set type
+	 * @param value released value
+	 */
+	public void release(ChangeSet changes, String name, RRType type, String value) {
+		changes.remove(registryName(name), RRType.TXT, entry(type, value));
+	}
+
+	/**
+	 * @param registry the registry record set of a managed record set, as it exists in Route53, may be null
+	 * @param type managed record set type
+	 * @return the values of the managed record set that this group owns
+	 */
+	public Set<String> owned(ResourceRecordSet registry, RRType type) {
+		if (Objects.isNull(registry))
+			return Collections.emptySet();
+		Set<String> owned = new LinkedHashSet<>();
+		for (ResourceRecord rr : registry.resourceRecords()) {
+			Matcher m = ENTRY.matcher(rr.value());
+			if (m.matches() && URLDecoder.decode(m.group(1), StandardCharsets.UTF_8).equals(asg)
+					&& m.group(2).equals(type.toString()))
+				owned.add(m.group(3));
+		}
+		return owned;
+	}
+
+	private String entry(RRType type, String value) {
+		return "\"asg=" + URLEncoder.encode(asg, StandardCharsets.UTF_8) + " type=" + type + " value=" + value + "\"";
+	}
+}
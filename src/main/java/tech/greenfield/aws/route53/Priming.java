@@ -0,0 +1,90 @@
+package tech.greenfield.aws.route53;
+
+import static tech.greenfield.aws.Clients.*;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.crac.Core;
+import org.crac.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.services.lambda.runtime.events.SNSEvent;
+
+import tech.greenfield.aws.Clients;
+
+/**
+ * Checkpoint/restore hooks (CRaC, as used by AWS Lambda SnapStart).
+ *
+ * Before a checkpoint is taken, this builds the AWS clients, runs sample notifications through the
+ * JSON mappers and the event handler factory, and makes one harmless call on each client so that
+ * the SDK request pipeline and TLS classes are loaded and initialized. After restore, the clients
+ * are discarded so that they are rebuilt with fresh credentials and connections - the connections
+ * and credentials in the snapshot are not usable anymore.
+ *
+ * Set the DISABLE_CONNECTION_PRIMING environment variable to skip the priming API calls.
+ */
+public class Priming implements Resource {
+
+	private static final long CALL_TIMEOUT = 5000;
+	private static final String[] SAMPLES = { "priming/lifecycle-launching.json", "priming/autoscaling-launch.json" };
+	private static final Priming instance = new Priming(); // the global context only keeps weak references
+	private static boolean registered = false;
+
+	private final Logger log = LoggerFactory.getLogger(getClass().getName());
+
+	synchronized public static void register() {
+		if (registered)
+			return;
+		Core.getGlobalContext().register(instance);
+		registered = true;
+	}
+
+	@Override
+	public void beforeCheckpoint(org.crac.Context<? extends Resource> context) throws Exception {
+		log.info("Priming before checkpoint");
+		for (String sample : SAMPLES)
+			primeParsing(sample);
+		primeClients();
+		tech.greenfield.aws.logging.Logging.flush();
+	}
+
+	@Override
+	public void afterRestore(org.crac.Context<? extends Resource> context) throws Exception {
+		log.info("Restored from checkpoint, refreshing AWS clients");
+		Clients.reset();
+	}
+
+	private void primeParsing(String sample) {
+		try {
+			Route53Message message = new Route53Message(new SNSEvent.SNSRecord()
+					.withSns(new SNSEvent.SNS().withMessage(Tools.readResource(sample))));
+			message.createEventHandler(null);
+			message.getDeleteChanges();
+		} catch (ParsingException | IOException | RuntimeException e) {
+			Tools.logException(log, "Failed to prime parsing of " + sample, e);
+		}
+	}
+
+	private void primeClients() {
+		if (!System.getenv().getOrDefault("DISABLE_CONNECTION_PRIMING", "").isEmpty()) {
+			route53(); ec2(); autoscaling(); sqs();
+			return;
+		}
+		// these calls are expected to fail or return nothing, we only care about exercising the client
+		await(route53().getChange(b -> b.id("PRIMING")));
+		await(ec2().describeInstances(b -> b.instanceIds("i-00000000000000000")));
+		await(autoscaling().describeAutoScalingGroups(b -> b.autoScalingGroupNames("priming")));
+		await(sqs().listQueues(b -> b.queueNamePrefix("priming").maxResults(1)));
+	}
+
+	private void await(CompletableFuture<?> call) {
+		try {
+			call.get(CALL_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (Exception e) {
+			log.debug("Priming call completed with {}", e.toString());
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package tech.greenfield.aws.route53;
+
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import software.amazon.awssdk.services.route53.model.RRType;
+import software.amazon.awssdk.services.route53.model.ResourceRecord;
+import software.amazon.awssdk.services.route53.model.ResourceRecordSet;
+
+/**
+ * How instance addresses are written to the configured record names, selected using the {@code RECORD_MODE}
+ * environment variable or notification metadata field.
+ */
+public enum RecordMode {
+	/**
+	 * All instances share a single record set per name and type (the default). Each update reads the record set,
+	 * adds or removes the instance's values and writes the whole record set.
+	 */
+	SHARED,
+	/**
+	 * Each instance has its own weighted record set per name and type, with the instance ID as the set identifier
+	 * and equal weights. Updates write just the instance's record set without reading anything, or delete it as it
+	 * was looked up.
+	 */
+	WEIGHTED,
+	/**
+	 * Each instance has its own multivalue answer record set per name and type, with the instance ID as the set
+	 * identifier. Updates write just the instance's record set without reading anything, or delete it as it was
+	 * looked up.
+	 */
+	MULTIVALUE;
+
+	private static final Logger log = LoggerFactory.getLogger(RecordMode.class.getName());
+	/** Weight of each instance's record set in {@link #WEIGHTED} mode */
+	static final long WEIGHT = 1;
+
+	/**
+	 * @param name record mode name, case insensitive
+	 * @return the named record mode, or {@link #SHARED} if no name was set
+	 */
+	public static RecordMode parse(String name) {
+		if (Objects.isNull(name) || name.isBlank())
+			return SHARED;
+		try {
+			return valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			log.warn("Unknown record mode '{}', using {}", name, SHARED);
+			return SHARED;
+		}
+	}
+
+	/**
+	 * @return whether each instance has its own record sets, that are written without reading them first
+	 */
+	public boolean isPerInstance() {
+		return this != SHARED;
+	}
+
+	/**
+	 * Create an instance's own record set, in one of the per-instance modes
+	 * @param name record set name
+	 * @param type record type
+	 * @param ttl record set TTL
+	 * @param instanceId ID of the instance, used as the set identifier
+	 * @param value the instance's value
+	 * @return the instance's record set
+	 */
+	public ResourceRecordSet recordSet(String name, RRType type, long ttl, String instanceId, String value) {
+		ResourceRecordSet.Builder rrset = ResourceRecordSet.builder().name(name).type(type).ttl(ttl)
+				.setIdentifier(instanceId).resourceRecords(ResourceRecord.builder().value(value).build());
+		switch (this) {
+		case WEIGHTED:
+			return rrset.weight(WEIGHT).build();
+		case MULTIVALUE:
+			return rrset.multiValueAnswer(true).build();
+		default:
+			throw new IllegalStateException("Record mode " + this + " doesn't have per-instance record sets");
+		}
+	}
+}
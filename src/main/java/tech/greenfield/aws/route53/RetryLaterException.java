@@ -0,0 +1,28 @@
+package tech.greenfield.aws.route53;
+
+/**
+ * The event couldn't be completely handled now, and should be handled again later - first waiting for the change
+ * that was already submitted for it, if any
+ */
+public class RetryLaterException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+	private final String pendingChangeId;
+
+	/**
+	 * @param message description of what was interrupted
+	 * @param pendingChangeId ID of a submitted Route53 change that wasn't yet applied, or null
+	 */
+	public RetryLaterException(String message, String pendingChangeId) {
+		super(message);
+		this.pendingChangeId = pendingChangeId;
+	}
+
+	/**
+	 * @return ID of a submitted Route53 change that wasn't yet applied, or null
+	 */
+	public String getPendingChangeId() {
+		return pendingChangeId;
+	}
+
+}
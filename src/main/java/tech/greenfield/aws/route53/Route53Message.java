@@ -1,5 +1,7 @@
 package tech.greenfield.aws.route53;
 
+import static tech.greenfield.aws.logging.Logging.lazy;
+
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
@@ -18,16 +20,29 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import software.amazon.awssdk.services.ec2.model.Instance;
 import software.amazon.awssdk.services.route53.model.*;
 import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import tech.greenfield.aws.metrics.Metrics;
 import tech.greenfield.aws.route53.eventhandler.AutoScaling;
+import tech.greenfield.aws.tracing.Span;
+import tech.greenfield.aws.tracing.Tracer;
 import tech.greenfield.aws.route53.eventhandler.LifeCycle;
 
 public class Route53Message {
 	
 	private Map<String, Object> body;
 	private Metadata metadata;
+	/** ID of a change that an earlier invocation submitted for this event, but didn't wait for */
+	private String pendingChangeId;
+	/** whether the event was received from a queue, that can handle it again later */
+	private boolean queued;
+	private final Metrics metrics = new Metrics();
+	private final Span span = Tracer.startTrace("Route53Update");
+	private final Span parseSpan = span.child("Route53Message.parse");
 	static private ObjectMapper s_mapper = new ObjectMapper();
 	private final Logger logger = LoggerFactory.getLogger(getClass().getName());
 	private static final long DEFAULT_TTL = 300;
+	/** Maximum concurrent record lookups, to stay clear of the Route53 API rate limit (5 requests per second) */
+	static final int ROUTE53_CONCURRENCY = 4;
 
 	static {
 		s_mapper.configure(MapperFeature.ACCEPT_CASE_INSENSITIVE_PROPERTIES, true);
@@ -36,8 +51,12 @@ public class Route53Message {
 	
 	public Route53Message(Message sqs) throws ParsingException {
 		body = retreiveBody(sqs.body());
-		logger.debug("SQS message body: " + json(body));
-		logger.debug("Request: " + String.valueOf(body.get("Message")));
+		queued = true;
+		MessageAttributeValue pending = sqs.messageAttributes().get(NotifyRecordsSqs.PENDING_CHANGE_ATTRIBUTE);
+		if (Objects.nonNull(pending))
+			pendingChangeId = pending.stringValue();
+		logger.debug("SQS message body: {}", lazy(() -> json(body)));
+		logger.debug("Request: {}", body.get("Message"));
 		readMetadata();
 	}
 
@@ -48,27 +67,50 @@ public class Route53Message {
 			else
 				metadata = Metadata.fromEnvironment();
 			dumpConfiguration();
+			// also identifies the traces of events that are aggregated, and not handled by an event handler
+			span.setAttribute("ec2.instance_id", getEC2InstanceId())
+					.setAttribute("autoscaling.group", getAutoScalingGroupName());
+			metrics.put("ParseTime", metrics.elapsed(), Metrics.Unit.Milliseconds);
+			parseSpan.end();
 		} catch (IOException e) {
-			throw new ParsingException(e);
+			throw parseFailed(new ParsingException(e));
 		}
 	}
 	
 	public Route53Message(SNSRecord sns) throws ParsingException {
 		body = retreiveBody(sns.getSNS().getMessage());
-		logger.debug("SNS message body: " + body);
+		logger.debug("SNS message body: {}", body);
 		readMetadata();
 	}
-	
+
+	/**
+	 * @param event AutoScaling event delivered by EventBridge
+	 * @param queued whether the event was received from a queue, that can handle it again later
+	 */
+	public Route53Message(EventBridgeEvent event, boolean queued) throws ParsingException {
+		try {
+			body = event.getNotification();
+		} catch (ParsingException e) {
+			throw parseFailed(e);
+		}
+		this.queued = queued;
+		logger.debug("EventBridge event detail: {}", lazy(() -> json(body)));
+		readMetadata();
+	}
+
 	@SuppressWarnings("serial")
 	private void dumpConfiguration() {
-		logger.debug(json(new HashMap<String,Object>() {{
+		logger.debug("Configuration: {}", lazy(() -> json(new HashMap<String,Object>() {{
 			put("SRV_RECORD",  metadata.getSRVSpec());
 			put("SRV4_RECORD", metadata.getSRV4Spec());
 			put("SRV6_RECORD", metadata.getSRV6Spec());
 			put("DNSRR_RECORD", metadata.getRRSpec());
 			put("DNSRR4_RECORD", metadata.getRR4Spec());
 			put("DNSRR6_RECORD", metadata.getRR6Spec());
-		}}));
+			put("RECORD_MODE", metadata.getRecordMode());
+			put("OWNERSHIP_REGISTRY", metadata.isOWNERSHIP_REGISTRY());
+			put("LIFECYCLE_COMPLETION", metadata.getLifecycleCompletion());
+		}})));
 	}
 
 	@SuppressWarnings("unchecked")
@@ -80,16 +122,96 @@ public class Route53Message {
 				obj.putAll(s_mapper.readValue(obj.get("Message").toString(), Map.class));
 			return obj;
 		} catch (IOException e) {
-			throw new ParsingException(e);
+			throw parseFailed(new ParsingException(e));
 		}
 	}
 	
+	private ParsingException parseFailed(ParsingException e) {
+		parseSpan.end(e);
+		span.end(e);
+		return e;
+	}
+	
 	public EventHandler createEventHandler(Context context) {
 		if (body.containsKey("LifecycleTransition")) 
 			return new LifeCycle(context, s_mapper.convertValue(body, LifeCycleNotification.class), this);
 		else
 			return new AutoScaling(context, s_mapper.convertValue(body, AutoScalingNotification.class), this);
 	}
+
+	public SyncEventHandler createSyncEventHandler(Context context) {
+		if (body.containsKey("LifecycleTransition")) {
+			LifeCycleNotification event = s_mapper.convertValue(body, LifeCycleNotification.class);
+			return new SyncEventHandler(context, event.getType(), event.getEC2InstanceId(),
+					event.getAutoScalingGroupName(), this, event);
+		}
+		AutoScalingNotification event = s_mapper.convertValue(body, AutoScalingNotification.class);
+		return new SyncEventHandler(context, event.getType(), event.getEC2InstanceId(),
+				event.getAutoScalingGroupName(), this, null);
+	}
+	
+	/**
+	 * @return ID of a change that an earlier invocation submitted for this event but didn't wait for, or null
+	 */
+	public String getPendingChangeId() {
+		return pendingChangeId;
+	}
+
+	/**
+	 * @return whether the event was received from a queue, so handling it again later can be left to the queue
+	 */
+	public boolean isQueued() {
+		return queued;
+	}
+
+	/**
+	 * @return the lifecycle hook notification, or null if this isn't a lifecycle hook notification
+	 */
+	public LifeCycleNotification getLifecycleNotification() {
+		return body.containsKey("LifecycleTransition") ? s_mapper.convertValue(body, LifeCycleNotification.class) : null;
+	}
+
+	/**
+	 * @return the type of the notified event
+	 */
+	public EventType getEventType() {
+		LifeCycleNotification lifecycle = getLifecycleNotification();
+		return Objects.nonNull(lifecycle) ? lifecycle.getType() :
+			s_mapper.convertValue(body, AutoScalingNotification.class).getType();
+	}
+
+	/**
+	 * @return ID of the instance that the notification is about
+	 */
+	public String getEC2InstanceId() {
+		return Objects.toString(body.get("EC2InstanceId"), null);
+	}
+
+	/**
+	 * @return metrics for handling this message, emitted when handling completes
+	 */
+	public Metrics metrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return root span of the trace for handling this message, ended when handling completes
+	 */
+	public Span span() {
+		return span;
+	}
+
+	private CompletableFuture<ResourceRecordSet> getRecordSet(String hostname, RRType type, String setIdentifier) {
+		Span lookup = span.child("Tools.getRecordSet").setAttribute("dns.name", hostname).setAttribute("dns.type", type.toString());
+		return metrics.timeAsync("RecordSetReadLatency", () -> Tools.getRecordSet(hostname, type, setIdentifier))
+				.whenComplete((rr, t) -> lookup.end(t));
+	}
+
+	private CompletableFuture<List<ResourceRecordSet>> listRecordSets(String hostname, RRType type) {
+		Span lookup = span.child("Tools.getRecordSets").setAttribute("dns.name", hostname).setAttribute("dns.type", type.toString());
+		return metrics.timeAsync("RecordSetReadLatency", () -> Tools.getRecordSets(hostname, type))
+				.whenComplete((rr, t) -> lookup.end(t));
+	}
 	
 	/**
 	 * Check if SRV record update was requested by specifying the SRV_RECORD environment variable
@@ -178,184 +300,455 @@ public class Route53Message {
 				.collect(Collectors.toList());
 	}
 
+	/**
+	 * Blocking lookup of existing record sets, used by the synchronous execution mode
+	 */
+	@FunctionalInterface
+	public interface RecordSetLookup {
+		/**
+		 * @param keys record sets to look up, specifying name and type
+		 * @return the existing record sets, in the order of the keys, with null for record sets that don't exist
+		 */
+		List<ResourceRecordSet> lookup(List<ResourceRecordSet> keys);
+	}
+
+	/**
+	 * Blocking listing of all the record sets with a name and type - one for each set identifier - used by the
+	 * synchronous execution mode
+	 */
+	@FunctionalInterface
+	public interface RecordSetListing {
+		/**
+		 * @param keys record sets to list, specifying name and type
+		 * @return the existing record sets of each key, in the order of the keys
+		 */
+		List<List<ResourceRecordSet>> list(List<ResourceRecordSet> keys);
+	}
+	
 	public CompletableFuture<ChangeBatch> getUpsertChanges(List<Instance> instances) throws NoIpException {
 		return getUpsertChanges(instances.toArray(new Instance[instances.size()]));
 	}
 	
 	public CompletableFuture<ChangeBatch> getUpsertChanges(Instance... instances) throws NoIpException {
-		ArrayList<Change> changes = new ArrayList<>();
-		if (useDNSRR())
-			for (Instance i : instances)
-				changes.addAll(getDNSRRUpsertChanges(i).stream().collect(new BatchChangesByName()));
-		if (useSRV())
-			for (Instance i : instances)
-				changes.addAll(getSRVUpsertChanges(i).stream().collect(new BatchChangesByName()));
+		if (getRecordMode().isPerInstance()) // per-instance record sets are written blindly
+			return CompletableFuture.completedFuture(getNewRecords(instances).toChangeBatch());
 		// sync adds with existing records
-		return changes.stream()
-				.map(c -> { // resolve each "change" to a *promise* for new change that includes all existing records
-					ResourceRecordSet rr = c.resourceRecordSet();
-					return Tools.getRecordSet(rr.name(), rr.type())
-							.thenApply(oldrr -> {
-								if (Objects.isNull(oldrr)) // this is a new record, just use the generated change
-									return c;
-								else
-									return mergeChangeRRs(c, oldrr);
-							});
-				})
-				.collect(new CompletableFutureListCollector<>())
-				// compose a change batch including all changes
-				.thenApply(newchanges -> ChangeBatch.builder().changes(newchanges).build());
-	}
-
-	private Change mergeChangeRRs(Change c, ResourceRecordSet oldrr) {
-		HashSet<ResourceRecord> rrs = new HashSet<>(c.resourceRecordSet().resourceRecords());
-		rrs.addAll(oldrr.resourceRecords());
-		return c.toBuilder()
-				.resourceRecordSet(c.resourceRecordSet().toBuilder().resourceRecords(rrs).build())
-				.build();
-	}
-
-	private List<Change> getDNSRRUpsertChanges(Instance i) throws NoIpException {
-		String ipv4ip = Tools.getIPAddress(i);
-		String ipv6ip = Tools.getIPv6Address(i);
-		Stream.Builder<ResourceRecordSet> addrs = Stream.builder();
-		if (Objects.nonNull(ipv4ip))
-			Stream.concat(metadata.getRRSpec().stream(), metadata.getRR4Spec().stream())
-					.map(addr -> ResourceRecordSet.builder().type(RRType.A).name(addr)
-							.ttl(getTTL()).resourceRecords(ResourceRecord.builder().value(ipv4ip).build()).build())
-					.forEach(addrs::add);
-		if (Objects.nonNull(ipv6ip))
-			Stream.concat(metadata.getRRSpec().stream(), metadata.getRR6Spec().stream())
-					.map(addr -> ResourceRecordSet.builder().type(RRType.AAAA).name(addr)
-							.ttl(getTTL()).resourceRecords(ResourceRecord.builder().value(ipv6ip).build()).build())
-					.forEach(addrs::add);
-		return addrs.build()
-				.map(rr -> Change.builder().action(ChangeAction.UPSERT).resourceRecordSet(rr).build())
-				.collect(Collectors.toList());
+		return withExisting(getNewRecords(instances)).thenApply(ChangeSet::toChangeBatch);
+	}
+
+	/**
+	 * Blocking version of {@link #getUpsertChanges(List)}
+	 * @param lookup lookup to use to retrieve existing record sets
+	 * @param instances instances to add
+	 * @return change batch adding the instances to the records
+	 */
+	public ChangeBatch getUpsertChanges(RecordSetLookup lookup, List<Instance> instances) throws NoIpException {
+		ChangeSet changes = getNewRecords(instances.toArray(new Instance[instances.size()]));
+		return getRecordMode().isPerInstance() ? changes.toChangeBatch() : withExisting(lookup, changes).toChangeBatch();
+	}
+
+	/**
+	 * @return how instance addresses are written to the records
+	 */
+	public RecordMode getRecordMode() {
+		return metadata.getRecordMode();
+	}
+
+	/**
+	 * @return when the lifecycle action of a launching instance is completed
+	 */
+	public LifecycleCompletion getLifecycleCompletion() {
+		return metadata.getLifecycleCompletion();
+	}
+
+	/**
+	 * @return name of the auto scaling group that the notification is about
+	 */
+	public String getAutoScalingGroupName() {
+		return Objects.toString(body.get("AutoScalingGroupName"), null);
+	}
+
+	/**
+	 * Check if the values of shared record sets should be recorded in an {@link OwnershipRegistry}, as requested
+	 * by setting the OWNERSHIP_REGISTRY environment variable. Not used in per-instance record modes, where each
+	 * instance's record sets are identified by the instance ID.
+	 * @return true if the ownership registry is used
+	 */
+	public boolean useOwnershipRegistry() {
+		return metadata.isOWNERSHIP_REGISTRY() && !getRecordMode().isPerInstance();
+	}
+
+	private OwnershipRegistry getOwnershipRegistry() {
+		return useOwnershipRegistry() ? new OwnershipRegistry(getAutoScalingGroupName()) : null;
+	}
+
+	/**
+	 * Compute the changes to make the records list exactly the specified instances of the notification's auto
+	 * scaling group: with the {@link OwnershipRegistry}, values the group owns that don't belong to any of the
+	 * instances are removed and values of other groups are kept. Without it, the instances are added to the
+	 * records, or the records are deleted if there are no instances.
+	 * @param instances all the group's live instances
+	 * @return change batch replacing the group's values
+	 */
+	public CompletableFuture<ChangeBatch> getRebuildChanges(List<Instance> instances) throws NoIpException {
+		if (!useOwnershipRegistry())
+			return instances.isEmpty() ? CompletableFuture.completedFuture(getDeleteChanges()) :
+				getUpsertChanges(instances);
+		return withExisting(getRebuildRecords(instances)).thenApply(this::pruneOwned).thenApply(ChangeSet::toChangeBatch);
+	}
+
+	/**
+	 * Blocking version of {@link #getRebuildChanges(List)}
+	 * @param lookup lookup to use to retrieve existing record sets
+	 * @param instances all the group's live instances
+	 * @return change batch replacing the group's values
+	 */
+	public ChangeBatch getRebuildChanges(RecordSetLookup lookup, List<Instance> instances) throws NoIpException {
+		if (!useOwnershipRegistry())
+			return instances.isEmpty() ? getDeleteChanges() : getUpsertChanges(lookup, instances);
+		return pruneOwned(withExisting(lookup, getRebuildRecords(instances))).toChangeBatch();
+	}
+
+	private ChangeSet getRebuildRecords(List<Instance> instances) throws NoIpException {
+		ChangeSet changes = getNewRecords(instances.toArray(new Instance[instances.size()]));
+		for (ChangeSet.Key key : getManagedKeys())
+			changes.track(key).track(OwnershipRegistry.registryKey(key.name));
+		return changes;
+	}
+
+	/**
+	 * Remove the values owned by the group, according to the looked up registry, that weren't added
+	 */
+	private ChangeSet pruneOwned(ChangeSet changes) {
+		OwnershipRegistry registry = getOwnershipRegistry();
+		for (ChangeSet.Key key : getManagedKeys()) {
+			Set<String> current = changes.added(key);
+			for (String value : registry.owned(changes.existing(OwnershipRegistry.registryKey(key.name)), key.type))
+				if (!current.contains(value)) {
+					changes.remove(key.name, key.type, value);
+					registry.release(changes, key.name, key.type, value);
+				}
+		}
+		return changes;
+	}
+
+	/**
+	 * Compute the minimal changes that remove the values of instances that are no longer live from the configured
+	 * record sets, and add the values of live instances that are missing. Only the configured record sets are
+	 * looked up, and only the record sets whose values change are written. Only values that the
+	 * {@link OwnershipRegistry} says the group owns are removed: without the registry, the missing live values are
+	 * only added. In the per-instance record modes, the live instances' record sets are upserted, and the record
+	 * sets whose set identifier isn't the ID of a live instance are deleted.
+	 * @param instances all the group's live instances. Instances without an address are ignored
+	 * @return change batch pruning the records, which may be empty
+	 */
+	public CompletableFuture<ChangeBatch> getPruneChanges(List<Instance> instances) throws NoIpException {
+		if (getRecordMode().isPerInstance()) {
+			ChangeSet changes = getInstanceRecords(instances);
+			List<ChangeSet.Key> keys = getManagedKeys().stream().distinct().collect(Collectors.toList());
+			return keys.stream().collect(FanOut.mapping(key -> listRecordSets(key.name, key.type), ROUTE53_CONCURRENCY))
+					.thenApply(existing -> deleteDead(changes, instances, existing).toChangeBatch());
+		}
+		ChangeSet live = getLiveRecords(instances);
+		return withExisting(live).thenApply(this::getPrunedRecords).thenApply(ChangeSet::toChangeBatch);
+	}
+
+	/**
+	 * Blocking version of {@link #getPruneChanges(List)}
+	 * @param lookup lookup to use to retrieve existing record sets
+	 * @param listing listing to use to retrieve existing per-instance record sets
+	 * @param instances all the group's live instances
+	 * @return change batch pruning the records, which may be empty
+	 */
+	public ChangeBatch getPruneChanges(RecordSetLookup lookup, RecordSetListing listing, List<Instance> instances)
+			throws NoIpException {
+		if (getRecordMode().isPerInstance()) {
+			ChangeSet changes = getInstanceRecords(instances);
+			List<List<ResourceRecordSet>> existing = listing.list(getManagedKeys().stream().distinct()
+					.map(ChangeSet.Key::toRecordSet).collect(Collectors.toList()));
+			return deleteDead(changes, instances, existing).toChangeBatch();
+		}
+		return getPrunedRecords(withExisting(lookup, getLiveRecords(instances))).toChangeBatch();
+	}
+
+	/**
+	 * @return the per-instance record sets of the instances that have an address, written without reading
+	 */
+	private ChangeSet getInstanceRecords(List<Instance> instances) throws NoIpException {
+		List<Instance> addressed = withAddress(instances);
+		return getNewRecords(addressed.toArray(new Instance[addressed.size()]));
+	}
+
+	/**
+	 * Delete the per-instance record sets that don't belong to any of the instances
+	 * @param changes changes to add the deletions to
+	 * @param instances all the group's live instances. Instances without an address are ignored
+	 * @param existing the existing record sets of each configured record name and type
+	 * @return the changes
+	 */
+	private static ChangeSet deleteDead(ChangeSet changes, List<Instance> instances,
+			List<List<ResourceRecordSet>> existing) {
+		Set<String> live = withAddress(instances).stream().map(Instance::instanceId).collect(Collectors.toSet());
+		for (List<ResourceRecordSet> rrsets : existing)
+			for (ResourceRecordSet rrset : rrsets)
+				if (Objects.nonNull(rrset.setIdentifier()) && !live.contains(rrset.setIdentifier()))
+					changes.delete(rrset);
+		return changes;
+	}
+
+	private static List<Instance> withAddress(List<Instance> instances) {
+		return instances.stream().filter(Tools::hasIPAddress).collect(Collectors.toList());
+	}
+
+	/**
+	 * @return the live instances' values of the configured record sets, without registry claims, tracking all the
+	 * configured record sets and their registries so they are looked up
+	 */
+	private ChangeSet getLiveRecords(List<Instance> instances) throws NoIpException {
+		ChangeSet live = new ChangeSet();
+		long ttl = getTTL();
+		List<Instance> addressed = withAddress(instances);
+		if (useDNSRR())
+			for (Instance i : addressed) {
+				String ipv4ip = Tools.getIPAddress(i), ipv6ip = Tools.getIPv6Address(i);
+				for (String addr : concat(metadata.getRRSpec(), metadata.getRR4Spec()))
+					live.add(addr, RRType.A, ttl, ipv4ip);
+				if (Objects.nonNull(ipv6ip))
+					for (String addr : concat(metadata.getRRSpec(), metadata.getRR6Spec()))
+						live.add(addr, RRType.AAAA, ttl, ipv6ip);
+			}
+		if (useSRV()) {
+			List<SRVTemplate> templates = getSRVTemplates();
+			for (Instance i : addressed) {
+				String host = Tools.getHostAddress(i);
+				for (SRVTemplate s : templates)
+					live.add(s.getAddr(), RRType.SRV, ttl, s.getValue(host));
+			}
+		}
+		boolean registry = useOwnershipRegistry();
+		for (ChangeSet.Key key : getManagedKeys()) {
+			live.track(key);
+			if (registry)
+				live.track(OwnershipRegistry.registryKey(key.name));
+		}
+		return live;
+	}
+
+	/**
+	 * Diff the live values against the looked up record sets
+	 * @param live the live values, with the existing record sets
+	 * @return changes that only add missing live values and remove values owned by the group that aren't live
+	 */
+	private ChangeSet getPrunedRecords(ChangeSet live) {
+		ChangeSet changes = new ChangeSet();
+		OwnershipRegistry registry = getOwnershipRegistry();
+		long ttl = getTTL();
+		for (ChangeSet.Key key : live.keys())
+			changes.track(key).existing(key, live.existing(key));
+		for (ChangeSet.Key key : getManagedKeys()) {
+			Set<String> values = live.added(key);
+			ResourceRecordSet existing = live.existing(key);
+			Set<String> current = new HashSet<>();
+			if (Objects.nonNull(existing))
+				for (ResourceRecord rr : existing.resourceRecords())
+					current.add(rr.value());
+			// without the registry, values of other groups and manual values can't be told apart from dead instances
+			Set<String> owned = Objects.nonNull(registry) ?
+					registry.owned(live.existing(OwnershipRegistry.registryKey(key.name)), key.type) :
+					Collections.emptySet();
+			for (String value : values) {
+				if (!current.contains(value))
+					changes.add(key.name, key.type, ttl, value);
+				if (Objects.nonNull(registry) && !owned.contains(value))
+					registry.claim(changes, key.name, key.type, ttl, value);
+			}
+			for (String value : owned)
+				if (!values.contains(value)) {
+					changes.remove(key.name, key.type, value);
+					if (Objects.nonNull(registry))
+						registry.release(changes, key.name, key.type, value);
+				}
+		}
+		return changes;
+	}
+
+	/**
+	 * @return keys to lease while updating the records - the hosted zone and name of each configured record
+	 * name - or an empty list in the per-instance record modes, where updates don't read the records
+	 */
+	public List<String> getLeaseKeys() {
+		if (getRecordMode().isPerInstance())
+			return Collections.emptyList();
+		String zone = getHostedZoneId();
+		return getManagedKeys().stream().map(key -> zone + "/" + key.name).distinct().collect(Collectors.toList());
+	}
+
+	/**
+	 * @return the configured record sets
+	 */
+	private List<ChangeSet.Key> getManagedKeys() {
+		List<ChangeSet.Key> keys = new ArrayList<>();
+		for (String addr : concat(metadata.getRRSpec(), metadata.getRR4Spec()))
+			keys.add(new ChangeSet.Key(addr, RRType.A, null));
+		for (String addr : concat(metadata.getRRSpec(), metadata.getRR6Spec()))
+			keys.add(new ChangeSet.Key(addr, RRType.AAAA, null));
+		for (SRVTemplate s : getSRVTemplates())
+			keys.add(new ChangeSet.Key(s.getAddr(), RRType.SRV, null));
+		return keys;
 	}
 	
-	private List<Change> getSRVUpsertChanges(Instance i) throws NoIpException {
-		HashMap<String, List<SRVTemplate>> map = new HashMap<String, List<SRVTemplate>>() {
-			private static final long serialVersionUID = 1L;
-
-			public List<SRVTemplate> get(Object key) {
-				if (containsKey(key))
-					return super.get(key);
-				ArrayList<SRVTemplate> list = new ArrayList<SRVTemplate>();
-				put(key.toString(),list);
-				return list;
+	/**
+	 * @return the records to add for the instances, merged by record set
+	 */
+	private ChangeSet getNewRecords(Instance... instances) throws NoIpException {
+		ChangeSet changes = new ChangeSet();
+		RecordMode mode = getRecordMode();
+		OwnershipRegistry registry = getOwnershipRegistry();
+		long ttl = getTTL();
+		if (useDNSRR())
+			for (Instance i : instances) {
+				String ipv4ip = Tools.getIPAddress(i);
+				String ipv6ip = Tools.getIPv6Address(i);
+				if (Objects.nonNull(ipv4ip))
+					for (String addr : concat(metadata.getRRSpec(), metadata.getRR4Spec()))
+						add(changes, mode, registry, addr, RRType.A, ttl, i, ipv4ip);
+				if (Objects.nonNull(ipv6ip))
+					for (String addr : concat(metadata.getRRSpec(), metadata.getRR6Spec()))
+						add(changes, mode, registry, addr, RRType.AAAA, ttl, i, ipv6ip);
 			}
-		};
-		for (SRVTemplate s : metadata.getSRVSpec())
-			map.get(s.addr).add(s);
-		for (SRVTemplate s : metadata.getSRV4Spec())
-			map.get(s.addr).add(s);
-		for (SRVTemplate s : metadata.getSRV6Spec())
-			map.get(s.addr).add(s);
-		
-		return map.entrySet().stream()
-				.map(ent -> 
-					ResourceRecordSet.builder().type(RRType.SRV).name(ent.getKey())
-						.ttl(getTTL()).resourceRecords(
-								ent.getValue().stream().map(s -> s.getResourceRecord(i)).collect(Collectors.toList())
-								).build()
-				)
-				.map(rr -> Change.builder().action(ChangeAction.UPSERT).resourceRecordSet(rr).build())
-				.collect(Collectors.toList());
+		if (useSRV()) {
+			List<SRVTemplate> templates = getSRVTemplates();
+			for (Instance i : instances) {
+				String host = Tools.getHostAddress(i);
+				for (SRVTemplate s : templates)
+					add(changes, mode, registry, s.getAddr(), RRType.SRV, ttl, i, s.getValue(host));
+			}
+		}
+		return changes;
 	}
 
-	public CompletableFuture<ChangeBatch> getRemoveChanges(Instance i) throws NoIpException {
-		Stream.Builder<CompletableFuture<List<Change>>> changes = Stream.builder();
+	private static void add(ChangeSet changes, RecordMode mode, OwnershipRegistry registry, String name, RRType type,
+			long ttl, Instance i, String value) {
+		if (mode.isPerInstance())
+			changes.add(mode.recordSet(name, type, ttl, i.instanceId(), value));
+		else
+			changes.add(name, type, ttl, value);
+		if (Objects.nonNull(registry))
+			registry.claim(changes, name, type, ttl, value);
+	}
+
+	/**
+	 * @return the records to remove for the instance
+	 */
+	private ChangeSet getRemovedRecords(Instance i) throws NoIpException {
+		ChangeSet changes = new ChangeSet();
+		RecordMode mode = getRecordMode();
+		OwnershipRegistry registry = getOwnershipRegistry();
 		if (useDNSRR()) {
-			changes.add(getDNSRR4RemoveChanges(i));
-			changes.add(getDNSRR6RemoveChanges(i));
+			String ipv4 = Tools.getIPAddress(i), ipv6 = Tools.getIPv6Address(i);
+			for (String addr : concat(metadata.getRRSpec(), metadata.getRR4Spec()))
+				remove(changes, mode, registry, addr, RRType.A, i, ipv4);
+			if (Objects.nonNull(ipv6))
+				for (String addr : concat(metadata.getRRSpec(), metadata.getRR6Spec()))
+					remove(changes, mode, registry, addr, RRType.AAAA, i, ipv6);
 		}
-		if (useSRV())
-			changes.add(getSRVRemoveChanges(i));
-		return changes.build().collect(new CompletableFutureListCollector<>())
-				.thenApply(l -> l.stream().flatMap(l2 -> l2.stream()))
-				.thenApply(s -> s.collect(Collectors.toList()))
-				.thenApply(l -> ChangeBatch.builder().changes(l).build());
+		if (useSRV()) {
+			String host = Tools.getHostAddress(i);
+			for (SRVTemplate s : getSRVTemplates())
+				remove(changes, mode, registry, s.getAddr(), RRType.SRV, i, s.getValue(host));
+		}
+		return changes;
 	}
-	
-	private CompletableFuture<List<Change>> getDNSRR4RemoveChanges(Instance i) throws NoIpException {
-		String ip = Tools.getIPAddress(i);
-		return Stream.concat(metadata.getRRSpec().stream(), metadata.getRR4Spec().stream())
-				.map(s -> Tools.getRecordSet(s, RRType.A))
-				.collect(new CompletableFutureListCollector<>())
-				.thenApply(l -> l.stream()
-						.map(rr -> {
-							if (Objects.isNull(rr))
-								return null;
-							if (rr.resourceRecords().size() == 1 && rr.resourceRecords().get(0).value().equals(ip))
-								return Change.builder().action(ChangeAction.DELETE).resourceRecordSet(rr).build();
-							HashSet<ResourceRecord> rrs = new HashSet<>(rr.resourceRecords());
-							if (rrs.removeIf(r -> r.value().equals(ip)))
-								return Change.builder().action(ChangeAction.UPSERT)
-										.resourceRecordSet(rr.toBuilder().resourceRecords(rrs).build()).build();
-							return null;
-						})
-						.filter(Objects::nonNull)
-						.collect(Collectors.toList()));
+
+	private static void remove(ChangeSet changes, RecordMode mode, OwnershipRegistry registry, String name,
+			RRType type, Instance i, String value) {
+		if (Objects.isNull(value))
+			return;
+		if (mode.isPerInstance()) // looked up before deleting, as it must be deleted exactly as it is
+			changes.delete(mode.recordSet(name, type, getTTL(), i.instanceId(), value));
+		else
+			changes.remove(name, type, value);
+		if (Objects.nonNull(registry))
+			registry.release(changes, name, type, value);
 	}
-	
-	private CompletableFuture<List<Change>> getDNSRR6RemoveChanges(Instance i) throws NoIpException {
-		String ip = Tools.getIPv6Address(i);
-		return Stream.concat(metadata.getRRSpec().stream(), metadata.getRR6Spec().stream())
-				.map(s -> Tools.getRecordSet(s, RRType.AAAA))
-				.collect(new CompletableFutureListCollector<>())
-				.thenApply(l -> l.stream()
-						.map(rr -> {
-							if (Objects.isNull(rr))
-								return null;
-							if (rr.resourceRecords().size() == 1 && rr.resourceRecords().get(0).value().equals(ip))
-								return Change.builder().action(ChangeAction.DELETE).resourceRecordSet(rr).build();
-							HashSet<ResourceRecord> rrs = new HashSet<>(rr.resourceRecords());
-							if (rrs.removeIf(r -> r.value().equals(ip)))
-								return Change.builder().action(ChangeAction.UPSERT)
-										.resourceRecordSet(rr.toBuilder().resourceRecords(rrs).build()).build();
-							return null;
-						})
-						.filter(Objects::nonNull)
-						.collect(Collectors.toList()));
+
+	/**
+	 * Compute the record changes of the notified event, without looking up the records, so that the changes of
+	 * several events can be merged before they are applied
+	 * @param i the instance that the notification is about
+	 * @return the values to add for a launched instance or to remove for a terminated instance
+	 */
+	ChangeSet getEventChanges(Instance i) throws NoIpException {
+		switch (getEventType()) {
+		case EC2_INSTANCE_LAUNCH:
+			return getNewRecords(i);
+		case EC2_INSTANCE_TERMINATE:
+		case EC2_INSTANCE_TERMINATE_ERROR:
+			return getRemovedRecords(i);
+		default:
+			return new ChangeSet();
+		}
+	}
+
+	/**
+	 * Look up the existing record sets of all the changed record sets, concurrently. Per-instance record sets
+	 * (with a set identifier) are written without reading, so they are only looked up to be deleted.
+	 */
+	CompletableFuture<ChangeSet> withExisting(ChangeSet changes) {
+		return lookedUp(changes).stream()
+				.collect(FanOut.mapping(key -> getRecordSet(key.name, key.type, key.setIdentifier)
+						.thenAccept(rr -> {
+							synchronized (changes) {
+								changes.existing(key, rr);
+							}
+						}), ROUTE53_CONCURRENCY))
+				.thenApply(v -> changes);
+	}
+
+	private static ChangeSet withExisting(RecordSetLookup lookup, ChangeSet changes) {
+		List<ChangeSet.Key> keys = lookedUp(changes);
+		List<ResourceRecordSet> existing = lookup.lookup(keys.stream().map(ChangeSet.Key::toRecordSet)
+				.collect(Collectors.toList()));
+		for (int i = 0; i < keys.size(); i++)
+			changes.existing(keys.get(i), existing.get(i));
+		return changes;
+	}
+
+	/**
+	 * @return the changed record sets that the changes depend on: all but the per-instance record sets that are
+	 * written
+	 */
+	private static List<ChangeSet.Key> lookedUp(ChangeSet changes) {
+		return changes.keys().stream()
+				.filter(key -> Objects.isNull(key.setIdentifier) || changes.isDeleted(key))
+				.collect(Collectors.toList());
+	}
+
+	private List<SRVTemplate> getSRVTemplates() {
+		return concat(metadata.getSRVSpec(), concat(metadata.getSRV4Spec(), metadata.getSRV6Spec()));
+	}
+
+	private static <T> List<T> concat(List<T> a, List<T> b) {
+		if (b.isEmpty())
+			return a;
+		List<T> all = new ArrayList<>(a.size() + b.size());
+		all.addAll(a);
+		all.addAll(b);
+		return all;
+	}
+
+	public CompletableFuture<ChangeBatch> getRemoveChanges(Instance i) throws NoIpException {
+		return withExisting(getRemovedRecords(i)).thenApply(ChangeSet::toChangeBatch);
 	}
 	
-	private CompletableFuture<List<Change>> getSRVRemoveChanges(Instance i) throws NoIpException {
-		String host = Tools.getHostAddress(i);
-		HashMap<String, List<SRVTemplate>> map = new HashMap<String, List<SRVTemplate>>() {
-			private static final long serialVersionUID = 1L;
-
-			public List<SRVTemplate> get(Object key) {
-				if (containsKey(key))
-					return super.get(key);
-				ArrayList<SRVTemplate> list = new ArrayList<SRVTemplate>();
-				put(key.toString(),list);
-				return list;
-			}
-		};
-		for (SRVTemplate s : metadata.getSRVSpec())
-			map.get(s.addr).add(s);
-		for (SRVTemplate s : metadata.getSRV4Spec())
-			map.get(s.addr).add(s);
-		for (SRVTemplate s : metadata.getSRV6Spec())
-			map.get(s.addr).add(s);
-		return map.entrySet().stream()
-				.map(ent -> Tools.getRecordSet(ent.getKey(), RRType.SRV)
-						.thenApply(rr -> {
-							if (Objects.isNull(rr))
-								return null;
-							ArrayList<ResourceRecord> newRRs = new ArrayList<>(rr.resourceRecords());
-							for (SRVTemplate s : ent.getValue())
-								newRRs.remove(s.getResourceRecord(host));
-							if (newRRs.isEmpty())
-								return Change.builder().action(ChangeAction.DELETE).resourceRecordSet(rr).build();
-							return Change.builder().action(ChangeAction.UPSERT)
-									.resourceRecordSet(rr.toBuilder().resourceRecords(newRRs).build()).build();
-						}))
-				.collect(new CompletableFutureListCollector<>())
-				.thenApply(l -> l.stream()
-						.filter(Objects::nonNull)
-						.collect(Collectors.toList()));
+	/**
+	 * Blocking version of {@link #getRemoveChanges(Instance)}
+	 * @param lookup lookup to use to retrieve existing record sets
+	 * @param i instance to remove
+	 * @return change batch removing the instance from the records
+	 */
+	public ChangeBatch getRemoveChanges(RecordSetLookup lookup, Instance i) throws NoIpException {
+		return withExisting(lookup, getRemovedRecords(i)).toChangeBatch();
 	}
 	
 	public static String json(Object data) {
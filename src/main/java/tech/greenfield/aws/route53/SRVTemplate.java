@@ -31,9 +31,16 @@ public class SRVTemplate {
 		return getResourceRecord(Tools.getHostAddress(i));
 	}
 	public ResourceRecord getResourceRecord(String ip) {
-		return ResourceRecord.builder().value(String.join(" ", new String[]{
-				prio, weight, port, ip
-			})).build();
+		return ResourceRecord.builder().value(getValue(ip)).build();
+	}
+	/**
+	 * @param host target host name or address
+	 * @return SRV record value pointing to the host
+	 */
+	public String getValue(String host) {
+		return String.join(" ", new String[]{
+				prio, weight, port, host
+			});
 	}
 	public String toString() {
 		return String.join(":", new String[] {
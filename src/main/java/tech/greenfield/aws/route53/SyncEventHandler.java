@@ -0,0 +1,468 @@
+package tech.greenfield.aws.route53;
+
+import static tech.greenfield.aws.Clients.autoscalingSync;
+import static tech.greenfield.aws.Clients.ec2Sync;
+import static tech.greenfield.aws.Clients.route53Sync;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.services.lambda.runtime.Context;
+
+import software.amazon.awssdk.services.autoscaling.model.AutoScalingException;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.route53.model.*;
+import tech.greenfield.aws.TaskScope;
+import tech.greenfield.aws.lease.Lease;
+import tech.greenfield.aws.lease.LeaseStore;
+import tech.greenfield.aws.logging.Logging;
+import tech.greenfield.aws.metrics.Metrics;
+import tech.greenfield.aws.registry.InstanceRegistry;
+import tech.greenfield.aws.tracing.Span;
+
+/**
+ * Handler for a single event, for the {@link tech.greenfield.aws.ExecutionMode#VIRTUAL VIRTUAL} execution mode.
+ *
+ * Does the same work as {@link EventHandler} (and its {@link tech.greenfield.aws.route53.eventhandler.LifeCycle
+ * LifeCycle} sub-class), but as plain blocking code using the synchronous AWS clients. It is meant to run in
+ * its own virtual thread, so waiting for a response or for a Route53 change to propagate only parks the
+ * virtual thread. Fan-outs (record lookups) run in a {@link TaskScope}.
+ */
+public class SyncEventHandler {
+
+	private Logger log = LoggerFactory.getLogger(getClass().getName());
+	private final EventType eventType;
+	private final String ec2instanceId;
+	private final String autoScalingGroupName;
+	private final Route53Message message;
+	private final LifeCycleNotification lifecycle;
+	private final Metrics metrics;
+	private final Span span;
+	/** when to stop waiting, so the event can be checkpointed before the invocation times out */
+	private final Deadline deadline;
+	private final LeaseStore leases = LeaseStore.fromEnvironment();
+	private final InstanceRegistry registry = InstanceRegistry.get();
+	/** leases held by the update currently running, checked before submitting its changes */
+	private List<Lease> held = Collections.emptyList();
+	/** whether the lifecycle action was completed before the event was completely handled */
+	private boolean lifecycleCompleted;
+	private LifecycleHeartbeat heartbeat;
+
+	/**
+	 * @param lifecycle the lifecycle notification, if the event is a lifecycle hook event, or null
+	 */
+	SyncEventHandler(Context context, EventType eventType, String ec2InstanceId, String autoScalingGroupName,
+			Route53Message message, LifeCycleNotification lifecycle) {
+		this.eventType = Objects.requireNonNull(eventType, "Missing event type");
+		this.ec2instanceId = Objects.requireNonNullElse(ec2InstanceId, "");
+		this.autoScalingGroupName = autoScalingGroupName;
+		this.message = message;
+		this.lifecycle = lifecycle;
+		this.deadline = Deadline.of(context);
+		metrics = message.metrics().dimension("EventType", eventType.name()).dimension("AutoScalingGroup", autoScalingGroupName);
+		metrics.count("Throttles", 0);
+		span = message.span().setAttribute("event.type", eventType.name()).setAttribute("ec2.instance_id", this.ec2instanceId)
+				.setAttribute("autoscaling.group", autoScalingGroupName);
+		log = Logging.withFields(log, "instanceId", this.ec2instanceId, "autoScalingGroup", autoScalingGroupName,
+				"requestId", Objects.nonNull(context) ? context.getAwsRequestId() : null);
+		if (ec2instanceId.isBlank())
+			throw new IllegalArgumentException("EC2 instance ID is missing but must be provided!");
+	}
+
+	/**
+	 * Event handler entry point
+	 * @throws InterruptedException if interrupted while waiting for AWS
+	 */
+	public void handle() throws InterruptedException {
+		heartbeat = LifecycleHeartbeat.start(lifecycle, span);
+		try {
+			retryIfThrottled(() -> waitForPending(message.getPendingChangeId()));
+			handleEventType();
+		} catch (NoIpException e) {
+			log.warn("Error: {}", e.getMessage());
+			log.warn("No IP was found, starting plan B - prune the records of instances that are no longer live");
+			retryIfThrottled(() -> withLeases(() -> pruneRRs(autoScalingGroupName)));
+		} catch (SilentFailure e) {
+			Tools.logException(log, "Silently failing Route53 update", e);
+		} finally {
+			LifecycleHeartbeat.stop(heartbeat);
+		}
+		if (Objects.nonNull(lifecycle) && !lifecycleCompleted)
+			handleLifecycleAction(lifecycle.getLifecycleActionToken());
+	}
+
+	/**
+	 * With the {@link LifecycleCompletion#ACCEPTED ACCEPTED} policy, complete a launching instance's lifecycle
+	 * action as soon as its first record changes were accepted, before waiting for them to be applied
+	 */
+	private void changesAccepted() {
+		if (Objects.isNull(lifecycle) || lifecycleCompleted || eventType != EventType.EC2_INSTANCE_LAUNCH ||
+				message.getLifecycleCompletion() != LifecycleCompletion.ACCEPTED)
+			return;
+		lifecycleCompleted = true;
+		LifecycleHeartbeat.stop(heartbeat);
+		handleLifecycleAction(lifecycle.getLifecycleActionToken());
+	}
+
+	private void handleEventType() throws InterruptedException {
+		switch (eventType) {
+		case EC2_INSTANCE_LAUNCH:
+			retryIfThrottled(() -> withLeases(() -> registerInstance(ec2instanceId)));
+			break;
+		case EC2_INSTANCE_TERMINATE:
+		case EC2_INSTANCE_TERMINATE_ERROR:
+			retryIfThrottled(() -> withLeases(() -> deregisterInstance(ec2instanceId)));
+			break;
+		default: // do nothing in case of launch error or test notification
+			log.info("Unrecognized event type '{}', ignoring", eventType);
+		}
+	}
+
+	/**
+	 * Plan B: remove the values of instances that are no longer live from the records, and add any live instances
+	 * that are missing, using a single auto scaling group description and as few instance descriptions as possible
+	 */
+	private void pruneRRs(String asgName) throws InterruptedException {
+		try {
+			List<String> ids = autoscalingSync()
+					.describeAutoScalingGroups(b -> b.autoScalingGroupNames(asgName))
+					.autoScalingGroups().get(0).instances().stream()
+					.filter(Tools::isLive)
+					.map(software.amazon.awssdk.services.autoscaling.model.Instance::instanceId)
+					.collect(Collectors.toList());
+			List<Instance> instances = span.trace("Tools.describeInstances", () -> describeInstances(ids));
+			ChangeBatch changes = message.getPruneChanges(this::lookup, this::list, instances);
+			if (changes.changes().isEmpty())
+				log.info("Nothing to prune");
+			else {
+				log.debug("Sending DNS change request: {}", changes);
+				submit(changes);
+			}
+			instances.stream().filter(Tools::hasIPAddress).forEach(this::registered);
+		} catch (RuntimeException e) {
+			Tools.logException(log, "Error in submitting Route53 update", e);
+			throw e;
+		}
+	}
+
+	private void registerInstance(String ec2InstanceId) throws InterruptedException {
+		Instance i = getInstance(ec2InstanceId);
+		log.info("Registering {} - {}", ec2InstanceId, Tools.getIPAddress(i));
+		ChangeBatch cb = message.getUpsertChanges(this::lookup, List.of(i));
+		log.debug("Adding instance with addresses: {}", cb);
+		submit(cb);
+		registered(i);
+	}
+
+	private void deregisterInstance(String ec2InstanceId) throws InterruptedException {
+		Instance i = getRegisteredInstance(ec2InstanceId);
+		log.info("Deregistering {} - {}", ec2InstanceId, Tools.getIPAddress(i));
+		ChangeBatch changes = message.getRemoveChanges(this::lookup, i);
+		if (changes.changes().isEmpty())
+			log.info("Nothing to remove");
+		else {
+			log.debug("Sending rr change request: {}", changes);
+			submit(changes);
+		}
+		if (Objects.nonNull(registry))
+			registry.deregister(ec2InstanceId);
+	}
+
+	/**
+	 * Record the addresses of a registered instance in the instance registry, if one is configured
+	 */
+	private void registered(Instance i) {
+		if (Objects.nonNull(registry))
+			registry.register(i);
+	}
+
+	/**
+	 * Resolve an instance ID to the instance with the addresses it was registered with, from the instance registry
+	 * if it is configured and has the instance, otherwise by describing the instance
+	 */
+	private Instance getRegisteredInstance(String ec2InstanceId) {
+		if (Objects.nonNull(registry)) {
+			Instance i = span.trace("InstanceRegistry.lookup", () -> registry.lookup(ec2InstanceId).join());
+			if (Objects.nonNull(i)) {
+				log.debug("Using the registered addresses of {}", ec2InstanceId);
+				return i;
+			}
+		}
+		return getInstance(ec2InstanceId);
+	}
+
+	/**
+	 * Run a record update while holding leases on the updated record names, if a lease store is configured
+	 */
+	private void withLeases(Action update) throws InterruptedException {
+		List<String> keys = message.getLeaseKeys();
+		if (Objects.isNull(leases) || keys.isEmpty()) {
+			update.run();
+			return;
+		}
+		List<Lease> acquired = span.trace("LeaseStore.acquireAll",
+				() -> metrics.time("LeaseWaitTime", () -> unchecked(() -> Tools.acquireLeases(leases, keys, deadline).get())));
+		log.debug("Acquired leases {}", acquired);
+		held = acquired;
+		try {
+			update.run();
+		} finally {
+			held = Collections.emptyList();
+			leases.releaseAll(acquired).join();
+		}
+	}
+
+	private void submit(ChangeBatch changes) throws InterruptedException {
+		if (!held.stream().allMatch(Lease::isValid)) // the records may have been changed since they were read
+			throw new RetryLaterException("Lease expired before submitting changes: " + held, null);
+		metrics.put("ChangeBatchSize", changes.changes().size(), Metrics.Unit.Count);
+		Span submit = span.child("changeResourceRecordSets").setAttribute("dns.changes", changes.changes().size());
+		ChangeInfo ci;
+		try {
+			ci = metrics.time("ChangeSubmitLatency", () -> route53Sync().changeResourceRecordSets(b -> b
+					.hostedZoneId(Route53Message.getHostedZoneId()).changeBatch(changes)).changeInfo());
+			submit.end();
+		} catch (RuntimeException e) {
+			submit.end(e);
+			throw e;
+		}
+		changesAccepted();
+		span.trace("Tools.waitFor", () -> metrics.time("InSyncWaitTime", () -> {
+			waitFor(ci);
+			return null;
+		}));
+	}
+
+	/**
+	 * Wait until the specified change request has been applied on Route53 servers
+	 * @throws DeadlineExceededException if the deadline passes before that
+	 */
+	private void waitFor(ChangeInfo ci) throws InterruptedException {
+		while (ci.status() == ChangeStatus.PENDING) {
+			if (!deadline.allows(Tools.WAIT_PULSE))
+				throw new DeadlineExceededException("Deadline reached while waiting for " + ci.id(), ci.id());
+			log.debug("Still waiting for {}", ci.id());
+			Thread.sleep(Tools.WAIT_PULSE);
+			String id = ci.id();
+			try {
+				ci = route53Sync().getChange(b -> b.id(id)).changeInfo();
+			} catch (Route53Exception e) {
+				if (Tools.isThrottled(e))
+					throw new ThrottledException("Throttled while waiting for " + id, id);
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Wait for a change submitted by an earlier invocation, that didn't get to wait for it, as the records may
+	 * already reflect it and need no further change, but the event is only handled once they were applied
+	 */
+	private void waitForPending(String changeId) throws InterruptedException {
+		if (Objects.isNull(changeId))
+			return;
+		log.debug("Waiting for change {} of an earlier invocation", changeId);
+		ChangeInfo ci;
+		try {
+			ci = route53Sync().getChange(b -> b.id(changeId)).changeInfo();
+		} catch (NoSuchChangeException e) {
+			return;
+		} catch (Route53Exception e) {
+			if (Tools.isThrottled(e))
+				throw new ThrottledException("Throttled while waiting for " + changeId, changeId);
+			throw e;
+		}
+		span.trace("Tools.waitForPending", () -> {
+			waitFor(ci);
+			return null;
+		});
+	}
+
+	/**
+	 * Look up record sets concurrently, limited to stay clear of the Route53 API rate limit
+	 */
+	private List<ResourceRecordSet> lookup(List<ResourceRecordSet> keys) {
+		try {
+			return unchecked(() -> TaskScope.map(keys, k -> getRecordSet(k.name(), k.type(), k.setIdentifier()),
+					Route53Message.ROUTE53_CONCURRENCY));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CompletionException(e);
+		}
+	}
+
+	/**
+	 * List the record sets of each name and type concurrently, limited to stay clear of the Route53 API rate limit
+	 */
+	private List<List<ResourceRecordSet>> list(List<ResourceRecordSet> keys) {
+		try {
+			return unchecked(() -> TaskScope.map(keys, k -> getRecordSets(k.name(), k.type()),
+					Route53Message.ROUTE53_CONCURRENCY));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CompletionException(e);
+		}
+	}
+
+	private List<ResourceRecordSet> getRecordSets(String hostname, RRType type) {
+		String domainname = Tools.fqdn(hostname);
+		Span lookup = span.child("Tools.getRecordSets").setAttribute("dns.name", hostname).setAttribute("dns.type", type.toString());
+		try {
+			List<ResourceRecordSet> found = new ArrayList<>();
+			String identifier = null;
+			do {
+				String start = identifier;
+				ListResourceRecordSetsResponse res = metrics.time("RecordSetReadLatency", () -> route53Sync()
+						.listResourceRecordSets(b -> b
+								.hostedZoneId(Route53Message.getHostedZoneId())
+								.startRecordName(domainname)
+								.startRecordType(type)
+								.startRecordIdentifier(start)));
+				identifier = Tools.addRecordSets(res, domainname, type, found);
+			} while (Objects.nonNull(identifier));
+			lookup.end();
+			return found;
+		} catch (RuntimeException e) {
+			lookup.end(e);
+			log.error("Error getting record sets for {} {}: {}", type, domainname, e.toString());
+			throw e;
+		}
+	}
+
+	private ResourceRecordSet getRecordSet(String hostname, RRType type, String setIdentifier) {
+		String domainname = Tools.fqdn(hostname);
+		Span lookup = span.child("Tools.getRecordSet").setAttribute("dns.name", hostname).setAttribute("dns.type", type.toString());
+		try {
+			ListResourceRecordSetsResponse res = metrics.time("RecordSetReadLatency", () -> route53Sync()
+					.listResourceRecordSets(b -> b
+							.hostedZoneId(Route53Message.getHostedZoneId())
+							.startRecordName(domainname)
+							.startRecordType(type)
+							.startRecordIdentifier(setIdentifier)
+							.maxItems("1")));
+			log.debug("Got recordset for {}:{} - {}", domainname, type, res);
+			lookup.end();
+			return Tools.findRecordSet(res.resourceRecordSets(), domainname, type, setIdentifier);
+		} catch (RuntimeException e) {
+			lookup.end(e);
+			log.error("Error getting record set for {} {}: {}", type, domainname, e.toString());
+			throw e;
+		}
+	}
+
+	private Instance getInstance(String ec2InstanceId) {
+		log.debug("Checking for instanceId {}", ec2InstanceId);
+		Instance i = span.trace("EventHandler.getInstance", () -> findInstance(ec2InstanceId));
+		if (Objects.isNull(i))
+			throw new CompletionException(new Exception("Failed to locate instance " + ec2InstanceId));
+		return i;
+	}
+
+	private Instance findInstance(String ec2InstanceId) {
+		return metrics.time("EC2DescribeLatency", () -> ec2Sync().describeInstances(b -> b.instanceIds(ec2InstanceId)))
+				.reservations().stream()
+				.flatMap(r -> r.instances().stream())
+				.findFirst().orElse(null);
+	}
+
+	private List<Instance> describeInstances(List<String> ids) {
+		List<Instance> instances = new ArrayList<>(ids.size());
+		for (int i = 0; i < ids.size(); i += Tools.EC2_FILTER_SIZE) {
+			DescribeInstancesRequest request = Tools.instanceIdFilter(ids.subList(i, Math.min(ids.size(), i + Tools.EC2_FILTER_SIZE)));
+			metrics.time("EC2DescribeLatency", () -> {
+				ec2Sync().describeInstancesPaginator(request).reservations().forEach(r -> instances.addAll(r.instances()));
+				return null;
+			});
+		}
+		return instances;
+	}
+
+	/**
+	 * Run the action, and if Route53 throttles it, retry it after a delay - in the queue, if the event was received
+	 * from one, so the invocation can go on with other events, and otherwise in the invocation until the deadline
+	 */
+	private void retryIfThrottled(Action action) throws InterruptedException {
+		while (true) {
+			try {
+				action.run();
+				return;
+			} catch (Route53Exception | ThrottledException e) {
+				if (!Tools.isThrottled(e))
+					throw e;
+				log.info("Throttled: {}", e.toString());
+				metrics.count("Throttles");
+				if (message.isQueued())
+					throw e instanceof ThrottledException ? (ThrottledException) e : new ThrottledException(e.getMessage(), null);
+				if (!deadline.allows(EventHandler.THROTTLE_DELAY))
+					throw new DeadlineExceededException("Deadline reached while throttled", null);
+				span.trace("EventHandler.throttleBackoff", () -> {
+					Thread.sleep(EventHandler.THROTTLE_DELAY);
+					return null;
+				});
+				log.info("Retrying...");
+			}
+		}
+	}
+
+	private void handleLifecycleAction(String lifecycleActionToken) {
+		// after handling the event, we need to invoke the life cycle action handler
+		// to complete the life cycle
+		if (Objects.isNull(lifecycleActionToken)) {
+			log.info("Skipping lifecycle completion because there's no token");
+			return;
+		}
+		log.info("Completing life-cycle action with token {}", lifecycleActionToken);
+		try {
+			completeLifecycle(lifecycleActionToken, "CONTINUE");
+		} catch (RuntimeException e) {
+			log.error("Error in lifecycle event handling, abandoning lifecycle with token {}: {}", lifecycleActionToken, e.toString());
+			completeLifecycle(lifecycleActionToken, "ABANDON");
+		}
+	}
+
+	private void completeLifecycle(String lifecycleActionToken, String result) {
+		try {
+			span.trace("LifeCycle.completeLifecycle", () -> autoscalingSync().completeLifecycleAction(b -> b
+					.autoScalingGroupName(lifecycle.getAutoScalingGroupName())
+					.lifecycleHookName(lifecycle.getLifecycleHookName())
+					.lifecycleActionToken(lifecycleActionToken)
+					.lifecycleActionResult(result)));
+		} catch (AutoScalingException e) {
+			if (!e.getMessage().contains("No active Lifecycle Action found"))
+				throw e;
+		}
+	}
+
+	/**
+	 * Run a fan-out, rethrowing a failed task's runtime exception as is, so it can be handled like the same
+	 * failure outside a fan-out
+	 */
+	private static <T> T unchecked(FanOutCall<T> call) throws InterruptedException {
+		try {
+			return call.call();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new CompletionException(e.getCause());
+		}
+	}
+
+	@FunctionalInterface
+	private interface Action {
+		void run() throws InterruptedException;
+	}
+
+	@FunctionalInterface
+	private interface FanOutCall<T> {
+		T call() throws ExecutionException, InterruptedException;
+	}
+}
@@ -0,0 +1,19 @@
+package tech.greenfield.aws.route53;
+
+/**
+ * Route53 throttled the event's requests, even after the SDK's retries. Events received from a queue are handled
+ * again after a delay in the queue, instead of waiting in the invocation.
+ */
+public class ThrottledException extends RetryLaterException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * @param message description of the throttled request
+	 * @param pendingChangeId ID of a submitted Route53 change that wasn't yet applied, or null
+	 */
+	public ThrottledException(String message, String pendingChangeId) {
+		super(message, pendingChangeId);
+	}
+
+}
@@ -5,15 +5,24 @@ import static tech.greenfield.aws.Clients.ec2;
 import static tech.greenfield.aws.Clients.route53;
 
 import java.io.*;
-import java.util.List;
-import java.util.Objects;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.Filter;
 import software.amazon.awssdk.services.ec2.model.Instance;
 import software.amazon.awssdk.services.route53.model.*;
+import tech.greenfield.aws.Scheduler;
+import tech.greenfield.aws.lease.Lease;
+import tech.greenfield.aws.lease.LeaseStore;
+import tech.greenfield.aws.lease.LeaseUnavailableException;
 
 /**
  * Route53 integration utilities
@@ -36,7 +45,9 @@ import software.amazon.awssdk.services.route53.model.*;
  *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
  */
 public class Tools {
-	private static final long WAIT_PULSE = 1500;
+	static final long WAIT_PULSE = 1500;
+	/** Maximum number of values in a DescribeInstances filter */
+	static final int EC2_FILTER_SIZE = 200;
 	
 	private static Logger log = LoggerFactory.getLogger(Tools.class.getName());
 
@@ -45,17 +56,51 @@ public class Tools {
 	 * @param reqRes the result of submitting a change request
 	 */
 	public static CompletableFuture<Void> waitFor(ChangeInfo ci) {
+		return waitFor(ci, Deadline.NONE);
+	}
+
+	/**
+	 * Wait until the specified change request has been applied on Route53 servers, or until the deadline
+	 * @param ci the result of submitting a change request
+	 * @param deadline invocation deadline
+	 * @return a future that will be completed when the change was applied, or fail with a
+	 * {@link DeadlineExceededException} if the deadline passes before that
+	 */
+	public static CompletableFuture<Void> waitFor(ChangeInfo ci, Deadline deadline) {
 		if (ci.status() != ChangeStatus.PENDING)
 			return CompletableFuture.completedFuture(null);
-		log.debug("Still waiting for " + ci.id());
-		return CompletableFuture.runAsync(() -> {
-			synchronized (ci) {
-				try {
-					ci.wait(WAIT_PULSE);
-				} catch (InterruptedException e) { }
-			}})
-				.thenCompose(v -> route53().getChange(b -> b.id(ci.id())))
-				.thenCompose(r -> waitFor(r.changeInfo())); 
+		if (!deadline.allows(WAIT_PULSE))
+			return CompletableFuture.failedFuture(new DeadlineExceededException("Deadline reached while waiting for " + ci.id(), ci.id()));
+		log.debug("Still waiting for {}", ci.id());
+		return Scheduler.after(WAIT_PULSE, () -> route53().getChange(b -> b.id(ci.id())))
+				.exceptionally(t -> {
+					if (isThrottled(t))
+						throw new CompletionException(new ThrottledException("Throttled while waiting for " + ci.id(), ci.id()));
+					throw new CompletionException(unwrap(t));
+				})
+				.thenCompose(r -> waitFor(r.changeInfo(), deadline));
+	}
+
+	/**
+	 * Wait for a change submitted by an earlier invocation, that didn't get to wait for it
+	 * @param changeId ID of the submitted change, or null
+	 * @param deadline invocation deadline
+	 * @return a future that will be completed when the change was applied, or Route53 no longer knows it
+	 */
+	static CompletableFuture<Void> waitForPending(String changeId, Deadline deadline) {
+		if (Objects.isNull(changeId))
+			return CompletableFuture.completedFuture(null);
+		log.debug("Waiting for change {} of an earlier invocation", changeId);
+		return route53().getChange(b -> b.id(changeId))
+				.thenApply(r -> r.changeInfo())
+				.exceptionally(t -> {
+					if (unwrap(t) instanceof NoSuchChangeException)
+						return ChangeInfo.builder().id(changeId).status(ChangeStatus.INSYNC).build();
+					if (isThrottled(t))
+						throw new CompletionException(new ThrottledException("Throttled while waiting for " + changeId, changeId));
+					throw new CompletionException(unwrap(t));
+				})
+				.thenCompose(ci -> waitFor(ci, deadline));
 	}
 
 	/**
@@ -67,24 +112,92 @@ public class Tools {
 	 * @return The record set retrieved from Route53 or an empty record set 
 	 */
 	public static CompletableFuture<ResourceRecordSet> getRecordSet(String hostname, RRType type) {
-		if (!hostname.endsWith("."))
-			hostname = hostname + ".";
-		final String domainname = hostname;
+		return getRecordSet(hostname, type, null);
+	}
+
+	/**
+	 * Retrieve a single record set with the specified name, type and set identifier
+	 * @param hostname FQDN of record set to retrieve
+	 * @param type RR type of record to retrieve
+	 * @param setIdentifier set identifier of the record set to retrieve, or null for the first record set with the
+	 * name and type
+	 * @return The record set retrieved from Route53, or null if it doesn't exist
+	 */
+	public static CompletableFuture<ResourceRecordSet> getRecordSet(String hostname, RRType type, String setIdentifier) {
+		final String domainname = fqdn(hostname);
 		return route53().listResourceRecordSets(b -> b
 				.hostedZoneId(Route53Message.getHostedZoneId())
 				.startRecordName(domainname)
 				.startRecordType(type)
+				.startRecordIdentifier(setIdentifier)
 				.maxItems("1"))
 				.whenComplete((res,t) -> {
 					if (Objects.nonNull(t))
-						log.error("Error getting record set for " + type + " " + domainname + ": " + t);
+						log.error("Error getting record set for {} {}: {}", type, domainname, t.toString());
 					else
-						log.debug("Got recordset for " + domainname + ":" + type +" - " + res);
+						log.debug("Got recordset for {}:{} - {}", domainname, type, res);
 				})
-				.thenApply(res -> res.resourceRecordSets().stream()
+				.thenApply(res -> findRecordSet(res.resourceRecordSets(), domainname, type, setIdentifier));
+	}
+
+	/**
+	 * Retrieve all the record sets with the specified name and type - one for each set identifier, for weighted
+	 * and multivalue answer record sets
+	 * @param hostname FQDN of record sets to retrieve
+	 * @param type RR type of record sets to retrieve
+	 * @return The record sets retrieved from Route53, which may be empty
+	 */
+	public static CompletableFuture<List<ResourceRecordSet>> getRecordSets(String hostname, RRType type) {
+		return getRecordSets(fqdn(hostname), type, null, new ArrayList<>());
+	}
+
+	private static CompletableFuture<List<ResourceRecordSet>> getRecordSets(String domainname, RRType type,
+			String identifier, List<ResourceRecordSet> found) {
+		return route53().listResourceRecordSets(b -> b
+				.hostedZoneId(Route53Message.getHostedZoneId())
+				.startRecordName(domainname)
+				.startRecordType(type)
+				.startRecordIdentifier(identifier))
+				.whenComplete((res,t) -> {
+					if (Objects.nonNull(t))
+						log.error("Error getting record sets for {} {}: {}", type, domainname, t.toString());
+				})
+				.thenCompose(res -> {
+					String next = addRecordSets(res, domainname, type, found);
+					return Objects.nonNull(next) ? getRecordSets(domainname, type, next, found) :
+						CompletableFuture.completedFuture(found);
+				});
+	}
+
+	/**
+	 * Collect the record sets with the specified name and type from a page of record sets
+	 * @param res page of record sets, listed starting with the name and type
+	 * @param found record sets found so far, to add the page's record sets to
+	 * @return the set identifier to list the next page from, if it may have more record sets with the name and
+	 * type, or null
+	 */
+	static String addRecordSets(ListResourceRecordSetsResponse res, String domainname, RRType type,
+			List<ResourceRecordSet> found) {
+		for (ResourceRecordSet rr : res.resourceRecordSets())
+			if (rr.name().equals(domainname) && rr.type().equals(type))
+				found.add(rr);
+		if (!Boolean.TRUE.equals(res.isTruncated()) || !domainname.equals(res.nextRecordName()) ||
+				!type.equals(res.nextRecordType()))
+			return null;
+		return res.nextRecordIdentifier();
+	}
+
+	static String fqdn(String hostname) {
+		return hostname.endsWith(".") ? hostname : hostname + ".";
+	}
+
+	static ResourceRecordSet findRecordSet(List<ResourceRecordSet> list, String domainname, RRType type,
+			String setIdentifier) {
+		return list.stream()
 				.filter(rr -> rr.name().equals(domainname))
 				.filter(rr -> rr.type().equals(type))
-				.findAny().orElse(null));
+				.filter(rr -> Objects.isNull(setIdentifier) || setIdentifier.equals(rr.setIdentifier()))
+				.findAny().orElse(null);
 	}
 
 	static CompletableFuture<List<software.amazon.awssdk.services.autoscaling.model.Instance>> getASGInstances(String asgName) {
@@ -93,10 +206,43 @@ public class Tools {
 				.thenApply(res -> res.autoScalingGroups().get(0).instances());
 	}
 	
-	static CompletableFuture<Instance> asInstanceToEC2(software.amazon.awssdk.services.autoscaling.model.Instance instance) {
-		return ec2().describeInstances(b -> b.instanceIds(instance.instanceId()))
-				.thenApply(res -> res.reservations().stream()
-						.flatMap(r -> r.instances().stream()).findFirst().orElse(null));
+	/**
+	 * Check if an auto scaling group member is still live: healthy, and not being terminated
+	 * @param instance auto scaling group member
+	 * @return true if the member's records should be kept
+	 */
+	static boolean isLive(software.amazon.awssdk.services.autoscaling.model.Instance instance) {
+		return instance.healthStatus().equalsIgnoreCase("healthy") &&
+				!Objects.toString(instance.lifecycleStateAsString(), "").startsWith("Terminat");
+	}
+
+	/**
+	 * Describe instances in as few requests as possible, using an instance ID filter - which, unlike listing
+	 * instance IDs, doesn't fail the whole request if some of the instances no longer exist
+	 * @param ids IDs of the instances to describe
+	 * @return a future that will be completed with the instances that exist
+	 */
+	static CompletableFuture<List<Instance>> describeInstances(List<String> ids) {
+		List<Instance> instances = Collections.synchronizedList(new ArrayList<>(ids.size()));
+		CompletableFuture<Void> done = CompletableFuture.completedFuture(null);
+		for (int i = 0; i < ids.size(); i += EC2_FILTER_SIZE) {
+			List<String> batch = ids.subList(i, Math.min(ids.size(), i + EC2_FILTER_SIZE));
+			done = done.thenCompose(v -> ec2().describeInstancesPaginator(instanceIdFilter(batch))
+					.subscribe(res -> res.reservations().forEach(r -> instances.addAll(r.instances()))));
+		}
+		return done.thenApply(v -> instances);
+	}
+
+	static DescribeInstancesRequest instanceIdFilter(List<String> ids) {
+		return DescribeInstancesRequest.builder().filters(Filter.builder().name("instance-id").values(ids).build()).build();
+	}
+
+	/**
+	 * @param i instance
+	 * @return true if the instance has the IP address that is used in the records
+	 */
+	public static boolean hasIPAddress(Instance i) {
+		return Objects.nonNull(Route53Message.isPrivate() ? i.privateIpAddress() : i.publicIpAddress());
 	}
 
 	public static String getHostAddress(Instance i) throws NoIpException {
@@ -119,10 +265,46 @@ public class Tools {
 				.map(addr -> addr.ipv6Address()).orElse(null);
 	}
 
+	/**
+	 * @return whether the failure is Route53 throttling a request, even after the SDK's retries
+	 */
+	static boolean isThrottled(Throwable t) {
+		t = unwrap(t);
+		return t instanceof ThrottledException ||
+				(t instanceof Route53Exception && Objects.toString(t.getMessage(), "").contains("Rate exceeded"));
+	}
+
+	/**
+	 * @return the exception thrown by an asynchronous stage, which may be wrapped in several completion exceptions
+	 */
+	static Throwable unwrap(Throwable t) {
+		while (t instanceof CompletionException && Objects.nonNull(t.getCause()))
+			t = t.getCause();
+		return t;
+	}
+
+	/**
+	 * Acquire leases on record names, waiting for each for up to the lease TTL, capped by the deadline
+	 * @param leases lease store to acquire the leases from
+	 * @param keys keys to lease
+	 * @param deadline deadline of the event that will update the records
+	 * @return a future that will be completed with the acquired leases, or fail with a {@link RetryLaterException} -
+	 * or a {@link DeadlineExceededException} if the wait was cut short by the deadline - if they weren't available
+	 * in time, so that the event is handled again later
+	 */
+	static CompletableFuture<List<Lease>> acquireLeases(LeaseStore leases, List<String> keys, Deadline deadline) {
+		Duration ttl = LeaseStore.ttl(), wait = deadline.cap(ttl);
+		return leases.acquireAll(keys, ttl, wait).exceptionally(e -> {
+			Throwable t = unwrap(e);
+			if (!(t instanceof LeaseUnavailableException))
+				throw new CompletionException(t);
+			throw new CompletionException(wait.compareTo(ttl) < 0 ? new DeadlineExceededException(t.getMessage(), null) :
+				new RetryLaterException(t.getMessage(), null));
+		});
+	}
+
 	public static void logException(Logger logger, String message, Throwable t) {
-		StringWriter sw = new StringWriter();
-		t.printStackTrace(new PrintWriter(sw));
-		logger.error(message + ": " + t.toString() + "\n" + sw.toString());
+		logger.error(message + ": {}", t.toString(), t);
 	}
 	
 	public static String getVersion() {
@@ -134,14 +316,19 @@ public class Tools {
 		return "unknown";
 	}
 
-	
-	public static Runnable delay(long delay) {
-		return () -> {
-			try {
-				Thread.sleep(delay);
-			} catch (InterruptedException e) {
-			}
-		};
+	/**
+	 * Read a text resource bundled with the Lambda
+	 * @param name resource name
+	 * @return resource content
+	 * @throws IOException if the resource is missing or could not be read
+	 */
+	public static String readResource(String name) throws IOException {
+		InputStream in = Tools.class.getClassLoader().getResourceAsStream(name);
+		if (Objects.isNull(in))
+			throw new FileNotFoundException(name);
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+			return reader.lines().collect(Collectors.joining("\n"));
+		}
 	}
 
 }
@@ -5,27 +5,57 @@ import static tech.greenfield.aws.Clients.autoscaling;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.amazonaws.services.lambda.runtime.Context;
 
 import software.amazon.awssdk.services.autoscaling.model.AutoScalingException;
 import tech.greenfield.aws.route53.EventHandler;
+import tech.greenfield.aws.route53.EventType;
 import tech.greenfield.aws.route53.LifeCycleNotification;
+import tech.greenfield.aws.route53.LifecycleCompletion;
+import tech.greenfield.aws.route53.LifecycleHeartbeat;
 import tech.greenfield.aws.route53.Route53Message;
 
 public class LifeCycle extends EventHandler {
 
 	private LifeCycleNotification event;
+	private final LifecycleCompletion completion;
+	/** completion of the lifecycle action, if it was started before the event was completely handled */
+	private final AtomicReference<CompletableFuture<Void>> completed = new AtomicReference<>();
+	private volatile LifecycleHeartbeat heartbeat;
 
 	public LifeCycle(Context context, LifeCycleNotification event, Route53Message message) {
 		super(context, event.getType(), event.getEC2InstanceId(), event.getAutoScalingGroupName(), message);
 		this.event = event;
+		this.completion = message.getLifecycleCompletion();
 	}
 
 	@Override
 	public CompletableFuture<Void> handle() {
 		String lifecycleActionToken = event.getLifecycleActionToken();
-		return super.handle().thenCompose(v -> handleLifecycleAction(lifecycleActionToken));
+		heartbeat = LifecycleHeartbeat.start(event, span);
+		return super.handle()
+				.whenComplete((v, t) -> LifecycleHeartbeat.stop(heartbeat))
+				.thenCompose(v -> {
+					CompletableFuture<Void> early = completed.get();
+					return Objects.nonNull(early) ? early : handleLifecycleAction(lifecycleActionToken);
+				});
+	}
+
+	/**
+	 * With the {@link LifecycleCompletion#ACCEPTED ACCEPTED} policy, complete a launching instance's lifecycle
+	 * action as soon as its first record changes were accepted, while the rest of the update goes on
+	 */
+	@Override
+	protected void changesAccepted() {
+		if (completion != LifecycleCompletion.ACCEPTED || event.getType() != EventType.EC2_INSTANCE_LAUNCH)
+			return;
+		CompletableFuture<Void> early = new CompletableFuture<>();
+		if (!completed.compareAndSet(null, early))
+			return;
+		LifecycleHeartbeat.stop(heartbeat);
+		handleLifecycleAction(event.getLifecycleActionToken()).whenComplete((v, t) -> early.complete(null));
 	}
 	
 	private CompletableFuture<Void> handleLifecycleAction(String lifecycleActionToken) {
@@ -35,11 +65,11 @@ public class LifeCycle extends EventHandler {
 			log.info("Skipping lifecycle completion because there's no token");
 			return CompletableFuture.completedFuture(null);
 		}
-		log.info("Completing life-cycle action with token " + lifecycleActionToken);
+		log.info("Completing life-cycle action with token {}", lifecycleActionToken);
 		return completeLifecycle(lifecycleActionToken, "CONTINUE")
 				.thenApply(v -> CompletableFuture.<Void>completedFuture(null))
 				.exceptionally(e -> {
-					log.error("Error in lifecycle event handling, abandoning lifecycle with token " + lifecycleActionToken + ": " + e);
+					log.error("Error in lifecycle event handling, abandoning lifecycle with token {}: {}", lifecycleActionToken, e.toString());
 					if (Objects.nonNull(lifecycleActionToken))
 						return completeLifecycle(lifecycleActionToken, "ABANDON");
 					log.warn("Skipping lifecycle completion because there's no token");
@@ -54,11 +84,11 @@ public class LifeCycle extends EventHandler {
 	 * @return life cycle action result
 	 */
 	private CompletableFuture<Void> completeLifecycle(String lifecycleActionToken, String result) {
-		return autoscaling().completeLifecycleAction(b -> b
+		return span.traceAsync("LifeCycle.completeLifecycle", () -> autoscaling().completeLifecycleAction(b -> b
 					.autoScalingGroupName(event.getAutoScalingGroupName())
 					.lifecycleHookName(event.getLifecycleHookName())
 					.lifecycleActionToken(lifecycleActionToken)
-					.lifecycleActionResult(result))
+					.lifecycleActionResult(result)))
 				.<Void>thenApply(res -> null)
 				.exceptionally(t -> {
 					if (t instanceof AutoScalingException && 
@@ -0,0 +1,34 @@
+package tech.greenfield.aws.route53.tools;
+
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Runs a training harness that is not part of the Lambda jar, for generating an AppCDS archive.
+ *
+ * The harness (for example {@code AppCdsTraining} from the test jar) is loaded from its own jar or directory by a
+ * child class loader, so that the JVM is started with just the Lambda jar in the class path - which is what the
+ * archive records, and what the Lambda runs with. The Lambda classes are still loaded, and archived, by the
+ * application class loader.
+ *
+ * Usage: {@code TrainingLauncher <harness-jar-or-dir> <main-class> [args...]}
+ */
+public class TrainingLauncher {
+
+	public static void main(String[] args) throws Throwable {
+		if (args.length < 2) {
+			System.err.println("Usage: TrainingLauncher <harness-jar-or-dir> <main-class> [args...]");
+			System.exit(2);
+		}
+		URL harness = Paths.get(args[0]).toUri().toURL();
+		try (URLClassLoader loader = new URLClassLoader(new URL[] { harness }, TrainingLauncher.class.getClassLoader())) {
+			Class<?> main = Class.forName(args[1], true, loader);
+			main.getMethod("main", String[].class).invoke(null, (Object) Arrays.copyOfRange(args, 2, args.length));
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+}
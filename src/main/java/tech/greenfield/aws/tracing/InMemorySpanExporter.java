@@ -0,0 +1,37 @@
+package tech.greenfield.aws.tracing;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+/**
+ * Exporter that keeps finished spans in memory, for tests
+ */
+public class InMemorySpanExporter implements SpanExporter {
+
+	private final List<Span> spans = new CopyOnWriteArrayList<>();
+
+	@Override
+	public void export(List<Span> finished) {
+		spans.addAll(finished);
+	}
+
+	/**
+	 * @return all the spans exported so far
+	 */
+	public List<Span> getFinishedSpans() {
+		return Collections.unmodifiableList(spans);
+	}
+
+	/**
+	 * @param name span name
+	 * @return exported spans with the specified name
+	 */
+	public List<Span> getFinishedSpans(String name) {
+		return spans.stream().filter(s -> s.name().equals(name)).collect(Collectors.toList());
+	}
+
+	public void reset() {
+		spans.clear();
+	}
+}
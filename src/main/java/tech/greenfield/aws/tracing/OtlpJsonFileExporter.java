@@ -0,0 +1,118 @@
+package tech.greenfield.aws.tracing;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Exporter that appends each trace to a file as an OpenTelemetry OTLP/JSON {@code ExportTraceServiceRequest},
+ * one per line - the format of the OpenTelemetry collector's file exporter, which its {@code otlpjsonfile}
+ * receiver (and other OTLP tools) can read.
+ */
+public class OtlpJsonFileExporter implements SpanExporter {
+
+	private static final Logger log = LoggerFactory.getLogger(OtlpJsonFileExporter.class.getName());
+	private static final JsonFactory factory = new JsonFactory();
+	private static final String SERVICE_NAME = "lambda-route53-updates";
+	private static final String SCOPE_NAME = "tech.greenfield.aws.tracing";
+
+	private final Path file;
+
+	public OtlpJsonFileExporter(Path file) {
+		this.file = file;
+	}
+
+	@Override
+	public void export(List<Span> spans) {
+		String line = render(spans) + "\n";
+		synchronized (this) {
+			try {
+				Files.write(file, line.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+			} catch (IOException e) {
+				log.warn("Failed to export {} spans to {}: {}", spans.size(), file, e.toString());
+			}
+		}
+	}
+
+	/**
+	 * @param spans spans to render
+	 * @return OTLP/JSON export request for the spans
+	 */
+	public static String render(List<Span> spans) {
+		StringWriter sw = new StringWriter(1024);
+		try (JsonGenerator gen = factory.createGenerator(sw)) {
+			gen.writeStartObject();
+			gen.writeArrayFieldStart("resourceSpans");
+			gen.writeStartObject();
+			gen.writeObjectFieldStart("resource");
+			gen.writeArrayFieldStart("attributes");
+			writeAttribute(gen, "service.name", SERVICE_NAME);
+			gen.writeEndArray();
+			gen.writeEndObject();
+			gen.writeArrayFieldStart("scopeSpans");
+			gen.writeStartObject();
+			gen.writeObjectFieldStart("scope");
+			gen.writeStringField("name", SCOPE_NAME);
+			gen.writeEndObject();
+			gen.writeArrayFieldStart("spans");
+			for (Span span : spans)
+				writeSpan(gen, span);
+			gen.writeEndArray();
+			gen.writeEndObject();
+			gen.writeEndArray();
+			gen.writeEndObject();
+			gen.writeEndArray();
+			gen.writeEndObject();
+		} catch (IOException e) { // can't really happen when writing to a string
+			return "{}";
+		}
+		return sw.toString();
+	}
+
+	private static void writeSpan(JsonGenerator gen, Span span) throws IOException {
+		gen.writeStartObject();
+		gen.writeStringField("traceId", span.traceId());
+		gen.writeStringField("spanId", span.spanId());
+		if (span.parentSpanId() != null)
+			gen.writeStringField("parentSpanId", span.parentSpanId());
+		gen.writeStringField("name", span.name());
+		gen.writeNumberField("kind", 1); // SPAN_KIND_INTERNAL
+		// 64 bit integers are strings in OTLP/JSON
+		gen.writeStringField("startTimeUnixNano", Long.toString(span.startEpochNanos()));
+		gen.writeStringField("endTimeUnixNano", Long.toString(span.endEpochNanos()));
+		gen.writeArrayFieldStart("attributes");
+		for (Map.Entry<String, Object> attr : span.attributes().entrySet())
+			writeAttribute(gen, attr.getKey(), attr.getValue());
+		gen.writeEndArray();
+		gen.writeObjectFieldStart("status");
+		gen.writeNumberField("code", span.status().ordinal());
+		if (span.statusMessage() != null)
+			gen.writeStringField("message", span.statusMessage());
+		gen.writeEndObject();
+		gen.writeEndObject();
+	}
+
+	private static void writeAttribute(JsonGenerator gen, String key, Object value) throws IOException {
+		gen.writeStartObject();
+		gen.writeStringField("key", key);
+		gen.writeObjectFieldStart("value");
+		if (value instanceof Boolean)
+			gen.writeBooleanField("boolValue", (Boolean) value);
+		else if (value instanceof Integer || value instanceof Long)
+			gen.writeStringField("intValue", value.toString());
+		else if (value instanceof Number)
+			gen.writeNumberField("doubleValue", ((Number) value).doubleValue());
+		else
+			gen.writeStringField("stringValue", String.valueOf(value));
+		gen.writeEndObject();
+		gen.writeEndObject();
+	}
+}
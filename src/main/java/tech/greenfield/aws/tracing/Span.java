@@ -0,0 +1,184 @@
+package tech.greenfield.aws.tracing;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * A timed operation in a trace. Spans are passed explicitly (rather than kept in a thread local), so that a
+ * parent span can be carried through {@link CompletableFuture} chains that hop between threads.
+ *
+ * Spans are thread safe: attributes can be set and children started from any thread.
+ */
+public class Span {
+
+	/** Span status, with the ordinals of the OpenTelemetry status codes */
+	public enum Status {
+		UNSET, OK, ERROR;
+	}
+
+	/**
+	 * An operation to trace
+	 */
+	@FunctionalInterface
+	public interface Traced<T, E extends Exception> {
+		T call() throws E;
+	}
+
+	private static final long EPOCH_BASE = System.currentTimeMillis() * 1000000L;
+	private static final long NANO_BASE = System.nanoTime();
+
+	private final Tracer.Trace trace;
+	private final String spanId;
+	private final String parentSpanId;
+	private final String name;
+	private final long start = now();
+	private volatile long end;
+	private final LinkedHashMap<String, Object> attributes = new LinkedHashMap<>();
+	private volatile Status status = Status.UNSET;
+	private volatile String statusMessage;
+
+	Span(Tracer.Trace trace, Span parent, String name) {
+		this.trace = trace;
+		this.parentSpanId = Objects.nonNull(parent) ? parent.spanId : null;
+		this.name = name;
+		spanId = String.format("%016x", ThreadLocalRandom.current().nextLong());
+	}
+
+	/**
+	 * Start a child span
+	 * @param name span name
+	 * @return a new span
+	 */
+	public Span child(String name) {
+		return new Span(trace, this, name);
+	}
+
+	/**
+	 * Start an asynchronous operation in a child span, that ends when the operation completes
+	 * @param name span name
+	 * @param operation operation to start
+	 * @return a future that will be completed with the operation's result, after the span ended
+	 */
+	public <T> CompletableFuture<T> traceAsync(String name, Supplier<CompletableFuture<T>> operation) {
+		Span span = child(name);
+		CompletableFuture<T> res;
+		try {
+			res = operation.get();
+		} catch (RuntimeException e) {
+			res = CompletableFuture.failedFuture(e);
+		}
+		return res.whenComplete((v,t) -> span.end(t));
+	}
+
+	/**
+	 * Run a blocking operation in a child span
+	 * @param name span name
+	 * @param operation operation to run
+	 * @return the operation's result
+	 */
+	public <T, E extends Exception> T trace(String name, Traced<T, E> operation) throws E {
+		Span span = child(name);
+		Throwable failure = null;
+		try {
+			return operation.call();
+		} catch (Throwable t) {
+			failure = t;
+			throw t;
+		} finally {
+			span.end(failure);
+		}
+	}
+
+	public synchronized Span setAttribute(String key, Object value) {
+		if (Objects.nonNull(value))
+			attributes.put(key, value);
+		return this;
+	}
+
+	/**
+	 * End the span successfully
+	 */
+	public void end() {
+		end(null);
+	}
+
+	/**
+	 * End the span
+	 * @param failure the error that ended the operation, or null if it completed successfully
+	 */
+	public void end(Throwable failure) {
+		if (end != 0)
+			return;
+		if (Objects.nonNull(failure)) {
+			if (failure instanceof CompletionException && Objects.nonNull(failure.getCause()))
+				failure = failure.getCause();
+			status = Status.ERROR;
+			statusMessage = failure.toString();
+		} else if (status == Status.UNSET)
+			status = Status.OK;
+		end = now();
+		trace.ended(this);
+	}
+
+	public String traceId() {
+		return trace.traceId;
+	}
+
+	public String spanId() {
+		return spanId;
+	}
+
+	/**
+	 * @return ID of the parent span, or null for the root span of the trace
+	 */
+	public String parentSpanId() {
+		return parentSpanId;
+	}
+
+	public String name() {
+		return name;
+	}
+
+	public long startEpochNanos() {
+		return start;
+	}
+
+	public long endEpochNanos() {
+		return end;
+	}
+
+	public boolean isEnded() {
+		return end != 0;
+	}
+
+	/**
+	 * @return span duration in milliseconds, or the time since it started if it didn't end
+	 */
+	public double durationMillis() {
+		return ((isEnded() ? end : now()) - start) / 1000000.0;
+	}
+
+	public synchronized Map<String, Object> attributes() {
+		return new LinkedHashMap<>(attributes);
+	}
+
+	public Status status() {
+		return status;
+	}
+
+	public String statusMessage() {
+		return statusMessage;
+	}
+
+	@Override
+	public String toString() {
+		return name + "[" + spanId + (Objects.nonNull(parentSpanId) ? " < " + parentSpanId : "") + "]";
+	}
+
+	private static long now() {
+		return EPOCH_BASE + (System.nanoTime() - NANO_BASE);
+	}
+}
@@ -0,0 +1,14 @@
+package tech.greenfield.aws.tracing;
+
+import java.util.List;
+
+/**
+ * Destination for finished spans. Spans are exported a trace at a time, when the trace's root span ends.
+ */
+@FunctionalInterface
+public interface SpanExporter {
+	/**
+	 * @param spans finished spans, all from the same trace
+	 */
+	void export(List<Span> spans);
+}
@@ -0,0 +1,80 @@
+package tech.greenfield.aws.tracing;
+
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Entry point for tracing: starts traces and holds the exporter that finished traces are sent to.
+ *
+ * The exporter is selected with the {@code TRACE_EXPORTER} environment variable: {@code otlp-file} appends
+ * traces in OTLP/JSON to the file set in {@code TRACE_FILE} (by default {@code /tmp/traces.json}). By
+ * default spans are recorded but not exported.
+ */
+public class Tracer {
+
+	private static final Logger log = LoggerFactory.getLogger(Tracer.class.getName());
+	private static volatile SpanExporter exporter = exporterFromEnvironment();
+
+	/**
+	 * The spans of a single trace, exported together when the root span ends
+	 */
+	static class Trace {
+		final String traceId = String.format("%016x%016x", ThreadLocalRandom.current().nextLong(),
+				ThreadLocalRandom.current().nextLong());
+		private final List<Span> finished = new ArrayList<>();
+		private Span root;
+
+		void ended(Span span) {
+			List<Span> spans;
+			synchronized (this) {
+				finished.add(span);
+				if (span != root && !root.isEnded())
+					return;
+				spans = new ArrayList<>(finished);
+				finished.clear();
+			}
+			SpanExporter current = exporter;
+			if (Objects.nonNull(current))
+				try {
+					current.export(spans);
+				} catch (RuntimeException e) {
+					log.warn("Failed to export spans: {}", e.toString());
+				}
+		}
+	}
+
+	/**
+	 * Start a new trace
+	 * @param name name of the root span
+	 * @return the root span of the trace
+	 */
+	public static Span startTrace(String name) {
+		Trace trace = new Trace();
+		synchronized (trace) {
+			trace.root = new Span(trace, null, name);
+		}
+		return trace.root;
+	}
+
+	/**
+	 * Replace the exporter
+	 * @param spanExporter exporter to send finished traces to, or null to stop exporting
+	 */
+	public static void setExporter(SpanExporter spanExporter) {
+		exporter = spanExporter;
+	}
+
+	private static SpanExporter exporterFromEnvironment() {
+		String type = System.getenv("TRACE_EXPORTER");
+		if (Objects.isNull(type) || type.isBlank() || type.equalsIgnoreCase("none"))
+			return null;
+		if (type.equalsIgnoreCase("otlp-file"))
+			return new OtlpJsonFileExporter(Paths.get(Objects.requireNonNullElse(System.getenv("TRACE_FILE"), "/tmp/traces.json")));
+		log.warn("Unknown trace exporter '{}', not exporting traces", type);
+		return null;
+	}
+}
@@ -0,0 +1,66 @@
+package net.gftc.aws.route53;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import software.amazon.awssdk.services.route53.model.*;
+import tech.greenfield.aws.route53.ChangeSet;
+
+public class ChangeSetTest {
+
+	private static final ChangeSet.Key A = new ChangeSet.Key("app.example.com", RRType.A, null);
+
+	private static ResourceRecordSet existing(String... values) {
+		return ResourceRecordSet.builder().name("app.example.com.").type(RRType.A).ttl(60L)
+				.resourceRecords(Arrays.stream(values).map(v -> ResourceRecord.builder().value(v).build())
+						.collect(Collectors.toList()))
+				.build();
+	}
+
+	private static Set<String> values(Change change) {
+		return change.resourceRecordSet().resourceRecords().stream().map(ResourceRecord::value).collect(Collectors.toSet());
+	}
+
+	@Test
+	public void mergesAddedValuesWithExisting() {
+		ChangeSet changes = new ChangeSet()
+				.add("app.example.com", RRType.A, 300, "10.0.0.2")
+				.add("app.example.com", RRType.A, 300, "10.0.0.3")
+				.add("app.example.com", RRType.A, 300, "10.0.0.2");
+		assertEquals(List.of(A), changes.keys());
+		List<Change> result = changes.existing(A, existing("10.0.0.1", "10.0.0.2")).toChanges();
+		assertEquals(1, result.size());
+		assertEquals(ChangeAction.UPSERT, result.get(0).action());
+		assertEquals(Set.of("10.0.0.1", "10.0.0.2", "10.0.0.3"), values(result.get(0)));
+		assertEquals(300, (long) result.get(0).resourceRecordSet().ttl());
+	}
+
+	@Test
+	public void removesValuesOrDeletesEmptiedRecordSet() {
+		List<Change> result = new ChangeSet().remove("app.example.com", RRType.A, "10.0.0.1")
+				.existing(A, existing("10.0.0.1", "10.0.0.2")).toChanges();
+		assertEquals(ChangeAction.UPSERT, result.get(0).action());
+		assertEquals(Set.of("10.0.0.2"), values(result.get(0)));
+		assertEquals(60, (long) result.get(0).resourceRecordSet().ttl());
+		result = new ChangeSet().remove("app.example.com", RRType.A, "10.0.0.1").existing(A, existing("10.0.0.1")).toChanges();
+		assertEquals(ChangeAction.DELETE, result.get(0).action());
+		assertEquals(existing("10.0.0.1"), result.get(0).resourceRecordSet());
+		assertTrue(new ChangeSet().remove("app.example.com", RRType.A, "10.0.0.3")
+				.existing(A, existing("10.0.0.1")).toChanges().isEmpty());
+		assertTrue(new ChangeSet().remove("app.example.com", RRType.A, "10.0.0.3").existing(A, null).toChanges().isEmpty());
+	}
+
+	@Test
+	public void laterChangesWinWhenMerging() {
+		ChangeSet launch = new ChangeSet().add("app.example.com", RRType.A, 300, "10.0.0.2");
+		ChangeSet terminate = new ChangeSet().remove("app.example.com", RRType.A, "10.0.0.2")
+				.remove("app.example.com", RRType.A, "10.0.0.1");
+		List<Change> result = launch.merge(terminate).existing(A, existing("10.0.0.1", "10.0.0.3")).toChanges();
+		assertEquals(ChangeAction.UPSERT, result.get(0).action());
+		assertEquals(Set.of("10.0.0.3"), values(result.get(0)));
+	}
+}
@@ -0,0 +1,140 @@
+package net.gftc.aws.route53;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import tech.greenfield.aws.Clients;
+import tech.greenfield.aws.fake.FakeAwsServer;
+import tech.greenfield.aws.metrics.Metrics;
+import tech.greenfield.aws.route53.EventBridgeEvent;
+import tech.greenfield.aws.route53.EventType;
+import tech.greenfield.aws.route53.NotifyRecordsEventBridge;
+import tech.greenfield.aws.route53.Route53Message;
+import tech.greenfield.aws.route53.Tools;
+
+public class EventBridgeHandlerTest {
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+	private FakeAwsServer aws;
+
+	@Before
+	public void setup() throws Exception {
+		System.setProperty("aws.accessKeyId", "AKIDFAKE");
+		System.setProperty("aws.secretAccessKey", "fake");
+		System.setProperty("aws.region", "us-east-1");
+		Metrics.setOutput(line -> {});
+		aws = new FakeAwsServer();
+		Clients.setEndpointOverride(aws.endpoint());
+	}
+
+	@After
+	public void teardown() {
+		Clients.setEndpointOverride(null);
+		Metrics.setOutput(null);
+		aws.close();
+	}
+
+	private static JsonNode invoke(String input) throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		new NotifyRecordsEventBridge().handleRequest(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)),
+				output, null);
+		return mapper.readTree(output.toByteArray());
+	}
+
+	private static String event(String fixture, String instanceId) throws Exception {
+		return Tools.readResource("eventbridge/" + fixture).replace("i-00000000000000000", instanceId);
+	}
+
+	/**
+	 * @return an SQS event with a message for each EventBridge event, with message IDs m1, m2...
+	 */
+	private static String sqsEvent(List<String> events) throws Exception {
+		List<String> records = new ArrayList<>();
+		for (String event : events)
+			records.add("{\"messageId\":\"m" + (records.size() + 1) + "\",\"eventSource\":\"aws:sqs\",\"body\":" +
+					mapper.writeValueAsString(event) + "}");
+		return "{\"Records\":[" + String.join(",", records) + "]}";
+	}
+
+	@Test
+	public void mapsEventsToNotifications() throws Exception {
+		assertEquals(EventType.EC2_INSTANCE_LAUNCH, new Route53Message(mapper.readValue(
+				Tools.readResource("eventbridge/instance-launch.json"), EventBridgeEvent.class), false).getEventType());
+		Route53Message lifecycle = new Route53Message(mapper.readValue(
+				Tools.readResource("eventbridge/lifecycle-terminating.json"), EventBridgeEvent.class), false);
+		assertEquals(EventType.EC2_INSTANCE_TERMINATE, lifecycle.getEventType());
+		assertEquals("i-00000000000000000", lifecycle.getEC2InstanceId());
+		assertEquals("11111111-1111-1111-1111-111111111111", lifecycle.getLifecycleNotification().getLifecycleActionToken());
+		assertFalse(mapper.readValue(Tools.readResource("eventbridge/instance-refresh-started.json"),
+				EventBridgeEvent.class).isSupported());
+	}
+
+	@Test
+	public void handlesLifecycleActionEvents() throws Exception {
+		JsonNode response = invoke(Tools.readResource("eventbridge/lifecycle-launching.json"));
+		assertTrue(response.toString(), response.get("status").asBoolean());
+		assertFalse("not a batch", response.has("batchItemFailures"));
+		assertEquals(1, aws.route53().recordSet("priming.example.com", "A").values.size());
+		assertNotNull(aws.route53().recordSet("_sip._udp.priming.example.com", "SRV"));
+		assertEquals("CONTINUE", aws.autoscaling().completion("00000000-0000-0000-0000-000000000000").result);
+
+		invoke(Tools.readResource("eventbridge/lifecycle-terminating.json"));
+		assertNull(aws.route53().recordSet("priming.example.com", "A"));
+		assertEquals("CONTINUE", aws.autoscaling().completion("11111111-1111-1111-1111-111111111111").result);
+	}
+
+	@Test
+	public void ignoresUnsupportedEvents() throws Exception {
+		JsonNode response = invoke(Tools.readResource("eventbridge/instance-refresh-started.json"));
+		assertTrue(response.get("status").asBoolean());
+		assertTrue(aws.requestCounts().isEmpty());
+	}
+
+	@Test
+	public void aggregatesBatchOfQueuedEvents() throws Exception {
+		List<String> events = new ArrayList<>();
+		for (int i = 1; i <= 5; i++)
+			events.add(event("lifecycle-launching.json", "i-0000000000000000" + i));
+		events.add(Tools.readResource("eventbridge/instance-refresh-started.json"));
+		JsonNode response = invoke(sqsEvent(events));
+		assertTrue(response.get("status").asBoolean());
+		assertEquals(0, response.get("batchItemFailures").size());
+		assertEquals(5, aws.route53().recordSet("priming.example.com", "A").values.size());
+		assertEquals(2, (long) aws.requestCounts().get("Route53.ChangeResourceRecordSets")); // one per record name
+		assertEquals(1, (long) aws.requestCounts().get("EC2.DescribeInstances"));
+		assertEquals(5, aws.autoscaling().completedActions().size());
+	}
+
+	@Test
+	public void handlesArrayOfEvents() throws Exception {
+		JsonNode response = invoke("[" + event("lifecycle-launching.json", "i-00000000000000001") + "," +
+				event("lifecycle-launching.json", "i-00000000000000002") + "]");
+		assertTrue(response.get("status").asBoolean());
+		assertEquals(2, aws.route53().recordSet("priming.example.com", "A").values.size());
+		assertEquals(2, aws.autoscaling().completedActions().size());
+	}
+
+	@Test
+	public void reportsThrottledQueuedEventsAsBatchItemFailures() throws Exception {
+		aws.route53().setRateLimit(0.001); // throttle every request
+		JsonNode response = invoke(sqsEvent(List.of(event("lifecycle-launching.json", "i-00000000000000001"),
+				event("lifecycle-launching.json", "i-00000000000000002"))));
+		assertTrue(response.get("status").asBoolean());
+		List<String> failed = new ArrayList<>();
+		response.get("batchItemFailures").forEach(f -> failed.add(f.get("itemIdentifier").asText()));
+		assertEquals(List.of("m1", "m2"), failed);
+		assertTrue(aws.autoscaling().completedActions().isEmpty());
+	}
+}
@@ -0,0 +1,319 @@
+package net.gftc.aws.route53;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.events.SNSEvent;
+
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.sqs.model.Message;
+import tech.greenfield.aws.Clients;
+import tech.greenfield.aws.capture.EventCapture;
+import tech.greenfield.aws.fake.FakeAwsServer;
+import tech.greenfield.aws.fake.FakeEc2;
+import tech.greenfield.aws.lease.InMemoryLeaseStore;
+import tech.greenfield.aws.lease.LeaseStore;
+import tech.greenfield.aws.metrics.ApiMetrics;
+import tech.greenfield.aws.metrics.Metrics;
+import tech.greenfield.aws.route53.NotifyRecordsSns;
+import tech.greenfield.aws.route53.NotifyRecordsSqs;
+import tech.greenfield.aws.route53.RetryLaterException;
+import tech.greenfield.aws.route53.Route53Message;
+import tech.greenfield.aws.route53.Tools;
+
+public class FakeAwsTest {
+
+	private FakeAwsServer aws;
+
+	@Before
+	public void setup() throws Exception {
+		System.setProperty("aws.accessKeyId", "AKIDFAKE");
+		System.setProperty("aws.secretAccessKey", "fake");
+		System.setProperty("aws.region", "us-east-1");
+		Metrics.setOutput(line -> {});
+		ApiMetrics.get().reset();
+		aws = new FakeAwsServer();
+		Clients.setEndpointOverride(aws.endpoint());
+	}
+
+	@After
+	public void teardown() {
+		Clients.setEndpointOverride(null);
+		NotifyRecordsSqs.setQueueUrl(null);
+		NotifyRecordsSqs.setAggregationWindow(Duration.ZERO);
+		LeaseStore.set(null);
+		Metrics.setOutput(null);
+		aws.close();
+	}
+
+	@Test
+	public void throttlesRoute53OverRateLimit() {
+		aws.route53().setRateLimit(2);
+		for (int i = 0; i < 6; i++)
+			try {
+				Clients.route53Sync().listResourceRecordSets(b -> b.hostedZoneId(Route53Message.getHostedZoneId()));
+			} catch (SdkException e) {
+				assertTrue(e.getMessage(), e.getMessage().contains("Rate exceeded"));
+			}
+		assertTrue(aws.throttleCounts().getOrDefault("Route53.ListResourceRecordSets", 0L) > 0);
+		assertTrue(aws.requestCounts().get("Route53.ListResourceRecordSets") >= 6);
+		// the SDK's view of the same calls
+		ApiMetrics.OperationStats stats = ApiMetrics.get().snapshot().get("Route53.ListResourceRecordSets");
+		assertEquals((long) aws.requestCounts().get("Route53.ListResourceRecordSets"), stats.attempts);
+		assertEquals((long) aws.throttleCounts().get("Route53.ListResourceRecordSets"), stats.throttles);
+	}
+
+	@Test
+	public void sqsHandlerReadsFromFakeQueue() throws Exception {
+		String queue = aws.sqs().createQueue("updates");
+		aws.sqs().send(queue, Tools.readResource("priming/lifecycle-launching.json"));
+		NotifyRecordsSqs.setQueueUrl(queue);
+		assertTrue(new NotifyRecordsSqs().handleRequest(new SNSEvent(), null).getStatus());
+		assertNotNull(aws.route53().recordSet("priming.example.com", "A"));
+		assertEquals(1, aws.autoscaling().completedActions().size());
+		assertTrue(aws.autoscaling().completedActions().get(0).endsWith(":CONTINUE"));
+		assertEquals(1, (long) aws.requestCounts().get("SQS.ReceiveMessage"));
+	}
+
+	@Test
+	public void sqsHandlerAggregatesBurstOfEvents() throws Exception {
+		String queue = aws.sqs().createQueue("updates");
+		for (int i = 1; i <= 5; i++)
+			aws.sqs().send(queue, Tools.readResource("priming/lifecycle-launching.json")
+					.replace("i-00000000000000000", "i-0000000000000000" + i));
+		NotifyRecordsSqs.setQueueUrl(queue);
+		NotifyRecordsSqs.setAggregationWindow(Duration.ofSeconds(1));
+		assertTrue(new NotifyRecordsSqs().handleRequest(new SNSEvent(), null).getStatus());
+		assertEquals(5, aws.route53().recordSet("priming.example.com", "A").values.size());
+		assertEquals(5, aws.route53().recordSet("_sip._udp.priming.example.com", "SRV").values.size());
+		assertEquals(2, (long) aws.requestCounts().get("Route53.ChangeResourceRecordSets")); // one per record name
+		assertEquals(1, (long) aws.requestCounts().get("EC2.DescribeInstances"));
+		assertEquals(5, aws.autoscaling().completedActions().size());
+		assertTrue(aws.autoscaling().completedActions().stream().allMatch(a -> a.endsWith(":CONTINUE")));
+		assertEquals(0, aws.sqs().size(queue));
+	}
+
+	@Test
+	public void sqsHandlerCheckpointsPendingEventBeforeTimeout() throws Exception {
+		String queue = aws.sqs().createQueue("updates");
+		aws.sqs().send(queue, Tools.readResource("priming/lifecycle-launching.json"));
+		NotifyRecordsSqs.setQueueUrl(queue);
+		aws.route53().setPropagationDelay(Duration.ofSeconds(8));
+		long start = System.currentTimeMillis();
+		// the default 10 seconds reserve leaves 3 seconds to handle the event
+		assertTrue(new NotifyRecordsSqs().handleRequest(new SNSEvent(), new TestContext(13000)).getStatus());
+		assertTrue(System.currentTimeMillis() - start < 5000);
+		assertEquals(1, aws.route53().recordSet("priming.example.com", "A").values.size()); // submitted
+		assertTrue("not completed before the change was applied", aws.autoscaling().completedActions().isEmpty());
+		assertEquals(1, aws.sqs().size(queue));
+
+		aws.sqs().expireDelays(queue);
+		assertTrue(new NotifyRecordsSqs().handleRequest(new SNSEvent(), null).getStatus());
+		assertTrue(System.currentTimeMillis() - start >= 8000); // waited for the pending change
+		assertEquals(1, aws.autoscaling().completedActions().size());
+		assertEquals(0, aws.sqs().size(queue));
+	}
+
+	@Test
+	public void sqsHandlerRequeuesThrottledEvents() throws Exception {
+		String queue = aws.sqs().createQueue("updates");
+		for (int i = 1; i <= 2; i++)
+			aws.sqs().send(queue, Tools.readResource("priming/lifecycle-launching.json")
+					.replace("i-00000000000000000", "i-0000000000000000" + i));
+		NotifyRecordsSqs.setQueueUrl(queue);
+		aws.route53().setRateLimit(0.001); // throttle every request
+		assertTrue(new NotifyRecordsSqs().handleRequest(new SNSEvent(), null).getStatus());
+		assertTrue(aws.autoscaling().completedActions().isEmpty());
+		assertEquals(2, aws.sqs().size(queue));
+
+		aws.sqs().expireDelays(queue);
+		List<Message> requeued = Clients.sqsSync().receiveMessage(b -> b.queueUrl(queue).maxNumberOfMessages(10)
+				.messageAttributeNames("Attempt")).messages();
+		assertEquals(2, requeued.size());
+		for (Message message : requeued)
+			assertEquals("1", message.messageAttributes().get("Attempt").stringValue());
+
+		aws.sqs().expireDelays(queue);
+		aws.route53().setRateLimit(0);
+		assertTrue(new NotifyRecordsSqs().handleRequest(new SNSEvent(), null).getStatus());
+		assertEquals(2, aws.route53().recordSet("priming.example.com", "A").values.size());
+		assertEquals(2, aws.autoscaling().completedActions().size());
+		assertEquals(0, aws.sqs().size(queue));
+	}
+
+	@Test
+	public void sqsHandlerRequeuesThrottledPrune() throws Exception {
+		aws.ec2().add(new FakeEc2.Instance("i-00000000000000000", null, null, null)); // lost its addresses
+		aws.ec2().add(new FakeEc2.Instance("i-00000000000000001", "198.51.100.1", "10.0.0.1", null));
+		aws.autoscaling().addInstance("priming", "i-00000000000000000");
+		aws.autoscaling().addInstance("priming", "i-00000000000000001");
+		String queue = aws.sqs().createQueue("updates");
+		aws.sqs().send(queue, Tools.readResource("priming/lifecycle-launching.json")
+				.replace("EC2_INSTANCE_LAUNCHING", "EC2_INSTANCE_TERMINATING"));
+		NotifyRecordsSqs.setQueueUrl(queue);
+		aws.route53().setRateLimit(0.001); // throttle every request
+		assertTrue(new NotifyRecordsSqs().handleRequest(new SNSEvent(), null).getStatus());
+		assertTrue(aws.throttleCounts().getOrDefault("Route53.ListResourceRecordSets", 0L) > 0);
+		assertEquals("requeued", 1, aws.sqs().size(queue));
+
+		aws.sqs().expireDelays(queue);
+		aws.route53().setRateLimit(0);
+		assertTrue(new NotifyRecordsSqs().handleRequest(new SNSEvent(), null).getStatus());
+		assertEquals(List.of("198.51.100.1"), aws.route53().recordSet("priming.example.com", "A").values);
+		assertEquals(0, aws.sqs().size(queue));
+	}
+
+	@Test
+	public void sqsHandlerRequeuesEventWaitingForLease() throws Exception {
+		LeaseStore.set(new InMemoryLeaseStore());
+		aws.route53().setPropagationDelay(Duration.ofSeconds(6));
+		String launching = Tools.readResource("priming/lifecycle-launching.json");
+		Thread first = new Thread(() -> new NotifyRecordsSns().handleRequest(new SNSEvent().withRecords(List.of(
+				new SNSEvent.SNSRecord().withSns(new SNSEvent.SNS().withMessage(launching)))), null));
+		first.start();
+		while (Objects.isNull(aws.route53().recordSet("priming.example.com", "A"))) // holds the lease until in sync
+			Thread.sleep(50);
+		String queue = aws.sqs().createQueue("updates");
+		aws.sqs().send(queue, launching.replace("i-00000000000000000", "i-00000000000000001")
+				.replace("00000000-0000-0000-0000-000000000000", "11111111-1111-1111-1111-111111111111"));
+		NotifyRecordsSqs.setQueueUrl(queue);
+		// the default 10 seconds reserve leaves 3 seconds to wait for the lease
+		assertTrue(new NotifyRecordsSqs().handleRequest(new SNSEvent(), new TestContext(13000)).getStatus());
+		assertEquals("requeued", 1, aws.sqs().size(queue));
+		assertEquals(1, aws.route53().recordSet("priming.example.com", "A").values.size());
+
+		first.join();
+		aws.sqs().expireDelays(queue);
+		assertTrue(new NotifyRecordsSqs().handleRequest(new SNSEvent(), null).getStatus());
+		assertEquals(2, aws.route53().recordSet("priming.example.com", "A").values.size());
+		assertEquals(2, aws.autoscaling().completedActions().size());
+		assertEquals(0, aws.sqs().size(queue));
+	}
+
+	@Test
+	public void snsHandlerFailsInvocationWithUnfinishedEvent() throws Exception {
+		aws.route53().setPropagationDelay(Duration.ofSeconds(8));
+		SNSEvent event = new SNSEvent().withRecords(List.of(new SNSEvent.SNSRecord().withSns(new SNSEvent.SNS()
+				.withMessage(Tools.readResource("priming/lifecycle-launching.json")))));
+		try {
+			new NotifyRecordsSns().handleRequest(event, new TestContext(13000));
+			fail("Expected the invocation to fail, so that Lambda retries it");
+		} catch (RetryLaterException e) {
+			assertNotNull(e.getPendingChangeId());
+		}
+		assertTrue("not completed before the change was applied", aws.autoscaling().completedActions().isEmpty());
+
+		assertTrue(new NotifyRecordsSns().handleRequest(event, null).getStatus());
+		assertEquals(1, aws.autoscaling().completedActions().size());
+	}
+
+	@Test
+	public void handlersCaptureReceivedNotifications() throws Exception {
+		Path file = Files.createTempFile("capture", ".jsonl");
+		EventCapture.set(new EventCapture(file));
+		try {
+			String notification = Tools.readResource("priming/lifecycle-launching.json");
+			new NotifyRecordsSns().handleRequest(new SNSEvent().withRecords(List.of(new SNSEvent.SNSRecord()
+					.withSns(new SNSEvent.SNS().withMessageId("sns-1").withMessage(notification)))), null);
+			String queue = aws.sqs().createQueue("updates");
+			aws.sqs().send(queue, notification.replace("i-00000000000000000", "i-00000000000000001"));
+			NotifyRecordsSqs.setQueueUrl(queue);
+			aws.route53().setRateLimit(0.001); // throttled and requeued, but only captured once
+			new NotifyRecordsSqs().handleRequest(new SNSEvent(), null);
+			aws.route53().setRateLimit(0);
+			aws.sqs().expireDelays(queue);
+			new NotifyRecordsSqs().handleRequest(new SNSEvent(), null);
+			assertEquals(0, aws.sqs().size(queue));
+
+			List<EventCapture.Entry> captured = EventCapture.read(List.of(file));
+			assertEquals(2, captured.size());
+			assertEquals(EventCapture.Source.SNS, captured.get(0).source);
+			assertEquals("sns-1", captured.get(0).id);
+			assertEquals(notification, captured.get(0).body);
+			assertEquals(EventCapture.Source.SQS, captured.get(1).source);
+			assertTrue(captured.get(1).body.contains("i-00000000000000001"));
+			assertTrue(captured.get(0).time <= captured.get(1).time);
+		} finally {
+			EventCapture.set(null);
+		}
+	}
+
+	/**
+	 * Invocation context with a fixed timeout
+	 */
+	private static class TestContext implements Context {
+		private final long timeout;
+
+		TestContext(long millis) {
+			timeout = System.currentTimeMillis() + millis;
+		}
+
+		@Override
+		public String getAwsRequestId() {
+			return "test";
+		}
+
+		@Override
+		public String getLogGroupName() {
+			return "test";
+		}
+
+		@Override
+		public String getLogStreamName() {
+			return "test";
+		}
+
+		@Override
+		public String getFunctionName() {
+			return "test";
+		}
+
+		@Override
+		public String getFunctionVersion() {
+			return "$LATEST";
+		}
+
+		@Override
+		public String getInvokedFunctionArn() {
+			return "arn:aws:lambda:us-east-1:000000000000:function:test";
+		}
+
+		@Override
+		public CognitoIdentity getIdentity() {
+			return null;
+		}
+
+		@Override
+		public ClientContext getClientContext() {
+			return null;
+		}
+
+		@Override
+		public int getRemainingTimeInMillis() {
+			return (int) Math.max(0, timeout - System.currentTimeMillis());
+		}
+
+		@Override
+		public int getMemoryLimitInMB() {
+			return 512;
+		}
+
+		@Override
+		public LambdaLogger getLogger() {
+			return null;
+		}
+	}
+}
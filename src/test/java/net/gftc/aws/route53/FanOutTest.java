@@ -0,0 +1,71 @@
+package net.gftc.aws.route53;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import tech.greenfield.aws.Scheduler;
+import tech.greenfield.aws.route53.FanOut;
+
+public class FanOutTest {
+
+	@Test
+	public void preservesOrderUnderConcurrentCompletion() throws Exception {
+		Random random = new Random(42);
+		List<Integer> inputs = IntStream.range(0, 500).boxed().collect(Collectors.toList());
+		List<Integer> res = inputs.stream()
+				.collect(FanOut.mapping(i -> CompletableFuture.supplyAsync(() -> i * 2,
+						CompletableFuture.delayedExecutor(random.nextInt(5), TimeUnit.MILLISECONDS)), 50))
+				.get(10, TimeUnit.SECONDS);
+		assertEquals(inputs.stream().map(i -> i * 2).collect(Collectors.toList()), res);
+	}
+
+	@Test
+	public void limitsInFlightOperations() throws Exception {
+		AtomicInteger inFlight = new AtomicInteger(), maxSeen = new AtomicInteger();
+		List<Integer> res = IntStream.range(0, 40).boxed()
+				.collect(FanOut.mapping(i -> {
+					maxSeen.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+					return Scheduler.delay(5).thenApply(v -> {
+						inFlight.decrementAndGet();
+						return i;
+					});
+				}, 3))
+				.get(10, TimeUnit.SECONDS);
+		assertEquals(40, res.size());
+		assertTrue("max in flight " + maxSeen.get(), maxSeen.get() <= 3);
+	}
+
+	@Test
+	public void completedFuturesDontRecurse() throws Exception {
+		List<Integer> res = IntStream.range(0, 100000).boxed()
+				.collect(FanOut.mapping(CompletableFuture::completedFuture, 1))
+				.get(10, TimeUnit.SECONDS);
+		assertEquals(100000, res.size());
+		assertEquals(Integer.valueOf(99999), res.get(99999));
+	}
+
+	@Test
+	public void failsOnFirstFailure() throws Exception {
+		CompletableFuture<List<Object>> res = Arrays.asList(CompletableFuture.completedFuture((Object) "ok"),
+				CompletableFuture.failedFuture(new IllegalStateException("boom")), new CompletableFuture<>())
+				.stream().collect(FanOut.toList());
+		try {
+			res.get(1, TimeUnit.SECONDS);
+			fail("expected failure");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	@Test
+	public void emptyInput() throws Exception {
+		assertTrue(Collections.<CompletableFuture<String>>emptyList().stream().collect(FanOut.toList()).get().isEmpty());
+	}
+}
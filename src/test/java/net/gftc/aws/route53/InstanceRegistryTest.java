@@ -0,0 +1,55 @@
+package net.gftc.aws.route53;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.InstanceIpv6Address;
+import software.amazon.awssdk.services.ec2.model.InstanceNetworkInterface;
+import tech.greenfield.aws.registry.*;
+
+public class InstanceRegistryTest {
+
+	private static Instance instance(String id, String publicIp) {
+		return Instance.builder().instanceId(id).publicIpAddress(publicIp).privateIpAddress("10.0.0.1")
+				.networkInterfaces(InstanceNetworkInterface.builder()
+						.ipv6Addresses(InstanceIpv6Address.builder().ipv6Address("2001:db8::1").build()).build())
+				.build();
+	}
+
+	@Test
+	public void evictedInstancesAreReadFromTheStore() throws Exception {
+		Path dir = Files.createTempDirectory("instances");
+		FileAddressStore store = new FileAddressStore(dir);
+		InstanceRegistry registry = new InstanceRegistry(store, 1);
+		registry.register(instance("i-1", "192.0.2.1"));
+		registry.register(instance("i-2", "192.0.2.2"));
+		assertNull("not written before flushing", store.get("i-1").get());
+		registry.flush().get();
+
+		Instance i = registry.lookup("i-1").get(); // evicted from memory by i-2
+		assertEquals("192.0.2.1", i.publicIpAddress());
+		assertEquals("10.0.0.1", i.privateIpAddress());
+		assertEquals("2001:db8::1", i.networkInterfaces().get(0).ipv6Addresses().get(0).ipv6Address());
+
+		InstanceRegistry restarted = new InstanceRegistry(store, 10);
+		assertEquals("192.0.2.2", restarted.lookup("i-2").get().publicIpAddress());
+		assertNull(restarted.lookup("i-3").get());
+	}
+
+	@Test
+	public void deregisteredInstancesAreForgotten() throws Exception {
+		FileAddressStore store = new FileAddressStore(Files.createTempDirectory("instances"));
+		InstanceRegistry registry = new InstanceRegistry(store, 10);
+		registry.register(instance("i-1", "192.0.2.1"));
+		registry.flush().get();
+		registry.deregister("i-1");
+		assertNull("pending deregistration hides the stored addresses", registry.lookup("i-1").get());
+		registry.flush().get();
+		assertNull(store.get("i-1").get());
+	}
+}
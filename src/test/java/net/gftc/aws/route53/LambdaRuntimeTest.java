@@ -0,0 +1,88 @@
+package net.gftc.aws.route53;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import tech.greenfield.aws.Clients;
+import tech.greenfield.aws.fake.FakeAwsServer;
+import tech.greenfield.aws.route53.LambdaRuntime;
+import tech.greenfield.aws.route53.NotifyRecordsEventBridge;
+import tech.greenfield.aws.route53.NotifyRecordsSns;
+import tech.greenfield.aws.route53.Tools;
+
+public class LambdaRuntimeTest {
+
+	private FakeAwsServer aws;
+	private RuntimeApiEmulator api;
+	private LambdaRuntime runtime;
+
+	@Before
+	public void setup() throws Exception {
+		System.setProperty("aws.accessKeyId", "AKIDFAKE");
+		System.setProperty("aws.secretAccessKey", "fake");
+		System.setProperty("aws.region", "us-east-1");
+		aws = new FakeAwsServer();
+		Clients.setEndpointOverride(aws.endpoint());
+		api = new RuntimeApiEmulator();
+		runtime = new LambdaRuntime(api.address(), new NotifyRecordsSns());
+	}
+
+	@After
+	public void teardown() {
+		Clients.setEndpointOverride(null);
+		api.close();
+		aws.close();
+	}
+
+	static String snsEvent(String message) throws Exception {
+		return "{\"Records\":[{\"EventSource\":\"aws:sns\",\"EventVersion\":\"1.0\",\"Sns\":{\"Type\":\"Notification\","
+				+ "\"Timestamp\":\"2016-12-18T16:19:23.580Z\",\"SigningCertUrl\":\"https://example.com\","
+				+ "\"Message\":" + new ObjectMapper().writeValueAsString(message) + "}}]}";
+	}
+
+	@Test
+	public void handlesLifecycleEvent() throws Exception {
+		CompletableFuture<String> result = api.invoke(snsEvent(Tools.readResource("priming/lifecycle-launching.json")));
+		assertTrue(runtime.processNext());
+		String response = result.get(1, TimeUnit.SECONDS);
+		assertTrue(response, response.contains("\"status\":true"));
+		assertFalse(aws.route53().recordSets().isEmpty());
+	}
+
+	@Test
+	public void handlesEventBridgeEvent() throws Exception {
+		LambdaRuntime eventBridge = new LambdaRuntime(api.address(), new NotifyRecordsEventBridge());
+		CompletableFuture<String> result = api.invoke(Tools.readResource("eventbridge/lifecycle-launching.json"));
+		assertTrue(eventBridge.processNext());
+		String response = result.get(1, TimeUnit.SECONDS);
+		assertTrue(response, response.contains("\"status\":true"));
+		assertFalse(aws.route53().recordSets().isEmpty());
+	}
+
+	@Test
+	public void reportsInvalidEvent() throws Exception {
+		CompletableFuture<String> result = api.invoke("not json");
+		assertFalse(runtime.processNext());
+		try {
+			result.get(1, TimeUnit.SECONDS);
+			fail("Expected invocation error");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RuntimeApiEmulator.InvocationError);
+		}
+	}
+
+	@Test
+	public void failsWhenRuntimeApiIsUnreachable() throws Exception {
+		api.close();
+		assertFalse(runtime.processNext());
+	}
+}
@@ -0,0 +1,92 @@
+package net.gftc.aws.route53;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import software.amazon.awssdk.services.dynamodb.model.*;
+import tech.greenfield.aws.Clients;
+import tech.greenfield.aws.lease.*;
+
+public class LeaseStoreTest {
+
+	private static final Duration TTL = Duration.ofSeconds(30);
+
+	private static void checkExclusiveLeases(LeaseStore store, String key) throws Exception {
+		Lease first = store.tryAcquire(key, TTL).get();
+		assertNotNull(first);
+		assertTrue(first.isValid());
+		assertNull("lease is exclusive", store.tryAcquire(key, TTL).get());
+		store.release(first).get();
+		Lease second = store.tryAcquire(key, TTL).get();
+		assertNotNull(second);
+		assertNotEquals("each lease has its own owner", first.getOwner(), second.getOwner());
+		store.release(first).get(); // stale release is ignored
+		assertNull(store.tryAcquire(key, TTL).get());
+		store.release(second).get();
+		Lease expiring = store.tryAcquire(key, Duration.ofMillis(200)).get();
+		assertFalse("within the safety margin", expiring.isValid());
+		Thread.sleep(300);
+		assertNotNull("expired lease can be taken", store.tryAcquire(key, TTL).get());
+	}
+
+	private static void checkWaitsForRelease(LeaseStore store, String key) throws Exception {
+		List<Lease> held = store.acquireAll(List.of(key + "/b", key + "/a"), TTL, TTL).get();
+		assertEquals(2, held.size());
+		assertEquals("acquired in order", key + "/a", held.get(0).getKey());
+		CompletableFuture<Lease> waiting = store.acquire(key + "/b", TTL, TTL);
+		Thread.sleep(300);
+		assertFalse(waiting.isDone());
+		store.releaseAll(held).get();
+		assertNotNull(waiting.get(5, TimeUnit.SECONDS));
+		try {
+			store.acquire(key + "/b", TTL, Duration.ofMillis(300)).get();
+			fail("lease should not be available");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof LeaseUnavailableException);
+		}
+	}
+
+	@Test
+	public void inMemoryLeases() throws Exception {
+		checkExclusiveLeases(new InMemoryLeaseStore(), "zone/app.example.com.");
+		checkWaitsForRelease(new InMemoryLeaseStore(), "zone/app.example.com.");
+	}
+
+	@Test
+	public void fileLeases() throws Exception {
+		checkExclusiveLeases(new FileLeaseStore(Files.createTempDirectory("leases")), "zone/app.example.com.");
+		checkWaitsForRelease(new FileLeaseStore(Files.createTempDirectory("leases")), "zone/app.example.com.");
+	}
+
+	/**
+	 * Runs against DynamoDB Local, if its endpoint is set in the DYNAMODB_ENDPOINT environment variable
+	 */
+	@Test
+	public void dynamoDbLeases() throws Exception {
+		Assume.assumeTrue(Objects.nonNull(System.getenv("DYNAMODB_ENDPOINT")));
+		System.setProperty("aws.accessKeyId", "AKIDFAKE");
+		System.setProperty("aws.secretAccessKey", "fake");
+		System.setProperty("aws.region", "us-east-1");
+		String table = "leases-" + System.currentTimeMillis();
+		Clients.dynamodb().createTable(b -> b.tableName(table).billingMode(BillingMode.PAY_PER_REQUEST)
+				.attributeDefinitions(AttributeDefinition.builder().attributeName("LeaseKey")
+						.attributeType(ScalarAttributeType.S).build())
+				.keySchema(KeySchemaElement.builder().attributeName("LeaseKey").keyType(KeyType.HASH).build())).get();
+		try {
+			checkExclusiveLeases(new DynamoDbLeaseStore(table), "zone/app.example.com.");
+			checkWaitsForRelease(new DynamoDbLeaseStore(table), "zone/app.example.com.");
+		} finally {
+			Clients.dynamodb().deleteTable(b -> b.tableName(table)).get();
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package net.gftc.aws.route53;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.amazonaws.services.lambda.runtime.events.SNSEvent;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import tech.greenfield.aws.Clients;
+import tech.greenfield.aws.fake.FakeAwsServer;
+import tech.greenfield.aws.metrics.ApiMetrics;
+import tech.greenfield.aws.metrics.Metrics;
+import tech.greenfield.aws.route53.NotifyRecordsSns;
+import tech.greenfield.aws.route53.Tools;
+
+public class MetricsTest {
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	@After
+	public void teardown() {
+		Metrics.setOutput(null);
+	}
+
+	@Test
+	public void rendersEmbeddedMetricFormat() throws Exception {
+		Metrics metrics = new Metrics().dimension("EventType", "EC2_INSTANCE_LAUNCH").dimension("AutoScalingGroup", null);
+		metrics.put("Latency", 3, Metrics.Unit.Milliseconds);
+		metrics.put("Latency", 5, Metrics.Unit.Milliseconds);
+		metrics.count("Throttles");
+		metrics.count("Throttles", 2);
+		JsonNode emf = mapper.readTree(metrics.render(1000));
+		JsonNode directive = emf.get("_aws").get("CloudWatchMetrics").get(0);
+		assertEquals(1000, emf.get("_aws").get("Timestamp").asLong());
+		assertEquals("[[\"EventType\",\"AutoScalingGroup\"]]", directive.get("Dimensions").toString());
+		assertEquals("Milliseconds", directive.get("Metrics").get(0).get("Unit").asText());
+		assertEquals("none", emf.get("AutoScalingGroup").asText());
+		assertEquals("[3.0,5.0]", emf.get("Latency").toString());
+		assertEquals(3, emf.get("Throttles").asInt());
+	}
+
+	@Test
+	public void emitsEventAndInvocationMetrics() throws Exception {
+		System.setProperty("aws.accessKeyId", "AKIDFAKE");
+		System.setProperty("aws.secretAccessKey", "fake");
+		System.setProperty("aws.region", "us-east-1");
+		List<String> lines = new CopyOnWriteArrayList<>();
+		Metrics.setOutput(lines::add);
+		try (FakeAwsServer aws = new FakeAwsServer()) {
+			Clients.setEndpointOverride(aws.endpoint());
+			SNSEvent event = new SNSEvent().withRecords(List.of(new SNSEvent.SNSRecord()
+					.withSns(new SNSEvent.SNS().withMessage(Tools.readResource("priming/lifecycle-launching.json")))));
+			assertTrue(new NotifyRecordsSns().handleRequest(event, null).getStatus());
+		} finally {
+			Clients.setEndpointOverride(null);
+		}
+		assertEquals(2, lines.size());
+		JsonNode eventMetrics = mapper.readTree(lines.get(0));
+		assertEquals("EC2_INSTANCE_LAUNCH", eventMetrics.get("EventType").asText());
+		assertEquals("priming", eventMetrics.get("AutoScalingGroup").asText());
+		for (String name : Arrays.asList("ParseTime", "EC2DescribeLatency", "RecordSetReadLatency", "ChangeSubmitLatency",
+				"InSyncWaitTime", "EventTime"))
+			assertTrue(name, eventMetrics.has(name));
+		assertEquals(0, eventMetrics.get("Throttles").asInt());
+		assertEquals(0, eventMetrics.get("Errors").asInt());
+		assertEquals(2, eventMetrics.get("ChangeBatchSize").asInt()); // one DNSRR and one SRV record set
+		JsonNode invocationMetrics = mapper.readTree(lines.get(1));
+		assertEquals("NotifyRecordsSns", invocationMetrics.get("Handler").asText());
+		assertEquals(1, invocationMetrics.get("Events").asInt());
+		assertTrue(invocationMetrics.has("InvocationTime"));
+		assertEquals(eventMetrics.get("ApiCalls").asInt(), invocationMetrics.get("ApiCalls").asInt());
+		assertEquals(0, invocationMetrics.get("ApiThrottles").asInt());
+	}
+
+	@Test
+	public void countsApiCallsPerOperation() throws Exception {
+		System.setProperty("aws.accessKeyId", "AKIDFAKE");
+		System.setProperty("aws.secretAccessKey", "fake");
+		System.setProperty("aws.region", "us-east-1");
+		Metrics.setOutput(l -> {});
+		try (FakeAwsServer aws = new FakeAwsServer()) {
+			Clients.setEndpointOverride(aws.endpoint());
+			SNSEvent event = new SNSEvent().withRecords(List.of(new SNSEvent.SNSRecord()
+					.withSns(new SNSEvent.SNS().withMessage(Tools.readResource("priming/lifecycle-launching.json")))));
+			assertTrue(new NotifyRecordsSns().handleRequest(event, null).getStatus());
+		} finally {
+			Clients.setEndpointOverride(null);
+		}
+		ApiMetrics api = ApiMetrics.get();
+		assertEquals(1, api.calls("Ec2", "DescribeInstances"));
+		assertEquals(2, api.calls("Route53", "ListResourceRecordSets")); // one DNSRR and one SRV record set
+		assertEquals(1, api.calls("Route53", "ChangeResourceRecordSets"));
+		assertEquals(1, api.calls("AutoScaling", "CompleteLifecycleAction"));
+		ApiMetrics.OperationStats change = api.snapshot().get("Route53.ChangeResourceRecordSets");
+		assertEquals(1, change.attempts);
+		assertEquals(0, change.throttles);
+		assertEquals(0, change.failures);
+		assertTrue(change.maxMillis > 0);
+		assertTrue(change.p50Millis <= change.p99Millis && change.p99Millis <= change.maxMillis);
+	}
+}
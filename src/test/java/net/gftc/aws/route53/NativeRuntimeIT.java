@@ -0,0 +1,92 @@
+package net.gftc.aws.route53;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import tech.greenfield.aws.fake.FakeAwsServer;
+import tech.greenfield.aws.route53.LambdaRuntime;
+import tech.greenfield.aws.route53.Tools;
+
+/**
+ * Compare cold start latency (process start to first invocation response) and peak RSS of the native
+ * executable and the JVM build, both running {@link LambdaRuntime} against a {@link RuntimeApiEmulator}
+ * and a {@link FakeAwsServer}. Runs in the {@code native} profile; skipped if either build is missing.
+ */
+public class NativeRuntimeIT {
+
+	private static final int RUNS = 3;
+
+	static class Sample {
+		long coldStartMs;
+		long peakRssKb;
+	}
+
+	@Test
+	public void compareColdStart() throws Exception {
+		Path executable = Paths.get(System.getProperty("native.executable", "target/bootstrap"));
+		Path jar = Paths.get(System.getProperty("shaded.jar", "target/lambda-route53-updates.jar"));
+		assumeTrue("native executable not built", Files.isExecutable(executable));
+		assumeTrue("shaded jar not built", Files.isReadable(jar));
+		String event = LambdaRuntimeTest.snsEvent(Tools.readResource("priming/lifecycle-launching.json"));
+		List<Sample> nativeRuns = new ArrayList<>(), jvmRuns = new ArrayList<>();
+		for (int i = 0; i < RUNS; i++) { // interleave runs so that system noise affects both equally
+			nativeRuns.add(run(event, executable.toAbsolutePath().toString()));
+			jvmRuns.add(run(event, Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+					"-cp", jar.toAbsolutePath().toString(), LambdaRuntime.class.getName()));
+		}
+		report("native", nativeRuns);
+		report("jvm", jvmRuns);
+	}
+
+	private Sample run(String event, String... command) throws Exception {
+		try (FakeAwsServer aws = new FakeAwsServer(); RuntimeApiEmulator api = new RuntimeApiEmulator()) {
+			ProcessBuilder pb = new ProcessBuilder(command).redirectErrorStream(true)
+					.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+			Map<String, String> env = pb.environment();
+			env.put("AWS_LAMBDA_RUNTIME_API", api.address());
+			env.put("AWS_ENDPOINT_URL", aws.endpoint().toString());
+			env.put("AWS_ACCESS_KEY_ID", "AKIDFAKE");
+			env.put("AWS_SECRET_ACCESS_KEY", "fake");
+			env.put("AWS_REGION", "us-east-1");
+			env.put("HOSTED_ZONE_ID", "NATIVEIT");
+			env.put("_HANDLER", "tech.greenfield.aws.route53.NotifyRecordsSns");
+			Sample sample = new Sample();
+			long start = System.nanoTime();
+			Process process = pb.start();
+			try {
+				String response = api.invoke(event).get(60, TimeUnit.SECONDS);
+				sample.coldStartMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+				assertTrue(response, response.contains("\"status\":true"));
+				sample.peakRssKb = peakRss(process.pid());
+			} finally {
+				process.destroy();
+				process.waitFor(10, TimeUnit.SECONDS);
+			}
+			return sample;
+		}
+	}
+
+	private long peakRss(long pid) throws IOException {
+		Path status = Paths.get("/proc", String.valueOf(pid), "status");
+		if (!Files.isReadable(status))
+			return -1;
+		return Files.readAllLines(status).stream().filter(l -> l.startsWith("VmHWM:"))
+				.map(l -> Long.parseLong(l.replaceAll("[^0-9]", ""))).findFirst().orElse(-1L);
+	}
+
+	private void report(String name, List<Sample> samples) {
+		long[] latency = samples.stream().mapToLong(s -> s.coldStartMs).sorted().toArray();
+		long[] rss = samples.stream().mapToLong(s -> s.peakRssKb).sorted().toArray();
+		System.out.printf("%-6s cold start median %5d ms (min %d, max %d), peak RSS median %6d KB%n", name,
+				latency[latency.length / 2], latency[0], latency[latency.length - 1], rss[rss.length / 2]);
+	}
+}
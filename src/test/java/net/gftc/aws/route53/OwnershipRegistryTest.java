@@ -0,0 +1,52 @@
+package net.gftc.aws.route53;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.amazonaws.services.lambda.runtime.events.SNSEvent;
+
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.route53.model.*;
+import tech.greenfield.aws.route53.Route53Message;
+
+public class OwnershipRegistryTest {
+
+	private static final String NOTIFICATION = "{\"LifecycleTransition\":\"autoscaling:EC2_INSTANCE_LAUNCHING\"," +
+			"\"AutoScalingGroupName\":\"web\",\"EC2InstanceId\":\"i-2\",\"NotificationMetadata\":" +
+			"\"{\\\"DNSRR4_RECORD\\\":\\\"app.example.com\\\",\\\"OWNERSHIP_REGISTRY\\\":true}\"}";
+
+	private static ResourceRecordSet rrset(String name, RRType type, String... values) {
+		return ResourceRecordSet.builder().name(name).type(type).ttl(300L)
+				.resourceRecords(Arrays.stream(values).map(v -> ResourceRecord.builder().value(v).build())
+						.collect(Collectors.toList()))
+				.build();
+	}
+
+	private static Set<String> values(ChangeBatch batch, RRType type) {
+		return batch.changes().stream().filter(c -> c.resourceRecordSet().type() == type)
+				.peek(c -> assertEquals(ChangeAction.UPSERT, c.action()))
+				.flatMap(c -> c.resourceRecordSet().resourceRecords().stream()).map(ResourceRecord::value)
+				.collect(Collectors.toSet());
+	}
+
+	@Test
+	public void rebuildReplacesOnlyTheGroupsValues() throws Exception {
+		Map<String, ResourceRecordSet> zone = new HashMap<>();
+		zone.put("app.example.com.", rrset("app.example.com.", RRType.A, "198.51.100.1", "198.51.100.9"));
+		zone.put("_owner.app.example.com.", rrset("_owner.app.example.com.", RRType.TXT,
+				"\"asg=other type=A value=198.51.100.1\"", "\"asg=web type=A value=198.51.100.9\""));
+		Route53Message message = new Route53Message(new SNSEvent.SNSRecord().withSns(new SNSEvent.SNS()
+				.withMessage(NOTIFICATION)));
+		ChangeBatch batch = message.getRebuildChanges(keys -> keys.stream().map(k -> zone.get(k.name()))
+				.collect(Collectors.toList()),
+				List.of(Instance.builder().instanceId("i-2").publicIpAddress("198.51.100.7").build()));
+		assertEquals(2, batch.changes().size());
+		assertEquals(Set.of("198.51.100.1", "198.51.100.7"), values(batch, RRType.A));
+		assertEquals(Set.of("\"asg=other type=A value=198.51.100.1\"", "\"asg=web type=A value=198.51.100.7\""),
+				values(batch, RRType.TXT));
+	}
+}
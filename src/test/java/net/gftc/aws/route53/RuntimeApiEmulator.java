@@ -0,0 +1,115 @@
+package net.gftc.aws.route53;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.*;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local emulator of the Lambda Runtime API, for driving {@code LambdaRuntime} (in-process or as a
+ * separate process) in tests. Events are queued with {@link #invoke(String)} and their outcome is
+ * available from the returned future: the response body, or an {@link InvocationError} if the
+ * runtime reported an error.
+ */
+public class RuntimeApiEmulator implements AutoCloseable {
+
+	public static class InvocationError extends Exception {
+		private static final long serialVersionUID = 1L;
+		public InvocationError(String body) {
+			super(body);
+		}
+	}
+
+	private static final String PREFIX = "/2018-06-01/runtime/";
+	private static final long DEADLINE = 60000;
+
+	private final HttpServer server;
+	private final BlockingQueue<String[]> pending = new LinkedBlockingQueue<>();
+	private final Map<String, CompletableFuture<String>> results = new ConcurrentHashMap<>();
+	private final CompletableFuture<String> initError = new CompletableFuture<>();
+
+	public RuntimeApiEmulator() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext(PREFIX, this::handle);
+		server.setExecutor(Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "runtime-api");
+			t.setDaemon(true);
+			return t;
+		}));
+		server.start();
+	}
+
+	/**
+	 * @return value for the {@code AWS_LAMBDA_RUNTIME_API} environment variable
+	 */
+	public String address() {
+		return "127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	public CompletableFuture<String> invoke(String event) {
+		String id = UUID.randomUUID().toString();
+		CompletableFuture<String> result = new CompletableFuture<>();
+		results.put(id, result);
+		pending.add(new String[] { id, event });
+		return result;
+	}
+
+	public CompletableFuture<String> initError() {
+		return initError;
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath().substring(PREFIX.length());
+		try (InputStream in = exchange.getRequestBody()) {
+			String body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+			if (path.equals("invocation/next")) {
+				String[] next = pending.take();
+				exchange.getResponseHeaders().add("Lambda-Runtime-Aws-Request-Id", next[0]);
+				exchange.getResponseHeaders().add("Lambda-Runtime-Deadline-Ms", String.valueOf(System.currentTimeMillis() + DEADLINE));
+				exchange.getResponseHeaders().add("Lambda-Runtime-Invoked-Function-Arn", "arn:aws:lambda:us-east-1:123456789012:function:test");
+				respond(exchange, 200, next[1]);
+			} else if (path.equals("init/error")) {
+				initError.complete(body);
+				respond(exchange, 202, "");
+			} else if (path.startsWith("invocation/")) {
+				String[] parts = path.split("/");
+				CompletableFuture<String> result = results.remove(parts[1]);
+				if (result == null) {
+					respond(exchange, 404, "");
+					return;
+				}
+				if (parts[2].equals("response"))
+					result.complete(body);
+				else
+					result.completeExceptionally(new InvocationError(body));
+				respond(exchange, 202, "");
+			} else
+				respond(exchange, 404, "");
+		} catch (InterruptedException e) {
+			respond(exchange, 500, "");
+		}
+	}
+
+	private void respond(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] data = body.getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(status, data.length == 0 ? -1 : data.length);
+		if (data.length > 0)
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(data);
+			}
+		exchange.close();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		((ExecutorService) server.getExecutor()).shutdownNow();
+	}
+}
@@ -0,0 +1,43 @@
+package net.gftc.aws.route53;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import tech.greenfield.aws.Scheduler;
+
+public class SchedulerTest {
+
+	@Test
+	public void concurrentDelaysDontSerialize() throws Exception {
+		long start = System.nanoTime();
+		List<CompletableFuture<Void>> delays = new ArrayList<>();
+		for (int i = 0; i < 100; i++)
+			delays.add(Scheduler.delay(200));
+		CompletableFuture.allOf(delays.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue("elapsed " + elapsed, elapsed >= 200 && elapsed < 1000);
+	}
+
+	@Test
+	public void afterStartsOperationAfterDelay() throws Exception {
+		long start = System.nanoTime();
+		String res = Scheduler.after(100, () -> CompletableFuture.completedFuture("done")).get(5, TimeUnit.SECONDS);
+		assertEquals("done", res);
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 100);
+	}
+
+	@Test
+	public void cancelReleasesTimer() throws Exception {
+		int before = Scheduler.pending();
+		CompletableFuture<Void> delay = Scheduler.delay(60000);
+		assertEquals(before + 1, Scheduler.pending());
+		delay.cancel(false);
+		assertEquals(before, Scheduler.pending());
+	}
+}
@@ -0,0 +1,258 @@
+package net.gftc.aws.route53;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.lambda.runtime.events.SNSEvent;
+
+import software.amazon.awssdk.services.route53.model.Change;
+import software.amazon.awssdk.services.route53.model.ChangeAction;
+import software.amazon.awssdk.services.route53.model.RRType;
+import software.amazon.awssdk.services.route53.model.ResourceRecord;
+import software.amazon.awssdk.services.route53.model.ResourceRecordSet;
+import tech.greenfield.aws.Clients;
+import tech.greenfield.aws.fake.FakeAutoScaling;
+import tech.greenfield.aws.fake.FakeAwsServer;
+import tech.greenfield.aws.fake.FakeEc2;
+import tech.greenfield.aws.fake.FakeRoute53;
+import tech.greenfield.aws.route53.Route53Message;
+import tech.greenfield.aws.route53.Tools;
+
+public class SyncEventHandlerTest {
+
+	private static final String INSTANCE = "i-00000000000000000";
+	private FakeAwsServer aws;
+
+	@Before
+	public void setup() throws Exception {
+		System.setProperty("aws.accessKeyId", "AKIDFAKE");
+		System.setProperty("aws.secretAccessKey", "fake");
+		System.setProperty("aws.region", "us-east-1");
+		aws = new FakeAwsServer();
+		Clients.setEndpointOverride(aws.endpoint());
+	}
+
+	@After
+	public void teardown() {
+		Clients.setEndpointOverride(null);
+		aws.close();
+	}
+
+	private Route53Message lifecycleMessage(String transition) throws Exception {
+		String message = Tools.readResource("priming/lifecycle-launching.json")
+				.replace("EC2_INSTANCE_LAUNCHING", transition);
+		SNSEvent.SNSRecord record = new SNSEvent.SNSRecord();
+		record.setSns(new SNSEvent.SNS().withMessage(message));
+		return new Route53Message(record);
+	}
+
+	private Route53Message lifecycleMessage(String transition, String recordMode) throws Exception {
+		return lifecycleMessage(transition, "RECORD_MODE", recordMode);
+	}
+
+	private Route53Message lifecycleMessage(String transition, String field, String value) throws Exception {
+		return lifecycleMessage(transition, field, value, "1:1:5060:_sip._udp.priming.example.com");
+	}
+
+	/**
+	 * @param srv SRV_RECORD metadata values
+	 */
+	private Route53Message lifecycleMessage(String transition, String field, String value, String... srv)
+			throws Exception {
+		String quote = "\\\\\\\"", message = Tools.readResource("priming/lifecycle-launching.json")
+				.replace("EC2_INSTANCE_LAUNCHING", transition)
+				.replace(quote + "DNSRR_RECORD", quote + field + quote + ":" + quote + value + quote + "," +
+						quote + "DNSRR_RECORD")
+				.replace(quote + "1:1:5060:_sip._udp.priming.example.com" + quote, "[" + Arrays.stream(srv)
+						.map(s -> quote + s + quote).collect(Collectors.joining(",")) + "]");
+		SNSEvent.SNSRecord record = new SNSEvent.SNSRecord();
+		record.setSns(new SNSEvent.SNS().withMessage(message));
+		return new Route53Message(record);
+	}
+
+	@Test
+	public void registersLaunchedInstance() throws Exception {
+		aws.ec2().add(new FakeEc2.Instance(INSTANCE, "198.51.100.7", "10.0.0.7", null));
+		aws.route53().put("priming.example.com", "A", 300, "198.51.100.1");
+		lifecycleMessage("EC2_INSTANCE_LAUNCHING").createSyncEventHandler(null).handle();
+		assertTrue(aws.route53().recordSet("priming.example.com", "A").values
+				.containsAll(java.util.Arrays.asList("198.51.100.1", "198.51.100.7")));
+		assertNotNull(aws.route53().recordSet("_sip._udp.priming.example.com", "SRV"));
+		assertEquals(1, aws.autoscaling().completedActions().size());
+		assertTrue(aws.autoscaling().completedActions().get(0).endsWith(":CONTINUE"));
+	}
+
+	@Test
+	public void deregistersTerminatedInstance() throws Exception {
+		aws.ec2().add(new FakeEc2.Instance(INSTANCE, "198.51.100.7", "10.0.0.7", null));
+		aws.route53().put("priming.example.com", "A", 300, "198.51.100.1", "198.51.100.7");
+		lifecycleMessage("EC2_INSTANCE_TERMINATING").createSyncEventHandler(null).handle();
+		assertEquals(java.util.Arrays.asList("198.51.100.1"), aws.route53().recordSet("priming.example.com", "A").values);
+		assertTrue(aws.autoscaling().completedActions().get(0).endsWith(":CONTINUE"));
+	}
+
+	@Test
+	public void writesWeightedRecordsWithoutReading() throws Exception {
+		aws.ec2().add(new FakeEc2.Instance(INSTANCE, "198.51.100.7", "10.0.0.7", null));
+		lifecycleMessage("EC2_INSTANCE_LAUNCHING", "weighted").createSyncEventHandler(null).handle();
+		List<FakeRoute53.RecordSet> registered = aws.route53().recordSets();
+		assertEquals(2, registered.size()); // A and SRV
+		for (FakeRoute53.RecordSet rrset : registered) {
+			assertEquals(INSTANCE, rrset.setIdentifier);
+			assertEquals(1L, (long) rrset.weight);
+		}
+		assertNull(aws.requestCounts().get("Route53.ListResourceRecordSets"));
+		lifecycleMessage("EC2_INSTANCE_TERMINATING", "weighted").createSyncEventHandler(null).handle();
+		assertTrue(aws.route53().recordSets().isEmpty());
+		assertEquals("looked up to be deleted", 2, (long) aws.requestCounts().get("Route53.ListResourceRecordSets"));
+		assertTrue(aws.autoscaling().completedActions().stream().allMatch(a -> a.endsWith(":CONTINUE")));
+	}
+
+	@Test
+	public void deletesWeightedRecordSetWithSeveralTemplates() throws Exception {
+		aws.ec2().add(new FakeEc2.Instance(INSTANCE, "198.51.100.7", "10.0.0.7", null));
+		String[] srv = { "1:1:5060:_sip._udp.priming.example.com", "1:1:5061:_sip._udp.priming.example.com" };
+		lifecycleMessage("EC2_INSTANCE_LAUNCHING", "RECORD_MODE", "weighted", srv).createSyncEventHandler(null).handle();
+		FakeRoute53.RecordSet registered = aws.route53().recordSets().stream().filter(r -> r.type.equals("SRV"))
+				.findFirst().get();
+		assertEquals(INSTANCE, registered.setIdentifier);
+		assertEquals(2, registered.values.size());
+		lifecycleMessage("EC2_INSTANCE_TERMINATING", "RECORD_MODE", "weighted", srv).createSyncEventHandler(null).handle();
+		assertTrue(aws.route53().recordSets().isEmpty());
+		assertTrue(aws.autoscaling().completedActions().stream().allMatch(a -> a.endsWith(":CONTINUE")));
+	}
+
+	@Test
+	public void deletesWeightedRecordSetsThatExistWhenDeliveredAgain() throws Exception {
+		deletesRecordSetsThatExist(true);
+	}
+
+	@Test
+	public void deletesMultivalueRecordSetsThatExistAsynchronously() throws Exception {
+		deletesRecordSetsThatExist(false);
+	}
+
+	/**
+	 * Deliver the same terminate event twice, for an instance whose A record set was written with another TTL and
+	 * whose SRV record set is already gone
+	 */
+	private void deletesRecordSetsThatExist(boolean sync) throws Exception {
+		aws.ec2().add(new FakeEc2.Instance(INSTANCE, "198.51.100.7", "10.0.0.7", null));
+		String mode = sync ? "weighted" : "multivalue";
+		ResourceRecordSet.Builder rrset = ResourceRecordSet.builder().name("priming.example.com.").type(RRType.A)
+				.ttl(60L).setIdentifier(INSTANCE).resourceRecords(ResourceRecord.builder().value("198.51.100.7").build());
+		ResourceRecordSet existing = sync ? rrset.weight(1L).build() : rrset.multiValueAnswer(true).build();
+		Clients.route53Sync().changeResourceRecordSets(b -> b.hostedZoneId(Route53Message.getHostedZoneId())
+				.changeBatch(c -> c.changes(Change.builder().action(ChangeAction.CREATE).resourceRecordSet(existing)
+						.build())));
+		for (int i = 0; i < 2; i++) {
+			Route53Message message = lifecycleMessage("EC2_INSTANCE_TERMINATING", mode);
+			if (sync)
+				message.createSyncEventHandler(null).handle();
+			else
+				message.createEventHandler(null).handle().get();
+		}
+		assertTrue(aws.route53().recordSets().isEmpty());
+		assertEquals(List.of("00000000-0000-0000-0000-000000000000:CONTINUE",
+				"00000000-0000-0000-0000-000000000000:CONTINUE"), aws.autoscaling().completedActions());
+	}
+
+	private void addGroupWithDeadInstances() {
+		aws.ec2().add(new FakeEc2.Instance(INSTANCE, null, null, null)); // lost its addresses
+		aws.ec2().add(new FakeEc2.Instance("i-00000000000000001", "198.51.100.1", "10.0.0.1", null));
+		aws.ec2().add(new FakeEc2.Instance("i-00000000000000002", "198.51.100.2", "10.0.0.2", null));
+		aws.ec2().remove("i-00000000000000003");
+		for (String id : List.of(INSTANCE, "i-00000000000000001", "i-00000000000000002", "i-00000000000000003"))
+			aws.autoscaling().addInstance("priming", id);
+	}
+
+	@Test
+	public void prunesValuesOfInstancesThatAreNoLongerLive() throws Exception {
+		addGroupWithDeadInstances();
+		aws.route53().put("priming.example.com", "A", 300, "198.51.100.1", "198.51.100.7", "198.51.100.2");
+		aws.route53().put("_owner.priming.example.com", "TXT", 300, "\"asg=priming type=A value=198.51.100.1\"",
+				"\"asg=priming type=A value=198.51.100.7\"");
+		lifecycleMessage("EC2_INSTANCE_TERMINATING", "OWNERSHIP_REGISTRY", "true").createSyncEventHandler(null).handle();
+		assertEquals(List.of("198.51.100.1", "198.51.100.2"), aws.route53().recordSet("priming.example.com", "A").values);
+		assertEquals(2, aws.route53().recordSet("_sip._udp.priming.example.com", "SRV").values.size());
+		// released the pruned value and claimed the missing live value
+		assertEquals(List.of("\"asg=priming type=A value=198.51.100.1\"", "\"asg=priming type=A value=198.51.100.2\""),
+				aws.route53().recordSet("_owner.priming.example.com", "TXT").values);
+		assertEquals(1, (long) aws.requestCounts().get("AutoScaling.DescribeAutoScalingGroups"));
+		assertEquals(2, (long) aws.requestCounts().get("EC2.DescribeInstances")); // the event's instance, then the group
+		assertTrue(aws.autoscaling().completedActions().get(0).endsWith(":CONTINUE"));
+	}
+
+	@Test
+	public void pruningKeepsValuesTheGroupDoesNotOwn() throws Exception {
+		addGroupWithDeadInstances();
+		aws.route53().put("priming.example.com", "A", 300, "198.51.100.7", "198.51.100.8", "198.51.100.9");
+		aws.route53().put("_owner.priming.example.com", "TXT", 300, "\"asg=priming type=A value=198.51.100.7\"",
+				"\"asg=other type=A value=198.51.100.9\""); // 198.51.100.8 was added manually
+		lifecycleMessage("EC2_INSTANCE_TERMINATING", "OWNERSHIP_REGISTRY", "true").createSyncEventHandler(null).handle();
+		assertEquals(Set.of("198.51.100.1", "198.51.100.2", "198.51.100.8", "198.51.100.9"),
+				new HashSet<>(aws.route53().recordSet("priming.example.com", "A").values));
+
+		// without the registry, the live instances are only added
+		aws.route53().put("priming.example.com", "A", 300, "198.51.100.7", "198.51.100.9");
+		lifecycleMessage("EC2_INSTANCE_TERMINATING").createSyncEventHandler(null).handle();
+		assertEquals(Set.of("198.51.100.1", "198.51.100.2", "198.51.100.7", "198.51.100.9"),
+				new HashSet<>(aws.route53().recordSet("priming.example.com", "A").values));
+	}
+
+	@Test
+	public void prunesWeightedRecordSetsOfInstancesThatAreNoLongerLive() throws Exception {
+		prunesWeightedRecordSets(true);
+	}
+
+	@Test
+	public void prunesWeightedRecordSetsAsynchronously() throws Exception {
+		prunesWeightedRecordSets(false);
+	}
+
+	private void prunesWeightedRecordSets(boolean sync) throws Exception {
+		addGroupWithDeadInstances();
+		List<Change> existing = new ArrayList<>();
+		for (String id : List.of(INSTANCE, "i-00000000000000001", "i-00000000000000003"))
+			existing.add(Change.builder().action(ChangeAction.CREATE).resourceRecordSet(ResourceRecordSet.builder()
+					.name("priming.example.com.").type(RRType.A).ttl(300L).setIdentifier(id).weight(1L)
+					.resourceRecords(ResourceRecord.builder().value("198.51.100." + id.charAt(id.length() - 1)).build())
+					.build()).build());
+		Clients.route53Sync().changeResourceRecordSets(b -> b.hostedZoneId(Route53Message.getHostedZoneId())
+				.changeBatch(c -> c.changes(existing)));
+		Route53Message message = lifecycleMessage("EC2_INSTANCE_TERMINATING", "weighted");
+		if (sync)
+			message.createSyncEventHandler(null).handle();
+		else
+			message.createEventHandler(null).handle().get();
+		for (String type : List.of("A", "SRV"))
+			assertEquals(type, Set.of("i-00000000000000001", "i-00000000000000002"), aws.route53().recordSets().stream()
+					.filter(r -> r.type.equals(type)).map(r -> r.setIdentifier).collect(Collectors.toSet()));
+		assertTrue(aws.autoscaling().completedActions().get(0).endsWith(":CONTINUE"));
+	}
+
+	@Test
+	public void completesLifecycleActionWhenChangesAreAccepted() throws Exception {
+		aws.ec2().add(new FakeEc2.Instance(INSTANCE, "198.51.100.7", "10.0.0.7", null));
+		aws.route53().setPropagationDelay(Duration.ofSeconds(3));
+		Instant start = Instant.now();
+		lifecycleMessage("EC2_INSTANCE_LAUNCHING", "LIFECYCLE_COMPLETION", "accepted").createSyncEventHandler(null).handle();
+		assertTrue(Duration.between(start, Instant.now()).toMillis() >= 3000); // still waited for the changes
+		FakeAutoScaling.Completion completion = aws.autoscaling().completion("00000000-0000-0000-0000-000000000000");
+		assertEquals("CONTINUE", completion.result);
+		assertTrue(Duration.between(start, completion.time).toMillis() < 3000);
+		assertEquals(1, aws.autoscaling().completedActions().size());
+	}
+}
@@ -0,0 +1,57 @@
+package net.gftc.aws.route53;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import tech.greenfield.aws.TaskScope;
+
+public class TaskScopeTest {
+
+	@Test
+	public void mapsInOrderWithLimitedConcurrency() throws Exception {
+		AtomicInteger inFlight = new AtomicInteger(), maxSeen = new AtomicInteger();
+		List<Integer> inputs = IntStream.range(0, 50).boxed().collect(Collectors.toList());
+		List<Integer> res = TaskScope.map(inputs, i -> {
+			maxSeen.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+			Thread.sleep(50 - i);
+			inFlight.decrementAndGet();
+			return i * 2;
+		}, 4);
+		assertEquals(inputs.stream().map(i -> i * 2).collect(Collectors.toList()), res);
+		assertTrue("max in flight " + maxSeen.get(), maxSeen.get() <= 4);
+	}
+
+	@Test
+	public void failureCancelsSiblings() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		AtomicInteger interrupted = new AtomicInteger();
+		try (TaskScope scope = new TaskScope()) {
+			scope.fork(() -> {
+				started.countDown();
+				try {
+					Thread.sleep(10000);
+				} catch (InterruptedException e) {
+					interrupted.incrementAndGet();
+					throw e;
+				}
+				return null;
+			});
+			started.await();
+			scope.fork(() -> {
+				throw new IllegalStateException("boom");
+			});
+			scope.join();
+			fail("expected failure");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		assertEquals(1, interrupted.get());
+	}
+}
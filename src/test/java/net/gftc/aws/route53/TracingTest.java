@@ -0,0 +1,84 @@
+package net.gftc.aws.route53;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.lambda.runtime.events.SNSEvent;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import tech.greenfield.aws.Clients;
+import tech.greenfield.aws.Scheduler;
+import tech.greenfield.aws.fake.FakeAwsServer;
+import tech.greenfield.aws.route53.NotifyRecordsSns;
+import tech.greenfield.aws.route53.Tools;
+import tech.greenfield.aws.tracing.*;
+
+public class TracingTest {
+
+	private final InMemorySpanExporter exporter = new InMemorySpanExporter();
+
+	@Before
+	public void setup() {
+		Tracer.setExporter(exporter);
+	}
+
+	@After
+	public void teardown() {
+		Tracer.setExporter(null);
+	}
+
+	@Test
+	public void exportsTraceWhenRootEnds() throws Exception {
+		Span root = Tracer.startTrace("root");
+		CompletableFuture<String> res = root.traceAsync("delayed", () -> Scheduler.delay(10).thenApply(v -> "ok"))
+				.thenCompose(v -> root.traceAsync("failed", () -> CompletableFuture.failedFuture(new IllegalStateException("boom"))));
+		try {
+			res.get(1, TimeUnit.SECONDS);
+			fail("expected failure");
+		} catch (Exception e) { }
+		assertTrue(exporter.getFinishedSpans().isEmpty());
+		root.end();
+		assertEquals(3, exporter.getFinishedSpans().size());
+		Span delayed = exporter.getFinishedSpans("delayed").get(0), failed = exporter.getFinishedSpans("failed").get(0);
+		assertEquals(root.spanId(), delayed.parentSpanId());
+		assertEquals(root.traceId(), failed.traceId());
+		assertEquals(Span.Status.OK, delayed.status());
+		assertEquals(Span.Status.ERROR, failed.status());
+		assertTrue(delayed.durationMillis() >= 10);
+		JsonNode otlp = new ObjectMapper().readTree(OtlpJsonFileExporter.render(exporter.getFinishedSpans()));
+		JsonNode spans = otlp.get("resourceSpans").get(0).get("scopeSpans").get(0).get("spans");
+		assertEquals(3, spans.size());
+		assertEquals(32, spans.get(0).get("traceId").asText().length());
+		assertEquals(2, spans.get(1).get("status").get("code").asInt());
+	}
+
+	@Test
+	public void tracesEventPipeline() throws Exception {
+		System.setProperty("aws.accessKeyId", "AKIDFAKE");
+		System.setProperty("aws.secretAccessKey", "fake");
+		System.setProperty("aws.region", "us-east-1");
+		try (FakeAwsServer aws = new FakeAwsServer()) {
+			Clients.setEndpointOverride(aws.endpoint());
+			SNSEvent event = new SNSEvent().withRecords(List.of(new SNSEvent.SNSRecord()
+					.withSns(new SNSEvent.SNS().withMessage(Tools.readResource("priming/lifecycle-launching.json")))));
+			assertTrue(new NotifyRecordsSns().handleRequest(event, null).getStatus());
+		} finally {
+			Clients.setEndpointOverride(null);
+		}
+		Span root = exporter.getFinishedSpans("Route53Update").get(0);
+		assertEquals("EC2_INSTANCE_LAUNCH", root.attributes().get("event.type"));
+		for (String name : List.of("Route53Message.parse", "EventHandler.getInstance", "changeResourceRecordSets",
+				"Tools.waitFor", "LifeCycle.completeLifecycle"))
+			assertEquals(name, root.spanId(), exporter.getFinishedSpans(name).get(0).parentSpanId());
+		assertEquals(2, exporter.getFinishedSpans("Tools.getRecordSet").size());
+		assertTrue(exporter.getFinishedSpans().stream().allMatch(s -> s.traceId().equals(root.traceId())));
+	}
+}
@@ -0,0 +1,106 @@
+package tech.greenfield.aws.fake;
+
+import static tech.greenfield.aws.fake.FakeAwsServer.escape;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import tech.greenfield.aws.fake.FakeAwsServer.Response;
+
+/**
+ * Fake AutoScaling API, supporting {@code DescribeAutoScalingGroups}, {@code CompleteLifecycleAction} and
+ * {@code RecordLifecycleActionHeartbeat}. Completed lifecycle actions are recorded and can be inspected with
+ * {@link #completedActions()} and {@link #completion(String)}.
+ */
+public class FakeAutoScaling {
+
+	private static final String XMLNS = "http://autoscaling.amazonaws.com/doc/2011-01-01/";
+
+	private final FakeEc2 ec2;
+	private final Map<String, Set<String>> groups = new ConcurrentHashMap<>();
+	private final List<String> completedActions = new CopyOnWriteArrayList<>();
+	private final Map<String, Completion> completions = new ConcurrentHashMap<>();
+
+	/**
+	 * A completed lifecycle action
+	 */
+	public static class Completion {
+		public final String result;
+		public final Instant time;
+
+		Completion(String result, Instant time) {
+			this.result = result;
+			this.time = time;
+		}
+	}
+
+	FakeAutoScaling(FakeEc2 ec2) {
+		this.ec2 = ec2;
+	}
+
+	/**
+	 * Add an instance to an auto scaling group
+	 * @param group name of auto scaling group
+	 * @param instanceId ID of instance to add
+	 */
+	public void addInstance(String group, String instanceId) {
+		groups.computeIfAbsent(group, g -> ConcurrentHashMap.newKeySet()).add(instanceId);
+	}
+
+	public void removeInstance(String group, String instanceId) {
+		groups.getOrDefault(group, Collections.emptySet()).remove(instanceId);
+	}
+
+	/**
+	 * @return list of "token:result" entries for the lifecycle actions completed so far
+	 */
+	public List<String> completedActions() {
+		return Collections.unmodifiableList(completedActions);
+	}
+
+	/**
+	 * @param token lifecycle action token
+	 * @return the last completion of the lifecycle action, or null if it wasn't completed
+	 */
+	public Completion completion(String token) {
+		return completions.get(token);
+	}
+
+	boolean handles(String action) {
+		return action.equals("DescribeAutoScalingGroups") || action.equals("CompleteLifecycleAction") ||
+				action.equals("RecordLifecycleActionHeartbeat");
+	}
+
+	Response handle(String action, Map<String, String> params) {
+		switch (action) {
+		case "RecordLifecycleActionHeartbeat":
+			return result(action, "");
+		case "CompleteLifecycleAction":
+			completedActions.add(params.get("LifecycleActionToken") + ":" + params.get("LifecycleActionResult"));
+			completions.put(params.get("LifecycleActionToken"), new Completion(params.get("LifecycleActionResult"), Instant.now()));
+			return result(action, "");
+		case "DescribeAutoScalingGroups":
+		default:
+			StringBuilder sb = new StringBuilder("<AutoScalingGroups>");
+			for (String name : FakeAwsServer.listParam(params, "AutoScalingGroupNames.member")) {
+				sb.append("<member><AutoScalingGroupName>").append(escape(name)).append("</AutoScalingGroupName><Instances>");
+				for (String id : groups.getOrDefault(name, Collections.emptySet()))
+					sb.append("<member><InstanceId>").append(id).append("</InstanceId><HealthStatus>")
+							.append(Objects.nonNull(ec2.get(id)) ? "Healthy" : "Unhealthy")
+							.append("</HealthStatus><LifecycleState>InService</LifecycleState>")
+							.append("<AvailabilityZone>us-east-1a</AvailabilityZone>")
+							.append("<ProtectedFromScaleIn>false</ProtectedFromScaleIn></member>");
+				sb.append("</Instances></member>");
+			}
+			return result(action, sb.append("</AutoScalingGroups>").toString());
+		}
+	}
+
+	private Response result(String action, String content) {
+		return Response.xml("<" + action + "Response xmlns=\"" + XMLNS + "\"><" + action + "Result>" + content +
+				"</" + action + "Result><ResponseMetadata><RequestId>" + UUID.randomUUID() +
+				"</RequestId></ResponseMetadata></" + action + "Response>");
+	}
+}
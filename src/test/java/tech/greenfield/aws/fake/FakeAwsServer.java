@@ -0,0 +1,200 @@
+package tech.greenfield.aws.fake;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process stand-in for the AWS APIs used by the Lambda, for local training, testing and load generation.
+ *
+ * A single HTTP endpoint serves all services: Route53 requests are recognized by their REST path, SQS
+ * requests by their JSON protocol target, and query protocol requests are dispatched to EC2 or AutoScaling
+ * by their {@code Action}. Point the clients at it using {@link tech.greenfield.aws.Clients#setEndpointOverride(URI)}.
+ *
+ * The server counts the requests it handled, and the requests it throttled, for each operation.
+ */
+public class FakeAwsServer implements AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(FakeAwsServer.class.getName());
+
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newFixedThreadPool(4, r -> {
+		Thread t = new Thread(r, "fake-aws");
+		t.setDaemon(true);
+		return t;
+	});
+	private final FakeRoute53 route53 = new FakeRoute53();
+	private final FakeEc2 ec2 = new FakeEc2();
+	private final FakeAutoScaling autoscaling = new FakeAutoScaling(ec2);
+	private final FakeSqs sqs = new FakeSqs(this::endpoint);
+	private final Map<String, LongAdder> requests = new ConcurrentHashMap<>();
+	private final Map<String, LongAdder> throttled = new ConcurrentHashMap<>();
+
+	public FakeAwsServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", this::handle);
+		server.setExecutor(executor);
+		server.start();
+		log.debug("Fake AWS listening on {}", endpoint());
+	}
+
+	public URI endpoint() {
+		return URI.create("http://127.0.0.1:" + server.getAddress().getPort());
+	}
+
+	public FakeRoute53 route53() {
+		return route53;
+	}
+
+	public FakeEc2 ec2() {
+		return ec2;
+	}
+
+	public FakeAutoScaling autoscaling() {
+		return autoscaling;
+	}
+
+	public FakeSqs sqs() {
+		return sqs;
+	}
+
+	/**
+	 * @return number of requests handled for each operation, keyed by "Service.Operation"
+	 */
+	public Map<String, Long> requestCounts() {
+		return counts(requests);
+	}
+
+	/**
+	 * @return number of requests rejected by throttling for each operation, keyed by "Service.Operation"
+	 */
+	public Map<String, Long> throttleCounts() {
+		return counts(throttled);
+	}
+
+	public void resetCounts() {
+		requests.clear();
+		throttled.clear();
+	}
+
+	private static Map<String, Long> counts(Map<String, LongAdder> counters) {
+		TreeMap<String, Long> counts = new TreeMap<>();
+		counters.forEach((op, count) -> counts.put(op, count.sum()));
+		return counts;
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		Response response;
+		String operation = "Unknown";
+		try {
+			String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+			String path = exchange.getRequestURI().getRawPath();
+			String target = exchange.getRequestHeaders().getFirst("X-Amz-Target");
+			if (path.startsWith(FakeRoute53.API_PREFIX)) {
+				operation = "Route53." + FakeRoute53.operation(exchange.getRequestMethod(), path);
+				response = route53.handle(exchange.getRequestMethod(), path,
+						parseQuery(exchange.getRequestURI().getRawQuery()), body);
+			} else if (sqs.handles(target)) {
+				operation = "SQS." + target.substring(FakeSqs.TARGET_PREFIX.length());
+				response = sqs.handle(target, body);
+			} else {
+				Map<String, String> params = parseQuery(body);
+				String action = params.getOrDefault("Action", "");
+				if (ec2.handles(action)) {
+					operation = "EC2." + action;
+					response = ec2.handle(action, params);
+				} else if (autoscaling.handles(action)) {
+					operation = "AutoScaling." + action;
+					response = autoscaling.handle(action, params);
+				} else
+					response = Response.queryError(400, "InvalidAction", "Unsupported action " + action);
+			}
+		} catch (RuntimeException e) {
+			log.error("Fake AWS failed handling {}: {}", exchange.getRequestURI(), e.toString(), e);
+			response = Response.queryError(500, "InternalFailure", e.toString());
+		}
+		requests.computeIfAbsent(operation, o -> new LongAdder()).increment();
+		if (response.throttled)
+			throttled.computeIfAbsent(operation, o -> new LongAdder()).increment();
+		byte[] out = response.body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", response.contentType);
+		exchange.getResponseHeaders().add("x-amzn-RequestId", UUID.randomUUID().toString());
+		exchange.sendResponseHeaders(response.status, out.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(out);
+		}
+	}
+
+	static Map<String, String> parseQuery(String query) {
+		LinkedHashMap<String, String> params = new LinkedHashMap<>();
+		if (Objects.isNull(query) || query.isEmpty())
+			return params;
+		for (String pair : query.split("&")) {
+			int eq = pair.indexOf('=');
+			String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+			params.put(key, eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+		}
+		return params;
+	}
+
+	/**
+	 * Collect indexed query parameters, such as {@code InstanceId.1}, {@code InstanceId.2}, ...
+	 */
+	static List<String> listParam(Map<String, String> params, String prefix) {
+		ArrayList<String> values = new ArrayList<>();
+		for (int i = 1; params.containsKey(prefix + "." + i); i++)
+			values.add(params.get(prefix + "." + i));
+		return values;
+	}
+
+	static String escape(String text) {
+		return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+	}
+
+	static class Response {
+		final int status;
+		final String contentType;
+		final String body;
+		final boolean throttled;
+
+		Response(int status, String contentType, String body) {
+			this(status, contentType, body, false);
+		}
+
+		Response(int status, String contentType, String body, boolean throttled) {
+			this.status = status;
+			this.contentType = contentType;
+			this.body = body;
+			this.throttled = throttled;
+		}
+
+		static Response xml(String body) {
+			return new Response(200, "text/xml", "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" + body);
+		}
+
+		static Response queryError(int status, String code, String message) {
+			return new Response(status, "text/xml", "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+					"<ErrorResponse><Error><Type>Sender</Type><Code>" + code + "</Code><Message>" + escape(message) +
+					"</Message></Error><RequestId>" + UUID.randomUUID() + "</RequestId></ErrorResponse>");
+		}
+	}
+}
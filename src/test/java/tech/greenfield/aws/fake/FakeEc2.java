@@ -0,0 +1,107 @@
+package tech.greenfield.aws.fake;
+
+import static tech.greenfield.aws.fake.FakeAwsServer.escape;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import tech.greenfield.aws.fake.FakeAwsServer.Response;
+
+/**
+ * Fake EC2 API, supporting {@code DescribeInstances}, by instance IDs or with an {@code instance-id} filter.
+ *
+ * Instances are created on first lookup with addresses derived from the instance ID, unless
+ * they were explicitly added or removed.
+ */
+public class FakeEc2 {
+
+	private static final String XMLNS = "http://ec2.amazonaws.com/doc/2016-11-15/";
+
+	/**
+	 * A fake EC2 instance. Address fields may be null
+	 */
+	public static class Instance {
+		public final String id;
+		public final String publicIp;
+		public final String privateIp;
+		public final String ipv6;
+
+		public Instance(String id, String publicIp, String privateIp, String ipv6) {
+			this.id = id;
+			this.publicIp = publicIp;
+			this.privateIp = privateIp;
+			this.ipv6 = ipv6;
+		}
+
+		static Instance generate(String id) {
+			int hash = id.hashCode() & 0xffff;
+			return new Instance(id, "198.51." + (hash >> 8) + "." + (hash & 0xff),
+					"10.0." + (hash >> 8) + "." + (hash & 0xff), null);
+		}
+	}
+
+	private final Map<String, Instance> instances = new ConcurrentHashMap<>();
+	private final Set<String> missing = ConcurrentHashMap.newKeySet();
+
+	public void add(Instance instance) {
+		missing.remove(instance.id);
+		instances.put(instance.id, instance);
+	}
+
+	/**
+	 * Make the instance unknown, as it would be some time after it was terminated
+	 * @param id instance ID to remove
+	 */
+	public void remove(String id) {
+		instances.remove(id);
+		missing.add(id);
+	}
+
+	public Instance get(String id) {
+		if (missing.contains(id))
+			return null;
+		return instances.computeIfAbsent(id, Instance::generate);
+	}
+
+	boolean handles(String action) {
+		return action.equals("DescribeInstances");
+	}
+
+	Response handle(String action, Map<String, String> params) {
+		List<String> ids = FakeAwsServer.listParam(params, "InstanceId");
+		boolean filtered = ids.isEmpty();
+		if (filtered) // unlike listed IDs, filtered instances that don't exist are just not returned
+			for (int f = 1; params.containsKey("Filter." + f + ".Name"); f++)
+				if (params.get("Filter." + f + ".Name").equals("instance-id"))
+					ids = FakeAwsServer.listParam(params, "Filter." + f + ".Value");
+		StringBuilder sb = new StringBuilder("<DescribeInstancesResponse xmlns=\"" + XMLNS + "\"><requestId>")
+				.append(UUID.randomUUID()).append("</requestId><reservationSet>");
+		for (String id : ids) {
+			Instance i = get(id);
+			if (Objects.isNull(i) && filtered)
+				continue;
+			if (Objects.isNull(i))
+				return error("InvalidInstanceID.NotFound", "The instance ID '" + id + "' does not exist");
+			sb.append("<item><reservationId>r-").append(id.substring(2)).append("</reservationId><instancesSet><item>")
+					.append("<instanceId>").append(escape(i.id)).append("</instanceId>")
+					.append("<instanceState><code>16</code><name>running</name></instanceState>");
+			if (Objects.nonNull(i.privateIp))
+				sb.append("<privateDnsName>ip-").append(i.privateIp.replace('.', '-')).append(".ec2.internal</privateDnsName>")
+						.append("<privateIpAddress>").append(i.privateIp).append("</privateIpAddress>");
+			if (Objects.nonNull(i.publicIp))
+				sb.append("<dnsName>ec2-").append(i.publicIp.replace('.', '-')).append(".compute-1.amazonaws.com</dnsName>")
+						.append("<ipAddress>").append(i.publicIp).append("</ipAddress>");
+			if (Objects.nonNull(i.ipv6))
+				sb.append("<networkInterfaceSet><item><ipv6AddressesSet><item><ipv6Address>").append(i.ipv6)
+						.append("</ipv6Address></item></ipv6AddressesSet></item></networkInterfaceSet>");
+			sb.append("</item></instancesSet></item>");
+		}
+		return Response.xml(sb.append("</reservationSet></DescribeInstancesResponse>").toString());
+	}
+
+	static Response error(String code, String message) {
+		return new Response(400, "text/xml", "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<Response><Errors><Error><Code>" +
+				code + "</Code><Message>" + escape(message) + "</Message></Error></Errors><RequestID>" +
+				UUID.randomUUID() + "</RequestID></Response>");
+	}
+}
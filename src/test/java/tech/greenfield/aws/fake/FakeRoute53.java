@@ -0,0 +1,298 @@
+package tech.greenfield.aws.fake;
+
+import static tech.greenfield.aws.fake.FakeAwsServer.escape;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import tech.greenfield.aws.fake.FakeAwsServer.Response;
+
+/**
+ * Fake Route53 API with a single in-memory hosted zone (the zone ID in requests is ignored).
+ *
+ * Supports {@code ListResourceRecordSets}, {@code ChangeResourceRecordSets} - with Route53 semantics
+ * for CREATE, DELETE and UPSERT - and {@code GetChange}. Changes are reported as PENDING until the
+ * configured propagation delay has passed. Requests over the configured rate limit are rejected with a
+ * "Rate exceeded" throttling error, as Route53 does above 5 requests per second per account.
+ */
+public class FakeRoute53 {
+
+	static final String API_PREFIX = "/2013-04-01/";
+	private static final String XMLNS = "https://route53.amazonaws.com/doc/2013-04-01/";
+
+	/**
+	 * A resource record set, identified by name, type and (optional) set identifier
+	 */
+	public static class RecordSet {
+		public final String name;
+		public final String type;
+		public final String setIdentifier;
+		public final Long ttl;
+		public final Long weight;
+		public final Boolean multiValueAnswer;
+		public final List<String> values;
+
+		RecordSet(String name, String type, String setIdentifier, Long ttl, Long weight, Boolean multiValueAnswer,
+				List<String> values) {
+			this.name = name;
+			this.type = type;
+			this.setIdentifier = setIdentifier;
+			this.ttl = ttl;
+			this.weight = weight;
+			this.multiValueAnswer = multiValueAnswer;
+			this.values = Collections.unmodifiableList(values);
+		}
+
+		String key() {
+			return key(name, type, setIdentifier);
+		}
+
+		static String key(String name, String type, String setIdentifier) {
+			return name + "|" + type + "|" + Objects.toString(setIdentifier, "");
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof RecordSet))
+				return false;
+			RecordSet o = (RecordSet) obj;
+			return key().equals(o.key()) && Objects.equals(ttl, o.ttl) && Objects.equals(weight, o.weight)
+					&& Objects.equals(multiValueAnswer, o.multiValueAnswer)
+					&& new HashSet<>(values).equals(new HashSet<>(o.values));
+		}
+
+		@Override
+		public int hashCode() {
+			return key().hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return key() + "=" + values;
+		}
+	}
+
+	private final TreeMap<String, RecordSet> records = new TreeMap<>();
+	private final Map<String, Instant> changes = new HashMap<>();
+	private final AtomicInteger changeCounter = new AtomicInteger();
+	private volatile Duration propagationDelay = Duration.ZERO;
+	private double rateLimit = 0;
+	private double tokens;
+	private long lastRefill;
+
+	/**
+	 * Set how long changes stay PENDING. With a zero delay, changes are reported INSYNC immediately.
+	 * @param delay propagation delay
+	 */
+	public void setPropagationDelay(Duration delay) {
+		propagationDelay = delay;
+	}
+
+	/**
+	 * Limit the rate of requests, allowing bursts of up to one second's worth of requests. Route53 allows
+	 * 5 requests per second.
+	 * @param requestsPerSecond allowed request rate, or 0 to not limit requests
+	 */
+	synchronized public void setRateLimit(double requestsPerSecond) {
+		rateLimit = requestsPerSecond;
+		tokens = requestsPerSecond;
+		lastRefill = System.nanoTime();
+	}
+
+	synchronized public List<RecordSet> recordSets() {
+		return new ArrayList<>(records.values());
+	}
+
+	synchronized public RecordSet recordSet(String name, String type) {
+		return records.get(RecordSet.key(fqdn(name), type, null));
+	}
+
+	synchronized public void put(String name, String type, long ttl, String... values) {
+		RecordSet rrset = new RecordSet(fqdn(name), type, null, ttl, null, null, Arrays.asList(values));
+		records.put(rrset.key(), rrset);
+	}
+
+	/**
+	 * @return name of the API operation requested
+	 */
+	static String operation(String method, String path) {
+		String resource = path.substring(API_PREFIX.length());
+		if (resource.startsWith("hostedzone/") && resource.contains("/rrset"))
+			return method.equals("POST") ? "ChangeResourceRecordSets" : "ListResourceRecordSets";
+		if (resource.startsWith("change/"))
+			return "GetChange";
+		return "Unknown";
+	}
+
+	Response handle(String method, String path, Map<String, String> query, String body) {
+		if (!acquire())
+			return new Response(400, "text/xml", error(400, "Throttling", "Rate exceeded").body, true);
+		String resource = path.substring(API_PREFIX.length());
+		if (resource.startsWith("hostedzone/") && resource.contains("/rrset")) {
+			if (method.equals("GET"))
+				return listResourceRecordSets(query);
+			if (method.equals("POST"))
+				return changeResourceRecordSets(body);
+		}
+		if (resource.startsWith("change/") && method.equals("GET")) {
+			String id = URLDecoder.decode(resource.substring("change/".length()), StandardCharsets.UTF_8);
+			return getChange(id.substring(id.lastIndexOf('/') + 1));
+		}
+		return error(400, "InvalidInput", "Unsupported request " + method + " " + path);
+	}
+
+	/**
+	 * @return whether the request is allowed by the rate limit
+	 */
+	synchronized private boolean acquire() {
+		if (rateLimit <= 0)
+			return true;
+		long now = System.nanoTime();
+		tokens = Math.min(rateLimit, tokens + (now - lastRefill) * rateLimit / 1e9);
+		lastRefill = now;
+		if (tokens < 1)
+			return false;
+		tokens--;
+		return true;
+	}
+
+	synchronized private Response listResourceRecordSets(Map<String, String> query) {
+		int maxItems = Integer.parseInt(query.getOrDefault("maxitems", "300"));
+		String start = RecordSet.key(fqdn(query.getOrDefault("name", "")), query.getOrDefault("type", ""),
+				query.get("identifier"));
+		StringBuilder sb = new StringBuilder("<ListResourceRecordSetsResponse xmlns=\"" + XMLNS + "\"><ResourceRecordSets>");
+		Iterator<RecordSet> it = records.tailMap(start, true).values().iterator();
+		for (int i = 0; i < maxItems && it.hasNext(); i++)
+			writeRecordSet(sb, it.next());
+		sb.append("</ResourceRecordSets>");
+		if (it.hasNext()) {
+			RecordSet next = it.next();
+			sb.append("<IsTruncated>true</IsTruncated><NextRecordName>").append(escape(next.name))
+					.append("</NextRecordName><NextRecordType>").append(next.type).append("</NextRecordType>");
+			if (Objects.nonNull(next.setIdentifier))
+				sb.append("<NextRecordIdentifier>").append(escape(next.setIdentifier)).append("</NextRecordIdentifier>");
+		} else
+			sb.append("<IsTruncated>false</IsTruncated>");
+		sb.append("<MaxItems>").append(maxItems).append("</MaxItems></ListResourceRecordSetsResponse>");
+		return Response.xml(sb.toString());
+	}
+
+	private void writeRecordSet(StringBuilder sb, RecordSet rrset) {
+		sb.append("<ResourceRecordSet><Name>").append(escape(rrset.name)).append("</Name><Type>").append(rrset.type)
+				.append("</Type>");
+		if (Objects.nonNull(rrset.setIdentifier))
+			sb.append("<SetIdentifier>").append(escape(rrset.setIdentifier)).append("</SetIdentifier>");
+		if (Objects.nonNull(rrset.weight))
+			sb.append("<Weight>").append(rrset.weight).append("</Weight>");
+		if (Objects.nonNull(rrset.multiValueAnswer))
+			sb.append("<MultiValueAnswer>").append(rrset.multiValueAnswer).append("</MultiValueAnswer>");
+		if (Objects.nonNull(rrset.ttl))
+			sb.append("<TTL>").append(rrset.ttl).append("</TTL>");
+		sb.append("<ResourceRecords>");
+		for (String value : rrset.values)
+			sb.append("<ResourceRecord><Value>").append(escape(value)).append("</Value></ResourceRecord>");
+		sb.append("</ResourceRecords></ResourceRecordSet>");
+	}
+
+	synchronized private Response changeResourceRecordSets(String body) {
+		List<Map.Entry<String, RecordSet>> batch = new ArrayList<>();
+		try {
+			Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+					.parse(new InputSource(new StringReader(body)));
+			NodeList changeList = doc.getElementsByTagName("Change");
+			for (int i = 0; i < changeList.getLength(); i++) {
+				Element change = (Element) changeList.item(i);
+				batch.add(new AbstractMap.SimpleEntry<>(text(change, "Action"),
+						parseRecordSet((Element) change.getElementsByTagName("ResourceRecordSet").item(0))));
+			}
+		} catch (ParserConfigurationException | SAXException | IOException e) {
+			return error(400, "InvalidInput", "Failed to parse change batch: " + e);
+		}
+		// validate the whole batch before applying, as Route53 applies batches atomically
+		TreeMap<String, RecordSet> updated = new TreeMap<>(records);
+		for (Map.Entry<String, RecordSet> change : batch) {
+			RecordSet rrset = change.getValue();
+			switch (change.getKey()) {
+			case "CREATE":
+				if (updated.containsKey(rrset.key()))
+					return error(400, "InvalidChangeBatch", "Tried to create resource record set " + rrset.key()
+							+ " but it already exists");
+				updated.put(rrset.key(), rrset);
+				break;
+			case "DELETE":
+				if (!rrset.equals(updated.get(rrset.key())))
+					return error(400, "InvalidChangeBatch", "Tried to delete resource record set " + rrset.key()
+							+ " but it was not found");
+				updated.remove(rrset.key());
+				break;
+			case "UPSERT":
+				updated.put(rrset.key(), rrset);
+				break;
+			default:
+				return error(400, "InvalidInput", "Invalid action " + change.getKey());
+			}
+		}
+		records.clear();
+		records.putAll(updated);
+		String id = "C" + String.format("%012d", changeCounter.incrementAndGet());
+		Instant now = Instant.now();
+		changes.put(id, now);
+		return Response.xml("<ChangeResourceRecordSetsResponse xmlns=\"" + XMLNS + "\">" +
+				changeInfo(id, now, "PENDING") + "</ChangeResourceRecordSetsResponse>");
+	}
+
+	synchronized private Response getChange(String id) {
+		Instant submitted = changes.get(id);
+		if (Objects.isNull(submitted))
+			return error(404, "NoSuchChange", "A change with the specified change ID does not exist.");
+		String status = Instant.now().isBefore(submitted.plus(propagationDelay)) ? "PENDING" : "INSYNC";
+		return Response.xml("<GetChangeResponse xmlns=\"" + XMLNS + "\">" + changeInfo(id, submitted, status) +
+				"</GetChangeResponse>");
+	}
+
+	private String changeInfo(String id, Instant submitted, String status) {
+		return "<ChangeInfo><Id>/change/" + id + "</Id><Status>" + status + "</Status><SubmittedAt>" + submitted +
+				"</SubmittedAt></ChangeInfo>";
+	}
+
+	private RecordSet parseRecordSet(Element e) {
+		ArrayList<String> values = new ArrayList<>();
+		NodeList valueList = e.getElementsByTagName("Value");
+		for (int i = 0; i < valueList.getLength(); i++)
+			values.add(valueList.item(i).getTextContent());
+		String ttl = text(e, "TTL"), weight = text(e, "Weight"), multiValue = text(e, "MultiValueAnswer");
+		return new RecordSet(fqdn(text(e, "Name")), text(e, "Type"), text(e, "SetIdentifier"),
+				Objects.nonNull(ttl) ? Long.valueOf(ttl) : null, Objects.nonNull(weight) ? Long.valueOf(weight) : null,
+				Objects.nonNull(multiValue) ? Boolean.valueOf(multiValue) : null, values);
+	}
+
+	private static String text(Element parent, String tag) {
+		NodeList nodes = parent.getElementsByTagName(tag);
+		return nodes.getLength() > 0 ? nodes.item(0).getTextContent() : null;
+	}
+
+	static String fqdn(String name) {
+		return name.endsWith(".") ? name : name + ".";
+	}
+
+	static Response error(int status, String code, String message) {
+		return new Response(status, "text/xml", "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<ErrorResponse xmlns=\"" +
+				XMLNS + "\"><Error><Type>Sender</Type><Code>" + code + "</Code><Message>" + escape(message) +
+				"</Message></Error><RequestId>" + UUID.randomUUID() + "</RequestId></ErrorResponse>");
+	}
+}
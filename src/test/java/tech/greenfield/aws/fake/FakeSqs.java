@@ -0,0 +1,278 @@
+package tech.greenfield.aws.fake;
+
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import tech.greenfield.aws.fake.FakeAwsServer.Response;
+
+/**
+ * Fake SQS API (AWS JSON protocol), supporting {@code CreateQueue}, {@code GetQueueUrl}, {@code SendMessage}
+ * (with a delay and message attributes), {@code ReceiveMessage}, {@code DeleteMessage},
+ * {@code ChangeMessageVisibility} and the message counts of {@code GetQueueAttributes}.
+ *
+ * Received messages are hidden for the queue's visibility timeout, and become visible again if they are not
+ * deleted, as with SQS. Long polling is not supported - receiving from an empty queue returns immediately.
+ */
+public class FakeSqs {
+
+	static final String TARGET_PREFIX = "AmazonSQS.";
+	private static final String ACCOUNT = "000000000000";
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	private final Supplier<URI> endpoint;
+	private final Map<String, Queue> queues = new ConcurrentHashMap<>();
+	private volatile Duration visibilityTimeout = Duration.ofSeconds(30);
+
+	private static class Message {
+		final String id = UUID.randomUUID().toString();
+		final String body;
+		final String md5;
+		final JsonNode attributes;
+		String receiptHandle;
+		Instant visibleAt;
+		int receiveCount;
+
+		Message(String body, JsonNode attributes, Instant visibleAt) {
+			this.body = body;
+			this.md5 = md5(body);
+			this.attributes = attributes;
+			this.visibleAt = visibleAt;
+		}
+	}
+
+	private static class Queue {
+		final List<Message> messages = new ArrayList<>();
+	}
+
+	FakeSqs(Supplier<URI> endpoint) {
+		this.endpoint = endpoint;
+	}
+
+	/**
+	 * Set how long received messages stay invisible before they can be received again
+	 * @param timeout visibility timeout
+	 */
+	public void setVisibilityTimeout(Duration timeout) {
+		visibilityTimeout = timeout;
+	}
+
+	/**
+	 * Create a queue, if it doesn't already exist
+	 * @param name queue name
+	 * @return queue URL
+	 */
+	public String createQueue(String name) {
+		queues.computeIfAbsent(name, n -> new Queue());
+		return queueUrl(name);
+	}
+
+	/**
+	 * Add a message to a queue
+	 * @param queueUrl URL of an existing queue
+	 * @param body message body
+	 * @return message ID
+	 */
+	public String send(String queueUrl, String body) {
+		Queue queue = Objects.requireNonNull(queue(queueUrl), "No such queue " + queueUrl);
+		Message message = new Message(body, mapper.createObjectNode(), Instant.now());
+		synchronized (queue) {
+			queue.messages.add(message);
+		}
+		return message.id;
+	}
+
+	/**
+	 * @param queueUrl URL of an existing queue
+	 * @return number of messages in the queue, including delayed and in-flight messages
+	 */
+	public int size(String queueUrl) {
+		Queue queue = Objects.requireNonNull(queue(queueUrl), "No such queue " + queueUrl);
+		synchronized (queue) {
+			return queue.messages.size();
+		}
+	}
+
+	/**
+	 * Make the queue's delayed and in-flight messages visible, as if their delay or visibility timeout passed
+	 * @param queueUrl URL of an existing queue
+	 */
+	public void expireDelays(String queueUrl) {
+		Queue queue = Objects.requireNonNull(queue(queueUrl), "No such queue " + queueUrl);
+		Instant now = Instant.now();
+		synchronized (queue) {
+			queue.messages.forEach(m -> m.visibleAt = now);
+		}
+	}
+
+	boolean handles(String target) {
+		return Objects.nonNull(target) && target.startsWith(TARGET_PREFIX);
+	}
+
+	Response handle(String target, String body) {
+		String action = target.substring(TARGET_PREFIX.length());
+		JsonNode request;
+		try {
+			request = mapper.readTree(body.isEmpty() ? "{}" : body);
+		} catch (JsonProcessingException e) {
+			return error("InvalidParameterValue", "Failed to parse request: " + e.getMessage());
+		}
+		ObjectNode response = mapper.createObjectNode();
+		if (action.equals("CreateQueue"))
+			return ok(response.put("QueueUrl", createQueue(request.path("QueueName").asText())));
+		if (action.equals("GetQueueUrl")) {
+			String name = request.path("QueueName").asText();
+			return queues.containsKey(name) ? ok(response.put("QueueUrl", queueUrl(name))) : noSuchQueue(name);
+		}
+		String queueUrl = request.path("QueueUrl").asText();
+		Queue queue = queue(queueUrl);
+		if (Objects.isNull(queue))
+			return noSuchQueue(queueUrl);
+		synchronized (queue) {
+			switch (action) {
+			case "SendMessage":
+				String text = request.path("MessageBody").asText();
+				Message message = new Message(text, request.path("MessageAttributes"),
+						Instant.now().plusSeconds(request.path("DelaySeconds").asLong(0)));
+				queue.messages.add(message);
+				response.put("MessageId", message.id).put("MD5OfMessageBody", message.md5);
+				if (message.attributes.size() > 0)
+					response.put("MD5OfMessageAttributes", attributesMd5(message.attributes));
+				return ok(response);
+			case "ReceiveMessage":
+				return ok(receive(queue, request, response));
+			case "DeleteMessage":
+				if (!queue.messages.removeIf(m -> Objects.equals(m.receiptHandle, request.path("ReceiptHandle").asText())))
+					return error("ReceiptHandleIsInvalid", "The input receipt handle is invalid.");
+				return ok(response);
+			case "ChangeMessageVisibility":
+				for (Message m : queue.messages)
+					if (Objects.equals(m.receiptHandle, request.path("ReceiptHandle").asText())) {
+						m.visibleAt = Instant.now().plusSeconds(request.path("VisibilityTimeout").asLong());
+						return ok(response);
+					}
+				return error("ReceiptHandleIsInvalid", "The input receipt handle is invalid.");
+			case "GetQueueAttributes":
+				Instant now = Instant.now();
+				long visible = queue.messages.stream().filter(m -> !m.visibleAt.isAfter(now)).count();
+				long inFlight = queue.messages.stream().filter(m -> m.visibleAt.isAfter(now) && m.receiveCount > 0).count();
+				response.putObject("Attributes").put("ApproximateNumberOfMessages", String.valueOf(visible))
+						.put("ApproximateNumberOfMessagesNotVisible", String.valueOf(inFlight))
+						.put("ApproximateNumberOfMessagesDelayed", String.valueOf(queue.messages.size() - visible - inFlight));
+				return ok(response);
+			default:
+				return error("InvalidAction", "Unsupported action " + action);
+			}
+		}
+	}
+
+	private ObjectNode receive(Queue queue, JsonNode request, ObjectNode response) {
+		int max = request.path("MaxNumberOfMessages").asInt(1);
+		Duration timeout = request.has("VisibilityTimeout") ? Duration.ofSeconds(request.path("VisibilityTimeout").asLong())
+				: visibilityTimeout;
+		Set<String> names = new HashSet<>();
+		request.path("MessageAttributeNames").forEach(n -> names.add(n.asText()));
+		Instant now = Instant.now();
+		ArrayNode received = mapper.createArrayNode();
+		for (Message m : queue.messages) {
+			if (received.size() >= max)
+				break;
+			if (m.visibleAt.isAfter(now))
+				continue;
+			m.receiptHandle = UUID.randomUUID().toString();
+			m.visibleAt = now.plus(timeout);
+			m.receiveCount++;
+			ObjectNode message = received.addObject().put("MessageId", m.id).put("ReceiptHandle", m.receiptHandle)
+					.put("MD5OfBody", m.md5).put("Body", m.body);
+			message.putObject("Attributes").put("ApproximateReceiveCount", String.valueOf(m.receiveCount));
+			ObjectNode attributes = mapper.createObjectNode();
+			m.attributes.fields().forEachRemaining(a -> {
+				if (names.contains("All") || names.contains(".*") || names.contains(a.getKey()))
+					attributes.set(a.getKey(), a.getValue());
+			});
+			if (attributes.size() > 0)
+				message.put("MD5OfMessageAttributes", attributesMd5(attributes)).set("MessageAttributes", attributes);
+		}
+		if (received.size() > 0)
+			response.set("Messages", received);
+		return response;
+	}
+
+	private String queueUrl(String name) {
+		return endpoint.get() + "/" + ACCOUNT + "/" + name;
+	}
+
+	private Queue queue(String queueUrl) {
+		return queues.get(queueUrl.substring(queueUrl.lastIndexOf('/') + 1));
+	}
+
+	private Response noSuchQueue(String queue) {
+		return error("QueueDoesNotExist", "The specified queue " + queue + " does not exist.");
+	}
+
+	private static Response ok(ObjectNode response) {
+		return new Response(200, "application/x-amz-json-1.0", response.toString());
+	}
+
+	private static Response error(String code, String message) {
+		return new Response(400, "application/x-amz-json-1.0", mapper.createObjectNode()
+				.put("__type", "com.amazonaws.sqs#" + code).put("message", message).toString());
+	}
+
+	/**
+	 * @return the MD5 digest of message attributes, as SQS calculates it - and the SDK verifies it: for each
+	 * attribute in name order, the length-prefixed name, data type and value, with a transport type byte before
+	 * the value
+	 */
+	private static String attributesMd5(JsonNode attributes) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("MD5");
+			List<String> names = new ArrayList<>();
+			attributes.fieldNames().forEachRemaining(names::add);
+			Collections.sort(names);
+			for (String name : names) {
+				JsonNode attribute = attributes.get(name);
+				updateLengthAndBytes(digest, name.getBytes(StandardCharsets.UTF_8));
+				updateLengthAndBytes(digest, attribute.path("DataType").asText().getBytes(StandardCharsets.UTF_8));
+				if (attribute.has("StringValue")) {
+					digest.update((byte) 1);
+					updateLengthAndBytes(digest, attribute.get("StringValue").asText().getBytes(StandardCharsets.UTF_8));
+				} else if (attribute.has("BinaryValue")) {
+					digest.update((byte) 2);
+					updateLengthAndBytes(digest, Base64.getDecoder().decode(attribute.get("BinaryValue").asText()));
+				}
+			}
+			return String.format("%032x", new BigInteger(1, digest.digest()));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void updateLengthAndBytes(MessageDigest digest, byte[] bytes) {
+		digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+		digest.update(bytes);
+	}
+
+	private static String md5(String text) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(text.getBytes(StandardCharsets.UTF_8));
+			return String.format("%032x", new BigInteger(1, digest));
+		} catch (NoSuchAlgorithmException e) { // all Java platforms are required to support MD5
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package tech.greenfield.aws.logging;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.slf4j.event.Level;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class AsyncAppenderTest {
+
+	/**
+	 * Output that takes a while to write, so that the ring buffer fills up
+	 */
+	private static class SlowOutput extends ByteArrayOutputStream {
+		@Override
+		public synchronized void write(byte[] b, int off, int len) {
+			try {
+				Thread.sleep(1);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			super.write(b, off, len);
+		}
+
+		List<String> lines() {
+			return Arrays.asList(new String(toByteArray(), StandardCharsets.UTF_8).split("\n"));
+		}
+	}
+
+	private static LogEvent event(String pattern, Object... arguments) {
+		return new LogEvent(Level.INFO, "test", pattern, arguments, null, Map.of());
+	}
+
+	@Test
+	public void keepsOrderWhenBufferIsFull() {
+		SlowOutput out = new SlowOutput();
+		AsyncAppender appender = new AsyncAppender(out, LogFormat.TEXT, 4);
+		List<String> expected = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			if (i % 2 == 0)
+				appender.append(event("event {}", i));
+			else
+				appender.appendRaw("raw " + i);
+			expected.add(i % 2 == 0 ? "[main] INFO test - event " + i : "raw " + i);
+		}
+		appender.flush();
+		assertEquals(expected, out.lines());
+	}
+
+	@Test
+	public void flushWaitsForPendingOutput() {
+		SlowOutput out = new SlowOutput();
+		AsyncAppender appender = new AsyncAppender(out, LogFormat.TEXT, 4096);
+		for (int i = 0; i < 100; i++)
+			appender.appendRaw("line " + i);
+		appender.flush();
+		assertEquals(100, out.lines().size());
+		assertEquals("line 99", out.lines().get(99));
+	}
+
+	@Test
+	public void dropsAndCountsEventsWhenOutputIsStuck() throws Exception {
+		CountDownLatch stuck = new CountDownLatch(1), release = new CountDownLatch(1);
+		ByteArrayOutputStream written = new ByteArrayOutputStream();
+		AsyncAppender appender = new AsyncAppender(new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				stuck.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				written.write(b, off, len);
+			}
+		}, LogFormat.TEXT, 1);
+		appender.appendRaw("first");
+		assertTrue(stuck.await(1, TimeUnit.SECONDS));
+		appender.appendRaw("second"); // buffered
+		long start = System.currentTimeMillis();
+		appender.appendRaw("third"); // doesn't fit
+		assertTrue("waited for room", System.currentTimeMillis() - start >= 900);
+		release.countDown();
+		appender.flush();
+		appender.appendRaw("fourth");
+		appender.flush();
+		List<String> lines = Arrays.asList(written.toString(StandardCharsets.UTF_8).split("\n"));
+		assertEquals(4, lines.size());
+		assertEquals("first", lines.get(0));
+		assertTrue(lines.get(1), lines.get(1).endsWith("Log buffer full, dropped 1 log events"));
+		assertEquals(List.of("second", "fourth"), lines.subList(2, 4));
+	}
+
+	@Test
+	public void rendersJson() throws Exception {
+		LogEvent event = new LogEvent(Level.WARN, "test.Logger", "Failed {} after {} attempts",
+				new Object[] { "update", 3 }, new IllegalStateException("boom"), Map.of("instanceId", "i-1"));
+		JsonNode json = new ObjectMapper().readTree(LogFormat.JSON.render(event));
+		assertEquals("WARN", json.get("level").asText());
+		assertEquals("test.Logger", json.get("logger").asText());
+		assertEquals("main", json.get("thread").asText());
+		assertEquals("i-1", json.get("instanceId").asText());
+		assertEquals("Failed update after 3 attempts", json.get("message").asText());
+		assertTrue(json.get("exception").asText().startsWith("java.lang.IllegalStateException: boom"));
+		assertEquals(event.timestamp, java.time.Instant.parse(json.get("timestamp").asText()).toEpochMilli());
+		assertFalse(LogFormat.JSON.render(event("plain")).contains("exception"));
+	}
+}
@@ -0,0 +1,44 @@
+package tech.greenfield.aws.logging;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.event.Level;
+import org.slf4j.helpers.NOPLogger;
+
+public class LoggingTest {
+
+	@Test
+	public void addsFieldsToEvents() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		AsyncAppender appender = new AsyncAppender(out, LogFormat.TEXT, 16);
+		Logger log = new AsyncLogger("test", Level.INFO, appender, Collections.emptyMap());
+		Logger withFields = Logging.withFields(Logging.withFields(log, "instanceId", "i-1", "requestId", null),
+				"group", "web");
+		withFields.info("registered {}", "10.0.0.1");
+		log.info("no fields");
+		appender.flush();
+		assertEquals("[main] INFO test - instanceId=i-1 group=web registered 10.0.0.1\n[main] INFO test - no fields\n",
+				out.toString(StandardCharsets.UTF_8));
+		assertSame(NOPLogger.NOP_LOGGER, Logging.withFields(NOPLogger.NOP_LOGGER, "instanceId", "i-1"));
+	}
+
+	@Test
+	public void rendersLazyArgumentsOnlyWhenLogged() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		AsyncAppender appender = new AsyncAppender(out, LogFormat.TEXT, 16);
+		Logger log = new AsyncLogger("test", Level.INFO, appender, Collections.emptyMap());
+		AtomicInteger rendered = new AtomicInteger();
+		log.debug("details: {}", Logging.lazy(() -> "debug " + rendered.incrementAndGet()));
+		log.info("details: {}", Logging.lazy(() -> "info " + rendered.incrementAndGet()));
+		appender.flush();
+		assertEquals(1, rendered.get());
+		assertEquals("[main] INFO test - details: info 1\n", out.toString(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,79 @@
+package tech.greenfield.aws.route53.tools;
+
+import java.lang.management.ManagementFactory;
+import java.util.Objects;
+
+import com.amazonaws.services.lambda.runtime.events.SNSEvent;
+
+import tech.greenfield.aws.Clients;
+import tech.greenfield.aws.fake.FakeAwsServer;
+import tech.greenfield.aws.logging.Logging;
+import tech.greenfield.aws.route53.NotifyRecordsSns;
+import tech.greenfield.aws.route53.Route53UpdateResponse;
+import tech.greenfield.aws.route53.Tools;
+
+/**
+ * Training run for generating an application class data sharing (AppCDS) archive.
+ *
+ * Runs launch and terminate lifecycle notifications through {@link NotifyRecordsSns} against a
+ * {@link FakeAwsServer}, so that all the classes used by a real invocation are loaded, then exits.
+ * Run it from the test jar through {@link TrainingLauncher}, with just the Lambda jar in the class path and
+ * {@code -XX:ArchiveClassesAtExit=<archive>}, to dump the archive. Requires the HOSTED_ZONE_ID environment
+ * variable to be set (to any value).
+ *
+ * Prints the time from JVM start to the end of the first handled event, which is what
+ * {@code StartupBenchmark} (in the {@code benchmarks} module) measures.
+ *
+ * Usage: {@code AppCdsTraining [number-of-instances]}
+ */
+public class AppCdsTraining {
+
+	public static final String FIRST_EVENT_MARKER = "first-event-ms=";
+	private static final String TEMPLATE = "priming/lifecycle-launching.json";
+	private static final String TEMPLATE_INSTANCE = "i-00000000000000000";
+
+	public static void main(String[] args) throws Exception {
+		int instances = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+		useFakeCredentials();
+		String template = Tools.readResource(TEMPLATE);
+		int status = 0;
+		try (FakeAwsServer aws = new FakeAwsServer()) {
+			Clients.setEndpointOverride(aws.endpoint());
+			NotifyRecordsSns handler = new NotifyRecordsSns();
+			for (int i = 0; i < instances; i++) {
+				status |= handle(handler, template, String.format("i-%017d", i + 1), false);
+				if (i == 0)
+					System.out.println(FIRST_EVENT_MARKER + (System.currentTimeMillis() - jvmStart));
+			}
+			for (int i = 0; i < instances; i++)
+				status |= handle(handler, template, String.format("i-%017d", i + 1), true);
+		} finally {
+			Clients.setEndpointOverride(null);
+			Logging.flush();
+		}
+		System.exit(status);
+	}
+
+	private static int handle(NotifyRecordsSns handler, String template, String instanceId, boolean terminate) {
+		String message = template.replace(TEMPLATE_INSTANCE, instanceId);
+		if (terminate)
+			message = message.replace("EC2_INSTANCE_LAUNCHING", "EC2_INSTANCE_TERMINATING");
+		SNSEvent event = new SNSEvent().withRecords(java.util.List.of(
+				new SNSEvent.SNSRecord().withSns(new SNSEvent.SNS().withMessage(message))));
+		Route53UpdateResponse res = handler.handleRequest(event, null);
+		return res.getStatus() ? 0 : 1;
+	}
+
+	/**
+	 * Use fake AWS credentials and region, unless set in the system properties, for running against fake backends
+	 */
+	public static void useFakeCredentials() {
+		if (Objects.isNull(System.getProperty("aws.accessKeyId"))) {
+			System.setProperty("aws.accessKeyId", "AKIDFAKE");
+			System.setProperty("aws.secretAccessKey", "fake");
+		}
+		if (Objects.isNull(System.getProperty("aws.region")))
+			System.setProperty("aws.region", "us-east-1");
+	}
+}